@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,7 +18,6 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
-import org.rosuda.JRI.Rengine;
 
 import ca.ubc.cs.beta.models.fastrf.Regtree;
 
@@ -29,8 +27,9 @@ import edacc.api.costfunctions.CostFunction;
 import edacc.api.costfunctions.PARX;
 import edacc.configurator.aac.SolverConfiguration;
 import edacc.configurator.aac.StatisticFunction;
-import edacc.configurator.aac.util.RInterface;
 import edacc.configurator.math.SamplingSequence;
+import edacc.configurator.math.Seeds;
+import edacc.configurator.models.ParameterConfigurationEncoder;
 import edacc.configurator.models.rf.CensoredRandomForest;
 import edacc.configurator.models.rf.RandomForest;
 import edacc.model.Experiment;
@@ -41,11 +40,6 @@ import edacc.model.Experiment.Cost;
 import edacc.model.SolverConfigurationDAO;
 import edacc.parameterspace.Parameter;
 import edacc.parameterspace.ParameterConfiguration;
-import edacc.parameterspace.domain.CategoricalDomain;
-import edacc.parameterspace.domain.FlagDomain;
-import edacc.parameterspace.domain.IntegerDomain;
-import edacc.parameterspace.domain.OrdinalDomain;
-import edacc.parameterspace.domain.RealDomain;
 import edacc.parameterspace.graph.ParameterGraph;
 
 public class FANOVA {    
@@ -63,14 +57,16 @@ public class FANOVA {
         options.addOption("featurefolder", true, "folder for instance properties (expects to find features.properties)");
         options.addOption("featurecachefolder", true, "folder for cached instance properties");
         options.addOption("seed", true, "random seed");
-        options.addOption("samplingpath", true, "path to quasi-random sequence sampling program (see AAC contrib folder)");
+        options.addOption("samplingpath", true, "path to quasi-random sequence sampling program (see AAC contrib folder), uses the native Sobol sequence if not given");
         options.addOption("ntrees", true, "number of trees in the random forest model");
         options.addOption("calculaterfvi", false, "Whether to calculate the random forest variable importance");
         options.addOption("averageparamperf", true, "Name of the parameter of which to estimate the average performance");
         options.addOption("averageparamsamples", true, "Number of samples for average parameter performance");
-        options.addOption("secondorder", false, "Estimate first and second-order indices instead of first and total indices (Warning: requires a lot of model predictions)");
+        options.addOption("secondorder", false, "Also estimate second-order indices (requires mcsamples * (2 * d + 2) instead of mcsamples * (d + 2) model predictions)");
+        options.addOption("exact", false, "Calculate the main effects (and pairwise interactions with -secondorder) exactly from the trees instead of Monte Carlo estimation");
         options.addOption("savemodel", true, "Save the random forest to the given file");
         options.addOption("loadmodel", true, "Load model from file instead of fitting from data");
+        options.addOption("numthreads", true, "Number of threads used to fit the random forest and to predict the samples");
         
         String hostname = null;
         Integer port = 3306;
@@ -91,8 +87,10 @@ public class FANOVA {
         Integer averageParamSamples = 100;
         Integer nConfigsForAverage = 10000; // TODO
         Boolean secondOrder = false;
+        Boolean exact = false;
         String savemodel = null;
         String loadmodel = null;
+        Integer numThreads = Runtime.getRuntime().availableProcessors();
         
         CommandLineParser parser = new PosixParser();
         try {
@@ -114,8 +112,10 @@ public class FANOVA {
             if (cmd.hasOption("ntrees")) nTrees = Integer.valueOf(cmd.getOptionValue("ntrees"));
             if (cmd.hasOption("savemodel")) savemodel = String.valueOf(cmd.getOptionValue("savemodel"));
             if (cmd.hasOption("loadmodel")) loadmodel = String.valueOf(cmd.getOptionValue("loadmodel"));
+            if (cmd.hasOption("numthreads")) numThreads = Integer.valueOf(cmd.getOptionValue("numthreads"));
             calculateRFVI = cmd.hasOption("calculaterfvi");
             secondOrder = cmd.hasOption("secondorder");
+            exact = cmd.hasOption("exact");
             if (cmd.hasOption("averageparamperf")) averageParamPerf = cmd.getOptionValue("averageparamperf");
             if (cmd.hasOption("averageparamsamples")) averageParamSamples = Integer.valueOf(cmd.getOptionValue("averageparamsamples"));
         } catch (ParseException e) {
@@ -125,12 +125,6 @@ public class FANOVA {
             return;
         }
         
-        Rengine rengine = RInterface.getRengine();
-        if (rengine.eval("library(sensitivity)") == null) {
-            rengine.end();
-            throw new Exception("Did not find R library 'sensitivity' (try running install.packages(\"sensitivity\")).");
-        }
-
         System.out.println("---- EDACC FANOVA-analysis of experiment results ----");
         API api = new APIImpl();
         try {
@@ -179,13 +173,16 @@ public class FANOVA {
         if (loadmodel == null) {
             System.out.println("Learning random forest from data ...");
             model = new RandomForest(api, idExperiment, false, nTrees, rng, CPUlimit, wallLimit, new LinkedList<String>(), featureFolder, featureCacheFolder, false);
+            model.setNumThreads(numThreads);
             model.learnModel(solverConfigs);
             System.out.println("Learning the model took " + (System.currentTimeMillis() - start) / 1000.0f + " seconds");
         } else {
             System.out.println("Loading RF from file");
             model = RandomForest.loadFromFile(new File(loadmodel));
+            model.setNumThreads(numThreads);
             System.out.println("Loaded RF from file");
         }
+        ParameterConfigurationEncoder encoder = model.getParameterEncoder();
         System.out.println("RF model is based on " + model.getConfigurableParameters().size() + " parameters and " + model.getInstanceFeatureNames().size() + " instance features.");
         if (savemodel != null) {
             System.out.println("Saving RF model to file " + savemodel);
@@ -200,8 +197,8 @@ public class FANOVA {
             double[][] sequenceValuesParams = sequenceParam.getSequence(model.getConfigurableParameters().size(), 5 * nConfigsForAverage);
             int sn = 0;
             for (int i = 0; i < nConfigsForAverage; i++) {
-                ParameterConfiguration config = mapRealTupleToParameters(pspace, rng, model.getConfigurableParameters(), sequenceValuesParams[sn++]);// pspace.getRandomConfiguration(rng); // TODO: base on quasi random sequences
-                while (!pspace.validateParameterConfiguration(config)) config = mapRealTupleToParameters(pspace, rng, model.getConfigurableParameters(), sequenceValuesParams[sn++]);
+                ParameterConfiguration config = encoder.decode(pspace, rng, sequenceValuesParams[sn++]);// pspace.getRandomConfiguration(rng); // TODO: base on quasi random sequences
+                while (!pspace.validateParameterConfiguration(config)) config = encoder.decode(pspace, rng, sequenceValuesParams[sn++]);
                 pconfigs.add(config);
             }
 
@@ -244,144 +241,93 @@ public class FANOVA {
             System.out.println("Instance feature " + model.getInstanceFeatureNames().get(j) + " ranges from " + minValue + " to " + maxValue);
         }
         
-        // ===== Start Monte Carlo estimation =====
-        int d = model.getConfigurableParameters().size() + model.getInstanceFeatureNames().size();
-        SamplingSequence sequence = new SamplingSequence(samplingPath);
-        double[][] sequenceValues = sequence.getSequence(d, (2+d)*mcSamples * 2);
-        // Shuffle samples
-        shuffleArray(sequenceValues, rng);
-        
+        final int numParams = encoder.size();
+        final int numFeatures = model.getInstanceFeatureNames().size();
+        int d = numParams + numFeatures;
         System.out.println("Number of model input variables is: " + d);
-        double[] linearizedData = new double[mcSamples * d];
-        int ix = 0;
-        for (int i = 0; i < mcSamples; i++) {
-            for (int j = 0; j < d; j++) {
-                linearizedData[ix++] = sequenceValues[i][j]; 
+        List<String> names = new ArrayList<String>(d);
+        for (Parameter p: model.getConfigurableParameters()) names.add(p.getName());
+        names.addAll(model.getInstanceFeatureNames());
+        
+        if (exact) {
+            // ===== Exact functional ANOVA of the trees =====
+            int[] catDomainSizes = model.rf.getCatDomainSizes();
+            double[][] ranges = new double[d][];
+            for (int i = 0; i < numParams; i++) {
+                if (catDomainSizes[i] == 0) ranges[i] = new double[] { encoder.getLow(i), encoder.getHigh(i) };
             }
-        }
-        rengine.assign("X1", linearizedData);
-        double[] linearizedData2 = new double[mcSamples * d];
-        ix = 0;
-        for (int i = mcSamples; i < 2 * mcSamples; i++) {
-            for (int j = 0; j < d; j++) {
-                linearizedData2[ix++] = sequenceValues[i][j]; 
+            for (int j = 0; j < numFeatures; j++) {
+                ranges[numParams + j] = instanceFeaturesSizes[j];
             }
-        }
-        rengine.assign("X2", linearizedData2);
-        
-        rengine.eval("X1 <- data.frame(matrix(X1, nrow=" + mcSamples + ", ncol=" + d + ", byrow=T))");
-        rengine.eval("X2 <- data.frame(matrix(X2, nrow=" + mcSamples + ", ncol=" + d + ", byrow=T))");
-        rengine.eval("set.seed(1)");
-        System.out.println("Calculating monte-carlo sample positions...");
-        if (secondOrder) {
-            rengine.eval("x <- sobol(X1=X1, X2=X2, nboot=100, order=2)");
-        } else {
-            rengine.eval("x <- sobol2007(X1=X1, X2=X2, nboot=100)");
-        }
-        double[][] MC_X = rengine.eval("as.matrix(x$X)").asDoubleMatrix();
-        double[][] X = new double[MC_X.length][MC_X[0].length];
-        
-        // ===== Predict samples requested for MC estimation =====
-        System.out.println("Predicting " + X.length + " samples");
-        start = System.currentTimeMillis();
-        System.out.println("generating ...");
-        for (int i = 0; i < MC_X.length; i++) {
-            double[] theta = model.paramConfigToTuple(mapRealTupleToParameters(pspace, rng, model.getConfigurableParameters(), MC_X[i]));
-            double[] features = new double[model.getInstanceFeatureNames().size()];
-            for (int j = 0; j < model.getInstanceFeatureNames().size(); j++) {
-                features[j] = MC_X[i][model.getConfigurableParameters().size() + j];
+            System.out.println("Calculating the functional ANOVA of the trees");
+            start = System.currentTimeMillis();
+            TreeFANOVA fanova = new TreeFANOVA(model.rf.rf, catDomainSizes, ranges);
+            fanova.setNumThreads(numThreads);
+            fanova.estimate(secondOrder);
+            System.out.println("Calculation took " + (System.currentTimeMillis() - start) / 1000.0f + " seconds");
+            SobolIndices.Estimate[] main = fanova.getMainEffects();
+            for (int i = 0; i < d; i++) {
+                System.out.println(names.get(i) + ": main effect " + main[i].getValue() + " +- " + main[i].getStandardError());
             }
-            features = mapRealTupleToInstanceFeatures(features, instanceFeaturesSizes);
+            SobolIndices.writeCSV(new File("effects.csv"), names, main, null, fanova.getPairwiseEffects());
+        } else {
+            // ===== Monte Carlo estimation of the Sobol indices =====
+            SobolIndices sobol = new SobolIndices(d, mcSamples, secondOrder);
+            sobol.setNumThreads(numThreads);
+            System.out.println("Predicting " + sobol.getNumEvaluations() + " samples and calculating Sobol indices");
+            start = System.currentTimeMillis();
+            // the blocks of samples are predicted in parallel by the estimator
+            model.setNumThreads(1);
+            final RandomForest forest = model;
+            final ParameterGraph parameterGraph = pspace;
+            final ParameterConfigurationEncoder parameterEncoder = encoder;
+            final double[][] featureRanges = instanceFeaturesSizes;
+            final long blockSeed = rng.nextLong();
+            sobol.estimate(new SobolIndices.Function() {
+                @Override
+                public double[] evaluate(double[][] U, int block) {
+                    // every block gets its own random number generator for the
+                    // parameters that are not set in the decoded configurations
+                    Random blockRng = new Random(Seeds.derive(blockSeed, block));
+                    double[][] X = new double[U.length][numParams + numFeatures];
+                    double[] features = new double[numFeatures];
+                    for (int i = 0; i < U.length; i++) {
+                        parameterEncoder.encode(parameterEncoder.decode(parameterGraph, blockRng, U[i]), X[i], 0);
+                        System.arraycopy(U[i], numParams, features, 0, numFeatures);
+                        System.arraycopy(mapRealTupleToInstanceFeatures(features, featureRanges), 0, X[i], numParams, numFeatures);
+                    }
+                    double[][] preds = forest.predictDirect(X);
+                    double[] y = new double[preds.length];
+                    for (int i = 0; i < preds.length; i++) {
+                        y[i] = preds[i][0];
+                    }
+                    return y;
+                }
+            }, rng);
+            model.setNumThreads(numThreads);
+            System.out.println("Calculation took " + (System.currentTimeMillis() - start) / 1000.0f + " seconds");
             
-            for (int j = 0; j < theta.length; j++) {
-                X[i][j] = theta[j];
-            }
-            for (int j = 0; j < features.length; j++) {
-                X[i][theta.length + j] = features[j];
+            SobolIndices.Estimate[] first = sobol.getFirstOrder();
+            SobolIndices.Estimate[] total = sobol.getTotalOrder();
+            for (int i = 0; i < d; i++) {
+                System.out.println(names.get(i) + ": first-order " + first[i].getValue() + " [" + first[i].getLower() + ", " + first[i].getUpper() + "], total " + total[i].getValue() + " [" + total[i].getLower() + ", " + total[i].getUpper() + "]");
             }
+            sobol.writeCSV(new File("effects.csv"), names);
         }
-
-        System.out.println("predicting ...");
-        double[][] preds = model.predictDirect(X);
-        System.out.println("Predicting " + preds.length + " samples took " + (System.currentTimeMillis() - start) / 1000.0 + " seconds");
         
-        double[] ys = new double[preds.length];
-        for (int i = 0; i < preds.length; i++) {
-            ys[i] = preds[i][0];
-            //System.out.println(ys[i]);
-        }
-        rengine.assign("y", ys);
-        System.out.println("Calculating Sobol indices");
-        start = System.currentTimeMillis();
-        rengine.eval("tell(x, y)");
-        System.out.println("Calculation took " + (System.currentTimeMillis() - start) / 1000.0f + " seconds");
-        
-        // ===== Write R file =====
-        System.out.println("Writing effects.R file ...");
-        FileOutputStream fos = new FileOutputStream("effects.R");
-        OutputStreamWriter out = new OutputStreamWriter(fos, "UTF-8"); 
-        BufferedWriter writer = new BufferedWriter(out);
-        writer.write("library(sensitivity)\n");
+        // ===== Write plot script =====
+        System.out.println("Wrote effects.csv, writing effects.R file ...");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream("effects.R"), "UTF-8"));
         writer.write("library(ggplot2)\n");
-        writer.write("X1 = c(");
-        for (int i = 0; i < linearizedData.length; i++) {
-            writer.write(String.valueOf(linearizedData[i]));
-            if (i < linearizedData.length - 1) writer.write(",");
-        }
-        writer.write(")\n");
-        writer.write("X2 = c(");
-        for (int i = 0; i < linearizedData2.length; i++) {
-            writer.write(String.valueOf(linearizedData2[i]));
-            if (i < linearizedData2.length - 1) writer.write(",");
-        }
-        writer.write(")\n");
-        
-        writer.write("X1 <- data.frame(matrix(X1, nrow=" + mcSamples + ", ncol=" + d + ", byrow=T))\n");
-        writer.write("X2 <- data.frame(matrix(X2, nrow=" + mcSamples + ", ncol=" + d + ", byrow=T))\n");
-        writer.write("colnames(X1) = c(");
-        for (int i = 0; i < model.getConfigurableParameters().size(); i++) {
-            writer.write("\"" + model.getConfigurableParameters().get(i).getName() + "\",");
-        }
-        for (int i = 0; i < model.getInstanceFeatureNames().size(); i++) {
-            writer.write("\"" + model.getInstanceFeatureNames().get(i) + "\"");
-            if (i < model.getInstanceFeatureNames().size() - 1) writer.write(",");
-        }
-        writer.write(")\n");
-        writer.write("colnames(X2) = c(");
-        for (int i = 0; i < model.getConfigurableParameters().size(); i++) {
-            writer.write("\"" + model.getConfigurableParameters().get(i).getName() + "\",");
-        }
-        for (int i = 0; i < model.getInstanceFeatureNames().size(); i++) {
-            writer.write("\"" + model.getInstanceFeatureNames().get(i) + "\"");
-            if (i < model.getInstanceFeatureNames().size() - 1) writer.write(",");
-        }
-        writer.write(")\n");
-        
-        writer.write("y = c(");
-        for (int i = 0; i < ys.length; i++) {
-            writer.write(String.valueOf(ys[i]));
-            if (i < ys.length - 1) writer.write(",");
-        }
-        writer.write(")\n");
-        
-        writer.write("set.seed(1)\n");
-        if (secondOrder) {
-            writer.write("x <- sobol(X1=X1, X2=X2, nboot=100, order=2)\n");
-        } else {
-            writer.write("x <- sobol2007(X1=X1, X2=X2, nboot=100)\n");
-        }
-        writer.write("tell(x, y)\n");
-        
-        if (secondOrder) {
-            writer.write("topTotalEffects = x$S[with(x$S, order(-x$S[,1])),][1:10,]\n");
-        } else {
-            writer.write("topTotalEffects = x$T[with(x$T, order(-x$T[,1])),][1:10,]\n");
-        }
-        writer.write("d = data.frame(Parameter=rownames(topTotalEffects), TotalEffect=topTotalEffects[,1])\n");
-        writer.write("ggplot(d, aes(x=reorder(Parameter, TotalEffect), y=TotalEffect)) + geom_bar(stat=\"identity\") + scale_y_continuous(\"Total effect\") + coord_flip()\n");
+        writer.write("x = read.csv(\"effects.csv\", stringsAsFactors=F)\n");
+        // total effects of the Monte Carlo estimation, main effects of the exact analysis
+        writer.write("effects = x[x$order == \"" + (exact ? "first" : "total") + "\",]\n");
+        writer.write("topEffects = head(effects[order(-effects$estimate),], 10)\n");
+        writer.write("d = data.frame(Parameter=topEffects$variable1, Effect=topEffects$estimate)\n");
+        writer.write("ggplot(d, aes(x=reorder(Parameter, Effect), y=Effect)) + geom_bar(stat=\"identity\") + scale_y_continuous(\"" + (exact ? "Main effect" : "Total effect") + "\") + coord_flip()\n");
         writer.write("ggsave(file=\"FANOVA.pdf\", height=3, width=4.8)\n");
         writer.write("par(mar=c(4,12,1,1))\n");
-        writer.write("barplot(topTotalEffects[,1], names.arg=rownames(topTotalEffects), horiz=T, las=2)\n");
+        writer.write("barplot(topEffects$estimate, names.arg=topEffects$variable1, horiz=T, las=2)\n");
         writer.close();
         
         if (calculateRFVI) {
@@ -396,48 +342,6 @@ public class FANOVA {
                 System.out.println(model.getInstanceFeatureNames().get(i) + ": " + VI[model.getConfigurableParameters().size() + i]);
             }
         }
-                
-        RInterface.shutdown();
-    }
-    
-    /**
-     * Map a real tuple to a parameter configuration. Not the inverse of paramConfigToTuple !!
-     * @param values
-     * @return
-     */
-    private static ParameterConfiguration mapRealTupleToParameters(ParameterGraph pspace, Random rng, List<Parameter> configurableParameters, double[] values) {
-        ParameterConfiguration pc = pspace.getRandomConfiguration(rng);
-        int i = 0;
-        for (Parameter p: configurableParameters) {
-            if (pc.getParameterValue(p) == null) continue;
-            double v = values[i++];
-            if (p.getDomain() instanceof RealDomain) {
-                RealDomain dom = (RealDomain)p.getDomain();
-                pc.setParameterValue(p, dom.getLow() + v * (dom.getHigh() - dom.getLow()));
-            } else if (p.getDomain() instanceof IntegerDomain) {
-                IntegerDomain dom = (IntegerDomain)p.getDomain();
-                pc.setParameterValue(p, Math.round(dom.getLow() + v * (dom.getHigh() - dom.getLow())));
-            } else if (p.getDomain() instanceof CategoricalDomain) {
-                CategoricalDomain dom = (CategoricalDomain)p.getDomain();
-                List<String> categories = new LinkedList<String>(dom.getCategories());
-                Collections.sort(categories);
-                int ix = (int) (v * categories.size());
-                if (ix == categories.size()) ix = 0;
-                pc.setParameterValue(p, categories.get(ix));
-            } else if (p.getDomain() instanceof OrdinalDomain) {
-                OrdinalDomain dom = (OrdinalDomain)p.getDomain();
-                int ix = (int) (v * dom.getOrdered_list().size());
-                if (ix == dom.getOrdered_list().size()) ix = 0;
-                pc.setParameterValue(p, dom.getOrdered_list().get(ix));
-            } else if (p.getDomain() instanceof FlagDomain) {
-                if (v < 0.5) {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.ON);
-                } else {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.OFF);
-                }
-            }
-        }
-        return pc;
     }
     
     /**
@@ -453,13 +357,4 @@ public class FANOVA {
         return features;
     }
     
-    // Fisher–Yates shuffle
-    private static void shuffleArray(double[][] ar, Random rng) {
-        for (int i = ar.length - 1; i >= 0; i--) {
-            int index = rng.nextInt(i + 1);
-            double[] a = ar[index];
-            ar[index] = ar[i];
-            ar[i] = a;
-        }
-    }
 }
@@ -0,0 +1,434 @@
+package edacc.analysis;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edacc.configurator.math.Seeds;
+import edacc.configurator.math.SobolSequence;
+
+/**
+ * Monte Carlo estimation of the Sobol sensitivity indices of a function on the
+ * d-dimensional unit cube.<br/>
+ * The sample design is the one of Saltelli: two matrices A and B of n
+ * quasi-random points (the halves of a scrambled 2d-dimensional Sobol
+ * sequence) and for each variable i the matrix AB_i, which is A with column i
+ * taken from B. If the Sobol sequence does not support 2d dimensions, A and
+ * B are pseudo-random instead, every block of samples with its own generator
+ * seeded by <code>Seeds.derive()</code>. Second-order indices additionally
+ * need the matrices BA_i. So
+ * first- and total-order indices cost n(d + 2) and second-order indices
+ * n(2d + 2) function evaluations.<br/>
+ * The estimators are the ones of Saltelli et al. (2010) for first-order, Jansen
+ * for total-order and Saltelli (2002) for second-order indices. Confidence
+ * intervals are bootstrap percentile intervals over the n samples.<br/>
+ * The design rows are never stored as a whole: blocks of samples are
+ * generated from their position in the sequence, evaluated and reduced to
+ * their function values in parallel. The blocks have a fixed size, so the
+ * blocks and their indices, and with them the results, do not depend on the
+ * number of threads.
+ */
+public class SobolIndices {
+    /** number of samples per block of design rows */
+    private static final int blockSize = 256;
+
+    /**
+     * A function on the unit cube that is evaluated on blocks of points.
+     * Implementations have to be thread-safe.
+     */
+    public interface Function {
+        /**
+         * Evaluates the function on the given points.
+         * @param X the points, one per row
+         * @param block index of the block, e.g. to derive deterministic seeds
+         * @return the function values
+         * @throws Exception
+         */
+        double[] evaluate(double[][] X, int block) throws Exception;
+    }
+
+    /**
+     * An estimate of an index with its bootstrap standard error and
+     * confidence interval.
+     */
+    public static class Estimate {
+        private double value, standardError, lower, upper;
+
+        Estimate() {
+        }
+
+        Estimate(double value, double standardError, double lower, double upper) {
+            this.value = value;
+            this.standardError = standardError;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public double getStandardError() {
+            return standardError;
+        }
+
+        public double getLower() {
+            return lower;
+        }
+
+        public double getUpper() {
+            return upper;
+        }
+    }
+
+    private int d, n;
+    private boolean secondOrder;
+    private int numBootstrap = 100;
+    private double confidenceLevel = 0.95;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** function values of A, B, AB_i and BA_i */
+    private double[] fA, fB;
+    private double[][] fAB, fBA;
+
+    private Estimate[] first, total;
+    private Estimate[][] second;
+
+    /**
+     * @param d number of variables
+     * @param n number of samples (rows of A and B)
+     * @param secondOrder whether to estimate the second-order indices
+     */
+    public SobolIndices(int d, int n, boolean secondOrder) {
+        if (d < 1 || n < 2) throw new IllegalArgumentException("Need at least one variable and two samples.");
+        this.d = d;
+        this.n = n;
+        this.secondOrder = secondOrder;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setNumBootstrap(int numBootstrap) {
+        this.numBootstrap = numBootstrap;
+    }
+
+    public void setConfidenceLevel(double confidenceLevel) {
+        this.confidenceLevel = confidenceLevel;
+    }
+
+    /**
+     * Returns the number of function evaluations that <code>estimate()</code>
+     * needs.
+     * @return
+     */
+    public long getNumEvaluations() {
+        return (long) n * (secondOrder ? 2 * d + 2 : d + 2);
+    }
+
+    /**
+     * Evaluates <code>f</code> on the sample design and estimates the
+     * indices.
+     * @param f the function
+     * @param rng random number generator for the scrambling of the sequence
+     *        (or the seeds of the pseudo-random design) and the bootstrap
+     * @throws Exception if an evaluation fails
+     */
+    public void estimate(final Function f, Random rng) throws Exception {
+        final SobolSequence sequence;
+        final long seed;
+        if (2 * d <= SobolSequence.MAX_DIMENSIONS) {
+            sequence = new SobolSequence(2 * d, rng);
+            seed = 0;
+        } else {
+            sequence = null;
+            seed = rng.nextLong();
+        }
+        fA = new double[n];
+        fB = new double[n];
+        fAB = new double[d][n];
+        fBA = secondOrder ? new double[d][n] : null;
+
+        int numBlocks = (n + blockSize - 1) / blockSize;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numBlocks);
+        for (int b = 0; b < numBlocks; b++) {
+            final int block = b;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int from = block * blockSize, to = Math.min(n, (block + 1) * blockSize);
+                    if (sequence != null) {
+                        evaluateBlock(f, new SobolSequence(sequence), null, block, from, to);
+                    } else {
+                        evaluateBlock(f, null, new Random(Seeds.derive(seed, block)), block, from, to);
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks, numThreads);
+
+        first = new Estimate[d];
+        total = new Estimate[d];
+        second = secondOrder ? new Estimate[d][d] : null;
+        bootstrap(rng);
+    }
+
+    /**
+     * Generates and evaluates the design rows of the samples from (inclusive)
+     * to to (exclusive), sample j is point j of the sequence. Without a
+     * sequence, the points are drawn from <code>random</code>.
+     */
+    private void evaluateBlock(Function f, SobolSequence sequence, Random random, int block, int from, int to) throws Exception {
+        int rowsPerSample = secondOrder ? 2 * d + 2 : d + 2;
+        double[][] X = new double[(to - from) * rowsPerSample][];
+        double[] point = new double[2 * d];
+        if (sequence != null) sequence.skipTo(from);
+        int r = 0;
+        for (int j = from; j < to; j++) {
+            if (sequence != null) {
+                sequence.nextPoint(point, 0);
+            } else {
+                for (int k = 0; k < 2 * d; k++) point[k] = random.nextDouble();
+            }
+            double[] a = Arrays.copyOfRange(point, 0, d);
+            double[] b = Arrays.copyOfRange(point, d, 2 * d);
+            X[r++] = a;
+            X[r++] = b;
+            for (int i = 0; i < d; i++) {
+                double[] ab = a.clone();
+                ab[i] = b[i];
+                X[r++] = ab;
+            }
+            if (secondOrder) {
+                for (int i = 0; i < d; i++) {
+                    double[] ba = b.clone();
+                    ba[i] = a[i];
+                    X[r++] = ba;
+                }
+            }
+        }
+        double[] y = f.evaluate(X, block);
+        r = 0;
+        for (int j = from; j < to; j++) {
+            fA[j] = y[r++];
+            fB[j] = y[r++];
+            for (int i = 0; i < d; i++) fAB[i][j] = y[r++];
+            if (secondOrder) {
+                for (int i = 0; i < d; i++) fBA[i][j] = y[r++];
+            }
+        }
+    }
+
+    /**
+     * Calculates the indices of the samples and of numBootstrap resamples of
+     * them.
+     */
+    private void bootstrap(Random rng) throws Exception {
+        int numIndices = d + d + (secondOrder ? d * d : 0);
+        final double[][] values = new double[numBootstrap + 1][];
+        final int[][] samples = new int[numBootstrap + 1][n];
+        for (int j = 0; j < n; j++) samples[0][j] = j;
+        for (int b = 1; b <= numBootstrap; b++) {
+            for (int j = 0; j < n; j++) samples[b][j] = rng.nextInt(n);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numBootstrap + 1);
+        for (int b = 0; b <= numBootstrap; b++) {
+            final int sample = b;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    values[sample] = indices(samples[sample]);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks, numThreads);
+
+        double[] resampled = new double[numBootstrap];
+        double alpha = (1 - confidenceLevel) / 2;
+        Estimate[] estimates = new Estimate[numIndices];
+        for (int k = 0; k < numIndices; k++) {
+            Estimate e = new Estimate();
+            e.value = values[0][k];
+            if (numBootstrap > 0) {
+                double mean = 0;
+                for (int b = 0; b < numBootstrap; b++) {
+                    resampled[b] = values[b + 1][k];
+                    mean += resampled[b];
+                }
+                mean /= numBootstrap;
+                double ss = 0;
+                for (int b = 0; b < numBootstrap; b++) ss += (resampled[b] - mean) * (resampled[b] - mean);
+                e.standardError = numBootstrap > 1 ? Math.sqrt(ss / (numBootstrap - 1)) : 0;
+                Arrays.sort(resampled);
+                e.lower = quantile(resampled, alpha);
+                e.upper = quantile(resampled, 1 - alpha);
+            } else {
+                e.lower = e.upper = e.value;
+            }
+            estimates[k] = e;
+        }
+        for (int i = 0; i < d; i++) {
+            first[i] = estimates[i];
+            total[i] = estimates[d + i];
+            if (secondOrder) {
+                for (int l = 0; l < d; l++) second[i][l] = estimates[2 * d + i * d + l];
+            }
+        }
+    }
+
+    /** quantile of sorted values with linear interpolation */
+    private static double quantile(double[] sorted, double p) {
+        double pos = p * (sorted.length - 1);
+        int lo = (int) Math.floor(pos);
+        int hi = Math.min(lo + 1, sorted.length - 1);
+        return sorted[lo] + (pos - lo) * (sorted[hi] - sorted[lo]);
+    }
+
+    /**
+     * Calculates all indices from the given (re)sample of the samples:
+     * first-order, total-order and (if needed) second-order indices as d x d
+     * matrix (only i < l is set).
+     */
+    private double[] indices(int[] sample) {
+        double[] res = new double[2 * d + (secondOrder ? d * d : 0)];
+        // variance of the values of A and B
+        double mean = 0;
+        for (int j : sample) mean += fA[j] + fB[j];
+        mean /= 2 * sample.length;
+        double var = 0;
+        for (int j : sample) var += (fA[j] - mean) * (fA[j] - mean) + (fB[j] - mean) * (fB[j] - mean);
+        var /= 2 * sample.length;
+        if (var <= 0) return res;
+
+        for (int i = 0; i < d; i++) {
+            double[] fABi = fAB[i];
+            double s = 0, t = 0;
+            for (int j : sample) {
+                double diff = fABi[j] - fA[j];
+                s += fB[j] * diff;
+                t += diff * diff;
+            }
+            res[i] = s / sample.length / var;
+            res[d + i] = t / (2 * sample.length) / var;
+        }
+        if (secondOrder) {
+            double ab = 0;
+            for (int j : sample) ab += fA[j] * fB[j];
+            for (int i = 0; i < d; i++) {
+                double[] fBAi = fBA[i];
+                for (int l = i + 1; l < d; l++) {
+                    double[] fABl = fAB[l];
+                    double s = 0;
+                    for (int j : sample) s += fBAi[j] * fABl[j];
+                    double closed = (s - ab) / sample.length / var;
+                    res[2 * d + i * d + l] = closed - res[i] - res[l];
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Runs the tasks on up to <code>numThreads</code> threads and rethrows
+     * the first exception of a failed task. Shared with TreeFANOVA.
+     */
+    static void runAll(List<Callable<Void>> tasks, int numThreads) throws Exception {
+        if (numThreads <= 1 || tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) task.call();
+            return;
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+            for (Callable<Void> task : tasks) futures.add(exec.submit(task));
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    public Estimate[] getFirstOrder() {
+        return first;
+    }
+
+    public Estimate[] getTotalOrder() {
+        return total;
+    }
+
+    /**
+     * Returns the second-order indices as d x d matrix, only the entries i < l
+     * are set. Null if second-order indices were not estimated.
+     * @return
+     */
+    public Estimate[][] getSecondOrder() {
+        return second;
+    }
+
+    /**
+     * Writes the indices as CSV file with the columns order, variable1,
+     * variable2, estimate, std_error, ci_low, ci_high.
+     * @param file
+     * @param names names of the variables
+     * @throws IOException
+     */
+    public void writeCSV(File file, List<String> names) throws IOException {
+        writeCSV(file, names, first, total, second);
+    }
+
+    /**
+     * Writes the given indices as CSV file, see <code>writeCSV()</code>.
+     * Indices that are null are left out.
+     */
+    static void writeCSV(File file, List<String> names, Estimate[] first, Estimate[] total, Estimate[][] second) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("order,variable1,variable2,estimate,std_error,ci_low,ci_high\n");
+            int d = names.size();
+            if (first != null) {
+                for (int i = 0; i < d; i++) writeCSVLine(writer, "first", names.get(i), "", first[i]);
+            }
+            if (total != null) {
+                for (int i = 0; i < d; i++) writeCSVLine(writer, "total", names.get(i), "", total[i]);
+            }
+            if (second != null) {
+                for (int i = 0; i < d; i++) {
+                    for (int l = i + 1; l < d; l++) writeCSVLine(writer, "second", names.get(i), names.get(l), second[i][l]);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeCSVLine(BufferedWriter writer, String order, String var1, String var2, Estimate e) throws IOException {
+        writer.write(order + "," + quote(var1) + "," + quote(var2) + "," + e.value + "," + e.standardError + "," + e.lower + "," + e.upper + "\n");
+    }
+
+    private static String quote(String s) {
+        if (s.isEmpty()) return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,469 @@
+package edacc.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import edacc.analysis.SobolIndices.Estimate;
+import edacc.configurator.models.rf.fastrf.RandomForest;
+import edacc.configurator.models.rf.fastrf.Regtree;
+
+/**
+ * Exact functional ANOVA of the predictions of a random forest (Hutter, Hoos
+ * and Leyton-Brown 2014).<br/>
+ * Every tree partitions the input space into axis-aligned leaf boxes with
+ * constant predictions, so the marginal predictions of single variables and
+ * pairs of variables under the uniform distribution over the input domain are
+ * sums over the leaves. For every variable the domain is split at the cut
+ * points of the tree into intervals (continuous variables) or into its values
+ * (categorical variables); each leaf contributes to the cells it covers. The
+ * variance fractions of the main effects and pairwise interactions are
+ * calculated for each tree and averaged over the trees.<br/>
+ * The leaf boxes of each tree are computed once and cached; the trees are
+ * processed in parallel. The domain ignores conditional parameters, i.e. all
+ * parameters are assumed to be active.
+ */
+public class TreeFANOVA {
+    private RandomForest forest;
+    private int d;
+    private int[] catDomainSizes;
+    private double[][] ranges;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** cached leaf boxes of the trees */
+    private Partition[] partitions;
+
+    private Estimate[] mainEffects;
+    private Estimate[][] pairwiseEffects;
+    private double meanVariance;
+
+    /**
+     * The leaf boxes of a tree.
+     */
+    private static class Partition {
+        int numLeaves;
+        double[] pred;
+        /** volume of the leaf box as fraction of the domain */
+        double[] volume;
+        /** fraction of the domain of each variable that the leaf covers */
+        double[][] fraction;
+        /** continuous: range of covered cells, categorical: covered values */
+        int[][] first, last;
+        boolean[][][] allowed;
+        /** per variable: sorted cut points inside the domain */
+        double[][] cuts;
+        boolean[] split;
+    }
+
+    /**
+     * @param forest the random forest
+     * @param catDomainSizes domain size of each categorical variable
+     *        (values 1 through size), 0 for continuous variables
+     * @param ranges lower and upper bound of each continuous variable
+     */
+    public TreeFANOVA(RandomForest forest, int[] catDomainSizes, double[][] ranges) {
+        this.forest = forest;
+        this.d = catDomainSizes.length;
+        this.catDomainSizes = catDomainSizes;
+        this.ranges = ranges;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Calculates the variance fractions of the main effects and, if
+     * <code>pairwise</code> is set, of the pairwise interactions.
+     * @param pairwise
+     * @throws Exception
+     */
+    public void estimate(final boolean pairwise) throws Exception {
+        int numTrees = forest.numTrees;
+        if (partitions == null) partitions = new Partition[numTrees];
+        final double[][] treeMain = new double[numTrees][];
+        final double[][][] treePairwise = new double[numTrees][][];
+        final double[] treeVariance = new double[numTrees];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numTrees);
+        for (int t = 0; t < numTrees; t++) {
+            final int tree = t;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (partitions[tree] == null) partitions[tree] = partition(forest.Trees[tree]);
+                    Partition p = partitions[tree];
+                    treeVariance[tree] = variance(p);
+                    treeMain[tree] = new double[d];
+                    if (treeVariance[tree] <= 0) return null;
+                    double mean = mean(p);
+                    for (int i = 0; i < d; i++) {
+                        if (p.split[i]) treeMain[tree][i] = mainEffect(p, i, mean);
+                    }
+                    if (pairwise) {
+                        treePairwise[tree] = new double[d][d];
+                        for (int i = 0; i < d; i++) {
+                            if (!p.split[i]) continue;
+                            for (int j = i + 1; j < d; j++) {
+                                if (!p.split[j]) continue;
+                                treePairwise[tree][i][j] = pairwiseEffect(p, i, j, mean) - treeMain[tree][i] - treeMain[tree][j];
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        SobolIndices.runAll(tasks, numThreads);
+
+        // fractions of the variance, averaged over the trees with variance
+        List<Integer> used = new ArrayList<Integer>();
+        meanVariance = 0;
+        for (int t = 0; t < numTrees; t++) {
+            meanVariance += treeVariance[t] / numTrees;
+            if (treeVariance[t] > 0) used.add(t);
+        }
+        double[] values = new double[used.size()];
+        mainEffects = new Estimate[d];
+        for (int i = 0; i < d; i++) {
+            for (int k = 0; k < values.length; k++) {
+                int t = used.get(k);
+                values[k] = treeMain[t][i] / treeVariance[t];
+            }
+            mainEffects[i] = estimate(values);
+        }
+        pairwiseEffects = null;
+        if (pairwise) {
+            pairwiseEffects = new Estimate[d][d];
+            for (int i = 0; i < d; i++) {
+                for (int j = i + 1; j < d; j++) {
+                    for (int k = 0; k < values.length; k++) {
+                        int t = used.get(k);
+                        values[k] = treePairwise[t][i][j] / treeVariance[t];
+                    }
+                    pairwiseEffects[i][j] = estimate(values);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mean over the trees with its standard error and the normal 95%
+     * confidence interval.
+     */
+    private static Estimate estimate(double[] values) {
+        int n = values.length;
+        if (n == 0) return new Estimate(0, 0, 0, 0);
+        double mean = 0;
+        for (double v : values) mean += v;
+        mean /= n;
+        double ss = 0;
+        for (double v : values) ss += (v - mean) * (v - mean);
+        double se = n > 1 ? Math.sqrt(ss / (n - 1) / n) : 0;
+        return new Estimate(mean, se, mean - 1.96 * se, mean + 1.96 * se);
+    }
+
+    /**
+     * Returns the fractions of the variance explained by the main effects of
+     * the variables.
+     * @return
+     */
+    public Estimate[] getMainEffects() {
+        return mainEffects;
+    }
+
+    /**
+     * Returns the fractions of the variance explained by the pairwise
+     * interactions as d x d matrix, only the entries i < j are set. Null if
+     * the interactions were not calculated.
+     * @return
+     */
+    public Estimate[][] getPairwiseEffects() {
+        return pairwiseEffects;
+    }
+
+    /**
+     * Returns the variance of the predictions of the trees over the domain,
+     * averaged over the trees.
+     * @return
+     */
+    public double getMeanVariance() {
+        return meanVariance;
+    }
+
+    /**
+     * Computes the leaf boxes of the tree. Leaves with empty intersection with
+     * the domain are left out.
+     */
+    private Partition partition(Regtree tree) {
+        int numNodes = tree.numNodes;
+        // per variable: cut points inside the domain
+        double[][] cuts = new double[d][];
+        int[] numCuts = new int[d];
+        boolean[] split = new boolean[d];
+        for (int n = 0; n < numNodes; n++) {
+            int v = tree.var[n];
+            if (v == 0) continue;
+            int i = Math.abs(v) - 1;
+            split[i] = true;
+            if (v > 0) {
+                if (cuts[i] == null) cuts[i] = new double[4];
+                if (numCuts[i] == cuts[i].length) cuts[i] = Arrays.copyOf(cuts[i], 2 * numCuts[i]);
+                cuts[i][numCuts[i]++] = tree.cut[n];
+            }
+        }
+        for (int i = 0; i < d; i++) {
+            if (catDomainSizes[i] > 0) continue;
+            double[] c = cuts[i] == null ? new double[0] : Arrays.copyOf(cuts[i], numCuts[i]);
+            Arrays.sort(c);
+            int m = 0;
+            for (int k = 0; k < c.length; k++) {
+                if (c[k] > ranges[i][0] && c[k] < ranges[i][1] && (m == 0 || c[k] != c[m - 1])) c[m++] = c[k];
+            }
+            cuts[i] = Arrays.copyOf(c, m);
+        }
+
+        List<double[]> leafLo = new ArrayList<double[]>();
+        List<double[]> leafHi = new ArrayList<double[]>();
+        List<boolean[][]> leafAllowed = new ArrayList<boolean[][]>();
+        List<Double> leafPred = new ArrayList<Double>();
+
+        // depth first traversal with the box of the current node
+        double[] lo = new double[d], hi = new double[d];
+        boolean[][] allowed = new boolean[d][];
+        Arrays.fill(lo, Double.NEGATIVE_INFINITY);
+        Arrays.fill(hi, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < d; i++) {
+            if (catDomainSizes[i] > 0) {
+                allowed[i] = new boolean[catDomainSizes[i]];
+                Arrays.fill(allowed[i], true);
+            }
+        }
+        traverse(tree, 0, lo, hi, allowed, leafLo, leafHi, leafAllowed, leafPred);
+
+        Partition p = new Partition();
+        p.cuts = cuts;
+        p.split = split;
+        int numLeaves = leafPred.size();
+        p.pred = new double[numLeaves];
+        p.volume = new double[numLeaves];
+        p.fraction = new double[numLeaves][];
+        p.first = new int[numLeaves][];
+        p.last = new int[numLeaves][];
+        p.allowed = new boolean[numLeaves][][];
+        int l = 0;
+        for (int k = 0; k < numLeaves; k++) {
+            double[] fraction = new double[d];
+            int[] first = new int[d], last = new int[d];
+            double volume = 1;
+            for (int i = 0; i < d; i++) {
+                if (catDomainSizes[i] > 0) {
+                    int count = 0;
+                    for (boolean a : leafAllowed.get(k)[i]) if (a) count++;
+                    fraction[i] = count / (double) catDomainSizes[i];
+                } else {
+                    double a = ranges[i][0], b = ranges[i][1];
+                    double leafLow = leafLo.get(k)[i], leafHigh = leafHi.get(k)[i];
+                    if (b > a) {
+                        fraction[i] = Math.max(0, Math.min(leafHigh, b) - Math.max(leafLow, a)) / (b - a);
+                    } else {
+                        fraction[i] = leafLow < a && a <= leafHigh ? 1 : 0;
+                    }
+                    first[i] = countAtMost(cuts[i], leafLow);
+                    last[i] = countLess(cuts[i], leafHigh);
+                }
+                volume *= fraction[i];
+            }
+            if (volume <= 0) continue;
+            p.pred[l] = leafPred.get(k);
+            p.volume[l] = volume;
+            p.fraction[l] = fraction;
+            p.first[l] = first;
+            p.last[l] = last;
+            p.allowed[l] = leafAllowed.get(k);
+            l++;
+        }
+        p.numLeaves = l;
+        return p;
+    }
+
+    private void traverse(Regtree tree, int node, double[] lo, double[] hi, boolean[][] allowed, List<double[]> leafLo, List<double[]> leafHi, List<boolean[][]> leafAllowed, List<Double> leafPred) {
+        int v = tree.var[node];
+        if (v == 0) {
+            double pred = tree.nodepred[node];
+            if (forest.logModel > 0) pred = Math.log10(pred);
+            leafLo.add(lo.clone());
+            leafHi.add(hi.clone());
+            boolean[][] a = new boolean[d][];
+            for (int i = 0; i < d; i++) {
+                if (allowed[i] != null) a[i] = allowed[i].clone();
+            }
+            leafAllowed.add(a);
+            leafPred.add(pred);
+            return;
+        }
+        int left = tree.children[node][0], right = tree.children[node][1];
+        if (v > 0) {
+            int i = v - 1;
+            double cut = tree.cut[node];
+            double oldHi = hi[i], oldLo = lo[i];
+            // left: x <= cut, right: x > cut
+            hi[i] = Math.min(oldHi, cut);
+            traverse(tree, left, lo, hi, allowed, leafLo, leafHi, leafAllowed, leafPred);
+            hi[i] = oldHi;
+            lo[i] = Math.max(oldLo, cut);
+            traverse(tree, right, lo, hi, allowed, leafLo, leafHi, leafAllowed, leafPred);
+            lo[i] = oldLo;
+        } else {
+            int i = -v - 1;
+            int[] catsplit = tree.catsplit[(int) tree.cut[node]];
+            boolean[] old = allowed[i];
+            for (int side = 0; side < 2; side++) {
+                boolean[] a = old.clone();
+                for (int x = 0; x < a.length; x++) {
+                    if (x >= catsplit.length || catsplit[x] != side) a[x] = false;
+                }
+                allowed[i] = a;
+                traverse(tree, side == 0 ? left : right, lo, hi, allowed, leafLo, leafHi, leafAllowed, leafPred);
+            }
+            allowed[i] = old;
+        }
+    }
+
+    /** number of values <= x in the sorted array */
+    private static int countAtMost(double[] sorted, double x) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= x) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** number of values < x in the sorted array */
+    private static int countLess(double[] sorted, double x) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < x) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static double mean(Partition p) {
+        double mean = 0;
+        for (int l = 0; l < p.numLeaves; l++) mean += p.volume[l] * p.pred[l];
+        return mean;
+    }
+
+    private static double variance(Partition p) {
+        double mean = mean(p);
+        double var = 0;
+        for (int l = 0; l < p.numLeaves; l++) var += p.volume[l] * (p.pred[l] - mean) * (p.pred[l] - mean);
+        return var;
+    }
+
+    /** number of cells of variable i and their weights (fractions of the domain) */
+    private double[] cellWeights(Partition p, int i) {
+        if (catDomainSizes[i] > 0) {
+            double[] w = new double[catDomainSizes[i]];
+            Arrays.fill(w, 1.0 / catDomainSizes[i]);
+            return w;
+        }
+        double[] cuts = p.cuts[i];
+        double a = ranges[i][0], b = ranges[i][1];
+        double[] w = new double[cuts.length + 1];
+        if (b <= a) {
+            w[0] = 1;
+            return w;
+        }
+        for (int k = 0; k <= cuts.length; k++) {
+            double from = k == 0 ? a : cuts[k - 1];
+            double to = k == cuts.length ? b : cuts[k];
+            w[k] = (to - from) / (b - a);
+        }
+        return w;
+    }
+
+    /**
+     * Variance of the marginal prediction of variable i.
+     */
+    private double mainEffect(Partition p, int i, double mean) {
+        double[] w = cellWeights(p, i);
+        double[] marginal = new double[w.length + 1];
+        boolean categorical = catDomainSizes[i] > 0;
+        for (int l = 0; l < p.numLeaves; l++) {
+            // prediction times the volume of the leaf in the other variables
+            double c = p.pred[l] * p.volume[l] / p.fraction[l][i];
+            if (categorical) {
+                boolean[] a = p.allowed[l][i];
+                for (int x = 0; x < a.length; x++) {
+                    if (a[x]) marginal[x] += c;
+                }
+            } else {
+                marginal[p.first[l][i]] += c;
+                marginal[p.last[l][i] + 1] -= c;
+            }
+        }
+        if (!categorical) {
+            for (int k = 1; k < w.length; k++) marginal[k] += marginal[k - 1];
+        }
+        double var = 0;
+        for (int k = 0; k < w.length; k++) var += w[k] * (marginal[k] - mean) * (marginal[k] - mean);
+        return var;
+    }
+
+    /**
+     * Variance of the marginal prediction of the variables i and j.
+     */
+    private double pairwiseEffect(Partition p, int i, int j, double mean) {
+        double[] wi = cellWeights(p, i), wj = cellWeights(p, j);
+        boolean catI = catDomainSizes[i] > 0, catJ = catDomainSizes[j] > 0;
+        // difference array along the continuous axes
+        double[][] marginal = new double[wi.length + 1][wj.length + 1];
+        for (int l = 0; l < p.numLeaves; l++) {
+            double c = p.pred[l] * p.volume[l] / (p.fraction[l][i] * p.fraction[l][j]);
+            if (catI) {
+                boolean[] a = p.allowed[l][i];
+                for (int x = 0; x < a.length; x++) {
+                    if (a[x]) addRow(marginal[x], p, l, j, catJ, c);
+                }
+            } else {
+                addRow(marginal[p.first[l][i]], p, l, j, catJ, c);
+                addRow(marginal[p.last[l][i] + 1], p, l, j, catJ, -c);
+            }
+        }
+        if (!catI) {
+            for (int x = 1; x < wi.length; x++) {
+                for (int y = 0; y < wj.length; y++) marginal[x][y] += marginal[x - 1][y];
+            }
+        }
+        if (!catJ) {
+            for (int x = 0; x < wi.length; x++) {
+                for (int y = 1; y < wj.length; y++) marginal[x][y] += marginal[x][y - 1];
+            }
+        }
+        double var = 0;
+        for (int x = 0; x < wi.length; x++) {
+            for (int y = 0; y < wj.length; y++) {
+                double diff = marginal[x][y] - mean;
+                var += wi[x] * wj[y] * diff * diff;
+            }
+        }
+        return var;
+    }
+
+    private static void addRow(double[] row, Partition p, int l, int j, boolean categorical, double c) {
+        if (categorical) {
+            boolean[] a = p.allowed[l][j];
+            for (int y = 0; y < a.length; y++) {
+                if (a[y]) row[y] += c;
+            }
+        } else {
+            row[p.first[l][j]] += c;
+            row[p.last[l][j] + 1] -= c;
+        }
+    }
+}
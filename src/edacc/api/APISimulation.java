@@ -6,13 +6,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 
 import edacc.api.costfunctions.CostFunction;
 import edacc.model.ComputationMethodDoesNotExistException;
@@ -35,51 +40,47 @@ import edacc.model.StatusCodeNotInDBException;
 import edacc.parameterspace.ParameterConfiguration;
 import edacc.properties.PropertyTypeNotExistException;
 
-public class APISimulation extends APIImpl {
+public class APISimulation extends APIImpl implements JobChangeFeed {
 
 	private static int sc_idcounter = 1;
+	/**
+	 * A client with exactly one core. Running clients are ordered by the end
+	 * time of their current job, i.e. by their next completion event.
+	 */
 	private class Client implements Comparable<Client> {
-		long idleSince;
 		ExperimentResultWrapper currentJob;
 		long currentJobEndTime;
-		public Client() {
-			idleSince = currentTime; //System.currentTimeMillis();
-		}
 
-		public void startJob(ExperimentResultWrapper ew) {
+		public void startJob(ExperimentResultWrapper ew, long time) {
 			if (currentJob != null) {
 				throw new IllegalArgumentException("Can't start a job, when a job is running");
 			}
 			currentJob = ew;
 			currentJob.status = StatusCode.RUNNING;
-			if (ew.creationTime > idleSince) {
-				idleSince = ew.creationTime;
+			if (modifiedJobIds != null) {
+				modifiedJobIds.add(ew.getId());
 			}
-			currentJob.startTime = idleSince;
+			currentJob.startTime = time;
 			float cpuTime = currentJob.getCPUTimeLimit();
 			if (currentJob.er.getStatus().equals(StatusCode.SUCCESSFUL)) {
 				cpuTime = currentJob.er.getResultTime();
 			}
 			currentJobEndTime = currentJob.startTime + Math.round(cpuTime * 1000);
-			checkJob();
 		}
 
-		public void checkJob() {
-			if (currentJob == null)
-				return;
-			//if (System.currentTimeMillis() >= currentJobEndTime) {
-			if (currentTime >= currentJobEndTime) {
-				currentJob.status = currentJob.er.getStatus();
-				idleSince = currentJobEndTime;
-				currentJob = null;
+		public void finishJob() {
+			currentJob.status = currentJob.er.getStatus();
+			if (modifiedJobIds != null) {
+				modifiedJobIds.add(currentJob.getId());
 			}
+			currentJob = null;
 		}
 
 		@Override
 		public int compareTo(Client other) {
-			if (other.idleSince > idleSince) {
+			if (other.currentJobEndTime > currentJobEndTime) {
 				return -1;
-			} else if (other.idleSince == idleSince) {
+			} else if (other.currentJobEndTime == currentJobEndTime) {
 				return 0;
 			} else {
 				return 1;
@@ -88,7 +89,7 @@ public class APISimulation extends APIImpl {
 
 	}
 
-	private class ExperimentResultWrapper extends ExperimentResult implements Comparable<ExperimentResultWrapper> {
+	private class ExperimentResultWrapper extends ExperimentResult {
 		/**
 		 * 
 		 */
@@ -97,6 +98,8 @@ public class APISimulation extends APIImpl {
 		StatusCode status;
 		ExperimentResult er;
 		int priority;
+		/** position in the waiting job bucket of its priority, -1 if not waiting */
+		int waitingIndex;
 		public ExperimentResultWrapper(ExperimentResult er, int priority) {
 			// we have to fill run, solverconfig id, experiment id, instance id fields for equals method!
 			super(er.getRun(), 0, 0, null, 0, null, 0.f, 0.f, 0.f, er.getSolverConfigId(), er.getExperimentId(), er.getInstanceId(), null, 0, 0, 0, 0);
@@ -105,6 +108,7 @@ public class APISimulation extends APIImpl {
 			this.priority = priority;
 			this.creationTime = currentTime; // System.currentTimeMillis();
 			this.startTime = 0;
+			this.waitingIndex = -1;
 		}
 
 		@Override
@@ -240,16 +244,6 @@ public class APISimulation extends APIImpl {
 			return null;
 		}
 
-		@Override
-		public int compareTo(ExperimentResultWrapper other) {
-			if (creationTime > other.creationTime) {
-				return 1;
-			} else if (creationTime == other.creationTime) {
-				return 0;
-			} else {
-				return -1;
-			}
-		}
 	}
 
 	private class JobIdentifier {
@@ -303,99 +297,107 @@ public class APISimulation extends APIImpl {
 	private long overhead_overall, overhead_launchjob;
 	private Course course;
 	private int coreCount;
-	private List<ExperimentResultWrapper> jobsWaiting;
 	private Random rng;
 	long currentTime;
-	
+
+	// the simulation is a discrete-event simulation: events are job arrivals
+	// (launchJob) and job completions. Events up to currentTime are processed
+	// in time order by checkJobs().
+
 	// every client has exactly one core
-	private List<Client> clients;
+	private LinkedList<Client> idleClients;
+	// completion events
+	private PriorityQueue<Client> runningClients;
+	// jobs launched but not yet visible to the clients, in creation order
+	private LinkedList<ExperimentResultWrapper> jobsArriving;
+	// visible jobs waiting for a client by priority
+	private TreeMap<Integer, ArrayList<ExperimentResultWrapper>> jobsWaiting;
+	private int numJobsWaiting;
+	private long numEvents, numSkippedPolls;
 	private Map<Integer, ExperimentResultWrapper> mapExperimentResults;
 	private Map<Integer, Integer> solverConfigJobCount;
-
-	//int last_running_jobs = 0;
-	//int last_running_jobs_before = 0;
+	// ids of the jobs whose status changed since the last getModifiedJobIds()
+	// call, null (not recorded) until the feed is used
+	private Set<Integer> modifiedJobIds;
+
+	private void addWaitingJob(ExperimentResultWrapper ew) {
+		ArrayList<ExperimentResultWrapper> bucket = jobsWaiting.get(ew.priority);
+		if (bucket == null) {
+			bucket = new ArrayList<ExperimentResultWrapper>();
+			jobsWaiting.put(ew.priority, bucket);
+		}
+		ew.waitingIndex = bucket.size();
+		bucket.add(ew);
+		numJobsWaiting++;
+	}
+
+	private void removeWaitingJob(ExperimentResultWrapper ew) {
+		ArrayList<ExperimentResultWrapper> bucket = jobsWaiting.get(ew.priority);
+		ExperimentResultWrapper last = bucket.remove(bucket.size() - 1);
+		if (last != ew) {
+			bucket.set(ew.waitingIndex, last);
+			last.waitingIndex = ew.waitingIndex;
+		}
+		if (bucket.isEmpty()) {
+			jobsWaiting.remove(ew.priority);
+		}
+		ew.waitingIndex = -1;
+		numJobsWaiting--;
+	}
+
+	/**
+	 * Removes and returns a random job of the highest priority.
+	 * @return
+	 */
+	private ExperimentResultWrapper pollWaitingJob() {
+		ArrayList<ExperimentResultWrapper> bucket = jobsWaiting.lastEntry().getValue();
+		ExperimentResultWrapper ew = bucket.get(rng.nextInt(bucket.size()));
+		removeWaitingJob(ew);
+		return ew;
+	}
+
+	/**
+	 * Processes all events up to <code>currentTime</code>. After all events of
+	 * the same time are processed, the idle clients start the waiting jobs
+	 * with the highest priority.
+	 */
 	private void checkJobs() {
-	//	int cur_running_jobs = 0;
-	//	int cur_running_jobs_before = 0;
-		
-		// first check current running jobs
-		for (Client c : clients) {
-	//		if (c.currentJob != null)
-	//			cur_running_jobs_before++;
-			c.checkJob();
-	//		if (c.currentJob != null) 
-	//			cur_running_jobs++;
-		}
-	/*	if (last_running_jobs != cur_running_jobs || last_running_jobs_before != cur_running_jobs) {
-			System.out.println("[APISimulation] Finished " + (cur_running_jobs_before - cur_running_jobs) + " jobs. There are currently " + cur_running_jobs + " running.");
-			last_running_jobs = cur_running_jobs;
-			last_running_jobs_before = cur_running_jobs_before;
-		}*/
-		if (!jobsWaiting.isEmpty()) {
-			// sort client list by idleSince
-			Collections.sort(clients);
-			// sort jobs by creation time
-			Collections.sort(jobsWaiting);
-			
-			int job_index = 0;
-			List<ExperimentResultWrapper> jobs = new LinkedList<ExperimentResultWrapper>();
-			List<ExperimentResultWrapper> jobs_given = new LinkedList<ExperimentResultWrapper>();
-			for (int client_index = 0; client_index < clients.size(); client_index++) {
-				Client c = clients.get(client_index);
-				if (c.currentJob == null) {
-					// client is currently not calculating a job
-					// add jobs which are visible to this client
-					while (job_index < jobsWaiting.size() && jobsWaiting.get(job_index).creationTime <= c.idleSince) {
-						jobs.add(jobsWaiting.get(job_index++));
-					}
-					if (jobs.isEmpty()) {
-						// we have to add jobs if there are jobs
-						if (job_index >= jobsWaiting.size()) {
-							// no more jobs
-							break;
-						} else {
-							jobs.add(jobsWaiting.get(job_index++));
-							while (job_index < jobsWaiting.size() && jobsWaiting.get(job_index).creationTime == jobs.get(jobs.size()-1).creationTime) {
-								jobs.add(jobsWaiting.get(job_index++));
-							}
-						}
-					}
-					// TODO: efficiency
-					List<ExperimentResultWrapper> highPrioJobs = new LinkedList<ExperimentResultWrapper>();
-					int current_prio = -1;
-					for (ExperimentResultWrapper ew : jobs) {
-						if (ew.getPriority() > current_prio) {
-							highPrioJobs.clear();
-							current_prio = ew.getPriority();
-						}
-						if (ew.getPriority() == current_prio)
-							highPrioJobs.add(ew);
-					}
-					ExperimentResultWrapper job = highPrioJobs.get(rng.nextInt(highPrioJobs.size()));
-					jobs_given.add(job);
-					// TODO: efficiency
-					jobs.remove(job);
-					
-					c.startJob(job);
-					if (c.currentJob == null) {
-						// job calculated in time diff: currentTime - c.idleSince 
-						for (int tmp = client_index+1; tmp < clients.size(); tmp++) {
-							Client tmpClient = clients.get(tmp);
-							if (tmpClient.idleSince > c.idleSince) {
-								clients.add(tmp, c);
-								clients.remove(client_index);
-								break;
-							}
-						}
-						client_index--;
-					}
-				}
+		while (true) {
+			long time = getNextEventTime();
+			if (time > currentTime) {
+				break;
+			}
+			while (!runningClients.isEmpty() && runningClients.peek().currentJobEndTime == time) {
+				Client c = runningClients.poll();
+				c.finishJob();
+				idleClients.add(c);
+			}
+			while (!jobsArriving.isEmpty() && jobsArriving.getFirst().creationTime == time) {
+				addWaitingJob(jobsArriving.removeFirst());
 			}
-			for (ExperimentResultWrapper ew : jobs_given) {
-				// TODO: efficiency
-				jobsWaiting.remove(ew);
+			while (numJobsWaiting > 0 && !idleClients.isEmpty()) {
+				Client c = idleClients.removeFirst();
+				c.startJob(pollWaitingJob(), time);
+				runningClients.add(c);
 			}
+			numEvents++;
+		}
+	}
+
+	/**
+	 * Returns the time of the next unprocessed event or
+	 * <code>Long.MAX_VALUE</code> if there is none.
+	 * @return
+	 */
+	private long getNextEventTime() {
+		long time = Long.MAX_VALUE;
+		if (!runningClients.isEmpty()) {
+			time = runningClients.peek().currentJobEndTime;
+		}
+		if (!jobsArriving.isEmpty() && jobsArriving.getFirst().creationTime < time) {
+			time = jobsArriving.getFirst().creationTime;
 		}
+		return time;
 	}
 
 	@Override
@@ -447,7 +449,7 @@ public class APISimulation extends APIImpl {
 		}
 		ExperimentResultWrapper ew = new ExperimentResultWrapper(er, priority);
 		mapExperimentResults.put(ew.getId(), ew);
-		jobsWaiting.add(ew);
+		jobsArriving.add(ew);
 		Integer jobCount = solverConfigJobCount.get(idSolverConfig);
 		if (jobCount == null) {
 			jobCount = 0;
@@ -549,6 +551,23 @@ public class APISimulation extends APIImpl {
 		return res;
 	}
 
+	@Override
+	public synchronized List<Integer> getModifiedJobIds(int idExperiment) throws Exception {
+		long time = System.currentTimeMillis();
+		checkJobs();
+		List<Integer> res;
+		if (modifiedJobIds == null) {
+			// the first call, the caller has to fetch all jobs
+			modifiedJobIds = new LinkedHashSet<Integer>();
+			res = null;
+		} else {
+			res = new LinkedList<Integer>(modifiedJobIds);
+			modifiedJobIds.clear();
+		}
+		overhead_overall += System.currentTimeMillis() - time;
+		return res;
+	}
+
 	@Override
 	public synchronized List<Instance> getExperimentInstances(int idExperiment) throws Exception {
 		throw new IllegalArgumentException("Not implemented.");
@@ -583,11 +602,7 @@ public class APISimulation extends APIImpl {
 	public int getComputationJobCount(int idExperiment) throws Exception {
 		long time = System.currentTimeMillis();
 		checkJobs();
-		int res = jobsWaiting.size();
-		for (Client c : clients) {
-			if (c.currentJob != null)
-				res++;
-		}
+		int res = numJobsWaiting + jobsArriving.size() + runningClients.size();
 		overhead_overall += System.currentTimeMillis() - time;
 		return res;
 	}
@@ -596,7 +611,14 @@ public class APISimulation extends APIImpl {
 	public void setJobPriority(int idJob, int priority) throws Exception {
 		long time = System.currentTimeMillis();
 		checkJobs();
-		mapExperimentResults.get(idJob).priority = priority;
+		ExperimentResultWrapper ew = mapExperimentResults.get(idJob);
+		if (ew.waitingIndex != -1) {
+			removeWaitingJob(ew);
+			ew.priority = priority;
+			addWaitingJob(ew);
+		} else {
+			ew.priority = priority;
+		}
 		overhead_overall += System.currentTimeMillis() - time;
 	}
 
@@ -643,27 +665,70 @@ public class APISimulation extends APIImpl {
 		}
 		this.coreCount = coreCount;
 		this.rng = rng;
-		jobsWaiting = new LinkedList<ExperimentResultWrapper>();
-		clients = new LinkedList<Client>();
+		idleClients = new LinkedList<Client>();
+		runningClients = new PriorityQueue<Client>();
+		jobsArriving = new LinkedList<ExperimentResultWrapper>();
+		jobsWaiting = new TreeMap<Integer, ArrayList<ExperimentResultWrapper>>();
+		numJobsWaiting = 0;
 		mapExperimentResults = new HashMap<Integer, ExperimentResultWrapper>();
 		solverConfigJobCount = new HashMap<Integer, Integer>();
+		modifiedJobIds = null;
 		System.out.println("[APISimulation] Generating " + coreCount + " clients. One core each.");
 		for (int i = 0; i < coreCount; i++) {
-			clients.add(new Client());
+			idleClients.add(new Client());
 		}
 		overhead_overall = 0;
 		overhead_launchjob = 0;
 		currentTime = 0;
+		numEvents = 0;
+		numSkippedPolls = 0;
 	}
 	
-	public void incrementTime(long time) {
+	public synchronized void incrementTime(long time) {
 		currentTime += time;
 	}
+
+	/**
+	 * Advances the simulated time by <code>interval</code> or, if the next
+	 * event happens later, by the smallest multiple of <code>interval</code>
+	 * that reaches the next event. Nothing changes between two events, so the
+	 * skipped polls would have observed exactly the same state.
+	 * @param interval the polling interval in ms
+	 */
+	public synchronized void incrementTimeToNextEvent(long interval) {
+		incrementTimeToNextEvent(interval, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Like <code>incrementTimeToNextEvent(interval)</code>, but advances the
+	 * simulated time by at most the smallest multiple of <code>interval</code>
+	 * that reaches <code>maxJump</code>, i.e. the remaining tuning time
+	 * budget, so the configurator polls again when the budget may be used up.
+	 * The time is advanced by at least one interval.
+	 * @param interval the polling interval in ms
+	 * @param maxJump the remaining time budget in ms
+	 */
+	public synchronized void incrementTimeToNextEvent(long interval, long maxJump) {
+		checkJobs();
+		long steps = 1;
+		long next = getNextEventTime();
+		if (interval > 0 && next != Long.MAX_VALUE && next - currentTime > interval) {
+			steps = (next - currentTime + interval - 1) / interval;
+		}
+		if (interval > 0 && maxJump > interval) {
+			steps = Math.min(steps, (maxJump + interval - 1) / interval);
+		} else {
+			steps = 1;
+		}
+		numSkippedPolls += steps - 1;
+		currentTime += steps * interval;
+	}
 	
 	public void printStats() {
 		Formatter f = new Formatter();
 		System.out.println("[APISimulation] Overhead time: " + overhead_overall);
 		System.out.println("[APISimulation] Overhead launch job: " + overhead_launchjob);
+		System.out.println("[APISimulation] Events: " + numEvents + ", skipped polls: " + numSkippedPolls);
 		System.out.println("[APISimulation] Real wall time: " + f.format("%.3f sec", currentTime / 1000.f));
 	}
 }
@@ -0,0 +1,53 @@
+package edacc.api;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.List;
+
+import edacc.model.DatabaseConnector;
+import edacc.model.ExperimentResultDAO;
+
+/**
+ * Job change feed based on the <code>date_modified</code> column of the
+ * ExperimentResults table.<br/>
+ * The feed remembers the highest modification timestamp it has seen so far and
+ * only returns the jobs modified since then. Timestamps have a resolution of
+ * one second and rows might be committed after their timestamp was set, so the
+ * queried window overlaps the last one by <code>OVERLAP</code> ms. Jobs in the
+ * overlap are returned twice which is harmless for the caller.
+ */
+public class DatabaseJobChangeFeed implements JobChangeFeed {
+	private static final long OVERLAP = 2000;
+
+	private Timestamp lastModified;
+
+	public DatabaseJobChangeFeed() {
+		lastModified = null;
+	}
+
+	@Override
+	public synchronized List<Integer> getModifiedJobIds(int idExperiment) throws Exception {
+		if (lastModified == null) {
+			// first call: everything has to be fetched by the caller
+			lastModified = ExperimentResultDAO.getCurrentTimestamp();
+			return null;
+		}
+		List<Integer> res = new LinkedList<Integer>();
+		PreparedStatement ps = DatabaseConnector.getInstance().getConn().prepareStatement("SELECT idJob, date_modified FROM ExperimentResults WHERE Experiment_idExperiment = ? AND date_modified >= ?");
+		ps.setInt(1, idExperiment);
+		ps.setTimestamp(2, new Timestamp(lastModified.getTime() - OVERLAP));
+		ResultSet rs = ps.executeQuery();
+		while (rs.next()) {
+			res.add(rs.getInt(1));
+			Timestamp modified = rs.getTimestamp(2);
+			if (modified != null && modified.after(lastModified)) {
+				lastModified = modified;
+			}
+		}
+		rs.close();
+		ps.close();
+		return res;
+	}
+}
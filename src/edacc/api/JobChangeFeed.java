@@ -0,0 +1,24 @@
+package edacc.api;
+
+import java.util.List;
+
+/**
+ * A feed of job modifications. Instead of fetching all unfinished jobs on every
+ * poll, a job change feed can be asked which jobs have been modified since the
+ * last call.
+ */
+public interface JobChangeFeed {
+	/**
+	 * Returns the ids of the jobs of the experiment that were modified since the
+	 * last call of this method. The returned list may contain jobs that were not
+	 * modified, but it never misses a modified job.<br/>
+	 * If the feed can't tell which jobs were modified (e.g. on the first call),
+	 * <code>null</code> is returned and the caller has to fetch all jobs it is
+	 * interested in.
+	 * 
+	 * @param idExperiment the id of the experiment
+	 * @return list of job ids or <code>null</code>
+	 * @throws Exception on db errors
+	 */
+	public List<Integer> getModifiedJobIds(int idExperiment) throws Exception;
+}
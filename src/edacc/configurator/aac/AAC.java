@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import java.util.Random;
@@ -28,6 +29,8 @@ import java.util.Scanner;
 import edacc.api.API;
 import edacc.api.APIImpl;
 import edacc.api.APISimulation;
+import edacc.api.DatabaseJobChangeFeed;
+import edacc.api.JobChangeFeed;
 import edacc.api.costfunctions.CostFunction;
 import edacc.configurator.aac.racing.RacingMethods;
 import edacc.configurator.aac.search.SearchMethods;
@@ -103,6 +106,12 @@ public class AAC {
 	 */
 	private HashMap<Integer, SolverConfiguration> listNewSC;
 
+	/**
+	 * Fetches the job status of all solver configurations in listNewSC with
+	 * bulk queries.
+	 */
+	private JobStatusSync jobStatusSync;
+
 	/**
 	 * The CPUTimeLimits for the instances.
 	 */
@@ -161,6 +170,17 @@ public class AAC {
 		rngSearch = new edacc.util.MersenneTwister(params.searchSeed);
 		rngRacing = new edacc.util.MersenneTwister(params.racingSeed);
 		listNewSC = new HashMap<Integer, SolverConfiguration>();
+		if (params.jobStatusFeed) {
+			JobChangeFeed feed;
+			if (api instanceof JobChangeFeed) {
+				feed = (JobChangeFeed) api;
+			} else {
+				feed = new DatabaseJobChangeFeed();
+			}
+			jobStatusSync = new JobStatusSync(api, params.jobStatusChunkSize, feed, params.idExperiment, params.jobStatusFullSyncInterval);
+		} else {
+			jobStatusSync = new JobStatusSync(api, params.jobStatusChunkSize);
+		}
 		this.statNumSolverConfigs = 0;
 		this.statNumJobs = 0;
 		cumulatedCPUTimeRestartedJobs = 0.f;
@@ -497,6 +517,7 @@ public class AAC {
 							// apiER is more up2date.
 							// should be done by api?:
 							api.updateCPUTimeLimit(apiER.getId(), apiER.getCPUTimeLimit(), apiER.getStatus(), apiER.getResultCode());
+							sc.jobModified(er);
 						}
 					}
 				}
@@ -708,7 +729,12 @@ public class AAC {
 			if (!generatedSCs) {
 				int sleepTime = parameters.pollingInterval;
 				if (api instanceof APISimulation) {
-					((APISimulation) api).incrementTime(sleepTime);
+					// do not skip past the point where the time budget may be used up
+					long remaining = Long.MAX_VALUE;
+					if (parameters.getMaxTuningTime() >= 0) {
+						remaining = (long) Math.ceil(Math.max(0, parameters.getMaxTuningTime() - cumulatedCPUTime) * 1000);
+					}
+					((APISimulation) api).incrementTimeToNextEvent(sleepTime, remaining);
 				} else {
 					Thread.sleep(sleepTime);
 				}
@@ -720,8 +746,12 @@ public class AAC {
 			}
 			List<ExperimentResult> finishedJobs = new LinkedList<ExperimentResult>();
 			List<SolverConfiguration> finishedSCs = new LinkedList<SolverConfiguration>();
+			Map<Integer, List<ExperimentResult>> scsFinishedJobs = jobStatusSync.sync(listNewSC.values());
+			if (parameters.logJobStatusPolls) {
+				log("c Job status poll: " + jobStatusSync.getLastPollTime() + "ms, " + jobStatusSync.getLastNumRows() + " rows, " + jobStatusSync.getLastNumQueries() + " queries" + (jobStatusSync.isLastFullSync() ? " (full)" : "") + " for " + listNewSC.size() + " solver configurations");
+			}
 			for (SolverConfiguration sc : listNewSC.values()) {
-				List<ExperimentResult> scFinishedJobs = sc.updateJobsStatus(api);
+				List<ExperimentResult> scFinishedJobs = scsFinishedJobs.get(sc.getIdSolverConfiguration());
 				
 				if (!scFinishedJobs.isEmpty()) {
 					sc.nameUpdated = true;
@@ -850,6 +880,7 @@ public class AAC {
 		log("c Jobs generated: " + statNumJobs);
 		log("c Number of comparision performed with the racing method: " + racing.getNumCompCalls());
 		log("c Total runtime of the execution system (CPU time): " + cumulatedCPUTime);
+		log("c Job status polling: " + jobStatusSync.getStatistics());
         try {
             java.lang.management.OperatingSystemMXBean o = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
             if (o instanceof com.sun.management.OperatingSystemMXBean) {
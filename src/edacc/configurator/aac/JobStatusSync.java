@@ -0,0 +1,226 @@
+package edacc.configurator.aac;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edacc.api.API;
+import edacc.api.JobChangeFeed;
+import edacc.model.ExperimentResult;
+
+/**
+ * Synchronizes the job status of many solver configurations at once.<br/>
+ * The ids of the unfinished jobs of all given solver configurations are
+ * collected and fetched with as few <code>api.getJobsByIDs()</code> calls as
+ * possible (at most <code>chunkSize</code> ids per call). The results are then
+ * passed back to the owning solver configurations.<br/>
+ * If a job change feed is given, only the unfinished jobs that the feed
+ * reports as modified are fetched and applied as a delta. Every
+ * <code>fullSyncInterval</code> polls all unfinished jobs are fetched again.
+ * The feed only knows the jobs modified since the last poll, so all
+ * unfinished jobs of solver configurations that were not synced by the last
+ * poll are fetched, too.
+ */
+public class JobStatusSync {
+	private API api;
+	private int chunkSize;
+	private JobChangeFeed feed;
+	private int idExperiment;
+	private int fullSyncInterval;
+	private int pollsSinceFullSync;
+	// ids of the solver configurations synced by the last poll
+	private Set<Integer> lastSynced = new HashSet<Integer>();
+
+	// statistics of the last sync
+	private long lastPollTime;
+	private int lastNumRows;
+	private int lastNumQueries;
+	private boolean lastFullSync;
+
+	// cumulated statistics
+	private long totalPollTime;
+	private long totalNumRows;
+	private long totalNumQueries;
+	private int numPolls;
+
+	/**
+	 * Creates a new job status sync.
+	 *
+	 * @param api the api to fetch the jobs from
+	 * @param chunkSize maximum number of job ids per query, values < 1 disable
+	 *        chunking
+	 */
+	public JobStatusSync(API api, int chunkSize) {
+		this(api, chunkSize, null, 0, 0);
+	}
+
+	/**
+	 * Creates a new job status sync which uses <code>feed</code> to determine
+	 * the jobs that have to be fetched.
+	 * 
+	 * @param api the api to fetch the jobs from
+	 * @param chunkSize maximum number of job ids per query, values < 1 disable
+	 *        chunking
+	 * @param feed the job change feed, <code>null</code> to always fetch all
+	 *        unfinished jobs
+	 * @param idExperiment the id of the experiment the jobs belong to
+	 * @param fullSyncInterval number of polls after which all unfinished jobs
+	 *        are fetched again, values < 1 only do this if the feed requests it
+	 */
+	public JobStatusSync(API api, int chunkSize, JobChangeFeed feed, int idExperiment, int fullSyncInterval) {
+		this.api = api;
+		this.chunkSize = chunkSize;
+		this.feed = feed;
+		this.idExperiment = idExperiment;
+		this.fullSyncInterval = fullSyncInterval;
+		this.pollsSinceFullSync = 0;
+	}
+
+	/**
+	 * Updates the job status of all solver configurations in <code>scs</code>.
+	 *
+	 * @param scs the solver configurations to update
+	 * @return map from solver configuration id to the jobs of this solver
+	 *         configuration that finished since the last update
+	 * @throws Exception on db errors
+	 */
+	public Map<Integer, List<ExperimentResult>> sync(Collection<SolverConfiguration> scs) throws Exception {
+		long time = System.currentTimeMillis();
+		Set<Integer> modified = null;
+		if (feed != null) {
+			// always query the feed to keep its position up to date
+			List<Integer> modifiedIds = feed.getModifiedJobIds(idExperiment);
+			if (modifiedIds != null && (fullSyncInterval < 1 || pollsSinceFullSync < fullSyncInterval)) {
+				modified = new HashSet<Integer>(modifiedIds);
+			}
+		}
+		boolean complete = (modified == null);
+
+		List<Integer> ids = new LinkedList<Integer>();
+		Set<Integer> synced = new HashSet<Integer>();
+		Set<Integer> completeScs = new HashSet<Integer>();
+		List<Integer> scIds = new LinkedList<Integer>();
+		for (SolverConfiguration sc : scs) {
+			int id = sc.getIdSolverConfiguration();
+			synced.add(id);
+			if (complete || !lastSynced.contains(id)) {
+				// modifications before the last poll are not in the feed
+				sc.collectUnfinishedJobIds(ids);
+				completeScs.add(id);
+			} else {
+				sc.collectUnfinishedJobIds(scIds);
+				scIds.retainAll(modified);
+				ids.addAll(scIds);
+				scIds.clear();
+			}
+		}
+		lastSynced = synced;
+
+		Map<Integer, ExperimentResult> results = new HashMap<Integer, ExperimentResult>();
+		int queries = 0;
+		if (!ids.isEmpty()) {
+			if (chunkSize < 1 || ids.size() <= chunkSize) {
+				results.putAll(api.getJobsByIDs(ids));
+				queries++;
+			} else {
+				List<Integer> chunk = new LinkedList<Integer>();
+				for (Integer id : ids) {
+					chunk.add(id);
+					if (chunk.size() == chunkSize) {
+						results.putAll(api.getJobsByIDs(chunk));
+						queries++;
+						chunk = new LinkedList<Integer>();
+					}
+				}
+				if (!chunk.isEmpty()) {
+					results.putAll(api.getJobsByIDs(chunk));
+					queries++;
+				}
+			}
+		}
+
+		Map<Integer, List<ExperimentResult>> res = new HashMap<Integer, List<ExperimentResult>>();
+		for (SolverConfiguration sc : scs) {
+			int id = sc.getIdSolverConfiguration();
+			res.put(id, sc.applyJobsStatus(results, completeScs.contains(id)));
+		}
+		if (complete) {
+			pollsSinceFullSync = 0;
+		} else {
+			pollsSinceFullSync++;
+		}
+
+		lastPollTime = System.currentTimeMillis() - time;
+		lastNumRows = results.size();
+		lastNumQueries = queries;
+		lastFullSync = complete;
+		totalPollTime += lastPollTime;
+		totalNumRows += lastNumRows;
+		totalNumQueries += lastNumQueries;
+		numPolls++;
+		return res;
+	}
+
+	/**
+	 * Returns the wall time in ms needed by the last <code>sync()</code> call.
+	 * @return
+	 */
+	public long getLastPollTime() {
+		return lastPollTime;
+	}
+
+	/**
+	 * Returns the number of job rows fetched by the last <code>sync()</code>
+	 * call.
+	 * @return
+	 */
+	public int getLastNumRows() {
+		return lastNumRows;
+	}
+
+	/**
+	 * Returns the number of queries issued by the last <code>sync()</code>
+	 * call.
+	 * @return
+	 */
+	public int getLastNumQueries() {
+		return lastNumQueries;
+	}
+
+	/**
+	 * Returns whether the last <code>sync()</code> call fetched all unfinished
+	 * jobs.
+	 * @return
+	 */
+	public boolean isLastFullSync() {
+		return lastFullSync;
+	}
+
+	public long getTotalPollTime() {
+		return totalPollTime;
+	}
+
+	public long getTotalNumRows() {
+		return totalNumRows;
+	}
+
+	public long getTotalNumQueries() {
+		return totalNumQueries;
+	}
+
+	public int getNumPolls() {
+		return numPolls;
+	}
+
+	/**
+	 * Returns a one line summary of the last poll and the cumulated statistics.
+	 * @return
+	 */
+	public String getStatistics() {
+		return "Last poll: " + lastPollTime + "ms, " + lastNumRows + " rows, " + lastNumQueries + " queries" + (lastFullSync ? " (full)" : "") + "; total: " + numPolls + " polls, " + totalPollTime + "ms, " + totalNumRows + " rows, " + totalNumQueries + " queries";
+	}
+}
@@ -0,0 +1,418 @@
+package edacc.configurator.aac;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import edacc.api.costfunctions.Average;
+import edacc.api.costfunctions.CostFunction;
+import edacc.api.costfunctions.PARX;
+import edacc.model.ExperimentResult;
+import edacc.model.StatusCode;
+
+/**
+ * The job store of a solver configuration.<br/>
+ * Jobs are indexed by job id and by instance-seed-pair and partitioned by their
+ * status (not started, running, finished). The cost aggregates (sum, count and
+ * number of penalized jobs over the jobs that are considered by the cost
+ * function) are updated incrementally whenever a job is added or its status
+ * changes. Subtracting costs would accumulate rounding errors, so the cost sum
+ * is recalculated after a counted job was removed or modified. Cost functions
+ * that can't be computed from these aggregates are computed over all jobs and
+ * cached until the store changes.
+ */
+class JobStore {
+	private static final int NOT_STARTED = 0;
+	private static final int RUNNING = 1;
+	private static final int FINISHED = 2;
+
+	private class Entry {
+		ExperimentResult job;
+		int state;
+		/** whether the job is taken into account by the cost aggregates */
+		boolean counted;
+		double cost;
+		boolean penalized;
+		boolean successful;
+		float runtime;
+		/** position in the finished log or -1 if not finished */
+		int finishedSeq;
+	}
+
+	private CostFunction func;
+	private boolean additive;
+
+	/** all jobs by job id in the order they were added */
+	private LinkedHashMap<Integer, Entry> entries;
+	private HashMap<InstanceIdSeed, Entry> entriesByInstanceIdSeed;
+	private LinkedHashMap<Integer, ExperimentResult> notStarted, running, finished;
+
+	/**
+	 * Jobs in the order they finished. Finished jobs that are removed or
+	 * modified increase <code>finishedModCount</code>, their old log entries
+	 * remain in the log until they outnumber the finished jobs. Then the log
+	 * is compacted, which changes the positions, but readers of the log start
+	 * from scratch anyway after the mod count changed.
+	 */
+	private ArrayList<ExperimentResult> finishedLog;
+	private int finishedModCount;
+	/** number of jobs removed from the store */
+	private int removalCount;
+
+	private double costSum;
+	/** whether costSum has to be recalculated */
+	private boolean costSumInvalid;
+	private int costCount;
+	private int numPenalized;
+	private int numSuccessful;
+	private float totalRuntime;
+
+	// cached values for non additive cost functions, null if invalid
+	private Double cost, cumulatedCost;
+
+	JobStore(StatisticFunction statFunc) {
+		this.func = statFunc == null ? null : statFunc.getCostFunction();
+		this.additive = func instanceof PARX;
+		entries = new LinkedHashMap<Integer, Entry>();
+		entriesByInstanceIdSeed = new HashMap<InstanceIdSeed, Entry>();
+		notStarted = new LinkedHashMap<Integer, ExperimentResult>();
+		running = new LinkedHashMap<Integer, ExperimentResult>();
+		finished = new LinkedHashMap<Integer, ExperimentResult>();
+		finishedLog = new ArrayList<ExperimentResult>();
+		finishedModCount = 0;
+	}
+
+	/**
+	 * Adds <code>job</code> to the store if there is no job with the same id.
+	 * @param job
+	 * @return true if the job was added
+	 */
+	boolean put(ExperimentResult job) {
+		if (entries.containsKey(job.getId())) {
+			return false;
+		}
+		Entry e = new Entry();
+		e.job = job;
+		entries.put(job.getId(), e);
+		entriesByInstanceIdSeed.put(new InstanceIdSeed(job.getInstanceId(), job.getSeed()), e);
+		add(e);
+		return true;
+	}
+
+	/**
+	 * Replaces the job with the id of <code>job</code> by <code>job</code> and
+	 * moves it to the partition of its current status. Also has to be called if
+	 * a job of the store was modified.
+	 * @param job
+	 * @return true if the job is finished now and was not finished before
+	 */
+	boolean update(ExperimentResult job) {
+		Entry e = entries.get(job.getId());
+		if (e == null) {
+			put(job);
+			return state(job) == FINISHED;
+		}
+		boolean wasFinished = e.state == FINISHED;
+		remove(e);
+		e.job = job;
+		add(e);
+		return !wasFinished && e.state == FINISHED;
+	}
+
+	/**
+	 * Removes the job with id <code>idJob</code> from the store.
+	 * @param idJob
+	 */
+	void remove(int idJob) {
+		Entry e = entries.remove(idJob);
+		if (e == null) {
+			return;
+		}
+		removalCount++;
+		InstanceIdSeed iis = new InstanceIdSeed(e.job.getInstanceId(), e.job.getSeed());
+		if (entriesByInstanceIdSeed.get(iis) == e) {
+			entriesByInstanceIdSeed.remove(iis);
+		}
+		remove(e);
+	}
+
+	private int state(ExperimentResult job) {
+		if (job.getStatus().equals(StatusCode.NOT_STARTED)) {
+			return NOT_STARTED;
+		} else if (job.getStatus().equals(StatusCode.RUNNING)) {
+			return RUNNING;
+		}
+		return FINISHED;
+	}
+
+	private Map<Integer, ExperimentResult> partition(int state) {
+		switch (state) {
+		case NOT_STARTED:
+			return notStarted;
+		case RUNNING:
+			return running;
+		default:
+			return finished;
+		}
+	}
+
+	private void add(Entry e) {
+		ExperimentResult job = e.job;
+		e.state = state(job);
+		partition(e.state).put(job.getId(), job);
+		if (e.state == FINISHED) {
+			e.finishedSeq = finishedLog.size();
+			finishedLog.add(job);
+		} else {
+			e.finishedSeq = -1;
+		}
+		e.runtime = job.getResultTime();
+		e.successful = String.valueOf(job.getResultCode().getResultCode()).startsWith("1");
+		int statusCode = job.getStatus().getStatusCode();
+		// same jobs as taken into account by PARX.calculateCost()
+		e.counted = func != null && statusCode > 0 && statusCode != StatusCode.TERMINATED.getStatusCode();
+		if (e.counted) {
+			e.cost = func.singleCost(job);
+			e.penalized = func.isSingleCostPenalized(job);
+			if (!costSumInvalid) {
+				costSum += e.cost;
+			}
+			costCount++;
+			if (e.penalized) {
+				numPenalized++;
+			}
+		}
+		if (e.successful) {
+			numSuccessful++;
+		}
+		totalRuntime += e.runtime;
+		cost = null;
+		cumulatedCost = null;
+	}
+
+	private void remove(Entry e) {
+		partition(e.state).remove(e.job.getId());
+		if (e.state == FINISHED) {
+			finishedModCount++;
+			e.finishedSeq = -1;
+			if (finishedLog.size() - finished.size() > Math.max(finished.size(), 16)) {
+				compactFinishedLog();
+			}
+		}
+		if (e.counted) {
+			costSumInvalid = true;
+			costCount--;
+			if (e.penalized) {
+				numPenalized--;
+			}
+		}
+		if (e.successful) {
+			numSuccessful--;
+		}
+		totalRuntime -= e.runtime;
+		cost = null;
+		cumulatedCost = null;
+	}
+
+	/**
+	 * Rebuilds the finished log from the finished jobs. They are in the order
+	 * they finished, as every job that finishes is appended to both.
+	 */
+	private void compactFinishedLog() {
+		finishedLog = new ArrayList<ExperimentResult>(finished.values());
+		for (int i = 0; i < finishedLog.size(); i++) {
+			entries.get(finishedLog.get(i).getId()).finishedSeq = i;
+		}
+	}
+
+	/**
+	 * Returns the sum of the costs of the counted jobs.
+	 */
+	private double costSum() {
+		if (costSumInvalid) {
+			costSum = 0.;
+			for (Entry e : entries.values()) {
+				if (e.counted) {
+					costSum += e.cost;
+				}
+			}
+			costSumInvalid = false;
+		}
+		return costSum;
+	}
+
+	/**
+	 * Adds the ids of all not started and running jobs to <code>ids</code>.
+	 * @param ids
+	 */
+	void collectUnfinishedJobIds(List<Integer> ids) {
+		ids.addAll(notStarted.keySet());
+		ids.addAll(running.keySet());
+	}
+
+	/**
+	 * Applies the job status in <code>results</code> to the unfinished jobs of
+	 * this store.
+	 * @param results map from job id to the current experiment result
+	 * @param complete if true, unfinished jobs missing in <code>results</code>
+	 *        are removed
+	 * @return the jobs that finished
+	 */
+	List<ExperimentResult> applyJobsStatus(Map<Integer, ExperimentResult> results, boolean complete) {
+		List<ExperimentResult> res = new LinkedList<ExperimentResult>();
+		List<Integer> ids = new ArrayList<Integer>(notStarted.size() + running.size());
+		collectUnfinishedJobIds(ids);
+		for (Integer id : ids) {
+			ExperimentResult job = results.get(id);
+			if (job != null) {
+				if (update(job)) {
+					res.add(job);
+				}
+			} else if (complete) {
+				// job vanished from the db
+				remove(id);
+			}
+		}
+		return res;
+	}
+
+	ExperimentResult getJob(int idJob) {
+		Entry e = entries.get(idJob);
+		return e == null ? null : e.job;
+	}
+
+	ExperimentResult getJob(InstanceIdSeed iis) {
+		Entry e = entriesByInstanceIdSeed.get(iis);
+		return e == null ? null : e.job;
+	}
+
+	boolean contains(ExperimentResult job) {
+		return entries.containsKey(job.getId());
+	}
+
+	boolean contains(InstanceIdSeed iis) {
+		return entriesByInstanceIdSeed.containsKey(iis);
+	}
+
+	List<ExperimentResult> getJobs() {
+		List<ExperimentResult> res = new ArrayList<ExperimentResult>(entries.size());
+		for (Entry e : entries.values()) {
+			res.add(e.job);
+		}
+		return res;
+	}
+
+	List<ExperimentResult> getNotStartedJobs() {
+		return new ArrayList<ExperimentResult>(notStarted.values());
+	}
+
+	List<ExperimentResult> getRunningJobs() {
+		return new ArrayList<ExperimentResult>(running.values());
+	}
+
+	List<ExperimentResult> getFinishedJobs() {
+		return new ArrayList<ExperimentResult>(finished.values());
+	}
+
+	/**
+	 * Returns the position of the finished job on the instance-seed-pair in the
+	 * finished log or -1 if there is no such finished job.
+	 * @param iis
+	 * @return
+	 */
+	int getFinishedSeq(InstanceIdSeed iis) {
+		Entry e = entriesByInstanceIdSeed.get(iis);
+		return e == null ? -1 : e.finishedSeq;
+	}
+
+	/**
+	 * Returns the number of entries in the finished log.
+	 * @return
+	 */
+	int getFinishedLogSize() {
+		return finishedLog.size();
+	}
+
+	ExperimentResult getFinishedLogJob(int seq) {
+		return finishedLog.get(seq);
+	}
+
+	/**
+	 * Returns the number of modifications or removals of finished jobs. If
+	 * this number didn't change, the finished log was only appended to.
+	 * @return
+	 */
+	int getFinishedModCount() {
+		return finishedModCount;
+	}
+
+	/**
+	 * Returns the number of jobs removed from the store. If this number and
+	 * the size didn't change, the store contains the same jobs.
+	 * @return
+	 */
+	int getRemovalCount() {
+		return removalCount;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	int getNumNotStartedJobs() {
+		return notStarted.size();
+	}
+
+	int getNumRunningJobs() {
+		return running.size();
+	}
+
+	int getNumFinishedJobs() {
+		return finished.size();
+	}
+
+	int getNumSuccessfulJobs() {
+		return numSuccessful;
+	}
+
+	int getNumPenalizedJobs() {
+		return numPenalized;
+	}
+
+	float getTotalRuntime() {
+		return totalRuntime;
+	}
+
+	/**
+	 * Returns the cost of all jobs with regards to the cost function. See
+	 * <code>CostFunction.calculateCost()</code>.
+	 * @return
+	 */
+	double getCost() {
+		if (additive) {
+			return costCount == 0 ? 0. : costSum() / costCount;
+		}
+		if (cost == null) {
+			cost = func.calculateCost(getJobs());
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the cumulated cost of all jobs with regards to the cost function.
+	 * See <code>CostFunction.calculateCumulatedCost()</code>.
+	 * @return
+	 */
+	double getCumulatedCost() {
+		if (additive || func instanceof Average) {
+			return costSum();
+		}
+		if (cumulatedCost == null) {
+			cumulatedCost = func.calculateCumulatedCost(getJobs());
+		}
+		return cumulatedCost;
+	}
+}
@@ -0,0 +1,209 @@
+package edacc.configurator.aac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edacc.api.costfunctions.Average;
+import edacc.api.costfunctions.CostFunction;
+import edacc.api.costfunctions.Median;
+import edacc.api.costfunctions.PARX;
+import edacc.model.ExperimentResult;
+import edacc.model.StatusCode;
+
+/**
+ * Cost of two solver configurations over their common finished runs, i.e. the
+ * finished runs on instance-seed-pairs that both solver configurations have
+ * finished.<br/>
+ * The common runs are determined incrementally from the finished logs of both
+ * job stores: on <code>update()</code> only the runs that finished since the
+ * last update are matched. For PARX and Average the costs are running sums,
+ * for Median both sides are kept in sorted arrays; for all other cost
+ * functions the common runs are collected and the cost is calculated on
+ * demand. If a finished job of either side was modified or removed, the
+ * common runs are determined from scratch.
+ */
+class PairwiseComparison {
+	private static final int TYPE_PARX = 0;
+	private static final int TYPE_AVERAGE = 1;
+	private static final int TYPE_MEDIAN = 2;
+	private static final int TYPE_OTHER = 3;
+
+	private CostFunction func;
+	private int type;
+	private JobStore first, second;
+
+	// positions in the finished logs and mod counts at the last update
+	private int firstPos, secondPos;
+	private int firstModCount, secondModCount;
+
+	private int numCommonRuns;
+	private double firstSum, secondSum;
+	private int firstCount, secondCount;
+	private SortedDoubles firstSorted, secondSorted;
+	private List<ExperimentResult> firstRuns, secondRuns;
+
+	PairwiseComparison(CostFunction func, JobStore first, JobStore second) {
+		this.func = func;
+		this.first = first;
+		this.second = second;
+		if (func instanceof PARX) {
+			type = TYPE_PARX;
+		} else if (func instanceof Average) {
+			type = TYPE_AVERAGE;
+		} else if (func instanceof Median) {
+			type = TYPE_MEDIAN;
+		} else {
+			type = TYPE_OTHER;
+		}
+		firstModCount = -1;
+		secondModCount = -1;
+	}
+
+	private void clear() {
+		numCommonRuns = 0;
+		firstSum = secondSum = 0.;
+		firstCount = secondCount = 0;
+		if (type == TYPE_MEDIAN) {
+			firstSorted = new SortedDoubles();
+			secondSorted = new SortedDoubles();
+		} else if (type == TYPE_OTHER) {
+			firstRuns = new ArrayList<ExperimentResult>();
+			secondRuns = new ArrayList<ExperimentResult>();
+		}
+	}
+
+	private boolean counted(ExperimentResult job) {
+		int statusCode = job.getStatus().getStatusCode();
+		return statusCode > 0 && statusCode != StatusCode.TERMINATED.getStatusCode();
+	}
+
+	private void addCommonRun(ExperimentResult firstJob, ExperimentResult secondJob) {
+		numCommonRuns++;
+		switch (type) {
+		case TYPE_PARX:
+			// both sums are always updated together, so equal runs yield
+			// exactly equal costs
+			if (counted(firstJob)) {
+				firstSum += func.singleCost(firstJob);
+				firstCount++;
+			}
+			if (counted(secondJob)) {
+				secondSum += func.singleCost(secondJob);
+				secondCount++;
+			}
+			break;
+		case TYPE_AVERAGE:
+			firstSum += func.singleCost(firstJob);
+			secondSum += func.singleCost(secondJob);
+			firstCount++;
+			secondCount++;
+			break;
+		case TYPE_MEDIAN:
+			firstSorted.add(func.singleCost(firstJob));
+			secondSorted.add(func.singleCost(secondJob));
+			break;
+		default:
+			firstRuns.add(firstJob);
+			secondRuns.add(secondJob);
+		}
+	}
+
+	/**
+	 * Matches the runs that finished since the last update.
+	 */
+	void update() {
+		if (first.getFinishedModCount() != firstModCount || second.getFinishedModCount() != secondModCount) {
+			// finished jobs were modified: start from scratch
+			clear();
+			for (ExperimentResult job : first.getFinishedJobs()) {
+				InstanceIdSeed iis = new InstanceIdSeed(job.getInstanceId(), job.getSeed());
+				if (second.getFinishedSeq(iis) >= 0) {
+					addCommonRun(job, second.getJob(iis));
+				}
+			}
+			firstPos = first.getFinishedLogSize();
+			secondPos = second.getFinishedLogSize();
+			firstModCount = first.getFinishedModCount();
+			secondModCount = second.getFinishedModCount();
+			return;
+		}
+		int firstSize = first.getFinishedLogSize();
+		int secondSize = second.getFinishedLogSize();
+		// new runs of the first configuration on runs of the second
+		// configuration that were matched before
+		for (int i = firstPos; i < firstSize; i++) {
+			ExperimentResult job = first.getFinishedLogJob(i);
+			InstanceIdSeed iis = new InstanceIdSeed(job.getInstanceId(), job.getSeed());
+			int seq = second.getFinishedSeq(iis);
+			if (seq >= 0 && seq < secondPos) {
+				addCommonRun(job, second.getJob(iis));
+			}
+		}
+		// new runs of the second configuration on all runs of the first
+		// configuration
+		for (int i = secondPos; i < secondSize; i++) {
+			ExperimentResult job = second.getFinishedLogJob(i);
+			InstanceIdSeed iis = new InstanceIdSeed(job.getInstanceId(), job.getSeed());
+			int seq = first.getFinishedSeq(iis);
+			if (seq >= 0) {
+				addCommonRun(first.getJob(iis), job);
+			}
+		}
+		firstPos = firstSize;
+		secondPos = secondSize;
+	}
+
+	int getNumCommonRuns() {
+		return numCommonRuns;
+	}
+
+	double getFirstCost() {
+		return cost(firstSum, firstCount, firstSorted, firstRuns);
+	}
+
+	double getSecondCost() {
+		return cost(secondSum, secondCount, secondSorted, secondRuns);
+	}
+
+	private double cost(double sum, int count, SortedDoubles sorted, List<ExperimentResult> runs) {
+		switch (type) {
+		case TYPE_PARX:
+		case TYPE_AVERAGE:
+			return count == 0 ? 0. : sum / count;
+		case TYPE_MEDIAN:
+			return sorted.size() == 0 ? 0. : sorted.get(sorted.size() / 2);
+		default:
+			return func.calculateCost(runs);
+		}
+	}
+
+	/**
+	 * Sorted array of doubles with binary insertion.
+	 */
+	private static class SortedDoubles {
+		private double[] values = new double[16];
+		private int size = 0;
+
+		void add(double value) {
+			int pos = Arrays.binarySearch(values, 0, size, value);
+			if (pos < 0) {
+				pos = -pos - 1;
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			values[pos] = value;
+			size++;
+		}
+
+		double get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
@@ -14,6 +14,10 @@ public class Parameters {
 	String hostname = "", user = "", password = "", database = "";
 	int port = 3306;
 	int pollingInterval=2500; //value in ms
+	int jobStatusChunkSize = 1000;
+	boolean logJobStatusPolls = false;
+	boolean jobStatusFeed = true;
+	int jobStatusFullSyncInterval = 50;
 	int idExperiment = 0;
 	int idExperimentEvaluation = -1;
 	String evaluationSolverConfigName = "";
@@ -75,6 +79,10 @@ public class Parameters {
 		p.add("port = "+ this.port + (pnp?"(database server port)":""));
 		p.add("database = " + this.database + (pnp?" (name of database to use)":""));
 		p.add("pollingInterval = " + this.pollingInterval + (pnp?" <int>(number of ms between two polls)":""));
+		p.add("jobStatusChunkSize = " + this.jobStatusChunkSize + (pnp?" <int>(maximum number of job ids fetched with one query when polling the job status; < 1 for no limitation)":""));
+		p.add("jobStatusFeed = " + this.jobStatusFeed + (pnp?" <boolean>(only fetch jobs modified since the last poll instead of all unfinished jobs)":""));
+		p.add("jobStatusFullSyncInterval = " + this.jobStatusFullSyncInterval + (pnp?" <int>(number of polls after which all unfinished jobs are fetched again if jobStatusFeed is set; < 1 never)":""));
+		p.add("logJobStatusPolls = " + this.logJobStatusPolls + (pnp?" <boolean>(log latency and row count of every job status poll)":""));
 		p.add("deleteSolverConfigsAtStart = " + this.deleteSolverConfigsAtStart + (pnp?" <boolean> (whether to delete solver configs at the beginning or not; can be useful for multiple runs on the same experiment)":""));
 		p.add("%-----------------------");
 		p.add("%");
@@ -153,6 +161,14 @@ public class Parameters {
 				database = value;
 			else if ("pollingInterval".equalsIgnoreCase(key))
 				pollingInterval = Integer.valueOf(value);
+			else if ("jobStatusChunkSize".equalsIgnoreCase(key))
+				jobStatusChunkSize = Integer.valueOf(value);
+			else if ("jobStatusFeed".equalsIgnoreCase(key))
+				jobStatusFeed = Boolean.parseBoolean(value);
+			else if ("jobStatusFullSyncInterval".equalsIgnoreCase(key))
+				jobStatusFullSyncInterval = Integer.valueOf(value);
+			else if ("logJobStatusPolls".equalsIgnoreCase(key))
+				logJobStatusPolls = Boolean.parseBoolean(value);
 			else if ("deleteSolverConfigsAtStart".equalsIgnoreCase(key))
 				deleteSolverConfigsAtStart = Boolean.parseBoolean(value);
 			// experiment parameters
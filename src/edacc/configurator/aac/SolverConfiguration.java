@@ -4,11 +4,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.WeakHashMap;
 
 import edacc.parameterspace.ParameterConfiguration;
 import edacc.api.API;
@@ -36,37 +36,26 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 		return dbCost;
 	}
 
-	/**
-	 * total runtime in seconds of all the jobs in the jobs list
-	 * 
-	 */
-	private float totalRuntime;
-
 	/** the name of the configuration */
 	private String nameRacing, nameSearch;
 	protected boolean nameUpdated, wasBest;
 
-	/** List of all jobs that a solver configuration has been executed so far */
-	private List<ExperimentResult> jobs;
+	/** All jobs that a solver configuration has been executed so far */
+	private JobStore jobs;
 
 	private StatisticFunction statFunc;
 
-	protected int numNotStartedJobs, numFinishedJobs, numSuccessfulJobs, numRunningJobs;
+	/**
+	 * Costs over the common runs with the solver configurations this solver
+	 * configuration was compared to.
+	 */
+	private Map<SolverConfiguration, PairwiseComparison> comparisons;
 
 	private boolean finished;
 	
 	private int number;
 	
-	/**
-	 * Common initialization
-	 */
-	private SolverConfiguration() {
-		jobs = new LinkedList<ExperimentResult>();
-		totalRuntime = 0.f;
-	}
-
 	public SolverConfiguration(int idSolverConfiguration, ParameterConfiguration pc, StatisticFunction statFunc) {
-		this();
 
 		this.pConfig = pc;
 		this.idSolverConfiguration = idSolverConfiguration;
@@ -79,10 +68,11 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 		this.incumbentNumber = -1;
 		this.finished = false;
 		this.number = -1;
+		this.jobs = new JobStore(statFunc);
+		this.comparisons = new WeakHashMap<SolverConfiguration, PairwiseComparison>();
 	}
 	
 	public SolverConfiguration(int idSolverConfiguration, ParameterConfiguration pc, StatisticFunction statFunc, double dbCost) {
-		this();
 		this.dbCost = dbCost;
 		this.pConfig = pc;
 		this.idSolverConfiguration = idSolverConfiguration;
@@ -95,10 +85,11 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 		this.incumbentNumber = -1;
 		this.finished = false;
 		this.number = -1;
+		this.jobs = new JobStore(statFunc);
+		this.comparisons = new WeakHashMap<SolverConfiguration, PairwiseComparison>();
 	}
 
 	public SolverConfiguration(SolverConfiguration sc) {
-		this();
 
 		this.pConfig = new ParameterConfiguration(sc.pConfig);
 		this.idSolverConfiguration = sc.idSolverConfiguration;
@@ -111,6 +102,8 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 		this.incumbentNumber = sc.incumbentNumber;
 		this.finished = sc.finished;
 		this.number = sc.number;
+		this.jobs = new JobStore(statFunc);
+		this.comparisons = new WeakHashMap<SolverConfiguration, PairwiseComparison>();
 	}
 
 	public int getIncumbentNumber() {
@@ -146,7 +139,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return the cost value with regards to the statistic function
 	 */
 	public final Double getCost() {
-		return statFunc.getCostFunction().calculateCost(jobs);
+		return jobs.getCost();
 	}
 
 	/**
@@ -158,7 +151,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return the cost value with regards to the statistic function
 	 */
 	public final Double getCumulatedCost() {
-		return statFunc.getCostFunction().calculateCumulatedCost(jobs);
+		return jobs.getCumulatedCost();
 	}
 
 	public final void setCost(Double cost) {
@@ -185,8 +178,53 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	}
 
 	public void putJob(ExperimentResult job) {
-                if((job != null) && !jobs.contains(job))
-                    jobs.add(job);
+		if (job != null)
+			jobs.put(job);
+	}
+
+	/**
+	 * Has to be called if a job of this solver configuration was modified
+	 * (e.g. status, result code or cpu time limit) to keep the job partitions
+	 * and cost aggregates up to date.
+	 * 
+	 * @param job the modified job
+	 */
+	public void jobModified(ExperimentResult job) {
+		if (jobs.contains(job))
+			jobs.update(job);
+	}
+
+	/**
+	 * Returns the job with the given id or <code>null</code> if this solver
+	 * configuration has no such job.
+	 * 
+	 * @param idJob
+	 * @return
+	 */
+	public ExperimentResult getJob(int idJob) {
+		return jobs.getJob(idJob);
+	}
+
+	/**
+	 * Returns the job on the given instance-seed-pair or <code>null</code> if
+	 * this solver configuration has no such job.
+	 * 
+	 * @param iis
+	 * @return
+	 */
+	public ExperimentResult getJob(InstanceIdSeed iis) {
+		return jobs.getJob(iis);
+	}
+
+	/**
+	 * Returns whether this solver configuration has a job on the given
+	 * instance-seed-pair.
+	 * 
+	 * @param iis
+	 * @return
+	 */
+	public boolean hasJob(InstanceIdSeed iis) {
+		return jobs.contains(iis);
 	}
 
 	/**
@@ -195,11 +233,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public List<ExperimentResult> getJobs() {
-		LinkedList<ExperimentResult> res = new LinkedList<ExperimentResult>();
-		for (ExperimentResult j : jobs) {
-			res.add(j);
-		}
-		return res;
+		return jobs.getJobs();
 	}
 
 	/**
@@ -210,13 +244,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public List<ExperimentResult> getRunningJobs() {
-		LinkedList<ExperimentResult> res = new LinkedList<ExperimentResult>();
-		for (ExperimentResult j : jobs) {
-			if (j.getStatus().equals(StatusCode.RUNNING)) {
-				res.add(j);
-			}
-		}
-		return res;
+		return jobs.getRunningJobs();
 	}
 
 	/**
@@ -228,7 +256,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public int getNumRunningJobs() {
-		return numRunningJobs;
+		return jobs.getNumRunningJobs();
 	}
 
 	/**
@@ -239,13 +267,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public List<ExperimentResult> getFinishedJobs() {
-		LinkedList<ExperimentResult> res = new LinkedList<ExperimentResult>();
-		for (ExperimentResult j : jobs) {
-			if (!j.getStatus().equals(StatusCode.NOT_STARTED) && !j.getStatus().equals(StatusCode.RUNNING)) {
-				res.add(j);
-			}
-		}
-		return res;
+		return jobs.getFinishedJobs();
 	}
 
 	/**
@@ -256,7 +278,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public int getNumFinishedJobs() {
-		return numFinishedJobs;
+		return jobs.getNumFinishedJobs();
 	}
 
 	/**
@@ -267,13 +289,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public List<ExperimentResult> getNotStartedJobs() {
-		LinkedList<ExperimentResult> res = new LinkedList<ExperimentResult>();
-		for (ExperimentResult j : jobs) {
-			if (j.getStatus().equals(StatusCode.NOT_STARTED)) {
-				res.add(j);
-			}
-		}
-		return res;
+		return jobs.getNotStartedJobs();
 	}
 
 	/**
@@ -285,11 +301,21 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public int getNumNotStartedJobs() {
-		return numNotStartedJobs;
+		return jobs.getNumNotStartedJobs();
 	}
 
 	public int getNumSuccessfulJobs() {
-		return numSuccessfulJobs;
+		return jobs.getNumSuccessfulJobs();
+	}
+
+	/**
+	 * Returns the number of finished jobs whose cost is penalized by the cost
+	 * function.
+	 * 
+	 * @return
+	 */
+	public int getNumPenalizedJobs() {
+		return jobs.getNumPenalizedJobs();
 	}
 
 	/**
@@ -302,6 +328,18 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 		return jobs.size();
 	}
 
+	/**
+	 * Returns the number of jobs that were removed from this solver
+	 * configuration because they vanished from the database. If this number
+	 * and <code>getJobCount()</code> didn't change, the solver configuration
+	 * has the same jobs.
+	 * 
+	 * @return
+	 */
+	public int getJobRemovalCount() {
+		return jobs.getRemovalCount();
+	}
+
 	/**
 	 * Updates the locally cached jobs for this solver configuration. It
 	 * collects the id's of its own jobs and passes them to the api as a list of
@@ -312,51 +350,44 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 */
 
 	protected List<ExperimentResult> updateJobsStatus(API api) throws Exception {
-		List<ExperimentResult> res = new LinkedList<ExperimentResult>();
-		LinkedList<Integer> ids = new LinkedList<Integer>();
-		ArrayList<ExperimentResult> tmp = new ArrayList<ExperimentResult>();
-		numRunningJobs = 0;
-		numFinishedJobs = 0;
-		numSuccessfulJobs = 0;
-		numNotStartedJobs = 0;
-		totalRuntime = 0.f;
-		for (ExperimentResult j : jobs) {
-			if (!j.getStatus().equals(StatusCode.NOT_STARTED) && !j.getStatus().equals(StatusCode.RUNNING)) {
-				numFinishedJobs++;
-				totalRuntime += j.getResultTime();
-				if (String.valueOf(j.getResultCode().getResultCode()).startsWith("1")) {
-					numSuccessfulJobs++;
-				}
-				tmp.add(j);
-			} else {
-				ids.add(j.getId());
-			}
+		List<Integer> ids = new LinkedList<Integer>();
+		collectUnfinishedJobIds(ids);
+		Map<Integer, ExperimentResult> results;
+		if (ids.isEmpty()) {
+			results = Collections.emptyMap();
+		} else {
+			results = api.getJobsByIDs(ids);
 		}
+		return applyJobsStatus(results, true);
+	}
 
-		if (!ids.isEmpty()) {
-			jobs.clear();
-			jobs.addAll(api.getJobsByIDs(ids).values());
-			
-			for (ExperimentResult j : jobs) {
-				totalRuntime += j.getResultTime();
-				if (j.getStatus().equals(StatusCode.RUNNING)) {
-					numRunningJobs++;
-				}
-				if (!j.getStatus().equals(StatusCode.NOT_STARTED) && !j.getStatus().equals(StatusCode.RUNNING)) {
-					res.add(j);
-					numFinishedJobs++;
-				}
-				if (String.valueOf(j.getResultCode().getResultCode()).startsWith("1")) {
-					numSuccessfulJobs++;
-				}
-				if (j.getStatus().equals(StatusCode.NOT_STARTED)) {
-					numNotStartedJobs++;
-				}
-			}
-			jobs.addAll(tmp);
-			
-		} 
-		return res;
+	/**
+	 * Adds the ids of all jobs which were not started or running at the last
+	 * <code>updateJobsStatus()</code> call to <code>ids</code>. These are the
+	 * jobs that have to be fetched from the api to update this solver
+	 * configuration.
+	 * 
+	 * @param ids the list the job ids are added to
+	 */
+	protected void collectUnfinishedJobIds(List<Integer> ids) {
+		jobs.collectUnfinishedJobIds(ids);
+	}
+
+	/**
+	 * Replaces the unfinished jobs of this solver configuration by their
+	 * current state in <code>results</code> and updates the job counters.
+	 * <code>results</code> may contain jobs of other solver configurations.<br/>
+	 * If <code>complete</code> is true, <code>results</code> has to contain all
+	 * ids returned by <code>collectUnfinishedJobIds()</code> and jobs missing in
+	 * <code>results</code> are removed. Otherwise <code>results</code> is a
+	 * delta and jobs missing in it are left unchanged.
+	 * 
+	 * @param results map from job id to the current experiment result
+	 * @param complete whether <code>results</code> contains all unfinished jobs
+	 * @return the jobs that finished since the last update
+	 */
+	protected List<ExperimentResult> applyJobsStatus(Map<Integer, ExperimentResult> results, boolean complete) {
+		return jobs.applyJobsStatus(results, complete);
 	}
 
 	/**
@@ -375,14 +406,10 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 	 * @return
 	 */
 	public List<InstanceIdSeed> getInstanceIdSeed(SolverConfiguration other, int num, Random rng) {
-		LinkedList<InstanceIdSeed> all = new LinkedList<InstanceIdSeed>();
-		HashSet<InstanceIdSeed> ownInstanceIdSeed = new HashSet<InstanceIdSeed>();
-		for (ExperimentResult j : jobs) {
-			ownInstanceIdSeed.add(new InstanceIdSeed(j.getInstanceId(), j.getSeed()));
-		}
+		ArrayList<InstanceIdSeed> all = new ArrayList<InstanceIdSeed>();
 		for (ExperimentResult j : other.getFinishedJobs()) {
 			InstanceIdSeed tmp = new InstanceIdSeed(j.getInstanceId(), j.getSeed());
-			if (!ownInstanceIdSeed.contains(tmp)) {
+			if (!jobs.contains(tmp)) {
 				all.add(tmp);
 			}
 		}
@@ -419,7 +446,6 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
     public List<InstanceIdSeed> getInstanceIdSeedAggressive(SolverConfiguration other, int num, Random rng) {
         LinkedList<InstanceIdSeed> allUnpenalized = new LinkedList<InstanceIdSeed>();
         LinkedList<InstanceIdSeed> allPenalized = new LinkedList<InstanceIdSeed>();
-        HashSet<InstanceIdSeed> ownInstanceIdSeed = new HashSet<InstanceIdSeed>();
         List<ExperimentResult> otherFinishedJobs = other.getFinishedJobs();
         Collections.sort(otherFinishedJobs, new Comparator<ExperimentResult>() {
             @Override
@@ -429,12 +455,9 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
                 return statFunc.isMinimize() ? Double.compare(y1, y2) : Double.compare(y2, y1);
             }
         });
-        for (ExperimentResult j : jobs) {
-            ownInstanceIdSeed.add(new InstanceIdSeed(j.getInstanceId(), j.getSeed()));
-        }
         for (ExperimentResult j : otherFinishedJobs) {
             InstanceIdSeed tmp = new InstanceIdSeed(j.getInstanceId(), j.getSeed());
-            if (!ownInstanceIdSeed.contains(tmp)) {
+            if (!jobs.contains(tmp)) {
                 if (statFunc.getCostFunction().isSingleCostPenalized(j)) {
                     allPenalized.add(tmp);
                 } else {
@@ -468,7 +491,7 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
     }
 
 	public Float getTotalRuntime() {
-		return totalRuntime;
+		return jobs.getTotalRuntime();
 	}
 
 	public boolean isFinished() {
@@ -490,37 +513,18 @@ public class SolverConfiguration implements Comparable<SolverConfiguration> {
 
 	@Override
 	public int compareTo(SolverConfiguration other) {
-		HashMap<InstanceIdSeed, ExperimentResult> ownJobs = new HashMap<InstanceIdSeed, ExperimentResult>();
-		for (ExperimentResult job : getFinishedJobs()) {
-			ownJobs.put(new InstanceIdSeed(job.getInstanceId(), job.getSeed()), job);
-		}
-		List<ExperimentResult> myJobs = new LinkedList<ExperimentResult>();
-		List<ExperimentResult> otherJobs = new LinkedList<ExperimentResult>();
-		for (ExperimentResult job : other.getFinishedJobs()) {
-			InstanceIdSeed tmp = new InstanceIdSeed(job.getInstanceId(), job.getSeed());
-			ExperimentResult ownJob;
-			if ((ownJob = ownJobs.get(tmp)) != null) {
-				myJobs.add(ownJob);
-				otherJobs.add(job);
-			}
+		PairwiseComparison comparison = comparisons.get(other);
+		if (comparison == null) {
+			comparison = new PairwiseComparison(statFunc.getCostFunction(), jobs, other.jobs);
+			comparisons.put(other, comparison);
 		}
-		return statFunc.compare(myJobs, otherJobs);
+		comparison.update();
+		return statFunc.compare(comparison.getFirstCost(), comparison.getSecondCost());
 	}
 
 	protected void jobReset(ExperimentResult er) {
-		if (er.getStatus().equals(StatusCode.RUNNING)) {
-			numRunningJobs--;
-		}
-		if (!er.getStatus().equals(StatusCode.NOT_STARTED) && !er.getStatus().equals(StatusCode.RUNNING)) {
-			numFinishedJobs--;
-		}
-		if (String.valueOf(er.getResultCode().getResultCode()).startsWith("1")) {
-			numSuccessfulJobs--;
-		}
-		if (!er.getStatus().equals(StatusCode.NOT_STARTED)) {
-			numNotStartedJobs++;
-		}
 		er.setStatus(StatusCode.NOT_STARTED);
 		er.setResultCode(ResultCode.UNKNOWN);
+		jobModified(er);
 	}
 }
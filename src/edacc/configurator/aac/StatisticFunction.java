@@ -30,8 +30,18 @@ public class StatisticFunction {
 	 * @return
 	 */
 	public int compare(List<ExperimentResult> first, List<ExperimentResult> second) {
-		double first_cost = func.calculateCost(first);
-		double second_cost = func.calculateCost(second);
+		return compare(func.calculateCost(first), func.calculateCost(second));
+	}
+
+	/**
+	 * Compares two costs calculated by the <code>COST_FUNCTION</code>.<br/>
+	 * Returns -1, 0, 1, if the first cost is worse, equal, or better compared to the second cost<br/>
+	 * under consideration of the <code>minimize</code>-attribute.
+	 * @param first_cost
+	 * @param second_cost
+	 * @return
+	 */
+	public int compare(double first_cost, double second_cost) {
 		if (first_cost == second_cost) {
 			return 0;
 		} else if (first_cost > second_cost) {
@@ -6,25 +6,35 @@ package edacc.configurator.aac.clustering;
 
 import edacc.configurator.aac.AAC;
 import edacc.configurator.aac.InstanceIdSeed;
-import edacc.model.Instance;
-import edacc.util.Pair;
-import java.util.Collection;
-import java.util.LinkedList;
+import edacc.configurator.math.HierarchicalClustering;
+import edacc.configurator.math.HierarchicalClustering.Linkage;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /** This class implements a generic greedy bottom-up approach to clustering
- * The only method missing to form a functioning clustering algorithm is calculateClusterDistance(c1, c2),
- * which calculates the distance between two clusters.
- * For an example on how to implement this method, see Algorithm_CLC, which implements the method for
- * Complete Linkage Clustering.
+ * The distance between two clusters is determined by the linkage the subclass passes to the constructor,
+ * e.g. Algorithm_CLC uses complete linkage, Algorithm_Average uses average linkage.
+ * The distances between the instance-seed-pairs are calculated once, the merges are found by the
+ * nearest-neighbor chain algorithm of HierarchicalClustering, which updates the distances of merged
+ * clusters by the Lance-Williams formula of the linkage. The merges are then applied in ascending order of
+ * their distance until the termination criterion is met or a merge is not viable, which, as all supported
+ * linkages are reducible, yields the same clustering as always merging the two closest clusters.
+ * The distance matrix of the instance-seed-pairs is only needed while the merges are found and used as
+ * work space, so its memory is freed afterwards. Instead, the linkage between the resulting clusters is
+ * kept, so that a clustering can be updated when the data of some instance-seed-pairs has changed: those
+ * instance-seed-pairs are removed from their clusters and the remaining clusters and the removed
+ * instance-seed-pairs are merged bottom-up again. Only the distances of the instance-seed-pairs in clusters
+ * that lost a member are recalculated, the linkage between the other clusters is reused.
  *
  * @author mugrauer
  */
-public abstract class Algorithm_GreedyBottomUp implements ClusteringAlgorithm {
+public abstract class Algorithm_GreedyBottomUp implements IncrementalClusteringAlgorithm {
     private AAC aac;
     private ClusterHandler handler;
     protected ClusteringResources resources;
+    private Linkage linkage;
     
     //these values determine the number of clusters that will be generated
     //if useVarianceCriterion is set, clusters will be merged until further mergin would create
@@ -36,103 +46,226 @@ public abstract class Algorithm_GreedyBottomUp implements ClusteringAlgorithm {
     private final boolean useAdaptiveVarianceCriterion = true;
     private Double varianceOfAllInstances = null;
     
-    public Algorithm_GreedyBottomUp(AAC aac, ClusteringResources resources, ClusterHandler handler){
+    //the last clustering: the instance-seed-pairs, the cluster of each instance-seed-pair and the linkage
+    //between the clusters in condensed form (see HierarchicalClustering.index), for average linkage the sum
+    //of the distances
+    private InstanceIdSeed[] idSeeds;
+    private HashMap<InstanceIdSeed, Integer> idSeedIndex;
+    private int[] clusterOf;
+    private int numberOfClusters;
+    private double[] clusterLink;
+    
+    public Algorithm_GreedyBottomUp(AAC aac, ClusteringResources resources, ClusterHandler handler,
+                                    Linkage linkage){
         this.aac = aac;
         this.resources = resources;
         this.handler = handler;
+        this.linkage = linkage;
     }
     
-    /** calculates the distance between two given clusters
-     * 
-     */
-    protected abstract double calculateClusterDistance(Cluster c1, Cluster c2);
-    
     /** returns the name of this clustering algorithm
      */
     public abstract String getName();
     
     public Cluster[] calculateClustering(List<InstanceIdSeed> instances){        
-        Map<InstanceIdSeed, InstanceData> data = handler.getInstanceDataMap();
         long time = System.currentTimeMillis();
         log("Initialising clusters ... ");
         if(useAdaptiveVarianceCriterion){
             varianceOfAllInstances = resources.calculateVariance(instances);
             log("Variance of all instances is "+varianceOfAllInstances);
         }
-        LinkedList<Pair<Cluster, Integer>> clusterList = new LinkedList<Pair<Cluster,Integer>>();
-        Cluster c;
-        int count = 0;
-        for(InstanceIdSeed i : instances){
-            c = new Cluster(i);
-            clusterList.add(new Pair<Cluster, Integer>(c, count));
-            count++;
-        }        
+        int n = instances.size();
+        idSeeds = instances.toArray(new InstanceIdSeed[n]);
+        idSeedIndex = new HashMap<InstanceIdSeed, Integer>();
+        for(int i=0; i<n; i++)
+            idSeedIndex.put(idSeeds[i], i);
         log("Initialising distance matrix ... ");
-        //initialise distance matrix (DistanceMatrix class is at the bottom of CLC_Clustering.java!)
-        DistanceMatrix distMat = new DistanceMatrix(clusterList.size());
-        Double v1, v2;
-        for(Pair<Cluster,Integer> c1 : clusterList){
-            for(Pair<Cluster,Integer> c2 : clusterList){
-                if(c1.getSecond() >= c2.getSecond())
-                    continue;
-                distMat.set(c1.getSecond(), c2.getSecond(), 
-                            calculateClusterDistance(c1.getFirst(), c2.getFirst()));
+        double[] dist = new double[HierarchicalClustering.condensedSize(n)];
+        int ix = 0;
+        for(int i=0; i<n; i++)
+            for(int j=i+1; j<n; j++)
+                dist[ix++] = resources.calculateInstanceDistance(idSeeds[i], idSeeds[j]);
+        log("Refining clustering ... ");
+        int[] group = new int[n];
+        for(int i=0; i<n; i++)
+            group[i] = i;
+        //every instance-seed-pair is a group of its own, so the distances are the linkage between the groups;
+        //the clustering works on a copy, the linkage between the clusters is built from the original
+        Cluster[] clusters = agglomerate(group, n, dist.clone(), dist);
+        log("Done! Time elapsed: "+(System.currentTimeMillis()-time)+"ms.");
+        return clusters;
+    }
+    
+    public Cluster[] updateClustering(List<InstanceIdSeed> instances, Set<InstanceIdSeed> changedInstances){
+        if(clusterLink == null || instances.size() != idSeeds.length)
+            return null;
+        int n = idSeeds.length, pos = 0;
+        for(InstanceIdSeed idSeed : instances)
+            if(!idSeed.equals(idSeeds[pos++]))
+                return null;
+        long time = System.currentTimeMillis();
+        log("Updating clustering: "+changedInstances.size()+" instance-seed-pairs have changed ... ");
+        if(useAdaptiveVarianceCriterion)
+            varianceOfAllInstances = resources.calculateVariance(instances);
+        boolean[] changed = new boolean[n];
+        boolean[] affected = new boolean[numberOfClusters];
+        for(InstanceIdSeed idSeed : changedInstances){
+            Integer i = idSeedIndex.get(idSeed);
+            if(i != null){
+                changed[i] = true;
+                affected[clusterOf[i]] = true;
             }
         }
-        log("Refining clustering ... ");
-        //calcualte clustering
-        while(terminationCriterion(clusterList)){
-            Pair<Cluster,Integer> mergeA=null, mergeB=null;
-            Double distance = Double.MAX_VALUE, tmpDist;
-            for(Pair<Cluster,Integer> cA : clusterList){
-                for(Pair<Cluster,Integer> cB : clusterList){
-                    if(cA.getSecond() >= cB.getSecond())
-                        continue;
-                    
-                    tmpDist = distMat.get(cA.getSecond(), cB.getSecond());
-                    if(tmpDist<distance){
-                        mergeA = cA;
-                        mergeB = cB;
-                        distance = tmpDist;
-                    }
-                }
+        //the unaffected clusters are kept as groups and numbered first, the changed instance-seed-pairs are
+        //removed from their clusters and form groups of their own
+        int[] groupOfCluster = new int[numberOfClusters];
+        Arrays.fill(groupOfCluster, -1);
+        int numberOfGroups = 0;
+        for(int c=0; c<numberOfClusters; c++)
+            if(!affected[c])
+                groupOfCluster[c] = numberOfGroups++;
+        int numberOfUnaffectedGroups = numberOfGroups;
+        int[] group = new int[n];
+        int[] sizes = new int[n];
+        for(int i=0; i<n; i++){
+            if(changed[i]){
+                group[i] = numberOfGroups++;
+            }else{
+                if(groupOfCluster[clusterOf[i]] < 0)
+                    groupOfCluster[clusterOf[i]] = numberOfGroups++;
+                group[i] = groupOfCluster[clusterOf[i]];
             }
-            if(!isMergeViable(mergeA.getFirst(), mergeB.getFirst()))
-                break;
-            clusterList.remove(mergeB);
-            mergeA.getFirst().mergeClusters(mergeB.getFirst());
-            //update distance matrix:
-            for(Pair<Cluster,Integer> cl: clusterList){
-                if(cl.getSecond()==mergeA.getSecond())
+            sizes[group[i]]++;
+        }
+        double[] groupLink = new double[HierarchicalClustering.condensedSize(numberOfGroups)];
+        if(linkage == Linkage.SINGLE)
+            Arrays.fill(groupLink, Double.POSITIVE_INFINITY);
+        for(int a=0; a<numberOfClusters; a++)
+            for(int b=a+1; b<numberOfClusters; b++)
+                if(!affected[a] && !affected[b])
+                    groupLink[HierarchicalClustering.index(numberOfGroups, groupOfCluster[a], groupOfCluster[b])] =
+                            clusterLink[HierarchicalClustering.index(numberOfClusters, a, b)];
+        //the linkage of the other groups is calculated from the rows of their instance-seed-pairs
+        for(int i=0; i<n; i++){
+            if(group[i] < numberOfUnaffectedGroups)
+                continue;
+            for(int j=0; j<n; j++){
+                if(group[j] == group[i] || (group[j] >= numberOfUnaffectedGroups && j < i))
                     continue;
-                distMat.set(mergeA.getSecond(), cl.getSecond(), 
-                            calculateClusterDistance(mergeA.getFirst(), cl.getFirst()));
+                link(groupLink, HierarchicalClustering.index(numberOfGroups, group[i], group[j]),
+                     resources.calculateInstanceDistance(idSeeds[i], idSeeds[j]));
             }
         }
+        double[] groupDist = groupLink.clone();
+        if(linkage == Linkage.AVERAGE)
+            for(int a=0; a<numberOfGroups; a++)
+                for(int b=a+1; b<numberOfGroups; b++)
+                    groupDist[HierarchicalClustering.index(numberOfGroups, a, b)] /= (double)sizes[a]*sizes[b];
+        Cluster[] clusters = agglomerate(group, numberOfGroups, groupDist, groupLink);
+        log("Done! Time elapsed: "+(System.currentTimeMillis()-time)+"ms.");
+        return clusters;
+    }
+    
+    /** merges groups of instance-seed-pairs bottom-up, stores the resulting cluster of each
+     * instance-seed-pair in clusterOf and the linkage between the clusters in clusterLink
+     * 
+     * @param group the group of each instance-seed-pair, numbered 0 through numberOfGroups-1
+     * @param numberOfGroups
+     * @param groupDist the distances between the groups as determined by the linkage, used as work space
+     * @param groupLink the linkage between the groups (for average linkage the sum of the distances) to
+     * calculate the linkage between the clusters from
+     * @return the clustering
+     */
+    private Cluster[] agglomerate(int[] group, int numberOfGroups, double[] groupDist, double[] groupLink){
+        int n = idSeeds.length;
+        Cluster[] slots = new Cluster[numberOfGroups];
+        int[] sizes = new int[numberOfGroups];
+        for(int i=0; i<n; i++){
+            if(slots[group[i]] == null)
+                slots[group[i]] = new Cluster(idSeeds[i]);
+            else
+                slots[group[i]].addInstance(idSeeds[i]);
+            sizes[group[i]]++;
+        }
+        HierarchicalClustering hc = new HierarchicalClustering(numberOfGroups, groupDist, sizes, linkage, true);
+        groupDist = null;
+        //apply the merges in ascending order of distance; merge a is merged into slot b
+        int[] mergedInto = new int[numberOfGroups];
+        for(int g=0; g<numberOfGroups; g++)
+            mergedInto[g] = g;
+        int k = numberOfGroups;
+        for(int m=0; m<numberOfGroups-1 && terminationCriterion(k); m++){
+            int[] merge = hc.getMerge(m);
+            Cluster mergeA = slots[merge[1]], mergeB = slots[merge[0]];
+            if(!isMergeViable(mergeA, mergeB))
+                break;
+            mergeA.mergeClusters(mergeB);
+            slots[merge[0]] = null;
+            mergedInto[merge[0]] = merge[1];
+            k--;
+        }
         log("Establishing clustering ... ");
-        Cluster[] clusters = new Cluster[clusterList.size()];
+        Cluster[] clusters = new Cluster[k];
+        int[] clusterOfGroup = new int[numberOfGroups];
         int clusterPos = 0;
-        for(Pair<Cluster,Integer> cl : clusterList){
-            clusters[clusterPos] = cl.getFirst(); 
+        for(int g=0; g<numberOfGroups; g++){
+            if(slots[g] == null)
+                continue;
+            clusters[clusterPos] = slots[g];
+            clusterOfGroup[g] = clusterPos;
             clusterPos++;
-        }        
-        log("Done! Time elapsed: "+(System.currentTimeMillis()-time)+"ms.");
+        }
+        for(int g=0; g<numberOfGroups; g++){
+            int r = g;
+            while(mergedInto[r] != r)
+                r = mergedInto[r];
+            clusterOfGroup[g] = clusterOfGroup[r];
+        }
+        clusterOf = new int[n];
+        for(int i=0; i<n; i++)
+            clusterOf[i] = clusterOfGroup[group[i]];
+        //keep the linkage between the clusters for the next update
+        numberOfClusters = k;
+        clusterLink = new double[HierarchicalClustering.condensedSize(k)];
+        if(linkage == Linkage.SINGLE)
+            Arrays.fill(clusterLink, Double.POSITIVE_INFINITY);
+        int ix = 0;
+        for(int a=0; a<numberOfGroups; a++)
+            for(int b=a+1; b<numberOfGroups; b++, ix++)
+                if(clusterOfGroup[a] != clusterOfGroup[b])
+                    link(clusterLink, HierarchicalClustering.index(k, clusterOfGroup[a], clusterOfGroup[b]),
+                         groupLink[ix]);
         return clusters;
     }
     
+    /** combines a distance into the linkage at position ix: minimum, maximum or sum of the distances
+     */
+    private void link(double[] link, int ix, double distance){
+        switch(linkage){
+        case SINGLE:
+            link[ix] = Math.min(link[ix], distance);
+            break;
+        case COMPLETE:
+            link[ix] = Math.max(link[ix], distance);
+            break;
+        default:
+            link[ix] += distance;
+        }
+    }
+    
     /** determines, whether or not to continue the clustering process
      * 
-     * @param clusterList the current clustering
+     * @param numberOfClusters the number of clusters in the current clustering
      * @return true, if the clustering process should continue; false, if the clustering is finished 
      */
-    protected boolean terminationCriterion(List<Pair<Cluster,Integer>> clusterList){
+    protected boolean terminationCriterion(int numberOfClusters){
         // false = terminate; true = continue
         if(!useVarianceCriterion){
-            if(clusterList.size()<=staticClusterNumber)
+            if(numberOfClusters<=staticClusterNumber)
                 return false;
         }
         
-        if(clusterList.size() < 2)
+        if(numberOfClusters < 2)
             return false;
         return true;
     }
@@ -164,26 +297,4 @@ public abstract class Algorithm_GreedyBottomUp implements ClusteringAlgorithm {
     protected void log(String message){
         handler.log(message);
     }
-}
-
-class DistanceMatrix{
-    private double[][] distMat;
-    
-    public DistanceMatrix(int size){
-        distMat = new double[size][size];
-        for(int i=0; i<size; i++)
-            for(int j=0; j<size; j++)
-                distMat[i][j] = Double.MAX_VALUE;
-    }
-    
-    public void set(int i, int j, double value){
-        if(i==j)
-            return;
-        distMat[i][j] = value;
-        distMat[j][i] = value;        
-    }
-    
-    public double get(int i, int j){
-        return distMat[i][j];
-    }
 }
\ No newline at end of file
@@ -24,8 +24,15 @@ public class ClusterHandler implements ClusterMethods{
     protected API api;
     protected int expID;
     protected HashMap<InstanceIdSeed, InstanceData> data;    
-    protected HashMap<InstanceIdSeed, Integer> instanceClusterMap;
     protected Cluster[] clusters;
+    //dense index of the instance-seed-pairs of the course; the data and the cluster of each indexed
+    //instance-seed-pair and the members of each cluster as bitsets over the index (64 indices per word)
+    protected InstanceSeedIndex instanceIndex;
+    protected InstanceData[] indexedData;
+    protected int[] clusterOfIndex;
+    protected long[][] clusterMembers;
+    //bitsets of the instance-seed-pairs of the solver configurations' jobs, see getInstances(sc)
+    private Map<SolverConfiguration, JobInstances> jobInstances = new WeakHashMap<SolverConfiguration, JobInstances>();
 	
     private Parameters params;
     private List<SolverConfiguration> firstSCs;
@@ -61,6 +68,14 @@ public class ClusterHandler implements ClusterMethods{
     //otherwise, this means the number of solverconfigs whose data has been added since the last recalculation
     private int recalculationThreshold = 38400;
     
+    //if the clustering algorithm can update a clustering, only every fullRecalculationInterval-th
+    //recalculation calculates the clustering from scratch, the others update the last clustering with the
+    //data of the instance-seed-pairs that have changed since then
+    private int fullRecalculationInterval = 10;
+    //number of updates since the clustering has been calculated from scratch
+    private int clusteringUpdates = 0;
+    //instance-seed-pairs whose data has changed since the last (re)calculation
+    private HashSet<InstanceIdSeed> changedInstances = new HashSet<InstanceIdSeed>();
     
     //when a random instance is to be selected from a cluster, should
     //instances with high variance of cost have a higher chance of being picked?
@@ -93,6 +108,10 @@ public class ClusterHandler implements ClusterMethods{
 			numberOfMinStartupSCs = Integer.parseInt(parameters
 					.get("Roar_minStartupSCs"));
 		}
+		if (parameters.containsKey("Roar_ClusterFullRecalculationInterval")) {
+			fullRecalculationInterval = Integer.parseInt(parameters
+					.get("Roar_ClusterFullRecalculationInterval"));
+		}
         // Initialise Algorithms and Resources here
 		algorithmClass = ClassLoader.getSystemClassLoader().loadClass(
 				"edacc.configurator.aac.clustering." + algorithmName);
@@ -105,13 +124,17 @@ public class ClusterHandler implements ClusterMethods{
         // End algorithm+resources initialisation
         
         //initialise data
-        instanceClusterMap = new HashMap<InstanceIdSeed, Integer>();
         data = new HashMap<InstanceIdSeed, InstanceData>();
         Course course = api.getCourse(params.getIdExperiment());       
+        instanceIndex = new InstanceSeedIndex(course.getInstanceSeedList().size());
         for(InstanceSeed is : course.getInstanceSeedList()){
             data.put(new InstanceIdSeed(is.instance.getId(), is.seed), 
                         new InstanceData(is.instance.getId(), is.seed, params.getStatistics().getCostFunction()));
+            instanceIndex.add(new InstanceIdSeed(is.instance.getId(), is.seed));
         }
+        indexedData = new InstanceData[instanceIndex.size()];
+        for(int i=0; i<indexedData.length; i++)
+            indexedData[i] = data.get(instanceIndex.get(i));
         if(ClusteringResources.isInitialDataRequired(resourcesName)) {
         	List<SolverConfiguration> startupSCs = initClusteringData();
         	for (SolverConfiguration sc : startupSCs) {
@@ -129,15 +152,52 @@ public class ClusterHandler implements ClusterMethods{
     
     private void calculateClustering(){
 	clusters = algorithm.calculateClustering(resources.prepareInstances());
-	clusters = resources.establishClustering(clusters);
-        instanceClusterMap.clear();
+        clusteringUpdates = 0;
+        establishClustering(clusters);
+    }
+    
+    /** recalculates the clustering on new data. If the clustering algorithm can update a clustering and the
+     * last full calculation isn't fullRecalculationInterval recalculations ago, the last clustering is
+     * updated, otherwise it is calculated from scratch.
+     */
+    private void recalculateClustering(){
+        Cluster[] updatedClusters = null;
+        if(algorithm instanceof IncrementalClusteringAlgorithm && clusteringUpdates+1 < fullRecalculationInterval)
+            updatedClusters = ((IncrementalClusteringAlgorithm)algorithm)
+                    .updateClustering(resources.prepareInstances(), changedInstances);
+        if(updatedClusters == null){
+            calculateClustering();
+            return;
+        }
+        clusteringUpdates++;
+        establishClustering(updatedClusters);
+    }
+    
+    private void establishClustering(Cluster[] temporaryClustering){
+	clusters = resources.establishClustering(temporaryClustering);
+        changedInstances.clear();
+        clusterOfIndex = new int[instanceIndex.size()];
+        Arrays.fill(clusterOfIndex, -1);
+        clusterMembers = new long[clusters.length][];
         for(int i=0; i<clusters.length; i++){
+            clusterMembers[i] = newIndexSet();
             for(InstanceIdSeed idSeed : clusters[i].getInstances()){
-                instanceClusterMap.put(idSeed, i);
+                int index = instanceIndex.indexOf(idSeed);
+                if(index < 0)
+                    continue;
+                clusterOfIndex[index] = i;
+                clusterMembers[i][index >>> 6] |= 1L << index;
             }
         }
     }
     
+    /** returns the cluster of the instance-seed-pair of a result, or -1 if it is not part of any cluster
+     */
+    private int clusterOf(ExperimentResult r){
+        int index = instanceIndex.indexOf(r.getInstanceId(), r.getSeed());
+        return index < 0 ? -1 : clusterOfIndex[index];
+    }
+    
     /* Returns the number of instances contained in each cluster
      * 
      * @return the number of instances in the specified cluster
@@ -164,44 +224,39 @@ public class ClusterHandler implements ClusterMethods{
             resultClusterMap[i] = new LinkedList<ExperimentResult>();
         }
         
-        int clusterNr;
-        InstanceIdSeed idSeed;
         for(ExperimentResult r : sc.getFinishedJobs()){
-            idSeed = new InstanceIdSeed(r.getInstanceId(), r.getSeed());
-            clusterNr = instanceClusterMap.get(idSeed);
-            resultClusterMap[clusterNr].add(r);
+            resultClusterMap[clusterOf(r)].add(r);
         }
         return resultClusterMap;
     }
     
     public int[] countRunPerCluster(SolverConfiguration sc){
         int[] numRuns = new int[clusters.length];
-        for(int i=0; i<clusters.length; i++)
-            numRuns[i] = clusters[i].countRuns(sc);
+        int clusterNr;
+        for(ExperimentResult r : sc.getFinishedJobs()){
+            clusterNr = clusterOf(r);
+            if(clusterNr >= 0)
+                numRuns[clusterNr]++;
+        }
         return numRuns;
     }
    
     public int clusterOfInstance(ExperimentResult res) {
         if(res == null)
             return -1;
-        InstanceIdSeed inst = new InstanceIdSeed(res.getInstanceId(), res.getSeed());
-        for(int i=0; i<clusters.length; i++)
-            if(clusters[i].contains(inst))
-                return i;
-        return -1;
+        return clusterOf(res);
     }
     
     
     public InstanceIdSeed getInstanceInCluster(int clusterNumber) {
-        return getRandomInstance(clusters[clusterNumber].getInstances());
+        return getRandomInstance(clusterMembers[clusterNumber]);
     }
     /* returns an InstanceIdSeed in the specified cluster that the solverConfig has not yet completed
      * 
      */
     public InstanceIdSeed getInstanceInCluster(int clusterNr, SolverConfiguration solverConfig){
-        List<InstanceIdSeed> clusterInstances = clusters[clusterNr].getInstances();
-        List<InstanceIdSeed> tmpList = getInstances(solverConfig);
-        clusterInstances.removeAll(tmpList);//clusterInstances is a copy of the cluster's list -> no side effects
+        long[] clusterInstances = clusterMembers[clusterNr].clone();
+        andNot(clusterInstances, getInstances(solverConfig));
         InstanceIdSeed newInstance = getRandomInstance(clusterInstances);
         if(newInstance == null)
             log("ERROR: ClusterHandler.getInstanceInCluster returns null instance!");        
@@ -213,11 +268,10 @@ public class ClusterHandler implements ClusterMethods{
      */
     public InstanceIdSeed getInstanceInCluster(int clusterNr, 
             SolverConfiguration solverConfig, SolverConfiguration incumbent){
-        List<InstanceIdSeed> clusterInstances = clusters[clusterNr].getInstances();
-        List<InstanceIdSeed> solverConfigInstances = getInstances(solverConfig);
-        List<InstanceIdSeed> incumbentInstances = getInstances(incumbent);
-        clusterInstances.retainAll(incumbentInstances);
-        clusterInstances.removeAll(solverConfigInstances);
+        long[] clusterInstances = clusterMembers[clusterNr].clone();
+        long[] incumbentInstances = getInstances(incumbent), solverConfigInstances = getInstances(solverConfig);
+        for(int w=0; w<clusterInstances.length; w++)
+            clusterInstances[w] &= incumbentInstances[w] & ~solverConfigInstances[w];
         InstanceIdSeed newInstance = getRandomInstance(clusterInstances);
         if(newInstance == null)
             log("Error: ClusterHandler.getInstanceInCluster returns null!");
@@ -225,10 +279,9 @@ public class ClusterHandler implements ClusterMethods{
     }
     
     public List<InstanceIdSeed> getInstancesInCluster(int clusterNr, SolverConfiguration sc, int numOfConfigs){
-        List<InstanceIdSeed> clusterInstances = clusters[clusterNr].getInstances();
-        List<InstanceIdSeed> tmpList = getInstances(sc);
-        clusterInstances.removeAll(tmpList);
-        if(numOfConfigs > clusterInstances.size())
+        long[] clusterInstances = clusterMembers[clusterNr].clone();
+        andNot(clusterInstances, getInstances(sc));
+        if(numOfConfigs > cardinality(clusterInstances))
             return null;    //expected behaviour, see documentation in ClusterMethods interface
         
         LinkedList<InstanceIdSeed> resultList = new LinkedList<InstanceIdSeed>();
@@ -236,42 +289,72 @@ public class ClusterHandler implements ClusterMethods{
         for(int i=0; i<numOfConfigs; i++){
             tmp = getRandomInstance(clusterInstances);
             resultList.add(tmp);
-            clusterInstances.remove(tmp);
+            int index = instanceIndex.indexOf(tmp);
+            clusterInstances[index >>> 6] &= ~(1L << index);
         }
         return resultList;
     }
     
-    protected InstanceIdSeed getRandomInstance(List<InstanceIdSeed> instances){
-        if(instances.isEmpty())
+    /** selects a random instance-seed-pair from a set of indexed instance-seed-pairs
+     * 
+     * @param instances bitset of the indices of the instance-seed-pairs
+     * @return the selected instance-seed-pair, or null if the set is empty
+     */
+    protected InstanceIdSeed getRandomInstance(long[] instances){
+        int numberOfInstances = cardinality(instances);
+        if(numberOfInstances == 0)
             return null;
-        for(InstanceIdSeed idSeed : instances)
-            if(idSeed==null)
-                System.out.println("Error: ClusterHandler.getRandomInstance: list of instances contains null elements!");
-        LinkedList<InstanceData> datList = new LinkedList<InstanceData>();
-        for(InstanceIdSeed inst : instances)
-            datList.add(data.get(inst));       
         
         if(!preferHighVarianceInstances){
-            int index = rng.nextInt(datList.size());
-            return datList.get(index).getInstanceIdSeed();
+            //skip whole words by their number of set bits, then the lowest set bits of the selected word
+            int k = rng.nextInt(numberOfInstances);
+            int w = 0;
+            for(; k >= Long.bitCount(instances[w]); w++)
+                k -= Long.bitCount(instances[w]);
+            long word = instances[w];
+            for(; k > 0; k--)
+                word &= word - 1;
+            return instanceIndex.get((w << 6) + Long.numberOfTrailingZeros(word));
         }
         
         //randomly select instance; preferring instances with high variance
+        //(the order of the instances doesn't affect the probability of selecting an instance)
         double varianceSum = 0;
-        for(InstanceData id : datList)
-            varianceSum += id.getNormalisedVariance();
-        
-        //this orders the list in _descending_ order!
-        Collections.sort(datList, new InstanceDataComparator());
+        for(int w=0; w<instances.length; w++)
+            for(long word=instances[w]; word != 0; word &= word - 1)
+                varianceSum += indexedData[(w << 6) + Long.numberOfTrailingZeros(word)].getNormalisedVariance();
         
         double randomVal = rng.nextDouble()*varianceSum;
-        for(InstanceData id : datList){
-            if(randomVal < id.getNormalisedVariance())
-                return id.getInstanceIdSeed();
-            else
-                randomVal -= id.getNormalisedVariance();
+        int last = -1;
+        for(int w=0; w<instances.length; w++){
+            for(long word=instances[w]; word != 0; word &= word - 1){
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                if(randomVal < indexedData[i].getNormalisedVariance())
+                    return instanceIndex.get(i);
+                else
+                    randomVal -= indexedData[i].getNormalisedVariance();
+                last = i;
+            }
         }
-        return datList.get(datList.size()-1).getInstanceIdSeed();
+        return instanceIndex.get(last);
+    }
+    
+    /** returns an empty bitset over the indexed instance-seed-pairs
+     */
+    private long[] newIndexSet(){
+        return new long[(instanceIndex.size() + 63) >>> 6];
+    }
+    
+    private static void andNot(long[] set, long[] other){
+        for(int w=0; w<set.length; w++)
+            set[w] &= ~other[w];
+    }
+    
+    private static int cardinality(long[] set){
+        int cardinality = 0;
+        for(long word : set)
+            cardinality += Long.bitCount(word);
+        return cardinality;
     }
 
     public void addDataForClustering(SolverConfiguration sc) {
@@ -280,7 +363,7 @@ public class ClusterHandler implements ClusterMethods{
         if(resources.recalculateOnNewData() && recalculationCriterion()){
             log("Recalculating clustering: "+newDataAvailable
                     +" new SolverConfigurations since last clustering was established");
-            calculateClustering();            
+            recalculateClustering();
             newDataAvailable = 0;
             cpuTimeElapsed = getCPUTime();
         }        
@@ -317,6 +400,7 @@ public class ClusterHandler implements ClusterMethods{
                     new InstanceIdSeed(r.getInstanceId(), r.getSeed());
             InstanceData id = data.get(inst);
             id.addValue(r);
+            changedInstances.add(inst);
         }
     }
     
@@ -338,20 +422,18 @@ public class ClusterHandler implements ClusterMethods{
 			competitorClusterJobs.add(new LinkedList<ExperimentResult>());
 		}
 		for (ExperimentResult res : sc.getFinishedJobs()) {
-			InstanceIdSeed tmpInstance = new InstanceIdSeed(res.getInstanceId(), res.getSeed());
-			if(!instanceClusterMap.containsKey(tmpInstance)) {
+			int clusterID = clusterOf(res);
+			if(clusterID < 0) {
 				log(" ERROR: An instance ("+ res.getInstanceId()+";"+ res.getSeed() +") was found with no entry in any cluster!");
 			} else {
-				int clusterID = instanceClusterMap.get(new InstanceIdSeed(res.getInstanceId(), res.getSeed()));
 				scClusterJobs.get(clusterID).add(res);
 			}
 		}
 		for (ExperimentResult res : competitor.getFinishedJobs()) {
-			InstanceIdSeed tmpInstance = new InstanceIdSeed(res.getInstanceId(), res.getSeed());
-			if(!instanceClusterMap.containsKey(tmpInstance)) {
+			int clusterID = clusterOf(res);
+			if(clusterID < 0) {
 				log(" ERROR: An instance ("+ res.getInstanceId()+";"+ res.getSeed() +") was found with no entry in any cluster!");
 			} else {
-				int clusterID = instanceClusterMap.get(new InstanceIdSeed(res.getInstanceId(), res.getSeed()));
 				competitorClusterJobs.get(clusterID).add(res);
 			}
 		}
@@ -389,12 +471,34 @@ public class ClusterHandler implements ClusterMethods{
         return s;
     }
     
-    protected List<InstanceIdSeed> getInstances(SolverConfiguration sc){
-        LinkedList<InstanceIdSeed> list = new LinkedList<InstanceIdSeed>();
+    /** returns the indexed instance-seed-pairs the solver configuration has jobs on as a bitset
+     * the bitset is cached until the solver configuration's jobs change and must not be modified
+     */
+    protected long[] getInstances(SolverConfiguration sc){
+        JobInstances cached = jobInstances.get(sc);
+        if(cached != null && cached.jobCount == sc.getJobCount()
+                && cached.jobRemovalCount == sc.getJobRemovalCount())
+            return cached.instances;
+        cached = new JobInstances();
+        cached.jobCount = sc.getJobCount();
+        cached.jobRemovalCount = sc.getJobRemovalCount();
+        cached.instances = newIndexSet();
+        int index;
         for(ExperimentResult r : sc.getJobs()){
-            list.add(new InstanceIdSeed(r.getInstanceId(), r.getSeed()));
+            index = instanceIndex.indexOf(r.getInstanceId(), r.getSeed());
+            if(index >= 0)
+                cached.instances[index >>> 6] |= 1L << index;
         }
-        return list;
+        jobInstances.put(sc, cached);
+        return cached.instances;
+    }
+    
+    /** the bitset of a solver configuration's jobs with the job counts it was built from
+     */
+    private static class JobInstances{
+        int jobCount;
+        int jobRemovalCount;
+        long[] instances;
     }
     
     protected void log(String message){
@@ -511,17 +615,4 @@ public class ClusterHandler implements ClusterMethods{
 	public SolverConfiguration initBestSC() {
 		return bestSC;
 	}
-}
-
-class InstanceDataComparator implements Comparator<InstanceData>{
-    //this comparator is supposed to be used to order elements in _descending_
-    //order
-    public int compare(InstanceData t, InstanceData t1) {
-        if(t.getNormalisedVariance() == t1.getNormalisedVariance())
-            return 0;
-        if(t.getNormalisedVariance() < t1.getNormalisedVariance())
-            return 1;
-        else
-            return -1;
-    }    
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package edacc.configurator.aac.clustering;
+
+import edacc.configurator.aac.InstanceIdSeed;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A clustering algorithm that can update the clustering it has calculated last instead of calculating a new
+ * clustering from scratch, if only the data of a few instance-seed-pairs has changed in the meantime.
+ * The updated clustering may differ from the clustering calculateClustering would return, ClusterHandler
+ * therefore still calculates the clustering from scratch from time to time.
+ *
+ * @author mugrauer
+ */
+public interface IncrementalClusteringAlgorithm extends ClusteringAlgorithm {
+    
+    /**
+     * updates the clustering calculated last by this algorithm
+     * 
+     * @param instances the instance-seed-pairs to divide into clusters, as returned by
+     *          ClusteringResources.prepareInstances()
+     * @param changedInstances the instance-seed-pairs whose data has changed since the last clustering
+     * @return the updated clustering, or null if the clustering can't be updated, e.g. because no clustering
+     *          has been calculated yet or the instances differ from those of the last clustering
+     */
+    public Cluster[] updateClustering(List<InstanceIdSeed> instances, Set<InstanceIdSeed> changedInstances);
+    
+}
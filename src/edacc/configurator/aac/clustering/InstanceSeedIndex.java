@@ -0,0 +1,105 @@
+package edacc.configurator.aac.clustering;
+
+import edacc.configurator.aac.InstanceIdSeed;
+import java.util.Arrays;
+
+/**
+ * Maps instance-seed-pairs to the dense indices 0 through size()-1 in the order they are added, so that
+ * sets of instance-seed-pairs can be represented as bitsets.
+ * The lookup by instance id and seed uses an open addressing hash table of (instance id, seed) keys and
+ * doesn't allocate any objects.
+ *
+ * @author mugrauer
+ */
+class InstanceSeedIndex {
+    private InstanceIdSeed[] instances;
+    private int size;
+    //hash table: keys and indices, an index of -1 marks an empty slot
+    private long[] keys;
+    private int[] indices;
+    private int shift;
+    
+    public InstanceSeedIndex(int expectedSize){
+        instances = new InstanceIdSeed[Math.max(1, expectedSize)];
+        size = 0;
+        int capacity = 2;
+        shift = 63;
+        while(capacity < 2*expectedSize){
+            capacity <<= 1;
+            shift--;
+        }
+        keys = new long[capacity];
+        indices = new int[capacity];
+        Arrays.fill(indices, -1);
+    }
+    
+    private static long key(int instanceId, int seed){
+        return ((long)instanceId << 32) | (seed & 0xffffffffL);
+    }
+    
+    private int slot(long key){
+        int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+        while(indices[slot] >= 0 && keys[slot] != key)
+            slot = (slot + 1) & (keys.length - 1);
+        return slot;
+    }
+    
+    /** adds an instance-seed-pair to the index
+     * 
+     * @return the index of the instance-seed-pair
+     */
+    public int add(InstanceIdSeed idSeed){
+        long key = key(idSeed.instanceId, idSeed.seed);
+        int slot = slot(key);
+        if(indices[slot] >= 0)
+            return indices[slot];
+        if(2*(size+1) > keys.length){
+            rehash();
+            slot = slot(key);
+        }
+        if(size == instances.length)
+            instances = Arrays.copyOf(instances, 2*size);
+        keys[slot] = key;
+        indices[slot] = size;
+        instances[size] = idSeed;
+        return size++;
+    }
+    
+    private void rehash(){
+        keys = new long[2*keys.length];
+        indices = new int[keys.length];
+        Arrays.fill(indices, -1);
+        shift--;
+        for(int i=0; i<size; i++){
+            long key = key(instances[i].instanceId, instances[i].seed);
+            int slot = slot(key);
+            keys[slot] = key;
+            indices[slot] = i;
+        }
+    }
+    
+    /** 
+     * @return the index of the instance-seed-pair, or -1 if it hasn't been added to the index
+     */
+    public int indexOf(int instanceId, int seed){
+        return indices[slot(key(instanceId, seed))];
+    }
+    
+    public int indexOf(InstanceIdSeed idSeed){
+        return indexOf(idSeed.instanceId, idSeed.seed);
+    }
+    
+    /** 
+     * @return the instance-seed-pair with the given index
+     */
+    public InstanceIdSeed get(int index){
+        return instances[index];
+    }
+    
+    /**
+     * @return the number of instance-seed-pairs in the index
+     */
+    public int size(){
+        return size;
+    }
+}
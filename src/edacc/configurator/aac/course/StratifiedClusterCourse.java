@@ -24,6 +24,7 @@ import edacc.configurator.math.ClusterSilhouette;
  * Builds a racing course of instance-seed pairs where seeds are drawn at random.
  * All instances are first clustered based on instance-features that are thought to
  * capture the characteristic properties of the class (or distribution) of each instance.
+ * The clustering is done by R if a rengine is given and natively otherwise.
  * 
  * Within each cluster instances are sorted according to a property that reflects their size,
  * i.e. a property that probably highly correlates with the time it takes to solve that instance.
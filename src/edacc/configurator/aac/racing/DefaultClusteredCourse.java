@@ -26,6 +26,7 @@ public class DefaultClusteredCourse extends RacingMethods {
 	
 	private String featureFolder = null;
 	private String featureCacheFolder = null;
+	private String testImplementation = "R"; // R, java
 
 	public DefaultClusteredCourse(AAC proar, Random rng, API api, Parameters parameters, List<SolverConfiguration> firstSCs, List<SolverConfiguration> referenceSCs) throws Exception {
 		super(proar, rng, api, parameters, firstSCs, referenceSCs);
@@ -37,16 +38,21 @@ public class DefaultClusteredCourse extends RacingMethods {
             featureFolder = val;
         if ((val = parameters.getRacingMethodParameters().get("DefaultClusteredCourse_featureCacheFolder")) != null)
             featureCacheFolder = val;
+        if ((val = parameters.getRacingMethodParameters().get("DefaultClusteredCourse_testImplementation")) != null)
+            testImplementation = val;
 		
-        rengine = RInterface.getRengine();
-
-        if (rengine.eval("library(asbio)") == null) {
-            rengine.end();
-            throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
-        }
-        if (rengine.eval("library(survival)") == null) {
-            rengine.end();
-            throw new Exception("Did not find R library survival (should come with R though).");
+        if ("R".equals(testImplementation)) {
+            rengine = RInterface.getRengine();
+            if (rengine.eval("library(asbio)") == null) {
+                rengine.end();
+                throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
+            }
+            if (rengine.eval("library(survival)") == null) {
+                rengine.end();
+                throw new Exception("Did not find R library survival (should come with R though).");
+            }
+        } else if (!"java".equals(testImplementation)) {
+            throw new IllegalArgumentException("Unknown DefaultClusteredCourse_testImplementation: " + testImplementation);
         }
 		
 		this.completeCourse = new StratifiedClusterCourse(rengine, api.getExperimentInstances(parameters.getIdExperiment()), null, null, parameters.getMaxParcoursExpansionFactor(), rng, featureFolder, featureCacheFolder, null).getCourse();
@@ -198,6 +204,11 @@ public class DefaultClusteredCourse extends RacingMethods {
 	@Override
 	public List<String> getParameters() {
 		List<String> p = new LinkedList<String>();
+		p.add("% --- DefaultClusteredCourse parameters ---");
+		p.add("DefaultClusteredCourse_featureFolder = " + featureFolder + " % (folder of the instance feature files used to cluster the instances)");
+		p.add("DefaultClusteredCourse_featureCacheFolder = " + featureCacheFolder + " % (folder to cache the computed instance features)");
+		p.add("DefaultClusteredCourse_testImplementation = " + testImplementation + " % (R: load the R libraries asbio and survival for the statistical tests and cluster the instances in R, java: native statistical tests and instance clustering without R, whose principal component signs may differ from R)");
+		p.add("% -----------------------");
 		return p;
 	}
 
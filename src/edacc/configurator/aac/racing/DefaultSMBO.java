@@ -43,6 +43,7 @@ public class DefaultSMBO extends RacingMethods implements JobListener {
     private String featureFolder = null;
     private String featureCacheFolder = null;
     private boolean useClusterCourse = false;
+    private String clusterImplementation = "R"; // R, java
 	// when selecting jobs from the incumbent, prefer jobs that didn't time out
 	private boolean aggressiveJobSelection = false;
 	private boolean adaptiveCapping = false;
@@ -79,16 +80,22 @@ public class DefaultSMBO extends RacingMethods implements JobListener {
             slackFactor = Float.valueOf(val);
         if ((val = parameters.getRacingMethodParameters().get("DefaultSMBO_clusterSizeExpansion")) != null)
             clusterSizeExpansion = Integer.valueOf(val) == 1;
+        if ((val = parameters.getRacingMethodParameters().get("DefaultSMBO_clusterImplementation")) != null)
+            clusterImplementation = val;
         
         if (useClusterCourse) {
-            rengine = RInterface.getRengine();
-            if (rengine.eval("library(asbio)") == null) {
-                rengine.end();
-                throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
-            }
-            if (rengine.eval("library(survival)") == null) {
-                rengine.end();
-                throw new Exception("Did not find R library survival (should come with R though).");
+            if ("R".equals(clusterImplementation)) {
+                rengine = RInterface.getRengine();
+                if (rengine.eval("library(asbio)") == null) {
+                    rengine.end();
+                    throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
+                }
+                if (rengine.eval("library(survival)") == null) {
+                    rengine.end();
+                    throw new Exception("Did not find R library survival (should come with R though).");
+                }
+            } else if (!"java".equals(clusterImplementation)) {
+                throw new IllegalArgumentException("Unknown DefaultSMBO_clusterImplementation: " + clusterImplementation);
             }
             
             pacc.log("[DefaultSMBO] Calculating instance hardness (" + parameters.getStatistics().getCostFunction().databaseRepresentation() + ") from reference configuration results:");
@@ -207,6 +214,7 @@ public class DefaultSMBO extends RacingMethods implements JobListener {
                     er.setResultCode(ResultCode.UNKNOWN);
                     apiER.setResultCode(ResultCode.UNKNOWN);
                 }
+                sc.jobModified(er);
             }
 
 			int comp = compareTo(sc, bestSC);
@@ -405,6 +413,7 @@ public class DefaultSMBO extends RacingMethods implements JobListener {
         p.add("DefaultSMBO_slackFactor = " + slackFactor + " % (Slack factor used with adaptive capping (new timeout = slackFactor * best known time))");
         p.add("DefaultSMBO_adaptiveCapping = " + (adaptiveCapping ? 1 : 0) + " % (Lower time limit on instances according to the results of the best configuration)");
         p.add("DefaultSMBO_clusterSizeExpansion = " + clusterSizeExpansion + " % (If the cluster course is used, give the incumbent configuration k additional runs instead of one (k = no. of clusters))");
+        p.add("DefaultSMBO_clusterImplementation = " + clusterImplementation + " % (If the cluster course is used, R: PCA and clustering of the instances via JRI, java: native PCA and clustering, whose principal component signs may differ from R)");
 		return p;
 	}
 
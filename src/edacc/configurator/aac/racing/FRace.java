@@ -37,6 +37,7 @@ public class FRace extends RacingMethods {
     private List<SolverConfiguration> initialRaceConfigurations;
     private List<SolverConfiguration> raceSurvivors;
     private Map<Integer, Map<SolverConfiguration, Double>> courseResults;
+    private FriedmanTest friedmanTest; // ranks of courseResults for the current race configurations
     private Map<SolverConfiguration, Double> lastRoundCost;
     private SolverConfiguration bestSC = null;
     private int level = 0; // current level (no. of jobs per config in the race)
@@ -101,15 +102,18 @@ public class FRace extends RacingMethods {
 
         if (curFinishedConfigurations.containsAll(raceConfigurations)) {
             pacc.log("c All "+raceConfigurations.size()+" currently racing configurations have finished their jobs (#Runs: " + (level + 1) + ")");
-            // fill result tableau
+            // fill result tableau, the rows up to the last level are complete already
             boolean changedCost = false;
+            int numRows = courseResults.size();
             for (SolverConfiguration solverConfig : raceConfigurations) {
                 int i = 0; // course entry number
                 for (ExperimentResult run : api.getRuns(parameters.getIdExperiment(), solverConfig.getIdSolverConfiguration())) {
                     if (i > level) break; // only consider runs up until the current level (already existing configurations might have more)
-                    if (!courseResults.containsKey(i))
-                        courseResults.put(i, new HashMap<SolverConfiguration, Double>());
-                    courseResults.get(i).put(solverConfig, parameters.getStatistics().getCostFunction().singleCost(run));
+                    if (i >= numRows) {
+                        if (!courseResults.containsKey(i))
+                            courseResults.put(i, new HashMap<SolverConfiguration, Double>());
+                        courseResults.get(i).put(solverConfig, parameters.getStatistics().getCostFunction().singleCost(run));
+                    }
                     i += 1;
                 }
                 pacc.log(solverConfig.getName() + " ID: " + solverConfig.getIdSolverConfiguration()  + " - Cost: " + solverConfig.getCost());
@@ -118,6 +122,17 @@ public class FRace extends RacingMethods {
                 }
                 lastRoundCost.put(solverConfig, solverConfig.getCost());
             }
+            // rank the new blocks
+            if (friedmanTest == null) {
+                friedmanTest = new FriedmanTest(raceConfigurations.size());
+            }
+            for (int i = numRows; i < courseResults.size(); i++) {
+                double[] block = new double[raceConfigurations.size()];
+                for (int j = 0; j < raceConfigurations.size(); j++) {
+                    block[j] = courseResults.get(i).get(raceConfigurations.get(j));
+                }
+                friedmanTest.addBlock(block);
+            }
             
             if (changedCost == false) {
                 pacc.log("None of the solver configurations costs changed. This probably means that all configurations always timed out. Aborting race.");
@@ -140,22 +155,14 @@ public class FRace extends RacingMethods {
                 WilcoxonSignedRankTest wtest = new WilcoxonSignedRankTest();
                 if (wtest.wilcoxonSignedRankTest(c1, c2, false) < alpha) {
                     if (raceConfigurations.get(0).compareTo(raceConfigurations.get(1)) == 1) {
-                        raceConfigurations.remove(1);
+                        removeFromRace(1);
                     } else {
-                        raceConfigurations.remove(0);
+                        removeFromRace(0);
                     }
                 } else {
                     pacc.log("wilcoxon signed-rank test didn't find a significant difference between the two solver configurations");
                 }
             } else {
-                double[][] data = new double[courseResults.size()][raceConfigurations.size()];
-                for (int i = 0; i < courseResults.size(); i++) {
-                    for (int j = 0; j < raceConfigurations.size(); j++) {
-                        data[i][j] = courseResults.get(i).get(raceConfigurations.get(j));
-                    }
-                }
-                
-                FriedmanTest friedmanTest = new FriedmanTest(courseResults.size(), raceConfigurations.size(), data);
                 double T = friedmanTest.familyTestStatistic();
                 if (friedmanTest.isFamilyTestSignificant(T, alpha)) {
                     // there is evidence that there is at least one solver
@@ -173,24 +180,27 @@ public class FRace extends RacingMethods {
                         this.bestSC = bestConfiguration;
                     }
     
-                    List<SolverConfiguration> worseConfigurations = new ArrayList<SolverConfiguration>();
+                    List<Integer> worseConfigurations = new ArrayList<Integer>();
                     int bestConfigurationIx = raceConfigurations.indexOf(bestConfiguration);
+                    // the post hoc test between two solver configurations compares the difference
+                    // of their rank sums against the same critical difference
+                    double criticalDifference = friedmanTest.postHocCriticalDifference(T, alpha);
+                    double bestRankSum = friedmanTest.getRankSum(bestConfigurationIx);
                     for (int j = 0; j < raceConfigurations.size(); j++) {
                         if (j == bestConfigurationIx) 
                             continue;
     
-                        // calculate Friedman post hoc test between the two solver
-                        // configuration results
-                        double F = friedmanTest.postHocTestStatistic(j, bestConfigurationIx, T);
-                        if (friedmanTest.isPostHocTestSignificant(F, alpha)) {
+                        if (Math.abs(friedmanTest.getRankSum(j) - bestRankSum) > criticalDifference) {
                             // the best and this configuration are significantly
                             // different enough to discard this one from the race
-                            worseConfigurations.add(raceConfigurations.get(j));
+                            worseConfigurations.add(j);
                             raceConfigurations.get(j).setFinished(true);
                             pacc.log("Removing " + raceConfigurations.get(j).getName() + " ("+raceConfigurations.get(j).getCost()+") from race because it is significantly worse than the best configuration ("+bestConfiguration.getCost()+")");
                         }
                     }
-                    raceConfigurations.removeAll(worseConfigurations);
+                    for (int w = worseConfigurations.size() - 1; w >= 0; w--) {
+                        removeFromRace(worseConfigurations.get(w));
+                    }
                     
                 } else {
                     pacc.log("family-wise comparison test indicated no significant differences between the configurations");
@@ -252,6 +262,7 @@ public class FRace extends RacingMethods {
         raceSurvivors.clear();
         curFinishedConfigurations.clear();
         courseResults.clear();
+        friedmanTest = null;
         raceConfigurations.clear();
         initialRaceConfigurations.clear();
         raceConfigurations.addAll(scs);
@@ -309,6 +320,18 @@ public class FRace extends RacingMethods {
         return "\nFRace racing method\n";
     }
     
+    /**
+     * Removes the configuration with index <code>ix</code> from the race and
+     * from the Friedman test.
+     * @param ix
+     */
+    private void removeFromRace(int ix) {
+        raceConfigurations.remove(ix);
+        if (friedmanTest != null) {
+            friedmanTest.removeTreatment(ix);
+        }
+    }
+    
     private void terminateRace() {
         pacc.log("The race ended with the following configurations remaining:");
         for (SolverConfiguration solverConfig: raceConfigurations) {
@@ -74,6 +74,7 @@ public class SMFRace extends RacingMethods {
     double initialRunsFactor = 0.05;
     double numRaceConfigurationsFactor = 10;
     int CPUFactor = 1;
+    String testImplementation = "R"; // R, java
 
     public SMFRace(AAC pacc, Random rng, API api, Parameters parameters, List<SolverConfiguration> firstSCs,
             List<SolverConfiguration> referenceSCs) throws Exception {
@@ -87,18 +88,6 @@ public class SMFRace extends RacingMethods {
         this.raceSurvivors = new ArrayList<SolverConfiguration>();
         this.lastRoundCost = new HashMap<SolverConfiguration, Double>();
 
-        rengine = RInterface.getRengine();
-
-        if (rengine.eval("library(asbio)") == null) {
-            rengine.end();
-            throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
-        }
-
-        if (rengine.eval("library(survival)") == null) {
-            rengine.end();
-            throw new Exception("Did not find R library survival (should come with R though).");
-        }
-
         String val;
         if ((val = parameters.getRacingMethodParameters().get("SMFRace_alpha")) != null)
             this.alpha = Double.parseDouble(val);
@@ -110,6 +99,28 @@ public class SMFRace extends RacingMethods {
             this.numRaceConfigurationsFactor = Double.parseDouble(val);
         if ((val = parameters.getRacingMethodParameters().get("SMFRace_CPUFactor")) != null)
             this.CPUFactor = Integer.parseInt(val);
+        if ((val = parameters.getRacingMethodParameters().get("SMFRace_testImplementation")) != null)
+            this.testImplementation = val;
+
+        if ("R".equals(testImplementation)) {
+            rengine = RInterface.getRengine();
+            if (rengine.eval("library(asbio)") == null) {
+                rengine.end();
+                throw new Exception("Did not find R library asbio (try running install.packages(\"asbio\")).");
+            }
+    
+            if (rengine.eval("library(survival)") == null) {
+                rengine.end();
+                throw new Exception("Did not find R library survival (should come with R though).");
+            }
+    
+            if (rengine.eval("library(surv2sample)") == null) {
+                rengine.end();
+                throw new Exception("Did not find R library surv2sample (try running install.packages(\"surv2sample\")).");
+            }
+        } else if (!"java".equals(testImplementation)) {
+            throw new IllegalArgumentException("Unknown SMFRace_testImplementation: " + testImplementation);
+        }
 
         this.Nmin = (int) Math.round(NminFactor * api.getConfigurableParameters(parameters.getIdExperiment()).size());
         this.initialRaceRuns = (int) Math.max(1, Math.round(initialRunsFactor * num_instances));
@@ -176,7 +187,7 @@ public class SMFRace extends RacingMethods {
                 }
     
                 if (anyCensored) {
-                    LogrankTest lr = new LogrankTest(rengine);
+                    LogrankTest lr = createLogrankTest();
                     if (lr.pValue(c1, c2, x1_censored, x2_censored) < alpha) {
                         if (raceConfigurations.get(0).compareTo(raceConfigurations.get(1)) == 1) {
                             raceConfigurations.remove(1);
@@ -278,7 +289,7 @@ public class SMFRace extends RacingMethods {
                         }
     
                         if (anyXcensored || anyYcensored) {
-                            LogrankTest lr = new LogrankTest(rengine);
+                            LogrankTest lr = createLogrankTest();
                             double lr_pvalue = lr.pValue(x, y, x_censored, y_censored);
                             pValueByConfiguration.put(raceConfigurations.get(j), lr_pvalue);
                         } else {
@@ -505,6 +516,10 @@ public class SMFRace extends RacingMethods {
             return 0; // race ongoing, don't create any new
     }
 
+    private LogrankTest createLogrankTest() {
+        return "R".equals(testImplementation) ? new LogrankTest(rengine) : new LogrankTest();
+    }
+
     @Override
     public List<String> getParameters() {
     	List<String> p = new LinkedList<String>();
@@ -522,6 +537,8 @@ public class SMFRace extends RacingMethods {
         p.add("SMFRace_CPUFactor = "
                         + this.CPUFactor
                         + " % (number of jobs to generate each round: at least 1 for each racing configuration, at most in total CPUFactor * #available cores)");
+        p.add("SMFRace_testImplementation = " + this.testImplementation
+                        + " % (R: tests of the R libraries asbio, survival and surv2sample and clustering via JRI, java: native tests and clustering without R; the native 2-sample test is always the logrank test, while R uses it only if the proportional hazards pretest rejects and the Cramer-von Mises type test otherwise)");
         p.add("% -----------------------");
         return p;
     }
@@ -12,6 +12,7 @@ import edacc.configurator.aac.SolverConfiguration;
 import edacc.configurator.aac.racing.FRace;
 import edacc.configurator.aac.racing.SMFRace;
 import edacc.configurator.math.SamplingSequence;
+import edacc.configurator.models.ParameterConfigurationEncoder;
 import edacc.parameterspace.Parameter;
 import edacc.parameterspace.ParameterConfiguration;
 import edacc.parameterspace.domain.CategoricalDomain;
@@ -24,6 +25,7 @@ import edacc.parameterspace.graph.ParameterGraph;
 public class RandomSequenceSampling extends SearchMethods {
     private ParameterGraph pspace;
     private List<Parameter> params;
+    private ParameterConfigurationEncoder encoder;
     private SamplingSequence sequence;
     private double sequenceValues[][];
     private int currentSequencePosition = 0;
@@ -49,6 +51,7 @@ public class RandomSequenceSampling extends SearchMethods {
             params.add(p);
         }
         
+        encoder = new ParameterConfigurationEncoder(params);
         sequenceValues = sequence.getSequence(params.size(), maxSamples);
     }
 
@@ -64,7 +67,7 @@ public class RandomSequenceSampling extends SearchMethods {
         
         for (int i = 0; i < num - solverConfigs.size(); i++) {
             if (currentSequencePosition + 1 > maxSamples) break;
-            ParameterConfiguration pc = mapRealTupleToParameters(sequenceValues[currentSequencePosition++]);
+            ParameterConfiguration pc = encoder.decode(pspace, rng, sequenceValues[currentSequencePosition++]);
             int idSC = api.createSolverConfig(parameters.getIdExperiment(), pc, "SN: " + currentSequencePosition);
             solverConfigs.add(new SolverConfiguration(idSC, pc, parameters.getStatistics()));
         }
@@ -75,47 +78,12 @@ public class RandomSequenceSampling extends SearchMethods {
     public List<String> getParameters() {
     	List<String> p = new LinkedList<String>();
     	p.add("% --- RandomSequenceSampling parameters ---");
-    	p.add("RandomSequenceSampling_samplingPath = <REQUIRED> % (Path to the external sequence generating program)");
+    	p.add("RandomSequenceSampling_samplingPath = % (Path to the external sequence generating program, empty to use the native Sobol sequence)");
     	p.add("RandomSequenceSampling_maxSamples = "+this.maxSamples+ " % (How many configurations should be evaluated at most)");
     	p.add("% -----------------------");
         return p;
     }
     
-    private ParameterConfiguration mapRealTupleToParameters(double[] values) {
-        ParameterConfiguration pc = pspace.getRandomConfiguration(rng);
-        int i = 0;
-        for (Parameter p: params) {
-            if (pc.getParameterValue(p) == null) continue;
-            double v = values[i++];
-            if (p.getDomain() instanceof RealDomain) {
-                RealDomain dom = (RealDomain)p.getDomain();
-                pc.setParameterValue(p, dom.getLow() + v * (dom.getHigh() - dom.getLow()));
-            } else if (p.getDomain() instanceof IntegerDomain) {
-                IntegerDomain dom = (IntegerDomain)p.getDomain();
-                pc.setParameterValue(p, Math.round(dom.getLow() + v * (dom.getHigh() - dom.getLow())));
-            } else if (p.getDomain() instanceof CategoricalDomain) {
-                CategoricalDomain dom = (CategoricalDomain)p.getDomain();
-                List<String> categories = new LinkedList<String>(dom.getCategories());
-                Collections.sort(categories);
-                int ix = (int) (v * categories.size());
-                if (ix == categories.size()) ix = 0;
-                pc.setParameterValue(p, categories.get(ix));
-            } else if (p.getDomain() instanceof OrdinalDomain) {
-                OrdinalDomain dom = (OrdinalDomain)p.getDomain();
-                int ix = (int) (v * dom.getOrdered_list().size());
-                if (ix == dom.getOrdered_list().size()) ix = 0;
-                pc.setParameterValue(p, dom.getOrdered_list().get(ix));
-            } else if (p.getDomain() instanceof FlagDomain) {
-                if (v < 0.5) {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.ON);
-                } else {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.OFF);
-                }
-            }
-        }
-        return pc;
-    }
-
 	@Override
 	public void searchFinished() {
 		// TODO Auto-generated method stub
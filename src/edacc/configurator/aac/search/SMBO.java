@@ -14,7 +14,8 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.math.MathException;
 import org.apache.commons.math3.distribution.ExponentialDistribution;
@@ -29,9 +30,10 @@ import edacc.configurator.aac.racing.FRace;
 import edacc.configurator.aac.racing.SMFRace;
 import edacc.configurator.aac.racing.DefaultSMBO;
 import edacc.configurator.aac.search.ibsutils.SolverConfigurationIBS;
-import edacc.configurator.aac.util.RInterface;
 import edacc.configurator.math.PCA;
 import edacc.configurator.math.SamplingSequence;
+import edacc.configurator.math.Seeds;
+import edacc.configurator.models.ParameterConfigurationEncoder;
 import edacc.configurator.models.rf.CensoredRandomForest;
 import edacc.configurator.models.rf.fastrf.utils.Gaussian;
 import edacc.configurator.models.rf.fastrf.utils.Utils;
@@ -72,6 +74,8 @@ public class SMBO extends SearchMethods {
     private double sequenceValues[][];
     
     private CensoredRandomForest model;
+    private ParameterConfigurationEncoder encoder;
+    private double[][] randomThetas = null; // encoded random candidates, reused across iterations
     
     private CostFunction par1CostFunc;
     private int randomSeqNum = 0;
@@ -103,6 +107,17 @@ public class SMBO extends SearchMethods {
     private String featureCacheFolder = null;
     
     private int numProcs = 1; // number of threads to use when optimizing selection criteria
+    private ExecutorService exec = null; // the numProcs threads, created on first use
+    private boolean incrementalModel = false; // update the model with new runs instead of refitting it
+    private int fullRefitInterval = 10; // number of incremental model updates between two full refits
+    private double subsampleFraction = 0; // fraction of the runs each tree is fitted on, 0 for bootstrap samples
+    
+    // data of the model for incremental updates
+    private List<double[]> modelTheta = null;
+    private Map<SolverConfiguration, Integer> modelThetaIx = null;
+    private Map<Integer, Double> modelCosts = null; // cost of each run in the model by job id
+    private Set<Integer> modelCensoredJobIds = null;
+    private int updatesSinceRefit = 0;
 
     public SMBO(AAC pacc, API api, Random rng, Parameters parameters, List<SolverConfiguration> firstSCs, List<SolverConfiguration> referenceSCs) throws Exception {
         super(pacc, api, rng, parameters, firstSCs, referenceSCs);
@@ -152,7 +167,7 @@ public class SMBO extends SearchMethods {
         }
         
         // Project instance features into lower dimensional space using PCA
-        PCA pca = new PCA(RInterface.getRengine());
+        PCA pca = new PCA();
         instanceFeatures = pca.transform(instanceFeatures.length, instanceFeatureNames.size(), instanceFeatures, numPC);
         pacc.log("c Using " + instanceFeatures[0].length + " instance features of " + instanceFeatures.length + " instances");
         double[][] pcaFeatures = new double[instanceFeatures.length][instanceFeatures[0].length];
@@ -171,6 +186,7 @@ public class SMBO extends SearchMethods {
         
         // Load information about the parameter space
         configurableParameters.addAll(api.getConfigurableParameters(parameters.getIdExperiment()));
+        encoder = new ParameterConfigurationEncoder(configurableParameters);
         int[] catDomainSizes = new int[configurableParameters.size() + instanceFeatureNames.size()];
         for (Parameter p: configurableParameters) {
             if (p.getDomain() instanceof FlagDomain) {
@@ -225,6 +241,8 @@ public class SMBO extends SearchMethods {
 
         // Initialize the predictive model
         model = new CensoredRandomForest(nTrees, logModel ? 1 : 0, kappaMax, 1.0, catDomainSizes, rng, condParents, condParentVals);
+        model.setNumThreads(numProcs);
+        model.setSubsampleFraction(subsampleFraction);
         
         // Initialize pseudo-random sequence for the initial sampling
         sequence = new SamplingSequence(samplingPath);
@@ -285,8 +303,8 @@ public class SMBO extends SearchMethods {
             int sampledConfigs = Math.min(num, numInitialConfigurationsFactor * configurableParameters.size() - generatedConfigs.size());
             // Start the search with an initial design of random configurations
             for (int i = 0; i < sampledConfigs; i++) {
-                ParameterConfiguration pc = mapRealTupleToParameters(sequenceValues[randomSeqNum++]);
-                while (pspace.validateParameterConfiguration(pc) == false) pc = mapRealTupleToParameters(sequenceValues[randomSeqNum++]);
+                ParameterConfiguration pc = encoder.decode(pspace, rng, sequenceValues[randomSeqNum++]);
+                while (pspace.validateParameterConfiguration(pc) == false) pc = encoder.decode(pspace, rng, sequenceValues[randomSeqNum++]);
                 int idSC = api.createSolverConfig(parameters.getIdExperiment(), pc, "SN: " + randomSeqNum);
                 rssConfigs.add(new SolverConfiguration(idSC, pc, parameters.getStatistics()));
             }
@@ -391,7 +409,7 @@ public class SMBO extends SearchMethods {
             
             double f_min = bestConfigs.get(0).getCost();
             if (logModel) f_min = Math.log10(f_min);
-            //double[][] inc_theta_pred = model.predict(new double[][] {paramConfigToTuple(bestConfigs.get(0).getParameterConfiguration())});
+            //double[][] inc_theta_pred = model.predict(new double[][] {encoder.encode(bestConfigs.get(0).getParameterConfiguration())});
             //f_min = inc_theta_pred[0][0];
             pacc.log("c Current best configuration: " + bestConfigs.get(0).getIdSolverConfiguration() + " " + bestConfigs.get(0).getParameterConfiguration().toString() + " with cost " + bestConfigs.get(0).getCost());
             
@@ -438,7 +456,7 @@ public class SMBO extends SearchMethods {
         ThetaPrediction[] thetaPred = new ThetaPrediction[configs.size()];
         int ix = 0;
         for (ParameterConfiguration config: configs) {
-            thetas[ix] = paramConfigToTuple(config);
+            thetas[ix] = encoder.encode(config);
             thetaPred[ix] = new ThetaPrediction();
             thetaPred[ix].paramConfig = config;
             thetaPred[ix].theta = thetas[ix];
@@ -465,133 +483,125 @@ public class SMBO extends SearchMethods {
         
         // Get predictions for random configurations
         start = System.currentTimeMillis();
-        // Generate random configurations in parallel
-        final List<ParameterConfiguration> randomConfigurations = Collections.synchronizedList(new LinkedList<ParameterConfiguration>());
-        final int availProcs = numProcs;
-        pacc.log("Generating " + numRandomTheta + " random configurations using " + availProcs + " processors.");
-        ExecutorService exec = Executors.newFixedThreadPool(availProcs);
-        try {
-            for (int chunk = 0; chunk < availProcs; chunk++) {
-                exec.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            for (int u = 0; u < (numRandomTheta / availProcs); u++) {
-                                ParameterConfiguration randomConfig = canUseFastMethods ? pspace.getRandomConfigurationFast(rng) : pspace.getRandomConfiguration(rng);
-                                randomConfigurations.add(randomConfig);
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-            }
-        } finally {
-            exec.shutdown();
-        }
-        exec.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-
-        pacc.log("c Generating " + randomConfigurations.size() + " random configurations took " + (System.currentTimeMillis() - start) + " ms");
+        // Generate random configurations in parallel, encoded directly into the candidate matrix
+        final long candidateSeed = rng.nextLong();
+        pacc.log("Generating " + numRandomTheta + " random configurations using " + numProcs + " processors.");
+        sampleRandomCandidates(candidateSeed);
+        pacc.log("c Generating " + numRandomTheta + " random configurations took " + (System.currentTimeMillis() - start) + " ms");
         start = System.currentTimeMillis();
-        final ThetaPrediction[] randomThetaPred = getThetaPredictions(randomConfigurations);
+        double[][] randomPreds = model.predict(randomThetas);
+        final double[] randomMu = new double[numRandomTheta];
+        final double[] randomSigma = new double[numRandomTheta];
+        for (int i = 0; i < numRandomTheta; i++) {
+            randomMu[i] = randomPreds[i][0];
+            randomSigma[i] = Math.sqrt(randomPreds[i][1]);
+        }
+        randomPreds = null;
         pacc.log("c Predicting " + numRandomTheta + " random configurations took " + (System.currentTimeMillis() - start) + " ms");
         
         // Optimize criteria
         start = System.currentTimeMillis();
         final List<ParameterConfiguration> selectedConfigs = new LinkedList<ParameterConfiguration>();
         if ("ocb".equals(selectionCriterion)) {
-            ExecutorService execOptimize = Executors.newFixedThreadPool(numProcs);
-            try {
-                // Optimize ocb for different lambdas in parallel
-                for (int o = 0; o < numConfigsToGenerate; o++) {
-                    final int j = o;
-                    final String threadInfo = "[ix: " + j + ", lambda: " + ocb_lambda[j] + "]";
+            List<Future<?>> optimizations = new ArrayList<Future<?>>(numConfigsToGenerate);
+            // Optimize ocb for different lambdas in parallel
+            for (int o = 0; o < numConfigsToGenerate; o++) {
+                final int j = o;
+                final String threadInfo = "[ix: " + j + ", lambda: " + ocb_lambda[j] + "]";
+                
+                optimizations.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    final int numLS = Math.min(numTopLS, generatedThetaPred.length);
+                    // criterion values of the random configurations followed by the locally optimized ones
+                    double[] values = new double[numRandomTheta + numLS];
+                    double bestRandomValue = Double.NEGATIVE_INFINITY;
+                    for (int i = 0; i < numRandomTheta; i++) {
+                        values[i] = -randomMu[i] + ocb_lambda[j] * randomSigma[i];
+                        if (values[i] > bestRandomValue) bestRandomValue = values[i];
+                    }
                     
-                    execOptimize.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        ThetaCrit[] randomThetaCrit = new ThetaCrit[numRandomTheta];
-                        double bestRandomValue = Double.NEGATIVE_INFINITY;
-                        for (int i = 0; i < numRandomTheta; i++) {
-                            randomThetaCrit[i] = new ThetaCrit();
-                            randomThetaCrit[i].pred = randomThetaPred[i];
-                            randomThetaCrit[i].value = -randomThetaPred[i].mu + ocb_lambda[j] * randomThetaPred[i].sigma;
-                            if (randomThetaCrit[i].value > bestRandomValue) bestRandomValue = randomThetaCrit[i].value;
-                        }
-                        
 
-                        ThetaCrit[] thetaCrit = new ThetaCrit[generatedThetaPred.length];
-                        for (int i = 0; i < generatedThetaPred.length; i++) {
-                            thetaCrit[i] = new ThetaCrit();
-                            thetaCrit[i].pred = generatedThetaPred[i];
-                            thetaCrit[i].value = -generatedThetaPred[i].mu + ocb_lambda[j] * generatedThetaPred[i].sigma; 
-                        }
-                        Arrays.sort(thetaCrit);
+                    ThetaCrit[] thetaCrit = new ThetaCrit[generatedThetaPred.length];
+                    for (int i = 0; i < generatedThetaPred.length; i++) {
+                        thetaCrit[i] = new ThetaCrit();
+                        thetaCrit[i].pred = generatedThetaPred[i];
+                        thetaCrit[i].value = -generatedThetaPred[i].mu + ocb_lambda[j] * generatedThetaPred[i].sigma; 
+                    }
+                    Arrays.sort(thetaCrit);
 
-                        final int numLS = numTopLS;
-                        long lsStart = System.currentTimeMillis();
-                        ThetaCrit[] allThetaCrit = new ThetaCrit[numRandomTheta + Math.min(numLS, generatedThetaPred.length)];
-                        // Optimize the top-numLS configurations using local search
-                        for (int i = 0; i < Math.min(numLS, generatedThetaPred.length); i++) {
-                            ParameterConfiguration paramConfig = thetaCrit[i].pred.paramConfig;
-                            //pacc.log("c "+threadInfo+" Starting local search from current configuration with ocb " + thetaCrit[i].value);
-                            try {
-                                paramConfig = optimizeLocally(paramConfig, thetaCrit[i].value, ocb_lambda[j], f_min);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                            thetaCrit[i].pred = new ThetaPrediction();
-                            thetaCrit[i].pred.theta = paramConfigToTuple(paramConfig);
-                            thetaCrit[i].pred.paramConfig = paramConfig;
-                            double[][] newPred = model.predict(new double[][] { thetaCrit[i].pred.theta });
-                            thetaCrit[i].pred.mu = newPred[0][0];
-                            thetaCrit[i].pred.sigma = Math.sqrt(newPred[0][1]);
-                            thetaCrit[i].value = -thetaCrit[i].pred.mu + ocb_lambda[j] * thetaCrit[i].pred.sigma;
-                            //pacc.log("c "+threadInfo+" LS optimized configuration to ocb " + thetaCrit[i].value);
-                            allThetaCrit[i] = thetaCrit[i];
+                    long lsStart = System.currentTimeMillis();
+                    // Optimize the top-numLS configurations using local search
+                    for (int i = 0; i < numLS; i++) {
+                        ParameterConfiguration paramConfig = thetaCrit[i].pred.paramConfig;
+                        //pacc.log("c "+threadInfo+" Starting local search from current configuration with ocb " + thetaCrit[i].value);
+                        try {
+                            paramConfig = optimizeLocally(paramConfig, thetaCrit[i].value, ocb_lambda[j], f_min);
+                        } catch (Exception e) {
+                            e.printStackTrace();
                         }
-                        pacc.log("c "+threadInfo+" LS optimization took " + (System.currentTimeMillis() - lsStart) + " ms");
-                        // Now combine the top numLS configurations with the random configurations
-                        for (int i = 0; i < numRandomTheta; i++) {
-                            allThetaCrit[Math.min(numLS, generatedThetaPred.length) + i] = randomThetaCrit[i];
+                        thetaCrit[i].pred = new ThetaPrediction();
+                        thetaCrit[i].pred.theta = encoder.encode(paramConfig);
+                        thetaCrit[i].pred.paramConfig = paramConfig;
+                        double[][] newPred = model.predict(new double[][] { thetaCrit[i].pred.theta });
+                        thetaCrit[i].pred.mu = newPred[0][0];
+                        thetaCrit[i].pred.sigma = Math.sqrt(newPred[0][1]);
+                        thetaCrit[i].value = -thetaCrit[i].pred.mu + ocb_lambda[j] * thetaCrit[i].pred.sigma;
+                        //pacc.log("c "+threadInfo+" LS optimized configuration to ocb " + thetaCrit[i].value);
+                        values[numRandomTheta + i] = thetaCrit[i].value;
+                    }
+                    pacc.log("c "+threadInfo+" LS optimization took " + (System.currentTimeMillis() - lsStart) + " ms");
+                    // Now rank the top numLS configurations together with the random configurations,
+                    // candidates are only taken from the heap as far as they are needed
+                    CriterionHeap heap = new CriterionHeap(values);
+                    int[] ranked = new int[Math.min(values.length, 16)];
+                    int numRanked = 0;
+                    
+                    // and use one of the final best ones for this ocb_lambda value
+                    ranked[numRanked++] = heap.poll();
+                    double valBest = values[ranked[0]];
+                    while (!heap.isEmpty() && values[heap.peek()] == valBest) {
+                        if (numRanked == ranked.length) ranked = Arrays.copyOf(ranked, 2 * numRanked);
+                        ranked[numRanked++] = heap.poll();
+                    }
+                    int numBest = numRanked;
+                    
+                    pacc.log("c "+threadInfo+" OCB maximization found " + numBest + " configurations with same ocb. Choosing top 3 starting from randomly chosen best.");
+                    int numChosen = 0;
+                    int ix = rng.nextInt(numBest);
+                    Random candidateRng = new Random();
+                    for (int i = ix; numChosen < numTopSel; i++) {
+                        if (i == numRanked) {
+                            if (heap.isEmpty()) break;
+                            if (numRanked == ranked.length) ranked = Arrays.copyOf(ranked, 2 * numRanked);
+                            ranked[numRanked++] = heap.poll();
                         }
-        
-                        // Sort again
-                        Arrays.sort(allThetaCrit);
-        
-                        // and use one of the final best ones for this ocb_lambda value
-                        int numBest = 1;
-                        double valBest = allThetaCrit[0].value;
-                        while (numBest < allThetaCrit.length && allThetaCrit[numBest].value == valBest) {
-                           numBest++;
+                        int candidate = ranked[i];
+                        ParameterConfiguration paramConfig;
+                        if (candidate < numRandomTheta) {
+                            paramConfig = randomCandidate(candidateRng, candidateSeed, candidate);
+                        } else {
+                            paramConfig = thetaCrit[candidate - numRandomTheta].pred.paramConfig;
+                        }
+                        paramConfig.updateChecksum();
+                        synchronized (selectedConfigs) {
+                            if (allSelectedConfigs.contains(paramConfig)) continue;
+                            selectedConfigs.add(paramConfig);
+                            allSelectedConfigs.add(paramConfig);
                         }
-                        
-                        pacc.log("c "+threadInfo+" OCB maximization found " + numBest + " configurations with same ocb. Choosing top 3 starting from randomly chosen best.");
-                        int numChosen = 0;
-                        int ix = rng.nextInt(numBest);
-                        for (int i = ix; i < allThetaCrit.length && numChosen < numTopSel; i++) {
-                            ThetaCrit selectedThetaCrit = allThetaCrit[i];
-                            ParameterConfiguration paramConfig = selectedThetaCrit.pred.paramConfig;
-                            paramConfig.updateChecksum();
-                            synchronized (selectedConfigs) {
-                                if (allSelectedConfigs.contains(paramConfig)) continue;
-                                selectedConfigs.add(paramConfig);
-                                allSelectedConfigs.add(paramConfig);
-                            }
-                            statTotalOptimizations++;
-                            numChosen++;
-                            if (selectedThetaCrit.value == bestRandomValue) {
-                                statNumBestRandom++;
-                            }
-                            //pacc.log("c "+threadInfo+" OCB maximization selected configuration with ocb " + selectedThetaCrit.value + " -- Configuration: " + selectedThetaCrit.pred.paramConfig);
+                        statTotalOptimizations++;
+                        numChosen++;
+                        if (values[candidate] == bestRandomValue) {
+                            statNumBestRandom++;
                         }
+                        //pacc.log("c "+threadInfo+" OCB maximization selected configuration with ocb " + values[candidate] + " -- Configuration: " + paramConfig);
                     }
-                    });
                 }
-            } finally {
-                execOptimize.shutdown();
+                }));
+            }
+            for (Future<?> optimization: optimizations) {
+                optimization.get();
             }
-            execOptimize.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
         } else {
             // EI
             throw new RuntimeException("EI not implemented yet");
@@ -601,8 +611,75 @@ public class SMBO extends SearchMethods {
         return selectedConfigs;
     }
     
+    /**
+     * Samples <code>numRandomTheta</code> random configurations and encodes
+     * them into the rows of <code>randomThetas</code>. The configurations are
+     * dropped right after encoding, the i-th one can be restored by
+     * <code>randomCandidate(r, seed, i)</code>.
+     * @param seed
+     * @throws Exception
+     */
+    private void sampleRandomCandidates(final long seed) throws Exception {
+        if (randomThetas == null || randomThetas.length != numRandomTheta) {
+            randomThetas = new double[numRandomTheta][encoder.size()];
+        }
+        final int chunkSize = (numRandomTheta + numProcs - 1) / numProcs;
+        List<Future<?>> chunks = new ArrayList<Future<?>>(numProcs);
+        for (int chunk = 0; chunk < numProcs; chunk++) {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(from + chunkSize, numRandomTheta);
+            chunks.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    Random r = new Random();
+                    for (int i = from; i < to; i++) {
+                        encoder.encode(randomCandidate(r, seed, i), randomThetas[i], 0);
+                    }
+                }
+            }));
+        }
+        for (Future<?> chunk: chunks) {
+            chunk.get();
+        }
+    }
+    
+    /**
+     * Returns the executor with <code>numProcs</code> threads that samples
+     * the candidates and optimizes the selection criteria. Its threads are
+     * daemons, so it does not keep the configurator alive.
+     * @return
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (exec == null) {
+            exec = Executors.newFixedThreadPool(numProcs, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SMBO-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return exec;
+    }
+    
+    /**
+     * Returns the i-th random configuration of the candidates sampled with
+     * <code>seed</code>. Every candidate has its own seed derived from
+     * <code>seed</code> by <code>Seeds.derive()</code>, so candidates can be
+     * sampled in any order and on any thread.
+     * @param r the random number generator to use, is reseeded
+     * @param seed
+     * @param i
+     * @return
+     */
+    private ParameterConfiguration randomCandidate(Random r, long seed, int i) {
+        r.setSeed(Seeds.derive(seed, i));
+        return canUseFastMethods ? pspace.getRandomConfigurationFast(r) : pspace.getRandomConfiguration(r);
+    }
+    
     private SolverConfiguration createIBSConfig(int idSC, ParameterConfiguration paramConfig) {
-        double[][] theta_config = new double[][] { paramConfigToTuple(paramConfig) };
+        double[][] theta_config = new double[][] { encoder.encode(paramConfig) };
         Set<Integer> preferredInstanceIDs = new HashSet<Integer>();
         Map<Integer, Double> meanByInstanceID = new HashMap<Integer, Double>();
         for (Instance instance: instances) {
@@ -656,7 +733,7 @@ public class SMBO extends SearchMethods {
             List<ParameterConfiguration> nbrs = canUseFastMethods ? pspace.getGaussianNeighbourhoodFast(incumbent, rng, lsStddev, lsSamples, true) : pspace.getGaussianNeighbourhood(incumbent, rng, lsStddev, lsSamples, true);
             Collections.shuffle(nbrs, rng);
             double[][] nbrsTheta = new double[nbrs.size()][];
-            for (int i = 0; i < nbrs.size(); i++) nbrsTheta[i] = paramConfigToTuple(nbrs.get(i));
+            for (int i = 0; i < nbrs.size(); i++) nbrsTheta[i] = encoder.encode(nbrs.get(i));
             double[][] nbrsThetaPred = model.predict(nbrsTheta);
             
             int bestIx = -1;
@@ -689,13 +766,18 @@ public class SMBO extends SearchMethods {
     }
     
     private void updateModel() throws Exception {
+        if (incrementalModel && modelCosts != null && updatesSinceRefit < fullRefitInterval && updateModelIncrementally()) {
+            updatesSinceRefit++;
+            return;
+        }
+        
         double[][] theta = new double[generatedConfigs.size()][];
         Map<SolverConfiguration, Integer> solverConfigTheta = new HashMap<SolverConfiguration, Integer>();
         int countJobs = 0;
         int cIx = 0;
         for (SolverConfiguration config: generatedConfigs) {
             solverConfigTheta.put(config, cIx);
-            theta[cIx] = paramConfigToTuple(config.getParameterConfiguration());
+            theta[cIx] = encoder.encode(config.getParameterConfiguration());
             countJobs += config.getNumFinishedJobs();
             cIx++;
         }
@@ -703,8 +785,8 @@ public class SMBO extends SearchMethods {
         int[][] theta_inst_idxs = new int[countJobs][2];
         boolean[] censored = new boolean[countJobs];
         double[] y = new double[countJobs];
-        
-        double maxy = Double.NEGATIVE_INFINITY;
+        Map<Integer, Double> costs = new HashMap<Integer, Double>();
+        Set<Integer> censoredJobIds = new HashSet<Integer>();
         
         int jIx = 0;
         for (SolverConfiguration config: generatedConfigs) {
@@ -712,21 +794,92 @@ public class SMBO extends SearchMethods {
                 theta_inst_idxs[jIx][0] = solverConfigTheta.get(config);
                 theta_inst_idxs[jIx][1] = instanceFeaturesIx.get(run.getInstanceId());
                 censored[jIx] = !run.getResultCode().isCorrect();
-                y[jIx] = par1CostFunc.singleCost(run);
-                if (logModel) {
-                    if (y[jIx] <= 0) {
-                        pacc.log_db("Warning: logarithmic model used with values <= 0. Pruning to 1e-15.");
-                        pacc.log("Warning: logarithmic model used with values <= 0. Pruning to 1e-15.");
-                        y[jIx] = 1e-15;
-                    }
-                    y[jIx] = Math.log10(y[jIx]);
-                }
-                if (y[jIx] > maxy) maxy = y[jIx];
+                y[jIx] = getModelResponse(run);
+                costs.put(run.getId(), par1CostFunc.singleCost(run));
+                if (censored[jIx]) censoredJobIds.add(run.getId());
                 jIx++;
             }
         }
 
         model.learnModel(theta, instanceFeatures, configurableParameters.size(), instanceFeatureNames.size(), theta_inst_idxs, y, censored);
+        
+        if (incrementalModel) {
+            modelTheta = new ArrayList<double[]>(Arrays.asList(theta));
+            modelThetaIx = solverConfigTheta;
+            modelCosts = costs;
+            modelCensoredJobIds = censoredJobIds;
+            updatesSinceRefit = 0;
+        }
+    }
+    
+    /**
+     * Adds the runs that finished since the last model update to the model
+     * without refitting the trees. Runs of the model that were modified or
+     * restarted since, i.e. whose cost or censoring changed or that are
+     * no longer finished, can't be removed from the trees, so the model has
+     * to be refitted then.
+     * @return false if the model is outdated and was not updated
+     */
+    private boolean updateModelIncrementally() throws Exception {
+        for (SolverConfiguration config: generatedConfigs) {
+            if (!modelThetaIx.containsKey(config)) {
+                modelThetaIx.put(config, modelTheta.size());
+                modelTheta.add(encoder.encode(config.getParameterConfiguration()));
+            }
+        }
+        
+        List<ExperimentResult> newRuns = new ArrayList<ExperimentResult>();
+        List<Integer> newRunsTheta = new ArrayList<Integer>();
+        int numModelRuns = 0;
+        for (SolverConfiguration config: generatedConfigs) {
+            for (ExperimentResult run: config.getFinishedJobs()) {
+                boolean censored = !run.getResultCode().isCorrect();
+                Double modelCost = modelCosts.get(run.getId());
+                if (modelCost == null) {
+                    newRuns.add(run);
+                    newRunsTheta.add(modelThetaIx.get(config));
+                } else if (Double.compare(modelCost, par1CostFunc.singleCost(run)) != 0 || modelCensoredJobIds.contains(run.getId()) != censored) {
+                    pacc.log("c Run " + run.getId() + " was modified after it was added to the model, refitting the model");
+                    return false;
+                } else {
+                    numModelRuns++;
+                }
+            }
+        }
+        if (numModelRuns < modelCosts.size()) {
+            pacc.log("c " + (modelCosts.size() - numModelRuns) + " runs of the model were restarted or removed, refitting the model");
+            return false;
+        }
+        
+        int[][] theta_inst_idxs = new int[newRuns.size()][2];
+        boolean[] censored = new boolean[newRuns.size()];
+        double[] y = new double[newRuns.size()];
+        for (int jIx = 0; jIx < newRuns.size(); jIx++) {
+            ExperimentResult run = newRuns.get(jIx);
+            theta_inst_idxs[jIx][0] = newRunsTheta.get(jIx);
+            theta_inst_idxs[jIx][1] = instanceFeaturesIx.get(run.getInstanceId());
+            censored[jIx] = !run.getResultCode().isCorrect();
+            y[jIx] = getModelResponse(run);
+            modelCosts.put(run.getId(), par1CostFunc.singleCost(run));
+            if (censored[jIx]) modelCensoredJobIds.add(run.getId());
+        }
+        
+        model.updateModel(modelTheta.toArray(new double[modelTheta.size()][]), theta_inst_idxs, y, censored);
+        pacc.log("c Updated the model incrementally with " + newRuns.size() + " new runs (" + (updatesSinceRefit + 1) + " updates since the last full refit)");
+        return true;
+    }
+    
+    private double getModelResponse(ExperimentResult run) throws Exception {
+        double y = par1CostFunc.singleCost(run);
+        if (logModel) {
+            if (y <= 0) {
+                pacc.log_db("Warning: logarithmic model used with values <= 0. Pruning to 1e-15.");
+                pacc.log("Warning: logarithmic model used with values <= 0. Pruning to 1e-15.");
+                y = 1e-15;
+            }
+            y = Math.log10(y);
+        }
+        return y;
     }
     
     private void parseSMBOParameters() {
@@ -771,13 +924,19 @@ public class SMBO extends SearchMethods {
             numTopSel = Integer.valueOf(val);
         if ((val = parameters.getSearchMethodParameters().get("SMBO_numProcs")) != null)
             numProcs = Integer.valueOf(val);
+        if ((val = parameters.getSearchMethodParameters().get("SMBO_incrementalModel")) != null)
+            incrementalModel = Integer.valueOf(val) == 1;
+        if ((val = parameters.getSearchMethodParameters().get("SMBO_fullRefitInterval")) != null)
+            fullRefitInterval = Integer.valueOf(val);
+        if ((val = parameters.getSearchMethodParameters().get("SMBO_subsampleFraction")) != null)
+            subsampleFraction = Double.valueOf(val);
     }
 
     @Override
     public List<String> getParameters() {
         List<String> p = new LinkedList<String>();
         p.add("% --- SMBO parameters ---");
-        p.add("SMBO_samplingPath = <REQUIRED> % (Path to the external sequence generating program)");
+        p.add("SMBO_samplingPath = " + samplingPath + " % (Path to the external sequence generating program, empty to use the native Sobol sequence)");
         p.add("SMBO_numPC = "+this.numPC+ " % (How many principal components of the instance features to use)");
         p.add("SMBO_selectionCriterion = "+this.selectionCriterion+ " % (Improvement criterion {ocb, ei, eEI})");
         p.add("SMBO_numInitialConfigurationsFactor = "+this.numInitialConfigurationsFactor+ " % (How many configurations to sample randomly for the initial model)");
@@ -796,12 +955,21 @@ public class SMBO extends SearchMethods {
         p.add("SMBO_numTopLS = "+this.numTopLS+ " % (How many local search optimisations should be started)");
         p.add("SMBO_numTopSel = "+this.numTopSel+ " % (How many configurations with best criterion value to choose)");
         p.add("SMBO_numProcs = "+this.numProcs+ " % (Number of processor EDACC-MBO can use on the machine for parallelisation)");
+        p.add("SMBO_incrementalModel = "+(this.incrementalModel ? 1 : 0)+ " % (Add new runs to the leaves of the existing trees instead of refitting the model in every iteration)");
+        p.add("SMBO_fullRefitInterval = "+this.fullRefitInterval+ " % (Number of incremental model updates between two full refits, only applies to SMBO_incrementalModel = 1)");
+        p.add("SMBO_subsampleFraction = "+this.subsampleFraction+ " % (Fit each tree on this fraction of the runs drawn without replacement instead of a bootstrap sample, 0 to use bootstrap samples)");
         p.add("% -----------------------\n");
         return p;
     }
 
     @Override
     public void searchFinished() {
+        synchronized (this) {
+            if (exec != null) {
+                exec.shutdown();
+                exec = null;
+            }
+        }
         pacc.log("c Out of " + statTotalOptimizations + " criterion optimizations, " + statNumBestRandom + " where due to a random config");
         /*pacc.log("c Calculating variable importance measures from OOB samples:");
         double[] VI = model.calculateVI();
@@ -838,101 +1006,6 @@ public class SMBO extends SearchMethods {
         return ei;
     }
     
-    private double[] paramConfigToTuple(ParameterConfiguration paramConfig) {
-        double[] theta = new double[configurableParameters.size()];
-        for (Parameter p: configurableParameters) {
-            int pIx = configurableParameters.indexOf(p);
-            Object paramValue = paramConfig.getParameterValue(p);
-            if (paramValue == null) theta[pIx] = Double.NaN;
-            else {
-                if (p.getDomain() instanceof RealDomain) {
-                    if (paramValue instanceof Float) {
-                        theta[pIx] = (Float)paramValue;
-                    } else if (paramValue instanceof Double) {
-                        theta[pIx] = (Double)paramValue;
-                    }
-                } else if (p.getDomain() instanceof IntegerDomain) {
-                    if (paramValue instanceof Integer) {
-                        theta[pIx] = (Integer)paramValue;
-                    } else if (paramValue instanceof Long) {
-                        theta[pIx] = (Long)paramValue;
-                    }
-                } else if (p.getDomain() instanceof CategoricalDomain) {
-                    // map categorical parameters to integers 1 through domain.size, 0 = not set
-                    Map<String, Integer> valueMap = new HashMap<String, Integer>();
-                    int intVal = 1;
-                    List<String> sortedValues = new LinkedList<String>(((CategoricalDomain)p.getDomain()).getCategories());
-                    Collections.sort(sortedValues);
-                    for (String val: sortedValues) {
-                        valueMap.put(val, intVal++);
-                    }
-                    
-                    theta[pIx] = valueMap.get((String)paramValue);
-                } else if (p.getDomain() instanceof OrdinalDomain) {
-                    // map ordinal parameters to integers 1 through domain.size, 0 = not set
-                    Map<String, Integer> valueMap = new HashMap<String, Integer>();
-                    int intVal = 1;
-                    for (String val: ((OrdinalDomain)p.getDomain()).getOrdered_list()) {
-                        valueMap.put(val, intVal++);
-                    }
-                    
-                    theta[pIx] = valueMap.get((String)paramValue);
-                } else if (p.getDomain() instanceof FlagDomain) {
-                    // map flag parameters to {0, 1}
-                    if (FlagDomain.FLAGS.ON.equals(paramValue)) theta[pIx] = 2;
-                    else theta[pIx] = 1;
-                } else {
-                    // TODO
-                    theta[pIx] = paramValue.hashCode();
-                    throw new RuntimeException("Domain " + p.getDomain().getName() + " not implemented yet.");
-                }
-            }
-            
-        }
-        
-        return theta;
-    }
-    
-    /**
-     * Map a real tuple to a parameter configuration. Not the inverse of paramConfigToTuple !!
-     * @param values
-     * @return
-     */
-    private ParameterConfiguration mapRealTupleToParameters(double[] values) {
-        ParameterConfiguration pc = pspace.getRandomConfiguration(rng);
-        int i = 0;
-        for (Parameter p: configurableParameters) {
-            if (pc.getParameterValue(p) == null) continue;
-            double v = values[i++];
-            if (p.getDomain() instanceof RealDomain) {
-                RealDomain dom = (RealDomain)p.getDomain();
-                pc.setParameterValue(p, dom.getLow() + v * (dom.getHigh() - dom.getLow()));
-            } else if (p.getDomain() instanceof IntegerDomain) {
-                IntegerDomain dom = (IntegerDomain)p.getDomain();
-                pc.setParameterValue(p, Math.round(dom.getLow() + v * (dom.getHigh() - dom.getLow())));
-            } else if (p.getDomain() instanceof CategoricalDomain) {
-                CategoricalDomain dom = (CategoricalDomain)p.getDomain();
-                List<String> categories = new LinkedList<String>(dom.getCategories());
-                Collections.sort(categories);
-                int ix = (int) (v * categories.size());
-                if (ix == categories.size()) ix = 0;
-                pc.setParameterValue(p, categories.get(ix));
-            } else if (p.getDomain() instanceof OrdinalDomain) {
-                OrdinalDomain dom = (OrdinalDomain)p.getDomain();
-                int ix = (int) (v * dom.getOrdered_list().size());
-                if (ix == dom.getOrdered_list().size()) ix = 0;
-                pc.setParameterValue(p, dom.getOrdered_list().get(ix));
-            } else if (p.getDomain() instanceof FlagDomain) {
-                if (v < 0.5) {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.ON);
-                } else {
-                    pc.setParameterValue(p, FlagDomain.FLAGS.OFF);
-                }
-            }
-        }
-        return pc;
-    }
-    
     class ThetaCrit implements Comparable<ThetaCrit> {
         ThetaPrediction pred;
         double value;
@@ -943,6 +1016,52 @@ public class SMBO extends SearchMethods {
         }
     }
     
+    /**
+     * Binary max-heap of the indices of <code>values</code>, ordered like
+     * <code>ThetaCrit</code>. Building the heap takes linear time, so only the
+     * candidates that are actually polled have to be ordered.
+     */
+    static class CriterionHeap {
+        private final double[] values;
+        private final int[] heap;
+        private int size;
+        
+        CriterionHeap(double[] values) {
+            this.values = values;
+            this.size = values.length;
+            heap = new int[size];
+            for (int i = 0; i < size; i++) heap[i] = i;
+            for (int i = size / 2 - 1; i >= 0; i--) siftDown(i);
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        int peek() {
+            return heap[0];
+        }
+        
+        int poll() {
+            int top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(0);
+            return top;
+        }
+        
+        private void siftDown(int i) {
+            int elem = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && Double.compare(values[heap[child + 1]], values[heap[child]]) > 0) child++;
+                if (Double.compare(values[heap[child]], values[elem]) <= 0) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = elem;
+        }
+    }
+    
     class ThetaPrediction {
         ParameterConfiguration paramConfig;
         double[] theta;
@@ -2,6 +2,7 @@ package edacc.configurator.aac.solvercreator;
 
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -14,6 +15,7 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 
+import edacc.configurator.math.HierarchicalClustering;
 import edacc.model.Instance;
 import edacc.model.InstanceClass;
 import edacc.model.InstanceClassMustBeSourceException;
@@ -40,17 +42,25 @@ public class Clustering implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 2847802957451633450L;
+	private static final long serialVersionUID = -4907123569845110207L;
 	
 	private double weighted_alpha = 1.2f;
 	
 	private int n; // number of instances = I.size();
 	protected HashMap<Integer, Integer> I; // maps instance id to column
+	protected HashMap<Integer, Integer> S; // maps sc id to row, the rows are 0 to S.size()-1
+	private int[] scIds; // maps row to sc id
 	
-	protected HashMap<Integer, double[]> M; // Membership Matrix M, maps sc id to instance row vector
-	protected HashMap<Integer, double[]> C; // Cost Matrix C, maps sc id to cost for instance vector
+	// Membership Matrix M and Cost Matrix C, column-major: M[i][row] is the membership of the sc of the row
+	// for the instance of column i, the columns have room for scIds.length rows
+	private double[][] M;
+	private double[][] C;
 	//HashMap<Integer, Float> W; // relative weight of sc
-	transient private double[] K; // K_i = sum over solver configs for instance row i (ith instance)
+	private double[] K; // K_i = sum over solver configs for instance row i (ith instance)
+	private double[] maxM; // maximum membership for instance i
+	private double[] minC; // minimum cost for instance i, NaN costs are ignored
+	// the rows in the iteration order of S, i.e. the order the solver configs are considered in
+	transient private int[] rowOrder;
 	
 	// cache for data to be updated before using matrix M
 	transient private boolean solverConfigsRemoved;
@@ -69,10 +79,9 @@ public class Clustering implements Serializable {
 	
 	private Clustering(HashMap<Integer, float[]> featureMapping) {
 		I = new HashMap<Integer, Integer>();
+		S = new HashMap<Integer, Integer>();
+		scIds = new int[0];
 		
-		// generate empty membership, cost and weight matrices
-		M = new HashMap<Integer, double[]>();
-		C = new HashMap<Integer, double[]>();
 		//W = new HashMap<Integer, Float>();
 		
 		// initialize data to be updated
@@ -90,13 +99,15 @@ public class Clustering implements Serializable {
 			I.put(entry.getKey(), entry.getValue());
 		}
 		n = other.n;
-		for (Entry<Integer, double[]> entry : other.M.entrySet()) {
-		    double[] values = entry.getValue();
-			M.put(entry.getKey(), Arrays.copyOf(values, values.length));
+		for (Entry<Integer, Integer> entry : other.S.entrySet()) {
+			S.put(entry.getKey(), entry.getValue());
 		}
-		for (Entry<Integer, double[]> entry : other.C.entrySet()) {
-		    double[] values = entry.getValue();
-			C.put(entry.getKey(), Arrays.copyOf(values, values.length));
+		scIds = Arrays.copyOf(other.scIds, other.scIds.length);
+		M = new double[n][];
+		C = new double[n][];
+		for (int i = 0; i < n; i++) {
+			M[i] = Arrays.copyOf(other.M[i], other.M[i].length);
+			C[i] = Arrays.copyOf(other.C[i], other.C[i].length);
 		}
 		update_columns.addAll(other.update_columns);
 		solverConfigsRemoved = other.solverConfigsRemoved;
@@ -104,6 +115,8 @@ public class Clustering implements Serializable {
 			P.put(entry.getKey(), entry.getValue());
 		}
 		K = Arrays.copyOf(other.K, n);
+		maxM = Arrays.copyOf(other.maxM, n);
+		minC = Arrays.copyOf(other.minC, n);
 	}
 	
 	/**
@@ -122,10 +135,18 @@ public class Clustering implements Serializable {
 		}
 		n = I.size();
 		
-		// initialize K
+		// generate empty membership and cost matrices
+		M = new double[n][0];
+		C = new double[n][0];
+		
+		// initialize K and the column extrema
 		K = new double[n];
+		maxM = new double[n];
+		minC = new double[n];
 		for (int i = 0; i < n; i++) {
 			K[i] = 0.f;
+			maxM[i] = 0.f;
+			minC[i] = Double.POSITIVE_INFINITY;
 		}
 	}
 	
@@ -148,67 +169,82 @@ public class Clustering implements Serializable {
 		}
                 if (update_columns.isEmpty())
                     return;
+		int[] rows = getRows();
 		for (int column : update_columns) {
+			double[] c = C[column];
+			double[] m = M[column];
 			// Update M entry
 			{
 				int scs = 0;
 				double sum = 0.f;
 				double max = 0.f;
-				for (double[] tmp : C.values()) {
-				    double t = tmp[column];
-					if (!(Double.isInfinite(tmp[column]) || Double.isNaN(tmp[column]))) {
-					//	tmp[column] = (float) Math.log(tmp[column]);
-						if (tmp[column] < 0.f) tmp[column] = 0.f;
-					}
-					
-					if (!(Double.isInfinite(tmp[column]) || Double.isNaN(tmp[column]))) {
-						sum += tmp[column];
+				for (int row : rows) {
+					double t = c[row];
+					if (!(Double.isInfinite(t) || Double.isNaN(t))) {
+					//	t = (float) Math.log(t);
+						if (t < 0.f) t = 0.f;
+						sum += t;
 						scs++;
-						if (tmp[column] > max) {
-							max = tmp[column];
+						if (t > max) {
+							max = t;
 						}
 					}
-					
-					tmp[column] = t;
 				}
 
-				for (int tmp_scid : M.keySet()) {
-					double[] tmp_c = C.get(tmp_scid);
-					double[] tmp_m = M.get(tmp_scid);
-					
-					double t = tmp_c[column];
-					if (!(Double.isInfinite(tmp_c[column]) || Double.isNaN(tmp_c[column]))) {
-					//	tmp_c[column] = (float) Math.log(tmp_c[column]);
-						if (tmp_c[column] < 0.f) tmp_c[column] = 0.f;
-					}
-					
-					if ((Double.isInfinite(tmp_c[column]) || Double.isNaN(tmp_c[column]))) {
-						tmp_m[column] = 0.f;
+				for (int row : rows) {
+					double t = c[row];
+					if ((Double.isInfinite(t) || Double.isNaN(t))) {
+						m[row] = 0.f;
 					} else {
+						if (t < 0.f) t = 0.f;
 						// TODO: eps
 						double eps = 0.0001f;
 						if (scs * max - sum > eps) {
-							tmp_m[column] = (max * weighted_alpha - tmp_c[column]) / (scs * max * weighted_alpha - sum);
+							m[row] = (max * weighted_alpha - t) / (scs * max * weighted_alpha - sum);
 						} else {
-							tmp_m[column] = 1.f / scs;
+							m[row] = 1.f / scs;
 						}
-						// TODO: maximize: tmp_c[column] / sum
+						// TODO: maximize: t / sum
 					}
-					
-					tmp_c[column] = t;
 				}
 			}
 
-			// Update K entry
+			// Update K entry and the extrema
 			double sum = 0.f;
-			for (double[] tmp : M.values()) {
-				sum += tmp[column];
+			double max = 0.f;
+			double min = Double.POSITIVE_INFINITY;
+			for (int row : rows) {
+				sum += m[row];
+				if (m[row] > max) {
+					max = m[row];
+				}
+				if (c[row] < min) {
+					min = c[row];
+				}
 			}
 			K[column] = sum;
+			maxM[column] = max;
+			minC[column] = min;
 		}
 		update_columns.clear();
 	}
 	
+	/**
+	 * Returns the rows of the solver configurations in the iteration order of
+	 * <code>S</code>.
+	 */
+	private int[] getRows() {
+		if (rowOrder == null) {
+			int[] rows = new int[S.size()];
+			int i = 0;
+			for (int row : S.values()) {
+				rows[i++] = row;
+			}
+			rowOrder = rows;
+		}
+		return rowOrder;
+	}
+	
 	public List<Integer> getKBestSCsOnInstance(int instanceId, int k) {
 		updateData();
 		List<Integer> res = new LinkedList<Integer>();
@@ -250,18 +286,25 @@ public class Clustering implements Serializable {
 		List<Integer> res = new LinkedList<Integer>();
 		
 		double mincost = Float.MAX_VALUE;
+		Integer col = I.get(instanceId);
+		if (col == null) {
+			return res;
+		}
+		double[] m = M[col];
+		double[] c = C[col];
+		int[] rows = getRows();
 		
-		for (int scid : this.getSolverConfigIds()) {
-			if (this.getMembership(scid, instanceId) > 0.f) {
-				if (mincost > getCost(scid, instanceId)) {
-					mincost = getCost(scid, instanceId);
+		for (int row : rows) {
+			if (m[row] > 0.f) {
+				if (mincost > c[row]) {
+					mincost = c[row];
 				}
 			}
 		}
-		for (int scid : this.getSolverConfigIds()) {
-			if (this.getMembership(scid, instanceId) > 0.f) {
-				if (mincost * factor > getCost(scid, instanceId)) {
-					res.add(scid);
+		for (int row : rows) {
+			if (m[row] > 0.f) {
+				if (mincost * factor > c[row]) {
+					res.add(scIds[row]);
 				}
 			}
 		}
@@ -271,22 +314,18 @@ public class Clustering implements Serializable {
 	public List<Integer> getInstancesForSC(int scid, float factor) {
 		updateData();
 		List<Integer> res = new LinkedList<Integer>();
-		HashMap<Integer, Double> mincosts = new HashMap<Integer, Double>();
-		
-		for (int iid : I.keySet()) {
-			for (int scid2 : this.getSolverConfigIds()) {
-				if (this.getMembership(scid2, iid) > 0.f) {
-					Double mincost = mincosts.get(iid);
-					if (mincost == null || mincost > getCost(scid2, iid)) {
-						mincosts.put(iid, getCost(scid2, iid));
-					}
-				}
-			}
+		Integer row = S.get(scid);
+		if (row == null) {
+			return res;
 		}
-		for (int iid : I.keySet()) {
-			if (this.getMembership(scid, iid) > 0.f) {
-				if (mincosts.get(iid) * factor > getCost(scid, iid)) {
-					res.add(iid);
+		
+		// an sc has a positive membership for an instance iff its cost is finite,
+		// so the minimum cost over the scs with positive membership is minC
+		for (Entry<Integer, Integer> e : I.entrySet()) {
+			int col = e.getValue();
+			if (M[col][row] > 0.f) {
+				if (minC[col] * factor > C[col][row]) {
+					res.add(e.getKey());
 				}
 			}
 		}
@@ -300,20 +339,26 @@ public class Clustering implements Serializable {
 	 * @param cost the cost, can be DOUBLE.POSITIVE_INFINITY, but must be greater or equal zero.
 	 */
 	public void update(int scid, int instanceid, double cost) {
-		if (!M.containsKey(scid)) {
+		Integer row = S.get(scid);
+		if (row == null) {
 			// new solver configuration, first cost
-			// initial M row is empty for all instances
-			double[] f = new double[n];
-			for (int i = 0; i < n; i++) {
-				f[i] = 0.f;
+			row = S.size();
+			if (row == scIds.length) {
+				int capacity = Math.max(16, 2 * scIds.length);
+				scIds = Arrays.copyOf(scIds, capacity);
+				for (int i = 0; i < n; i++) {
+					M[i] = Arrays.copyOf(M[i], capacity);
+					C[i] = Arrays.copyOf(C[i], capacity);
+				}
 			}
-			M.put(scid, f);
-			// initial C row is NaN for all instances
-			f = new double[n];
+			// initial M row is empty and initial C row is NaN for all instances
 			for (int i = 0; i < n; i++) {
-				f[i] = Double.NaN;
+				M[i][row] = 0.f;
+				C[i][row] = Double.NaN;
 			}
-			C.put(scid, f);
+			scIds[row] = scid;
+			S.put(scid, row);
+			rowOrder = null;
 			
 			// initial weight is 0.
 			//W.put(scid, 0.f);
@@ -328,10 +373,9 @@ public class Clustering implements Serializable {
 			}
 		}
 		int column = I.get(instanceid);
-		double[] c = C.get(scid);
 		
 		// Update C entry
-		c[column] = cost;
+		C[column][row] = cost;
 		
 		// Add to data to be updated, invalidates the column of matrix M
 		update_columns.add(column);
@@ -392,27 +436,29 @@ public class Clustering implements Serializable {
 	 * @param scid
 	 */
 	public void remove(int scid) {
-		M.remove(scid);
-		C.remove(scid);
+		Integer row = S.remove(scid);
+		if (row != null) {
+			// move the last row to the free row
+			int last = S.size();
+			if (row != last) {
+				for (int i = 0; i < n; i++) {
+					M[i][row] = M[i][last];
+					C[i][row] = C[i][last];
+				}
+				scIds[row] = scIds[last];
+				S.put(scIds[row], row);
+			}
+			rowOrder = null;
+		}
 		solverConfigsRemoved = true;
 	}
 	
 	public double performance(HashMap<Integer, List<Integer>> clustering) {
+		updateData();
 	    double res = 0.f;
 
-		double[] maxValues = new double[n];
-		for (int i = 0; i < n; i++) maxValues[i] = 0.f;
-		
-		for (Entry<Integer, double[]> entry : M.entrySet()) {
-			for (int i = 0; i < n; i++) {
-				if (entry.getValue()[i] > maxValues[i]) {
-					maxValues[i] = entry.getValue()[i];
-				}
-			}
-		}
-		
 		double max = 0.f;
-		for (double f : maxValues) {
+		for (double f : maxM) {
 			max += f;
 		}
 		if (max < 0.001f) {
@@ -420,9 +466,10 @@ public class Clustering implements Serializable {
 		}
 		
 		for (Entry<Integer, List<Integer>> entry : clustering.entrySet()) {
+			int row = S.get(entry.getKey());
 			for (Integer instanceId : entry.getValue()) {
 				int col = I.get(instanceId);
-				double val = M.get(entry.getKey())[col];
+				double val = M[col][row];
 				res += val;
 			}
 		}
@@ -448,15 +495,16 @@ public class Clustering implements Serializable {
 		instanceIds.addAll(I.keySet());
 		
 		HashMap<Integer, Pair<Integer, Double>> maxSCIdValues = new HashMap<Integer, Pair<Integer, Double>>();
+		int[] rows = getRows();
 		for (int i = instanceIds.size()-1; i >= 0; i --) {
 			int instanceId = instanceIds.get(i);
 			int scid = -1;
 			double max = 0.f;
-			for (int tmp_scid : M.keySet()) {
-			    double[] m = M.get(tmp_scid);
-				if (m[I.get(instanceId)] > max) {
-					max = m[I.get(instanceId)];
-					scid = tmp_scid;
+			double[] m = M[I.get(instanceId)];
+			for (int row : rows) {
+				if (m[row] > max) {
+					max = m[row];
+					scid = scIds[row];
 				}
 			}
 			if (scid != -1) {
@@ -475,10 +523,11 @@ public class Clustering implements Serializable {
 			List<Integer> cluster = new LinkedList<Integer>();
 			cluster.add(instanceId);
 			res.put(scid, cluster);
+			int row = S.get(scid);
 			
 			for (int i = instanceIds.size()-1; i >= 0; i--) {
 				int insId = instanceIds.get(i);
-				double val = M.get(scid)[I.get(insId)];
+				double val = M[I.get(insId)][row];
 				double max = maxSCIdValues.get(insId).getSecond();
 				// TODO: multiplicator
 				if (val * 1.5f >= max) {
@@ -497,7 +546,7 @@ public class Clustering implements Serializable {
 			return getClustering(removeSmallClusters, allowDuplicates);
 		}
 		List<Pair<Integer, Double>> scidWeight = new LinkedList<Pair<Integer, Double>>();
-		for (int scid : M.keySet()) {
+		for (int scid : S.keySet()) {
 			scidWeight.add(new Pair<Integer, Double>(scid, getWeight(scid)));
 		}
 		Collections.sort(scidWeight, new Comparator<Pair<Integer, Double>>() {
@@ -596,7 +645,7 @@ public class Clustering implements Serializable {
 	 * @return
 	 */
 	public HashMap<Integer, List<Integer>> getClustering(boolean removeSmallClusters, boolean allowDuplicates) {
-		return getClustering(removeSmallClusters, allowDuplicates, M.keySet());
+		return getClustering(removeSmallClusters, allowDuplicates, S.keySet());
 	}
 
 	public HashMap<Integer, List<Integer>> getClustering(boolean removeSmallClusters, boolean allowDuplicates, Set<Integer> solverConfigs) {
@@ -605,17 +654,25 @@ public class Clustering implements Serializable {
 			updateData();
 		}
 		HashMap<Integer, List<Integer>> res = new HashMap<Integer, List<Integer>>();
+		int[] rows = new int[solverConfigs.size()];
+		int[] ids = new int[rows.length];
+		int numRows = 0;
+		for (int scid : solverConfigs) {
+			ids[numRows] = scid;
+			rows[numRows++] = S.get(scid);
+		}
 		for (int instanceid : I.keySet()) {
 		    double max = 0.f;
+		    double[] m = M[I.get(instanceid)];
 			List<Integer> scids = new LinkedList<Integer>();
-			for (int tmp_scid : solverConfigs) {
-			    double[] m = M.get(tmp_scid);
-			    if (Math.abs(m[I.get(instanceid)] - max) < 0.000001 && max > 0.000001) {
-			    	scids.add(tmp_scid);
-			    } else if (m[I.get(instanceid)] > max) {
-					max = m[I.get(instanceid)];
+			for (int r = 0; r < numRows; r++) {
+			    double val = m[rows[r]];
+			    if (Math.abs(val - max) < 0.000001 && max > 0.000001) {
+			    	scids.add(ids[r]);
+			    } else if (val > max) {
+					max = val;
 					scids.clear();
-					scids.add(tmp_scid);
+					scids.add(ids[r]);
 				}
 			}
 			if (!(scids.isEmpty())) {
@@ -661,14 +718,15 @@ public class Clustering implements Serializable {
 					    double max = 0.f;
 						int new_scid = -1;
 						for (int instanceid : instances) {
+							double[] m = M[I.get(instanceid)];
 							for (int tmp_scid : res.keySet()) {
 								if (tmp_scid == scid) {
 									continue;
 								}
-								double[] m = M.get(tmp_scid);
-								if (m[I.get(instanceid)] > max) {
+								double val = m[S.get(tmp_scid)];
+								if (val > max) {
 									found = true;
-									max = m[I.get(instanceid)];
+									max = val;
 									new_scid = tmp_scid;
 								}
 							}
@@ -810,9 +868,9 @@ public class Clustering implements Serializable {
 		// TODO: cache cumulated weight, not really a problem.
 		updateData();
 	    double sum = 0.f;
-		for (double[] m : M.values()) {
+		for (int row : getRows()) {
 			for (int i = 0; i < n; i++) {
-				sum += m[i];
+				sum += M[i][row];
 			}
 		}
 		return sum;
@@ -832,7 +890,7 @@ public class Clustering implements Serializable {
 	}
 	
 	private double getAbsoluteWeight(int scid) {
-	    double[] m = M.get(scid);
+	    int row = S.get(scid);
 	    double res = 0.f;
 	    //int num = 0;
 		for (int i = 0; i < n; i++) {
@@ -845,7 +903,7 @@ public class Clustering implements Serializable {
 			}*/
 			//double cost = C.get(scid)[i];
 			//if (!Double.isNaN(cost) && !Double.isInfinite(cost)) {
-				res += m[i];
+				res += M[i][row];
 			//	num++;
 			//}
 			/*if (max) {
@@ -858,12 +916,12 @@ public class Clustering implements Serializable {
 	
 	public boolean contains(int scid) {
 		updateData();
-		return M.containsKey(scid);
+		return S.containsKey(scid);
 	}
 	
 	public List<Integer> getSolverConfigIds() {
 		LinkedList<Integer> res = new LinkedList<Integer>();
-		res.addAll(M.keySet());
+		res.addAll(S.keySet());
 		return res;
 	}
 	
@@ -900,11 +958,11 @@ public class Clustering implements Serializable {
 		if (col == null) {
 			return 0.f;
 		}
-		double[] values = M.get(scid);
-		if (values == null) {
+		Integer row = S.get(scid);
+		if (row == null) {
 			return 0.f;
 		}
-		return values[col];
+		return M[col][row];
 	}
 	
 	public double getMaximumMembership(int instanceid) {
@@ -913,13 +971,7 @@ public class Clustering implements Serializable {
 		if (col == null) {
 			return 0.f;
 		}
-		double res = 0.f;
-		for (double[] values : M.values()) {
-			if (values[col] > res) {
-				res = values[col];
-			}
-		}
-		return res;
+		return maxM[col];
 	}
 	
 	public double getMinimumCost(int instanceid) {
@@ -928,16 +980,7 @@ public class Clustering implements Serializable {
 		if (col == null) {
 			return Double.POSITIVE_INFINITY;
 		}
-		double res = Double.POSITIVE_INFINITY;
-		for (double[] values : C.values()) {
-			if (Double.isNaN(values[col])) {
-				continue;
-			}
-			if (values[col] < res) {
-				res = values[col];
-			}
-		}
-		return res;
+		return minC[col];
 	}
 	
 	public double getCost(int scid, int instanceid) {
@@ -946,11 +989,11 @@ public class Clustering implements Serializable {
 		if (col == null) {
 			return Float.POSITIVE_INFINITY;
 		}
-		double[] values = C.get(scid);
-		if (values == null) {
+		Integer row = S.get(scid);
+		if (row == null) {
 			return Float.POSITIVE_INFINITY;
 		}
-		return values[col];
+		return C[col][row];
 	}
 	
 	/**
@@ -958,7 +1001,7 @@ public class Clustering implements Serializable {
 	 */
 	public void printM() {
 		updateData();
-		System.out.println("Membership Matrix M: " + M.size() + " rows (scs) / " + n + " columns (instances)");
+		System.out.println("Membership Matrix M: " + S.size() + " rows (scs) / " + n + " columns (instances)");
 		System.out.println();
 		HashMap<Integer, Integer> tmp = new HashMap<Integer, Integer>();
 		for (int instanceid : I.keySet()) {
@@ -969,14 +1012,14 @@ public class Clustering implements Serializable {
 			System.out.printf("%9d", (int) tmp.get(i));
 		}
 		System.out.printf("%9s\n", "weight");
-		for (int scid : M.keySet()) {
+		for (int scid : S.keySet()) {
 		    double weight = getWeight(scid);
 			if (weight <= 0.0f)
 				continue;
-			double[] m = M.get(scid);
+			int row = S.get(scid);
 			System.out.printf("%9d", scid);
 			for (int i = 0; i < n; i++) {
-				System.out.printf("%9f", m[i]);
+				System.out.printf("%9f", M[i][row]);
 			}
 			System.out.printf("%9f\n", weight);
 		}
@@ -994,9 +1037,11 @@ public class Clustering implements Serializable {
 		List<Pair<Integer, Double>> l1 = new LinkedList<Pair<Integer, Double>>();
 		List<Pair<Integer, Double>> l2 = new LinkedList<Pair<Integer, Double>>();
 		
-		for (Entry<Integer, double[]> row : M.entrySet()) {
-			l1.add(new Pair<Integer, Double>(row.getKey(), row.getValue()[I.get(i1)]));
-			l2.add(new Pair<Integer, Double>(row.getKey(), row.getValue()[I.get(i2)]));
+		double[] m1 = M[I.get(i1)];
+		double[] m2 = M[I.get(i2)];
+		for (int row : getRows()) {
+			l1.add(new Pair<Integer, Double>(scIds[row], m1[row]));
+			l2.add(new Pair<Integer, Double>(scIds[row], m2[row]));
 		}
 		Comparator<Pair<Integer, Double>> comp = new Comparator<Pair<Integer, Double>>() {
 
@@ -1030,7 +1075,7 @@ public class Clustering implements Serializable {
 			if (l1.get(i).getFirst().equals(l2.get(0).getFirst())) {
 				dist2 = i;
 				if (this.getMembership(l2.get(0).getFirst(), i1) < 0.0001) {
-					dist1 = l1.size();
+					dist2 = l1.size();
 				}
 				break;
 			}
@@ -1051,46 +1096,202 @@ public class Clustering implements Serializable {
 		return res;
 	}
 	
-	private double getDistanceSingleLinkage(List<Integer> c1, List<Integer> c2, HashMap<Pair<Integer, Integer>, Double> distanceMatrix) {
-		updateData();
+	/**
+	 * Calculates the condensed distance matrix (see
+	 * <code>HierarchicalClustering.index()</code>) of the instances in the
+	 * given columns with regards to <code>getDistance()</code>. The rank of
+	 * every solver configuration on every instance is computed once, so every
+	 * distance is computed in constant time.
+	 * @param columns
+	 * @return
+	 */
+	private double[] getCondensedDistanceMatrix(int[] columns) {
+		int m = columns.length;
+		int[] rows = getRows();
+		final int s = rows.length;
+		// rank[i][sc]: position of sc in the stable descending order of the memberships on instance i
+		int[][] rank = new int[m][s];
+		int[] top = new int[m];
+		Integer[] order = new Integer[s];
+		final double[] column = new double[s];
+		Comparator<Integer> comp = new Comparator<Integer>() {
+			
+			@Override
+			public int compare(Integer arg0, Integer arg1) {
+				if (column[arg0] < column[arg1]) {
+					return 1;
+				} else if (column[arg1] < column[arg0]) {
+					return -1;
+				} else {
+					return 0;
+				}
+			}
+		};
+		for (int i = 0; i < m; i++) {
+			for (int sc = 0; sc < s; sc++) {
+				column[sc] = M[columns[i]][rows[sc]];
+				order[sc] = sc;
+			}
+			Arrays.sort(order, comp);
+			for (int r = 0; r < s; r++) {
+				rank[i][order[r]] = r;
+			}
+			top[i] = s == 0 ? -1 : order[0];
+		}
 		
-		double dist = Double.MAX_VALUE;
-		for (int i = 0; i < c1.size(); i++) {
-			for (int j = 0; j < c2.size(); j++) {
-			    double tmp = distanceMatrix.get(new Pair<Integer, Integer>(c1.get(i), c2.get(j)));
-				if (tmp < dist) {
-					dist = tmp;
+		double[] dist = new double[HierarchicalClustering.condensedSize(m)];
+		int ix = 0;
+		for (int i1 = 0; i1 < m; i1++) {
+			for (int i2 = i1 + 1; i2 < m; i2++) {
+				int dist1 = 0, dist2 = 0;
+				if (s > 0) {
+					dist1 = M[columns[i2]][rows[top[i1]]] < 0.0001 ? s : rank[i2][top[i1]];
+					dist2 = M[columns[i1]][rows[top[i2]]] < 0.0001 ? s : rank[i1][top[i2]];
 				}
+				dist[ix++] = ((double) dist1 + (double) dist2) / 2.f;
 			}
 		}
 		return dist;
 	}
 	
-	private double getDistanceCompleteLinkage(List<Integer> c1, List<Integer> c2, HashMap<Pair<Integer, Integer>, Double> distanceMatrix) {
-		updateData();
+	/**
+	 * Greedily merges the two clusters with the smallest cost-based distance
+	 * (see <code>getDistanceTest()</code>) until there are k clusters left or
+	 * all clusters have infinite distances.<br/>
+	 * For every cluster the cost sums of all solver configurations and its
+	 * best solver configuration are cached and updated on merges, so a
+	 * distance is computed in constant time. For every cluster the nearest
+	 * following cluster is cached as well; only the rows whose nearest
+	 * cluster was merged are rescanned.
+	 * @param instances the instance ids
+	 * @param columns the columns of the instances
+	 * @param k
+	 * @return the clusters
+	 */
+	private List<List<Integer>> getClustersByCost(List<Integer> instances, int[] columns, int k) {
+		int m = columns.length;
+		int[] rows = getRows();
+		int s = rows.length;
+		
+		List<List<Integer>> clusters = new ArrayList<List<Integer>>(m);
+		// sums[sc][i]: cost sum of solver configuration sc on cluster i, infinite if any cost is infinite or unknown
+		double[][] sums = new double[s][m];
+		for (int sc = 0; sc < s; sc++) {
+			for (int i = 0; i < m; i++) {
+				double cost = C[columns[i]][rows[sc]];
+				sums[sc][i] = (Double.isInfinite(cost) || Double.isNaN(cost)) ? Double.POSITIVE_INFINITY : cost;
+			}
+		}
+		int[] best = new int[m];
+		for (int i = 0; i < m; i++) {
+			List<Integer> tmp = new LinkedList<Integer>();
+			tmp.add(instances.get(i));
+			clusters.add(tmp);
+			best[i] = getBestConfiguration(sums, i);
+		}
+		
+		boolean[] active = new boolean[m];
+		Arrays.fill(active, true);
+		int[] nn = new int[m];
+		double[] nnDist = new double[m];
+		for (int i = 0; i < m; i++) {
+			updateNearestCluster(i, active, sums, best, nn, nnDist);
+		}
 		
-		double dist = 0.f;
-		for (int i = 0; i < c1.size(); i++) {
-			for (int j = 0; j < c2.size(); j++) {
-			    double tmp = distanceMatrix.get(new Pair<Integer, Integer>(c1.get(i), c2.get(j)));
-				if (tmp > dist) {
-					dist = tmp;
+		int numClusters = m;
+		while (numClusters > Math.max(k, 1)) {
+			int m1 = -1;
+			double dist = Double.MAX_VALUE;
+			for (int i = 0; i < m; i++) {
+				if (active[i] && nn[i] != -1 && nnDist[i] < dist) {
+					dist = nnDist[i];
+					m1 = i;
+				}
+			}
+			if (m1 == -1) {
+				break;
+			}
+			int m2 = nn[m1];
+			
+			clusters.get(m1).addAll(clusters.get(m2));
+			clusters.set(m2, null);
+			for (int sc = 0; sc < s; sc++) {
+				sums[sc][m1] += sums[sc][m2];
+			}
+			best[m1] = getBestConfiguration(sums, m1);
+			active[m2] = false;
+			numClusters--;
+			
+			updateNearestCluster(m1, active, sums, best, nn, nnDist);
+			for (int x = 0; x < m2; x++) {
+				if (!active[x] || x == m1) {
+					continue;
+				}
+				if (nn[x] == m1 || nn[x] == m2) {
+					updateNearestCluster(x, active, sums, best, nn, nnDist);
+				} else if (x < m1) {
+					double tmp = getMergedCost(sums, best, x, m1);
+					if (tmp < nnDist[x] || (tmp == nnDist[x] && m1 < nn[x])) {
+						nn[x] = m1;
+						nnDist[x] = tmp;
+					}
 				}
 			}
 		}
-		return dist;
+		
+		List<List<Integer>> res = new LinkedList<List<Integer>>();
+		for (int i = 0; i < m; i++) {
+			if (active[i]) {
+				res.add(clusters.get(i));
+			}
+		}
+		return res;
 	}
 	
-	private double getDistanceAverageLinkage(List<Integer> c1, List<Integer> c2, HashMap<Pair<Integer, Integer>, Double> distanceMatrix) {
-		updateData();
-		
-		double dist = 0.f;
-		for (int i = 0; i < c1.size(); i++) {
-			for (int j = 0; j < c2.size(); j++) {
-				dist += distanceMatrix.get(new Pair<Integer, Integer>(c1.get(i), c2.get(j)));
+	/**
+	 * Returns the solver configuration with the smallest finite cost sum on
+	 * cluster i, the first one on ties, or -1 if there is no such solver
+	 * configuration.
+	 */
+	private static int getBestConfiguration(double[][] sums, int i) {
+		double weight = Double.POSITIVE_INFINITY;
+		int res = -1;
+		for (int sc = 0; sc < sums.length; sc++) {
+			if (sums[sc][i] < weight) {
+				weight = sums[sc][i];
+				res = sc;
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Returns the cost of the merged clusters i and j with the better of their
+	 * best solver configurations, see <code>getDistanceTest()</code>.
+	 */
+	private static double getMergedCost(double[][] sums, int[] best, int i, int j) {
+		double sc1_cost = best[i] == -1 ? Double.POSITIVE_INFINITY : sums[best[i]][i] + sums[best[i]][j];
+		double sc2_cost = best[j] == -1 ? Double.POSITIVE_INFINITY : sums[best[j]][i] + sums[best[j]][j];
+		return Math.min(sc1_cost, sc2_cost);
+	}
+	
+	/**
+	 * Finds the nearest active cluster following cluster i, the first one on
+	 * ties. Sets nn[i] to -1 if there is none.
+	 */
+	private static void updateNearestCluster(int i, boolean[] active, double[][] sums, int[] best, int[] nn, double[] nnDist) {
+		nn[i] = -1;
+		nnDist[i] = Double.POSITIVE_INFINITY;
+		for (int j = i + 1; j < active.length; j++) {
+			if (!active[j]) {
+				continue;
+			}
+			double tmp = getMergedCost(sums, best, i, j);
+			if (nn[i] == -1 || tmp < nnDist[i]) {
+				nn[i] = j;
+				nnDist[i] = tmp;
 			}
 		}
-		return dist / (double) (c1.size() + c2.size());
 	}
 	
 	public int getBestConfigurationForCluster(List<Integer> cluster) {
@@ -1098,22 +1299,28 @@ public class Clustering implements Serializable {
 		
 		double weight = Double.POSITIVE_INFINITY;
 		int res = -1;
-		for (Entry<Integer, double[]> entry : C.entrySet()) {
+		int[] columns = new int[cluster.size()];
+		int i = 0;
+		for (int instanceid : cluster) {
+			columns[i++] = I.get(instanceid);
+		}
+		for (int row : getRows()) {
 		    double tmp = 0.f;
 		    boolean inf = false;
-			for (int instanceid : cluster) {
-				if (Double.isInfinite(entry.getValue()[I.get(instanceid)]) || Double.isNaN(entry.getValue()[I.get(instanceid)])) {
+			for (int col : columns) {
+				double cost = C[col][row];
+				if (Double.isInfinite(cost) || Double.isNaN(cost)) {
 					inf = true;
 					break;
 				}
-				tmp += entry.getValue()[I.get(instanceid)];
+				tmp += cost;
 			}
 			if (inf) {
 				continue;
 			}
 			if (tmp < weight) {
 				weight = tmp;
-				res = entry.getKey();
+				res = scIds[row];
 			}
 		}
 		return res;
@@ -1159,50 +1366,61 @@ public class Clustering implements Serializable {
 		}
 	}
 	
+	/**
+	 * Clusters the instances with a positive sum of memberships hierarchically
+	 * into k clusters and maps every cluster to its best solver configuration.
+	 * Clusters with the same best solver configuration are joined.<br/>
+	 * The linkage methods cluster the condensed matrix of the instance
+	 * distances (see <code>getDistance()</code>) by the nearest-neighbor chain
+	 * algorithm in O(n²) time and memory. <code>AVERAGE_LINKAGE</code> is the
+	 * sum of the distances divided by the sum of the cluster sizes, as before,
+	 * not the mean distance. <code>CLUSTER</code> greedily merges
+	 * the clusters whose union has the lowest cost with the best solver
+	 * configuration of either of them.
+	 * @param method
+	 * @param k
+	 * @return
+	 */
 	public HashMap<Integer, List<Integer>> getClusteringHierarchical(HierarchicalClusterMethod method, int k) {
 		updateData();
 		
-		List<List<Integer>> c = new LinkedList<List<Integer>>();
+		List<Integer> instances = new ArrayList<Integer>();
 		for (int instanceid : I.keySet()) {
 			if (K[I.get(instanceid)] > 0.5f) {
-				List<Integer> tmp = new LinkedList<Integer>();
-				tmp.add(instanceid);
-				c.add(tmp);
+				instances.add(instanceid);
 			}
 		}
-		HashMap<Pair<Integer, Integer>, Double> matrix = getDistanceMatrix();
-		while (c.size() > k) {
-			System.out.println("csize = " + c.size());
-			int m1 = -1, m2 = -1;
-			double dist = Double.MAX_VALUE;
-			for (int i = 0; i < c.size(); i++) {
-				for (int j = i+1; j < c.size(); j++) {
-				    double tmp;
-					if (method.equals(HierarchicalClusterMethod.COMPLETE_LINKAGE)) {
-						tmp = getDistanceCompleteLinkage(c.get(i), c.get(j), matrix);
-					} else if (method.equals(HierarchicalClusterMethod.SINGLE_LINKAGE)) {
-						tmp = getDistanceSingleLinkage(c.get(i), c.get(j), matrix);
-					} else if (method.equals(HierarchicalClusterMethod.AVERAGE_LINKAGE)) {
-						tmp = getDistanceAverageLinkage(c.get(i), c.get(j), matrix);
-					} else if (method.equals(HierarchicalClusterMethod.CLUSTER)) {
-						tmp = getDistanceTest(c.get(i), c.get(j));
-					} else {
-						throw new IllegalArgumentException("Unknown hierarchical clustering method: " + method);
-					}
-					
-					if (tmp < dist) {
-						dist = tmp;
-						m1 = i;
-						m2 = j;
+		int m = instances.size();
+		int[] columns = new int[m];
+		for (int i = 0; i < m; i++) {
+			columns[i] = I.get(instances.get(i));
+		}
+		
+		List<List<Integer>> c;
+		if (method.equals(HierarchicalClusterMethod.CLUSTER)) {
+			c = getClustersByCost(instances, columns, k);
+		} else {
+			HierarchicalClustering.Linkage linkage;
+			if (method.equals(HierarchicalClusterMethod.COMPLETE_LINKAGE)) {
+				linkage = HierarchicalClustering.Linkage.COMPLETE;
+			} else if (method.equals(HierarchicalClusterMethod.SINGLE_LINKAGE)) {
+				linkage = HierarchicalClustering.Linkage.SINGLE;
+			} else if (method.equals(HierarchicalClusterMethod.AVERAGE_LINKAGE)) {
+				linkage = HierarchicalClustering.Linkage.SUM_OVER_SIZES;
+			} else {
+				throw new IllegalArgumentException("Unknown hierarchical clustering method: " + method);
+			}
+			c = new ArrayList<List<Integer>>();
+			if (m > 0) {
+				HierarchicalClustering hc = new HierarchicalClustering(m, getCondensedDistanceMatrix(columns), linkage, true);
+				int[] labels = hc.cutree(k);
+				for (int i = 0; i < m; i++) {
+					while (c.size() < labels[i]) {
+						c.add(new LinkedList<Integer>());
 					}
+					c.get(labels[i] - 1).add(instances.get(i));
 				}
 			}
-			if (m1 == -1 || m2 == -1) {
-				break;
-			}
-			
-			c.get(m1).addAll(c.get(m2));
-			c.remove(m2);
 		}
 		
 		HashMap<Integer, List<Integer>> res = new HashMap<Integer, List<Integer>>();
@@ -1211,7 +1429,7 @@ public class Clustering implements Serializable {
 			if (res.containsKey(id)) {
 				res.get(id).addAll(cluster);
 			} else {
-				res.put(getBestConfigurationForCluster(cluster), cluster);
+				res.put(id, cluster);
 			}
 		}
 		return res;
@@ -76,7 +76,7 @@ public class SolverLauncher {
 		Integer scid = null;
 		if (args[0].equals("fuzzy")) {
 			List<Integer> scids = new LinkedList<Integer>();
-			scids.addAll(clustering.M.keySet());
+			scids.addAll(clustering.getSolverConfigIds());
 			float rand = new Random(Integer.parseInt(args[2])).nextFloat();
 			float cur = 0.f;
 			for (int id : scids) {
@@ -2,12 +2,41 @@ package edacc.configurator.math;
 
 import org.rosuda.JRI.Rengine;
 
+/**
+ * Hierarchical clustering (complete linkage) of the rows of a data matrix
+ * where the number of clusters is chosen by the average silhouette width.
+ * 
+ * The clustering is either calculated by R (<code>hclust</code> and
+ * <code>silhouette</code> of the cluster package) or natively in Java (if no
+ * rengine is given). The native variant computes the distance matrix and the
+ * dendrogram only once. The silhouettes of consecutive k are calculated from
+ * the sums of the distances of each point to each cluster, which are updated
+ * when going from k to k + 1 clusters splits one cluster into two.
+ */
 public class ClusterSilhouette {
     private double[] linearizedData;
     private int r, c;
     private Rengine rengine;
     
+    private double[][] X;
+    private double[] dist;
+    private HierarchicalClustering hc;
+    
+    /**
+     * @param rengine the rengine or <code>null</code> to cluster natively
+     * @param r
+     * @param c
+     * @param X
+     * @throws Exception
+     */
     public ClusterSilhouette(Rengine rengine, int r, int c, double[][] X) throws Exception {
+        this.r = r;
+        this.c = c;
+        this.rengine = rengine;
+        if (rengine == null) {
+            this.X = X;
+            return;
+        }
         if (rengine.eval("library(cluster)") == null) {
             rengine.end();
             throw new Exception("Did not find R library cluster (try running install.packages(\"cluster\")).");
@@ -20,12 +49,17 @@ public class ClusterSilhouette {
                 linearizedData[ix++] = X[i][j]; 
             }
         }
-        this.r = r;
-        this.c = c;
-        this.rengine = rengine;
     }
     
-    public int findNumberOfClusters(int maxK) {
+    /**
+     * Creates a natively calculated clustering.
+     */
+    public ClusterSilhouette(int r, int c, double[][] X) throws Exception {
+        this(null, r, c, X);
+    }
+    
+    public int findNumberOfClusters(int maxK) throws Exception {
+        if (rengine == null) return nativeFindNumberOfClusters(maxK);
         rengine.assign("data", linearizedData);
         rengine.eval("data <- matrix(data, nrow=" + r + ", ncol=" + c + ", byrow=T)");
         rengine.eval("data_dist = dist(data)");
@@ -42,7 +76,11 @@ public class ClusterSilhouette {
         return bestK;
     }
     
-    public int[] clusterData(int k) {
+    public int[] clusterData(int k) throws Exception {
+        if (rengine == null) {
+            initNative();
+            return hc.cutree(k);
+        }
         rengine.assign("data", linearizedData);
         rengine.eval("data <- matrix(data, nrow=" + r + ", ncol=" + c + ", byrow=T)");
         rengine.eval("data_dist = dist(data)");
@@ -50,4 +88,103 @@ public class ClusterSilhouette {
         rengine.eval("cl = cutree(hc, " + k + ")");
         return rengine.eval("cl").asIntArray();
     }
+    
+    private void initNative() throws Exception {
+        if (hc != null) return;
+        dist = HierarchicalClustering.euclideanDistances(X, Runtime.getRuntime().availableProcessors());
+        hc = new HierarchicalClustering(r, dist);
+    }
+    
+    private int nativeFindNumberOfClusters(int maxK) throws Exception {
+        initNative();
+        int n = r;
+        int lastK = Math.min(maxK - 1, n - 1);
+        if (lastK < 2) return 2;
+        
+        // cluster of each point (0 .. k-1), cluster sizes and the sums of
+        // the distances of each point to each cluster, starting with k = 1
+        int[] labels = new int[n];
+        int[] size = new int[lastK];
+        double[][] sums = new double[n][lastK];
+        size[0] = n;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double d = dist[HierarchicalClustering.index(n, i, j)];
+                sums[i][0] += d;
+                sums[j][0] += d;
+            }
+        }
+        
+        double maxSil = 0.0;
+        int bestK = 2;
+        int[] part = new int[n];
+        double[] partSums = new double[n];
+        for (int k = 1; k < lastK; k++) {
+            // split one cluster into two: the points in the part of the
+            // second slot form the new cluster k
+            int[] split = hc.getSplit(k);
+            int[] rep = hc.cutRepresentatives(k + 1);
+            int repA = rep[split[0]], repB = rep[split[1]];
+            int numA = 0, numB = 0;
+            for (int i = 0; i < n; i++) {
+                if (rep[i] == repA) numA++;
+                else if (rep[i] == repB) numB++;
+            }
+            int old = labels[split[0]];
+            // sums to the smaller part, the other part is the difference
+            int smallRep = numA <= numB ? repA : repB;
+            int numSmall = 0;
+            for (int i = 0; i < n; i++) {
+                if (rep[i] == smallRep) part[numSmall++] = i;
+            }
+            for (int i = 0; i < n; i++) {
+                double s = 0;
+                for (int p = 0; p < numSmall; p++) {
+                    int j = part[p];
+                    if (j != i) s += dist[HierarchicalClustering.index(n, i, j)];
+                }
+                partSums[i] = s;
+            }
+            for (int i = 0; i < n; i++) {
+                if (smallRep == repB) {
+                    sums[i][k] = partSums[i];
+                    sums[i][old] -= partSums[i];
+                } else {
+                    sums[i][k] = sums[i][old] - partSums[i];
+                    sums[i][old] = partSums[i];
+                }
+                if (rep[i] == repB) labels[i] = k;
+            }
+            size[old] = numA;
+            size[k] = numB;
+            
+            double sil = averageSilhouetteWidth(labels, size, sums, k + 1);
+            if (sil > maxSil) {
+                maxSil = sil;
+                bestK = k + 1;
+            }
+        }
+        return bestK;
+    }
+    
+    /**
+     * Returns the average silhouette width of the clustering. Points in
+     * singleton clusters have silhouette width 0.
+     */
+    private static double averageSilhouetteWidth(int[] labels, int[] size, double[][] sums, int k) {
+        int n = labels.length;
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            int own = labels[i];
+            if (size[own] <= 1) continue;
+            double a = sums[i][own] / (size[own] - 1);
+            double b = Double.POSITIVE_INFINITY;
+            for (int l = 0; l < k; l++) {
+                if (l != own) b = Math.min(b, sums[i][l] / size[l]);
+            }
+            double max = Math.max(a, b);
+            if (max > 0) total += (b - a) / max;
+        }
+        return total / n;
+    }
 }
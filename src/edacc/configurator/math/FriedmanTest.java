@@ -1,5 +1,6 @@
 package edacc.configurator.math;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.math.MathException;
@@ -14,15 +15,24 @@ import org.apache.commons.math.stat.ranking.TiesStrategy;
 import edacc.configurator.aac.SolverConfiguration;
 
 /**
- * Friedman family-wise test for significant differences.
+ * Friedman family-wise test for significant differences.<br/>
+ * The test is maintained incrementally: blocks (one observation per solver
+ * configuration) can be added one at a time and solver configurations can be
+ * removed. Only a new block is ranked, the rank sums and the sum of squared
+ * ranks are kept up to date, so the test statistics can be calculated in
+ * O(c). Blocks containing missing values (NaN) are ignored as long as they
+ * are incomplete.
  * 
  * @author daniel
  *
  */
 public class FriedmanTest implements FamilyTest {
-    private double[][] ranks;
+    private List<double[]> data;
+    private List<double[]> ranks;
     private double[] rankSums;
+    private double sumSquaredRanks;
     private int m, k;
+    private NaturalRanking ranking = new NaturalRanking(NaNStrategy.MAXIMAL, TiesStrategy.AVERAGE);
 
     /**
      * Set up Friedman family and post-hoc tests given <code>n</code>
@@ -37,50 +47,140 @@ public class FriedmanTest implements FamilyTest {
      *            n x c matrix of the observed values
      */
     public FriedmanTest(int n, int c, double[][] data) {
-        boolean[] missingRow = new boolean[n];
-        int numMissingRows = 0;
-        for (int j = 0; j < n; j++) missingRow[j] = false; 
-        
-        for (int j = 0; j < n; j++) {
-            for (int i = 0; i < c; i++) {
-                if (Double.isNaN(data[j][i])) {
-                    missingRow[j] = true; 
-                    numMissingRows++;
-                    break;
-                }
-            }
+        this(c);
+        for (int i = 0; i < n; i++) {
+            addBlock(data[i]);
         }
-        
-        ranks = new double[n - numMissingRows][c];
+    }
+
+    /**
+     * Set up Friedman family and post-hoc tests for <code>c</code> solver
+     * configurations without any observations.
+     * 
+     * @param c
+     *            Number of solver configurations
+     */
+    public FriedmanTest(int c) {
+        data = new ArrayList<double[]>();
+        ranks = new ArrayList<double[]>();
         rankSums = new double[c];
+        sumSquaredRanks = 0;
+        m = c;
+        k = 0;
+    }
 
-        NaturalRanking ranking = new NaturalRanking(NaNStrategy.MAXIMAL, TiesStrategy.AVERAGE);
-        int row = 0;
-        for (int i = 0; i < n; i++) {
-            if (missingRow[i]) continue;
-            double[] rankedData = ranking.rank(data[i]);
-            for (int j = 0; j < c; j++) {
-                ranks[row][j] = rankedData[j];
-                rankSums[j] += rankedData[j];
-            }
-            
-            row++;
+    /**
+     * Adds a block of observations, i.e. one observation for each solver
+     * configuration. Blocks with missing values (NaN) are ignored.
+     * 
+     * @param block
+     *            the observed values, indexed like the solver configurations
+     * @return whether the block was added
+     */
+    public boolean addBlock(double[] block) {
+        double[] values = new double[m];
+        System.arraycopy(block, 0, values, 0, m);
+        data.add(values);
+        ranks.add(null);
+        return rankBlock(data.size() - 1);
+    }
+
+    /**
+     * Ranks the block with index <code>l</code> if it is complete.
+     */
+    private boolean rankBlock(int l) {
+        double[] values = data.get(l);
+        for (int j = 0; j < m; j++) {
+            if (Double.isNaN(values[j])) return false;
         }
-        
+        double[] rankedData = ranking.rank(values);
+        for (int j = 0; j < m; j++) {
+            rankSums[j] += rankedData[j];
+            sumSquaredRanks += rankedData[j] * rankedData[j];
+        }
+        ranks.set(l, rankedData);
+        k++;
+        return true;
+    }
 
-        /*System.out.println("Friedman test will be calculated on:");
-        StringBuilder out = new StringBuilder();
-        out.append("\n");
-        for (int i = 0; i < ranks.length; i++) {
-            for (int j = 0; j < ranks[i].length; j++) {
-                out.append(String.format("%5.4f ", ranks[i][j]));
+    /**
+     * Removes the solver configuration with index <code>c</code>. The
+     * following solver configurations move one index down. The ranks of the
+     * remaining solver configurations are adjusted in every block: ranks above
+     * the removed observation drop by one, tied ranks by one half. Blocks
+     * that were incomplete only because of the removed solver configuration
+     * are ranked.
+     * 
+     * @param c
+     *            index (column) of the solver configuration
+     */
+    public void removeTreatment(int c) {
+        double[] newRankSums = new double[m - 1];
+        sumSquaredRanks = 0;
+        List<Integer> completed = new ArrayList<Integer>();
+        for (int l = 0; l < data.size(); l++) {
+            double[] values = data.get(l);
+            double[] rankedData = ranks.get(l);
+            double[] newValues = new double[m - 1];
+            double[] newRanks = rankedData == null ? null : new double[m - 1];
+            double removed = values[c];
+            for (int j = 0, h = 0; j < m; j++) {
+                if (j == c) continue;
+                newValues[h] = values[j];
+                if (rankedData != null) {
+                    double r = rankedData[j];
+                    if (values[j] > removed) {
+                        r -= 1;
+                    } else if (values[j] == removed) {
+                        r -= 0.5;
+                    }
+                    newRanks[h] = r;
+                    newRankSums[h] += r;
+                    sumSquaredRanks += r * r;
+                }
+                h++;
+            }
+            data.set(l, newValues);
+            ranks.set(l, newRanks);
+            if (rankedData == null && Double.isNaN(removed)) {
+                completed.add(l);
             }
-            out.append("\n");
         }
-        System.out.println(out.toString());*/
+        rankSums = newRankSums;
+        m--;
+        for (int l : completed) {
+            rankBlock(l);
+        }
+    }
 
-        m = c;
-        k = n - numMissingRows;
+    /**
+     * Returns the number of complete blocks (observations without missing
+     * values) the test is based on.
+     * 
+     * @return
+     */
+    public int getNumBlocks() {
+        return k;
+    }
+
+    /**
+     * Returns the number of solver configurations.
+     * 
+     * @return
+     */
+    public int getNumTreatments() {
+        return m;
+    }
+
+    /**
+     * Returns the rank sum of the solver configuration with index
+     * <code>c</code>.
+     * 
+     * @param c
+     * @return
+     */
+    public double getRankSum(int c) {
+        return rankSums[c];
     }
 
     /**
@@ -94,11 +194,7 @@ public class FriedmanTest implements FamilyTest {
         double sum = 0;
         for (int j = 0; j < m; j++)
             sum += (rankSums[j] - (k * (m + 1)) / 2.0) * (rankSums[j] - (k * (m + 1)) / 2.0);
-        double doublesum = 0;
-        for (int l = 0; l < k; l++)
-            for (int j = 0; j < m; j++)
-                doublesum += ranks[l][j] * ranks[l][j];
-        double T = (m - 1) * sum / (doublesum - k * m * (m + 1) * (m + 1) / 4.0);
+        double T = (m - 1) * sum / (sumSquaredRanks - k * m * (m + 1) * (m + 1) / 4.0);
         return T;
     }
 
@@ -143,13 +239,34 @@ public class FriedmanTest implements FamilyTest {
      * @return
      */
     public double postHocTestStatistic(int c1, int c2, double T) {
-        double F = Math.abs(rankSums[c1] - rankSums[c2]);
-        double dsum = 0;
-        for (int l = 0; l < k; l++)
-            for (int h = 0; h < m; h++)
-                dsum += ranks[l][h] * ranks[l][h];
-        F /= Math.sqrt(2 * k * (1 - T / (k * (m - 1))) * (dsum - k * m * (m + 1) * (m + 1) / 4.0) / ((k - 1) * (m - 1)));
-        return F;
+        return Math.abs(rankSums[c1] - rankSums[c2]) / postHocStandardError(T);
+    }
+
+    private double postHocStandardError(double T) {
+        return Math.sqrt(2 * k * (1 - T / (k * (m - 1))) * (sumSquaredRanks - k * m * (m + 1) * (m + 1) / 4.0) / ((k - 1) * (m - 1)));
+    }
+
+    /**
+     * Returns the critical difference of the rank sums for the post-hoc test
+     * at level alpha: two solver configurations are significantly different
+     * iff the absolute difference of their rank sums (see
+     * <code>getRankSum()</code>) is greater than the critical difference. This
+     * is equivalent to <code>isPostHocTestSignificant()</code> and only has to
+     * be calculated once for all pairs.
+     * 
+     * @param T
+     *            test statistic value of the family-wise test returned by
+     *            <code>familyTestStatistic()</code>
+     * @param alpha
+     *            significance level
+     * @return
+     * @throws MathException
+     */
+    public double postHocCriticalDifference(double T, double alpha) throws MathException {
+        TDistribution tDist = new TDistributionImpl((m-1)*(k-1));
+        double se = postHocStandardError(T);
+        if (se == 0) return 0;
+        return tDist.inverseCumulativeProbability(1 - alpha / 2.0) * se;
     }
 
     /**
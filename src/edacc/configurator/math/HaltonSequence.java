@@ -0,0 +1,105 @@
+package edacc.configurator.math;
+
+/**
+ * Generator of the reverse Halton sequence of Vandewoestyne and Cools in d
+ * dimensions, as GSL's reversehalton generator.<br/>
+ * Dimension j is the radical inverse of the index in the base of the j-th
+ * prime, where each nonzero digit a is replaced by base - a. The permutation
+ * breaks up the correlations between the dimensions of large bases, which
+ * make the plain Halton sequence unusable in high dimensions. There are no
+ * tables, so the number of dimensions is not bounded.
+ */
+public class HaltonSequence {
+    private int dimensions;
+    private int[] bases;
+    private long index;
+
+    /**
+     * Creates the sequence, the first point is the origin.
+     * @param dimensions
+     */
+    public HaltonSequence(int dimensions) {
+        if (dimensions < 1) throw new IllegalArgumentException("Invalid number of dimensions: " + dimensions);
+        this.dimensions = dimensions;
+        bases = primes(dimensions);
+    }
+
+    /**
+     * Returns the first n primes.
+     */
+    static int[] primes(int n) {
+        int[] res = new int[n];
+        int count = 0;
+        for (int p = 2; count < n; p++) {
+            boolean prime = true;
+            for (int i = 0; i < count && res[i] * res[i] <= p; i++) {
+                if (p % res[i] == 0) {
+                    prime = false;
+                    break;
+                }
+            }
+            if (prime) res[count++] = p;
+        }
+        return res;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the index of the next point.
+     * @return
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the index of the next point.
+     * @param index
+     */
+    public void skipTo(long index) {
+        if (index < 0) throw new IllegalArgumentException("Invalid index: " + index);
+        this.index = index;
+    }
+
+    /**
+     * Writes the next point to <code>buffer</code> starting at
+     * <code>offset</code>.
+     * @param buffer
+     * @param offset
+     */
+    public void nextPoint(double[] buffer, int offset) {
+        int[] digits = new int[64];
+        for (int d = 0; d < dimensions; d++) {
+            int b = bases[d];
+            int n = 0;
+            for (long i = index; i > 0; i /= b) {
+                int digit = (int) (i % b);
+                digits[n++] = digit == 0 ? 0 : b - digit;
+            }
+            // Horner's scheme from the last digit avoids the rounding errors
+            // of the powers of 1 / b
+            double x = 0;
+            while (n > 0) {
+                x = (x + digits[--n]) / b;
+            }
+            buffer[offset + d] = x;
+        }
+        index++;
+    }
+
+    /**
+     * Returns the next <code>numPoints</code> points.
+     * @param numPoints
+     * @return
+     */
+    public double[][] nextPoints(int numPoints) {
+        double[][] res = new double[numPoints][dimensions];
+        for (int i = 0; i < numPoints; i++) {
+            nextPoint(res[i], 0);
+        }
+        return res;
+    }
+}
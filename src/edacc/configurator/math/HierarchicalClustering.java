@@ -0,0 +1,366 @@
+package edacc.configurator.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Agglomerative hierarchical clustering with single, complete (like R's
+ * <code>hclust</code> default), average or sum over sizes linkage on a
+ * condensed distance matrix.<br/>
+ * The dendrogram is built by the nearest-neighbor chain algorithm in O(n²)
+ * time, the distances of merged clusters are updated by the Lance-Williams
+ * formula of the linkage. The merges are then ordered by their height.
+ * Distances are stored in condensed form, i.e. the upper triangle of the
+ * n x n distance matrix row by row, see <code>index()</code>.
+ */
+public class HierarchicalClustering {
+    /**
+     * The distance of two clusters: minimum, maximum or mean of the distances
+     * of their objects, or the sum of the distances of their objects divided
+     * by the sum of their sizes (the average linkage of the solvercreator).
+     * All of them are reducible, which the nearest-neighbor chain algorithm
+     * requires.
+     */
+    public enum Linkage {
+        SINGLE, COMPLETE, AVERAGE, SUM_OVER_SIZES
+    }
+    
+    /**
+     * The largest number of objects whose condensed distance matrix still
+     * fits into a Java array.
+     */
+    public static final int MAX_OBJECTS = 65536;
+    
+    private int n;
+    /** the merges ordered by height: slots of the two merged clusters */
+    private int[] mergeA, mergeB;
+    private double[] heights;
+    
+    /**
+     * Clusters the n objects with the given condensed distance matrix using
+     * complete linkage. The distance matrix is not modified.
+     * @param n
+     * @param dist
+     */
+    public HierarchicalClustering(int n, double[] dist) {
+        this(n, dist, Linkage.COMPLETE, false);
+    }
+    
+    /**
+     * Clusters the n objects with the given condensed distance matrix.
+     * @param n
+     * @param dist
+     * @param linkage
+     * @param overwrite if true, the distance matrix is used as work space
+     *        and overwritten instead of copied, which halves the memory
+     *        needed for large n
+     */
+    public HierarchicalClustering(int n, double[] dist, Linkage linkage, boolean overwrite) {
+        this(n, dist, null, linkage, overwrite);
+    }
+    
+    /**
+     * Clusters the n objects with the given condensed distance matrix, where
+     * the objects are clusters themselves, e.g. of a previous clustering.
+     * The sizes weight the distances of merged clusters for average and sum
+     * over sizes linkage. For the latter, the distances of single objects are
+     * halved, given sizes the distances are taken as the linkage of the
+     * objects.
+     * @param n
+     * @param dist
+     * @param sizes the number of elements of each object, or null if every
+     *        object is a single element
+     * @param linkage
+     * @param overwrite if true, the distance matrix is used as work space
+     *        and overwritten instead of copied
+     * @throws IllegalArgumentException if n exceeds <code>MAX_OBJECTS</code>
+     */
+    public HierarchicalClustering(int n, double[] dist, int[] sizes, Linkage linkage, boolean overwrite) {
+        condensedSize(n);
+        this.n = n;
+        mergeA = new int[Math.max(0, n - 1)];
+        mergeB = new int[Math.max(0, n - 1)];
+        heights = new double[Math.max(0, n - 1)];
+        if (n < 2) return;
+        
+        double[] D = overwrite ? dist : dist.clone();
+        if (linkage == Linkage.SUM_OVER_SIZES && sizes == null) {
+            for (int i = 0; i < D.length; i++) D[i] /= 2;
+        }
+        boolean[] active = new boolean[n];
+        int[] size = new int[n];
+        for (int i = 0; i < n; i++) {
+            active[i] = true;
+            size[i] = sizes == null ? 1 : sizes[i];
+        }
+        int[] chain = new int[n];
+        int chainLength = 0;
+        int firstActive = 0;
+        for (int m = 0; m < n - 1; m++) {
+            if (chainLength == 0) {
+                while (!active[firstActive]) firstActive++;
+                chain[chainLength++] = firstActive;
+            }
+            int a, b;
+            while (true) {
+                a = chain[chainLength - 1];
+                // prefer the predecessor in the chain on ties to avoid cycles
+                int best = chainLength >= 2 ? chain[chainLength - 2] : -1;
+                double bestDist = best >= 0 ? D[index(n, a, best)] : Double.POSITIVE_INFINITY;
+                // column a above the diagonal, then row a
+                int ix = a - 1;
+                for (int x = 0; x < a; ix += n - x - 2, x++) {
+                    if (active[x] && (D[ix] < bestDist || best < 0)) {
+                        bestDist = D[ix];
+                        best = x;
+                    }
+                }
+                ix = index(n, a, a + 1);
+                for (int x = a + 1; x < n; x++, ix++) {
+                    if (active[x] && (D[ix] < bestDist || best < 0)) {
+                        bestDist = D[ix];
+                        best = x;
+                    }
+                }
+                if (chainLength >= 2 && best == chain[chainLength - 2]) {
+                    b = best;
+                    break;
+                }
+                chain[chainLength++] = best;
+            }
+            chainLength -= 2;
+            // merge lo into hi and update the distances to hi
+            int lo = Math.min(a, b), hi = Math.max(a, b);
+            mergeA[m] = lo;
+            mergeB[m] = hi;
+            heights[m] = D[index(n, a, b)];
+            active[lo] = false;
+            double wLo = (double) size[lo] / (size[lo] + size[hi]);
+            double wHi = (double) size[hi] / (size[lo] + size[hi]);
+            for (int x = 0; x < n; x++) {
+                if (!active[x] || x == hi) continue;
+                int ixHi = index(n, hi, x);
+                double dLo = D[index(n, lo, x)];
+                switch (linkage) {
+                case SINGLE:
+                    D[ixHi] = Math.min(D[ixHi], dLo);
+                    break;
+                case COMPLETE:
+                    D[ixHi] = Math.max(D[ixHi], dLo);
+                    break;
+                case SUM_OVER_SIZES:
+                    // the sums of the distances to lo and hi add up
+                    D[ixHi] = ((size[lo] + size[x]) * dLo + (size[hi] + size[x]) * D[ixHi])
+                            / (size[lo] + size[hi] + size[x]);
+                    break;
+                default:
+                    D[ixHi] = wLo * dLo + wHi * D[ixHi];
+                }
+            }
+            size[hi] += size[lo];
+        }
+        sortMerges();
+    }
+    
+    /**
+     * Sorts the merges by height. The sort is stable, so merges of the same
+     * height stay in the order they were found, which is the order of their
+     * dependencies.
+     */
+    private void sortMerges() {
+        int m = heights.length;
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(heights[o1], heights[o2]);
+            }
+        });
+        int[] a = new int[m], b = new int[m];
+        double[] h = new double[m];
+        for (int i = 0; i < m; i++) {
+            a[i] = mergeA[order[i]];
+            b[i] = mergeB[order[i]];
+            h[i] = heights[order[i]];
+        }
+        mergeA = a;
+        mergeB = b;
+        heights = h;
+    }
+    
+    /**
+     * Returns the length n * (n - 1) / 2 of the condensed distance matrix of
+     * n objects.
+     * @throws IllegalArgumentException if n is negative or exceeds
+     *         <code>MAX_OBJECTS</code>, so that the matrix cannot be stored
+     *         in one array
+     */
+    public static int condensedSize(int n) {
+        if (n < 0 || n > MAX_OBJECTS) {
+            throw new IllegalArgumentException("Cannot store the condensed distance matrix of " + n
+                    + " objects, at most " + MAX_OBJECTS + " are supported.");
+        }
+        return (int) ((long) n * (n - 1) / 2);
+    }
+    
+    /**
+     * Returns the position of the distance between i and j (i != j) in the
+     * condensed distance matrix of n objects.
+     */
+    public static int index(int n, int i, int j) {
+        if (i > j) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        // i * n overflows int beyond 46340 objects
+        return (int) ((long) i * n - (long) i * (i + 1) / 2 + j - i - 1);
+    }
+    
+    /**
+     * Returns the heights of the n - 1 merges in ascending order.
+     * @return
+     */
+    public double[] getHeights() {
+        return heights;
+    }
+    
+    /**
+     * Returns the number of objects.
+     * @return
+     */
+    public int size() {
+        return n;
+    }
+    
+    /**
+     * Returns, for every object, a representative of its cluster when the
+     * dendrogram is cut into k clusters.
+     * @param k
+     * @return
+     */
+    int[] cutRepresentatives(int k) {
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        for (int m = 0; m < n - k; m++) {
+            int ra = find(parent, mergeA[m]);
+            int rb = find(parent, mergeB[m]);
+            parent[ra] = rb;
+        }
+        int[] rep = new int[n];
+        for (int i = 0; i < n; i++) rep[i] = find(parent, i);
+        return rep;
+    }
+    
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+    
+    /**
+     * Cuts the dendrogram into k clusters (like R's <code>cutree</code>).
+     * The clusters are numbered 1 through k in the order of their first
+     * object.
+     * @param k
+     * @return the cluster of each object
+     */
+    public int[] cutree(int k) {
+        int[] rep = cutRepresentatives(Math.max(1, Math.min(k, n)));
+        int[] labelOfRep = new int[n];
+        int[] labels = new int[n];
+        int numLabels = 0;
+        for (int i = 0; i < n; i++) {
+            if (labelOfRep[rep[i]] == 0) labelOfRep[rep[i]] = ++numLabels;
+            labels[i] = labelOfRep[rep[i]];
+        }
+        return labels;
+    }
+    
+    /**
+     * Returns the slots of the two clusters joined by the m-th merge, the
+     * merges being ordered by height. A slot is the index of an object of the
+     * cluster; the first slot is not used by any later merge, the second one
+     * stands for the merged cluster.
+     * @param m
+     * @return
+     */
+    public int[] getMerge(int m) {
+        return new int[] { mergeA[m], mergeB[m] };
+    }
+    
+    /**
+     * Returns the slots of the two clusters joined by the merge that is
+     * undone when going from k to k + 1 clusters.
+     */
+    int[] getSplit(int k) {
+        return getMerge(n - k - 1);
+    }
+    
+    /**
+     * Calculates the condensed euclidean distance matrix of the rows of X.
+     * Blocks of rows are processed by <code>numThreads</code> tasks on the
+     * shared pool of <code>Workers</code>.
+     * @param X
+     * @param numThreads
+     * @return
+     * @throws IllegalArgumentException if X has more than
+     *         <code>MAX_OBJECTS</code> rows
+     * @throws Exception
+     */
+    public static double[] euclideanDistances(final double[][] X, int numThreads) throws Exception {
+        final int n = X.length;
+        final double[] dist = new double[condensedSize(n)];
+        if (numThreads <= 1 || n < 256) {
+            euclideanDistances(X, dist, 0, 1);
+            return dist;
+        }
+        ExecutorService exec = Workers.getPool();
+        List<Future<?>> blocks = new ArrayList<Future<?>>(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int offset = t;
+            final int stride = numThreads;
+            blocks.add(exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                    euclideanDistances(X, dist, offset, stride);
+                }
+            }));
+        }
+        for (Future<?> block : blocks) {
+            try {
+                block.get();
+            } catch (ExecutionException e) {
+                throw new Exception(e.getCause());
+            }
+        }
+        return dist;
+    }
+    
+    /**
+     * Calculates the distances of the rows offset, offset + stride, ... to
+     * all following rows. Interleaving the rows balances the triangle.
+     */
+    private static void euclideanDistances(double[][] X, double[] dist, int offset, int stride) {
+        int n = X.length;
+        for (int i = offset; i < n; i += stride) {
+            double[] xi = X[i];
+            int ix = index(n, i, i + 1);
+            for (int j = i + 1; j < n; j++) {
+                double[] xj = X[j];
+                double s = 0;
+                for (int f = 0; f < xi.length; f++) {
+                    double d = xi[f] - xj[f];
+                    s += d * d;
+                }
+                dist[ix++] = Math.sqrt(s);
+            }
+        }
+    }
+}
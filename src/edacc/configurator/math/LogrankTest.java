@@ -1,25 +1,53 @@
 package edacc.configurator.math;
 
+import java.util.Arrays;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.ChiSquaredDistribution;
+import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
 import org.rosuda.JRI.Rengine;
 import org.rosuda.JRI.REXP;
 
 /**
  * Logrank (aka Mantel-Cox test) 2-sample test.
  * 
+ * The test is either calculated by the R libraries "survival" and
+ * "surv2sample" or natively in Java (if no rengine is given). The R variant
+ * uses the logrank test only if the proportional hazards assumption is
+ * rejected and the Cramer-von Mises type test of surv2sample otherwise. The
+ * native variant always uses the logrank test, i.e. the same statistic as
+ * <code>survdiff</code> with rho = 0. Missing values (NaN) are ignored by the
+ * native variant.
+ * 
  * @author daniel
  * 
  */
 public class LogrankTest {
     private Rengine rengine;
 
+    /**
+     * Creates a logrank test that is calculated by the given rengine which
+     * is assumed to have the libraries "survival" and "surv2sample" loaded.
+     * @param rengine the rengine or <code>null</code> to calculate the test natively
+     */
     public LogrankTest(Rengine rengine) {
         this.rengine = rengine;
     }
 
-    public double pValue(double[] x, double[] y, boolean[] x_censored, boolean[] y_censored) {
+    /**
+     * Creates a natively calculated logrank test.
+     */
+    public LogrankTest() {
+        this(null);
+    }
+
+    public double pValue(double[] x, double[] y, boolean[] x_censored, boolean[] y_censored) throws MathException {
         if (x.length != y.length) {
             throw new IllegalArgumentException("x and y have to be of the same length.");
         }
+        if (rengine == null) {
+            return nativePValue(x, y, x_censored, y_censored);
+        }
         double[] combinedData = new double[x.length + y.length];
         int[] group = new int[x.length + y.length];
         int[] combinedCensored = new int[x.length + y.length];
@@ -47,6 +75,80 @@ public class LogrankTest {
         return res.asDouble();
     }
     
+    private static double nativePValue(double[] x, double[] y, boolean[] x_censored, boolean[] y_censored) throws MathException {
+        Sample sx = new Sample(x, x_censored);
+        Sample sy = new Sample(y, y_censored);
+        // walk through the distinct event times of both samples in ascending order
+        double observedMinusExpected = 0, variance = 0;
+        int ix = 0, iy = 0;
+        while (ix < sx.numEvents || iy < sy.numEvents) {
+            double t;
+            if (iy == sy.numEvents || (ix < sx.numEvents && sx.events[ix] <= sy.events[iy])) {
+                t = sx.events[ix];
+            } else {
+                t = sy.events[iy];
+            }
+            int d1 = sx.countEvents(ix, t);
+            int d2 = sy.countEvents(iy, t);
+            ix += d1;
+            iy += d2;
+            double n1 = sx.atRisk(t);
+            double n2 = sy.atRisk(t);
+            double d = d1 + d2;
+            double N = n1 + n2;
+            observedMinusExpected += d1 - d * n1 / N;
+            if (N > 1) {
+                variance += n1 * n2 * d * (N - d) / (N * N * (N - 1));
+            }
+        }
+        if (variance <= 0) return 1.0;
+        double chisq = observedMinusExpected * observedMinusExpected / variance;
+        ChiSquaredDistribution XS = new ChiSquaredDistributionImpl(1);
+        return 1.0 - XS.cumulativeProbability(chisq);
+    }
+
+    /**
+     * The sorted times and sorted event (uncensored) times of a sample
+     * without missing values.
+     */
+    private static class Sample {
+        double[] times;
+        double[] events;
+        int numEvents;
+
+        Sample(double[] data, boolean[] censored) {
+            times = new double[data.length];
+            events = new double[data.length];
+            int numTimes = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (Double.isNaN(data[i])) continue;
+                times[numTimes++] = data[i];
+                if (!censored[i]) events[numEvents++] = data[i];
+            }
+            times = Arrays.copyOf(times, numTimes);
+            Arrays.sort(times);
+            Arrays.sort(events, 0, numEvents);
+        }
+
+        /** number of events at time t starting at position from */
+        int countEvents(int from, double t) {
+            int i = from;
+            while (i < numEvents && events[i] == t) i++;
+            return i - from;
+        }
+
+        /** number of times >= t */
+        int atRisk(double t) {
+            int lo = 0, hi = times.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] < t) lo = mid + 1;
+                else hi = mid;
+            }
+            return times.length - lo;
+        }
+    }
+    
     public static void main(String ... args) throws Exception {
         Rengine rengine = new Rengine(new String[] { "--vanilla" }, false, null);
 
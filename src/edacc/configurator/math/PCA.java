@@ -1,14 +1,59 @@
 package edacc.configurator.math;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.rosuda.JRI.Rengine;
 
+/**
+ * Principal component analysis of the columns of a data matrix.
+ * 
+ * The PCA is either calculated by R (<code>prcomp</code>) or natively in Java
+ * (if no rengine is given). The native variant computes the correlation
+ * matrix of the standardized data, which is split into blocks of rows that
+ * are processed in parallel, and its eigendecomposition. The components are
+ * ordered by decreasing variance. The sign of each principal axis is chosen
+ * such that its loading of largest magnitude is positive, R leaves the signs
+ * to LAPACK, so they may differ from R.
+ */
 public class PCA {
+    /** minimum number of rows per block when computing the correlation matrix in parallel */
+    private static final int minBlockSize = 1024;
+    
     private Rengine rengine;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
     
+    /**
+     * @param rengine the rengine or <code>null</code> to calculate the PCA natively
+     */
     public PCA(Rengine rengine) {
         this.rengine = rengine;
     }
     
+    /**
+     * Creates a natively calculated PCA.
+     */
+    public PCA() {
+        this(null);
+    }
+    
+    /**
+     * Sets the number of threads used to compute the correlation matrix.
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+    
     /**
      * Returns the first k columns with highest variance of the data transformed by PCA.
      * @param r
@@ -17,8 +62,9 @@ public class PCA {
      * @param k
      * @return
      */
-    public double[][] transform(int r, int c, double[][] data, int k) {
+    public double[][] transform(int r, int c, double[][] data, int k) throws Exception {
         if (r <= 1) return data;
+        if (rengine == null) return nativeTransform(r, c, data, k);
         
         // linearize matrix to pass it to R
         double[] linData = new double[r*c];
@@ -38,6 +84,128 @@ public class PCA {
         return rengine.eval("pcaed_data").asDoubleMatrix();
     }
     
+    private double[][] nativeTransform(final int r, int c, final double[][] data, int k) throws Exception {
+        // standardize the columns, drop constant features (0 standard deviation)
+        int[] cols = new int[c];
+        double[] mean = new double[c];
+        double[] sd = new double[c];
+        int numCols = 0;
+        for (int j = 0; j < c; j++) {
+            double m = 0;
+            for (int i = 0; i < r; i++) m += data[i][j];
+            m /= r;
+            double ss = 0;
+            for (int i = 0; i < r; i++) ss += (data[i][j] - m) * (data[i][j] - m);
+            double s = Math.sqrt(ss / (r - 1));
+            if (Double.isNaN(s) || s <= 0) continue;
+            cols[numCols] = j;
+            mean[numCols] = m;
+            sd[numCols] = s;
+            numCols++;
+        }
+        final int d = numCols;
+        final double[][] X = new double[r][d];
+        for (int i = 0; i < r; i++) {
+            for (int j = 0; j < d; j++) {
+                X[i][j] = (data[i][cols[j]] - mean[j]) / sd[j];
+            }
+        }
+        
+        // correlation matrix X'X / (r - 1), blocks of rows in parallel
+        int numBlocks = Math.max(1, Math.min(numThreads, r / minBlockSize));
+        final int blockSize = (r + numBlocks - 1) / numBlocks;
+        double[][] corr = new double[d][d];
+        if (numBlocks == 1) {
+            addCrossProducts(X, 0, r, corr);
+        } else {
+            ExecutorService exec = Workers.getPool();
+            List<Future<double[][]>> blocks = new ArrayList<Future<double[][]>>(numBlocks);
+            for (int b = 0; b < numBlocks; b++) {
+                final int from = b * blockSize;
+                final int to = Math.min(from + blockSize, r);
+                blocks.add(exec.submit(new Callable<double[][]>() {
+                    @Override
+                    public double[][] call() {
+                        double[][] partial = new double[d][d];
+                        addCrossProducts(X, from, to, partial);
+                        return partial;
+                    }
+                }));
+            }
+            for (Future<double[][]> block : blocks) {
+                double[][] partial;
+                try {
+                    partial = block.get();
+                } catch (ExecutionException e) {
+                    throw new Exception(e.getCause());
+                }
+                for (int s = 0; s < d; s++) {
+                    for (int t = 0; t <= s; t++) corr[s][t] += partial[s][t];
+                }
+            }
+        }
+        for (int s = 0; s < d; s++) {
+            for (int t = 0; t <= s; t++) {
+                corr[s][t] /= r - 1;
+                corr[t][s] = corr[s][t];
+            }
+        }
+        
+        // principal axes: eigenvectors by decreasing eigenvalue
+        int numPC = Math.min(k, d);
+        double[][] result = new double[r][numPC];
+        if (numPC == 0) return result;
+        EigenDecomposition eig = new EigenDecomposition(new Array2DRowRealMatrix(corr, false), 0);
+        double[] eigenvalues = eig.getRealEigenvalues();
+        RealMatrix V = eig.getV();
+        Integer[] order = new Integer[d];
+        for (int j = 0; j < d; j++) order[j] = j;
+        final double[] ev = eigenvalues;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(ev[o2], ev[o1]);
+            }
+        });
+        // orient each axis so that its loading of largest magnitude (the
+        // first one of ties) is positive
+        double[][] axes = new double[numPC][d];
+        for (int p = 0; p < numPC; p++) {
+            int largest = 0;
+            for (int j = 0; j < d; j++) {
+                axes[p][j] = V.getEntry(j, order[p]);
+                if (Math.abs(axes[p][j]) > Math.abs(axes[p][largest])) largest = j;
+            }
+            if (axes[p][largest] < 0) {
+                for (int j = 0; j < d; j++) axes[p][j] = -axes[p][j];
+            }
+        }
+        for (int i = 0; i < r; i++) {
+            for (int p = 0; p < numPC; p++) {
+                double v = 0;
+                for (int j = 0; j < d; j++) v += X[i][j] * axes[p][j];
+                result[i][p] = v;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Adds the cross products of the rows from to to (exclusive) to the lower
+     * triangle of sum.
+     */
+    private static void addCrossProducts(double[][] X, int from, int to, double[][] sum) {
+        int d = sum.length;
+        for (int i = from; i < to; i++) {
+            double[] x = X[i];
+            for (int s = 0; s < d; s++) {
+                double xs = x[s];
+                double[] row = sum[s];
+                for (int t = 0; t <= s; t++) row[t] += xs * x[t];
+            }
+        }
+    }
+    
     
     public static void main(String ... args) throws Exception {
         Rengine rengine = new Rengine(new String[] { "--vanilla" }, false, null);;
@@ -61,6 +229,9 @@ public class PCA {
         System.out.println(pcaed[6][0]);
         System.out.println(pcaed[6][1]);
         
+        double[][] nativePcaed = new PCA().transform(data.length, data[0].length, data, 2);
+        System.out.println(nativePcaed[6][0]);
+        System.out.println(nativePcaed[6][1]);
         
         
         rengine.end();
@@ -1,24 +1,47 @@
 package edacc.configurator.math;
 
+import java.util.Arrays;
+
 import org.apache.commons.math.MathException;
-import org.apache.commons.math.distribution.ChiSquaredDistribution;
-import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
 import org.apache.commons.math.distribution.FDistribution;
 import org.apache.commons.math.distribution.FDistributionImpl;
-import org.apache.commons.math.stat.ranking.NaNStrategy;
-import org.apache.commons.math.stat.ranking.NaturalRanking;
-import org.apache.commons.math.stat.ranking.TiesStrategy;
 
+/**
+ * Rank transformation test on the logrank scores of censored observations.<br/>
+ * Within each block (course entry) the observations of the solver
+ * configurations are transformed into logrank scores, then all scores are
+ * ranked together and an F-test is performed on the ranks.<br/>
+ * The logrank scores of a block are calculated from the sorted block by
+ * accumulating the hazard terms of the distinct values in ascending order,
+ * i.e. in O(c log c) for c solver configurations.<br/>
+ * Different sums of hazard terms can be mathematically equal, e.g. the score
+ * 2/3 of a censored value and the score 5/3 - 1 of a larger uncensored one,
+ * but differ in the last bits. Scores whose difference is within their
+ * rounding error (see <code>tied()</code>) are therefore ranked as ties.
+ */
 public class RankTransformationTest implements FamilyTest {
+    /**
+     * Ulps of 1 + |score| per value of the block that two tied scores may
+     * differ by, twice the rounding error of each score.
+     */
+    static final int SCORE_ULPS = 4;
+    
     private int n, c;
-    private double[][] score_ranks_by_block;
-    private double[][] overall_ranks;
+    /** sum of the overall ranks of the scores of each solver configuration */
+    private double[] overall_rank_sums;
+    /** sum of all overall ranks and sum of all squared overall ranks */
+    private double overall_rank_sum, overall_rank_square_sum;
     
+    /**
+     * @param n number of blocks (rows of <code>data</code>)
+     * @param c number of solver configurations (columns of <code>data</code>)
+     * @param data n x c matrix of the observed values, rows with missing values (NaN) are ignored
+     * @param censored n x c matrix, whether the observation is censored
+     * @throws Exception
+     */
     public RankTransformationTest(int n, int c, double[][] data, boolean[][] censored) throws Exception {
         boolean[] missingRow = new boolean[n];
         int numMissingRows = 0;
-        for (int j = 0; j < n; j++) missingRow[j] = false; 
-        
         for (int j = 0; j < n; j++) {
             for (int i = 0; i < c; i++) {
                 if (Double.isNaN(data[j][i])) {
@@ -29,128 +52,131 @@ public class RankTransformationTest implements FamilyTest {
             }
         }
         
-        // transpose matrices
-        double[][] transposed_data = new double[c][n - numMissingRows];
-        boolean[][] transposed_censored = new boolean[c][n - numMissingRows];
-        int nCount = 0;
-        for (int i = 0; i < n; i++) {
-            if (missingRow[i]) continue;
-            for (int j = 0; j < c; j++) {
-                transposed_data[j][nCount] = data[i][j];
-                transposed_censored[j][nCount] = censored[i][j];
-            }
-            nCount++;
-        }
-        int tmp;
-        tmp = n;
-        n = c;
-        c = tmp - numMissingRows;
-        
-        censored = transposed_censored;
-        data = transposed_data;
+        // from here on n is the number of solver configurations and c the number of blocks
+        int numBlocks = n - numMissingRows;
+        this.n = c;
+        this.c = numBlocks;
         
-        this.n = n;
-        this.c = c;
+        if (numBlocks == 0) return;
         
-        if (c == 0) return;
-        
-        double[][] logrank_score = new double[n][c];
-        double[][] ranks = new double[n][c];
-        NaturalRanking ranking = new NaturalRanking(NaNStrategy.MAXIMAL, TiesStrategy.AVERAGE);
-        
-        // fill ranks matrix with the ranks within each block (solver config)
-        for (int j = 0; j < c; j++) {
-            double[] block_j_ranks = ranking.rank(col(data, j));
-            for (int i = 0; i < n; i++) ranks[i][j] = block_j_ranks[i];
-        }
-        
-        
-        /*StringBuilder out = new StringBuilder();
-        out.append("\n");
-        for (int i = 0; i < ranks.length; i++) {
-            for (int j = 0; j < ranks[i].length; j++) {
-                out.append(String.format("%8.1f ", ranks[i][j]));
-            }
-            out.append("\n");
+        // logrank scores within each block, linearized by block
+        double[] linearized_scores = new double[c * numBlocks];
+        double[] sorted = new double[c];
+        double[] hazard = new double[c];
+        int b = 0;
+        for (int j = 0; j < n; j++) {
+            if (missingRow[j]) continue;
+            logrankScores(data[j], censored[j], c, linearized_scores, b * c, sorted, hazard);
+            b++;
         }
-        System.out.println("Within block ranks: \n" + out.toString());*/
         
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < c; j++) {
-                // calculate logrank_score[i][j]
-                logrank_score[i][j] = 0;
-                for (int a = 0; a < n; a++) {
-                    logrank_score[i][j] += (data[i][j] >= data[a][j] ? 1 : 0) * (censored[a][j] ? 0 : 1) / (double)(n + 1 - ranks[a][j]); 
-                }
-                logrank_score[i][j] -= (censored[i][j] ? 0 : 1);
-                //System.out.print(logrank_score[i][j] + " ");
+        // Rank Transformation variant: ranks of all scores
+        double[] overall_linearized_ranks = averageRanks(linearized_scores, c);
+        overall_rank_sums = new double[c];
+        for (b = 0; b < numBlocks; b++) {
+            for (int i = 0; i < c; i++) {
+                double r = overall_linearized_ranks[b * c + i];
+                overall_rank_sums[i] += r;
+                overall_rank_sum += r;
+                overall_rank_square_sum += r * r;
             }
         }
-        //System.out.println();
-        
-        /*out = new StringBuilder();
-        out.append("\n");
-        for (int i = 0; i < logrank_score.length; i++) {
-            for (int j = 0; j < logrank_score[i].length; j++) {
-                out.append(String.format("%8.3f ", logrank_score[i][j]));
-            }
-            out.append("\n");
+    }
+    
+    /**
+     * Calculates the logrank scores of the first <code>len</code> values of a
+     * block and writes them to <code>scores</code> starting at
+     * <code>offset</code>. The score of value x is the sum of
+     * 1 / (len + 1 - rank(a)) over all uncensored values a <= x, minus 1 if x
+     * itself is uncensored. Tied values get the average rank.
+     * @param values
+     * @param censored
+     * @param len
+     * @param scores
+     * @param offset
+     * @param sorted buffer of length >= len
+     * @param hazard buffer of length >= len
+     */
+    private static void logrankScores(double[] values, boolean[] censored, int len, double[] scores, int offset, double[] sorted, double[] hazard) {
+        System.arraycopy(values, 0, sorted, 0, len);
+        Arrays.sort(sorted, 0, len);
+        // number of uncensored values, counted at the first position of their value
+        Arrays.fill(hazard, 0, len, 0.);
+        for (int a = 0; a < len; a++) {
+            if (!censored[a]) hazard[lowerBound(sorted, len, values[a])]++;
         }
-        System.out.println("Logrank scores: \n" +  out.toString());*/
-        
-        // Rank Transformation variant:
-        overall_ranks = new double[n][c];
-        double[] linearized_scores = new double[n*c];
-        int ix = 0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < c; j++) {
-                linearized_scores[ix++] = logrank_score[i][j];
-            }
+        // cumulative hazard up to the last position of each value, the hazard
+        // term of a value is 1 / (len + 1 - average rank of the value)
+        double cumulated = 0;
+        for (int p = 0; p < len;) {
+            int q = p + 1;
+            while (q < len && Double.compare(sorted[q], sorted[p]) == 0) q++;
+            double term = 1. / (len + 1 - (p + q + 1) / 2.0);
+            for (int u = (int) hazard[p]; u > 0; u--) cumulated += term;
+            hazard[q - 1] = cumulated;
+            p = q;
         }
-        ix = 0;
-        double[] overall_linearized_ranks = ranking.rank(linearized_scores);
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < c; j++) {
-                overall_ranks[i][j] = overall_linearized_ranks[ix++];
-            }
+        for (int i = 0; i < len; i++) {
+            scores[offset + i] = hazard[upperBound(sorted, len, values[i]) - 1] - (censored[i] ? 0 : 1);
         }
-
-        
-        // Friedman variant: ranks of logrank scores within each block
-        score_ranks_by_block = new double[n][c];
-        for (int j = 0; j < c; j++) {
-            double[] block_j_score_ranks = ranking.rank(col(logrank_score, j));
-            for (int i = 0; i < n; i++) score_ranks_by_block[i][j] = block_j_score_ranks[i];
+    }
+    
+    /**
+     * Returns whether the score <code>b</code> is tied with the score
+     * <code>a</code> <= b of blocks of <code>len</code> values. Each of the
+     * at most len hazard terms and the final subtraction add an error of half
+     * an ulp of the cumulated hazard, which is at most 1 + |score|, so the
+     * scores are compared relative to their magnitude.
+     */
+    static boolean tied(double a, double b, int len) {
+        return b - a <= SCORE_ULPS * (len + 1) * Math.ulp(1 + Math.max(Math.abs(a), Math.abs(b)));
+    }
+    
+    /**
+     * Returns the ranks (1 to length) of the scores of blocks of
+     * <code>len</code> values, tied scores get the average of their ranks. A
+     * score is tied with the smallest score of its group if
+     * <code>tied()</code> says so, so groups cannot chain.
+     */
+    private static double[] averageRanks(double[] values, int len) {
+        int n = values.length;
+        double[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        // average rank of the group of each sorted position
+        double[] groupRanks = new double[n];
+        for (int p = 0; p < n;) {
+            int q = p + 1;
+            while (q < n && tied(sorted[p], sorted[q], len)) q++;
+            Arrays.fill(groupRanks, p, q, (p + q + 1) / 2.0);
+            p = q;
         }
-        
-        /*out = new StringBuilder();
-        out.append("\n");
-        for (int i = 0; i < score_ranks_by_block.length; i++) {
-            for (int j = 0; j < score_ranks_by_block[i].length; j++) {
-                out.append(String.format("%8.2f ", score_ranks_by_block[i][j]));
-            }
-            out.append("\n");
+        double[] ranks = new double[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = groupRanks[lowerBound(sorted, n, values[i])];
         }
-        System.out.println("Score ranks by block: \n" +  out.toString());*/
-        
-
-        /*out = new StringBuilder();
-        out.append("\n");
-        for (int i = 0; i < overall_ranks.length; i++) {
-            for (int j = 0; j < overall_ranks[i].length; j++) {
-                out.append(String.format("%8.2f ", overall_ranks[i][j]));
-            }
-            out.append("\n");
+        return ranks;
+    }
+    
+    /** first position in sorted[0..len) with a value >= v */
+    private static int lowerBound(double[] sorted, int len, double v) {
+        int lo = 0, hi = len;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Double.compare(sorted[mid], v) < 0) lo = mid + 1;
+            else hi = mid;
         }
-        System.out.println("Overall score ranks: \n" +  out.toString());*/
-        
-       // throw new Exception("Does not work yet"); // TODO
+        return lo;
     }
     
-    private double[] col(double[][] data, int j) {
-        double[] col = new double[data.length];
-        for (int i = 0; i < data.length; i++) col[i] = data[i][j];
-        return col;
+    /** first position in sorted[0..len) with a value > v */
+    private static int upperBound(double[] sorted, int len, double v) {
+        int lo = 0, hi = len;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Double.compare(sorted[mid], v) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
     }
 
     @Override
@@ -162,44 +188,14 @@ public class RankTransformationTest implements FamilyTest {
         // Ranktransform variant
         double sum1 = 0;
         for (int i = 0; i < n; i++) {
-            double innersum = 0;
-            for (int j = 0; j < c; j++) {
-                innersum += overall_ranks[i][j];
-            }
-            sum1 += innersum * innersum;
-        }
-        
-        double sum2 = 0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < c; j++) {
-                sum2 += overall_ranks[i][j];
-            }
-        }
-        
-        double sum3 = 0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < c; j++) {
-                sum3 += overall_ranks[i][j] * overall_ranks[i][j];
-            }
+            sum1 += overall_rank_sums[i] * overall_rank_sums[i];
         }
+        double sum2 = overall_rank_sum;
+        double sum3 = overall_rank_square_sum;
         
         double RT = (1.0 / c * sum1 - sum2*sum2 / N) / (n - 1);
         RT /= (sum3 - sum2*sum2 / N) / (N - n - c + 1);
         
-        
-        // Friedman variant
-        /*double F = 12.0 * c / (N * (N + c));
-        double sum = 0.0;
-        for (int i = 0; i < n; i++) {
-            double innersum = 0.0f;
-            for (int j = 0; j < c; j++) {
-                innersum += score_ranks_by_block[i][j];
-            }
-            innersum -= (N + c) / 2.0;
-            sum += innersum*innersum;
-        }
-        F *= sum;*/
-        
         return RT;
     }
 
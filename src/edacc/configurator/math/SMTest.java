@@ -1,12 +1,27 @@
 package edacc.configurator.math;
 
+import java.util.Arrays;
+
 import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.ChiSquaredDistribution;
+import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.rosuda.JRI.REXP;
 import org.rosuda.JRI.Rengine;
 
 /**
  * Skillings-Mack hypothesis test.
  * 
+ * The test is either calculated by the R library "asbio" or natively in Java
+ * (if no rengine is given). The native implementation follows Skillings and
+ * Mack: "On the use of a Friedman-type statistic in balanced and unbalanced
+ * block designs" (1981), i.e. missing values are handled by weighting the
+ * centered within-block ranks with sqrt(12 / (k_i + 1)) for k_i observations
+ * in block i and the statistic is compared against the chi-squared
+ * distribution with c - 1 degrees of freedom.
+ * 
  * @author daniel
  *
  */
@@ -21,7 +36,7 @@ public class SMTest {
      * @param n
      * @param c
      * @param data
-     * @param rengine
+     * @param rengine the rengine or <code>null</code> to calculate the test natively
      */
     public SMTest(int n, int c, Double[][] data, Rengine rengine) {
         linearizedData = new double[n*c];
@@ -37,7 +52,22 @@ public class SMTest {
         }
     }
     
-    public double pValue() {
+    /**
+     * Set up a natively calculated Skillings-Mack test for n observations, c
+     * configurations and the n x c data array. Missing values are
+     * <code>null</code>.
+     * @param n
+     * @param c
+     * @param data
+     */
+    public SMTest(int n, int c, Double[][] data) {
+        this(n, c, data, null);
+    }
+    
+    public double pValue() throws MathException {
+        if (rengine == null) {
+            return nativePValue();
+        }
         rengine.assign("SMTestData", linearizedData);
         rengine.eval("SMTestData <- data.frame(matrix(SMTestData, nrow=" + n + ", ncol=" + c + ", byrow=T))");
         
@@ -48,4 +78,102 @@ public class SMTest {
         return x.asDouble();
         
     }
+    
+    private double nativePValue() throws MathException {
+        int[] cols = observedColumns();
+        double SM = statistic(cols);
+        if (Double.isNaN(SM)) return 1.0;
+        
+        ChiSquaredDistribution XS = new ChiSquaredDistributionImpl(cols.length - 1);
+        return 1.0 - XS.cumulativeProbability(SM);
+    }
+    
+    /**
+     * Returns the natively calculated Skillings-Mack statistic, or NaN if
+     * less than two configurations have enough observations.
+     */
+    double statistic() {
+        return statistic(observedColumns());
+    }
+    
+    /**
+     * Returns the configurations with more than n / 2 observations, the
+     * others are thrown out like in the R variant.
+     */
+    private int[] observedColumns() {
+        int[] cols = new int[c];
+        int numCols = 0;
+        for (int j = 0; j < c; j++) {
+            int observed = 0;
+            for (int i = 0; i < n; i++) {
+                if (!Double.isNaN(linearizedData[i * c + j])) observed++;
+            }
+            if (observed > n / 2.0) cols[numCols++] = j;
+        }
+        return Arrays.copyOf(cols, numCols);
+    }
+    
+    private double statistic(int[] cols) {
+        int numCols = cols.length;
+        if (numCols < 2) return Double.NaN;
+        
+        double[] A = new double[numCols];
+        // lambda[s][t]: number of blocks where both s and t are observed
+        double[][] lambda = new double[numCols][numCols];
+        double[] block = new double[numCols];
+        int[] observedCols = new int[numCols];
+        double[] ranks = new double[numCols];
+        for (int i = 0; i < n; i++) {
+            int k_i = 0;
+            for (int j = 0; j < numCols; j++) {
+                double v = linearizedData[i * c + cols[j]];
+                if (!Double.isNaN(v)) {
+                    observedCols[k_i] = j;
+                    block[k_i++] = v;
+                }
+            }
+            // blocks with less than two observations carry no information
+            if (k_i < 2) continue;
+            averageRanks(block, k_i, ranks);
+            double weight = Math.sqrt(12.0 / (k_i + 1));
+            for (int a = 0; a < k_i; a++) {
+                A[observedCols[a]] += weight * (ranks[a] - (k_i + 1) / 2.0);
+                for (int b = 0; b < k_i; b++) {
+                    if (a != b) lambda[observedCols[a]][observedCols[b]]++;
+                }
+            }
+        }
+        
+        // covariance matrix of A
+        double[][] sigma = new double[numCols][numCols];
+        for (int s = 0; s < numCols; s++) {
+            for (int t = 0; t < numCols; t++) {
+                if (s == t) continue;
+                sigma[s][t] = -lambda[s][t];
+                sigma[s][s] += lambda[s][t];
+            }
+        }
+        
+        // SM = A' * ginv(sigma) * A
+        RealMatrix ginv = new SingularValueDecomposition(new Array2DRowRealMatrix(sigma, false)).getSolver().getInverse();
+        double[] ginvA = ginv.operate(A);
+        double SM = 0;
+        for (int j = 0; j < numCols; j++) SM += A[j] * ginvA[j];
+        return SM;
+    }
+    
+    /**
+     * Writes the ranks (1 to len) of the first len values to ranks, tied
+     * values get the average of their ranks.
+     */
+    private static void averageRanks(double[] values, int len, double[] ranks) {
+        for (int a = 0; a < len; a++) {
+            int less = 0, equal = 0;
+            for (int b = 0; b < len; b++) {
+                if (values[b] < values[a]) less++;
+                else if (values[b] == values[a]) equal++;
+            }
+            ranks[a] = less + (equal + 1) / 2.0;
+        }
+    }
 }
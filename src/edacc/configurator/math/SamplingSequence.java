@@ -6,8 +6,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 
 /**
- * Wrapper around the external C program that uses the GNU scientific library to
- * generate quasi-random sequences of numbers in d dimensions.
+ * Generates quasi-random sequences of numbers in d dimensions, either natively
+ * or by the external C program that uses the GNU scientific library.<br/>
+ * The native sequence is the <code>SobolSequence</code> for up to
+ * <code>SobolSequence.MAX_DIMENSIONS</code> dimensions and the reverse
+ * <code>HaltonSequence</code> for more, like the external program switches to
+ * Halton in high dimensions. Like the GSL generators, the native sequences
+ * start with the point after the origin.
  * 
  * @author daniel
  * 
@@ -16,6 +21,13 @@ public class SamplingSequence {
     private ProcessBuilder builder;
     private String samplingPath;
 
+    /**
+     * Initialize the class to use the native Sobol sequence.
+     */
+    public SamplingSequence() {
+        this(null);
+    }
+
     /**
      * Initialize the class with the path of the executable sampling program.
      * The program is expected to take two integers as command line arguments,
@@ -25,13 +37,27 @@ public class SamplingSequence {
      * D-tuple are separated by whitespace.
      * 
      * @param samplingPath
-     *            Path pointing to the executable sampling program
+     *            Path pointing to the executable sampling program,
+     *            <code>null</code> or empty to use the native Sobol sequence
      */
     public SamplingSequence(String samplingPath) {
         this.samplingPath = samplingPath;
     }
 
+    /**
+     * Returns the first <code>numSamples</code> points after the origin.
+     */
     public double[][] getSequence(int dimensions, int numSamples) throws IOException, InterruptedException {
+        if (samplingPath == null || samplingPath.isEmpty()) {
+            if (dimensions > SobolSequence.MAX_DIMENSIONS) {
+                HaltonSequence sequence = new HaltonSequence(dimensions);
+                sequence.skipTo(1);
+                return sequence.nextPoints(numSamples);
+            }
+            SobolSequence sequence = new SobolSequence(dimensions);
+            sequence.skipTo(1);
+            return sequence.nextPoints(numSamples);
+        }
         builder = new ProcessBuilder(samplingPath, String.valueOf(dimensions), String.valueOf(numSamples));
         Process process = builder.start();
         InputStream stdout = process.getInputStream();
@@ -0,0 +1,37 @@
+package edacc.configurator.math;
+
+/**
+ * Derivation of seeds for independent streams of random numbers.<br/>
+ * Seeding <code>java.util.Random</code> with consecutive seeds, or seeds that
+ * differ by a constant, gives streams whose first values are strongly
+ * correlated, since the seed is only scrambled by an xor with a constant.
+ * The seeds are therefore mixed with the finalizer of SplitMix64 (Steele et
+ * al., 2014), which maps nearby inputs to unrelated outputs.
+ */
+public class Seeds {
+    private Seeds() {
+    }
+
+    /**
+     * Returns the SplitMix64 output for the state <code>z</code>.
+     * @param z
+     * @return
+     */
+    public static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the seed of stream <code>stream</code> derived from
+     * <code>seed</code>, e.g. for the blocks or threads of a computation.
+     * @param seed
+     * @param stream
+     * @return
+     */
+    public static long derive(long seed, long stream) {
+        return mix(mix(seed) + stream);
+    }
+}
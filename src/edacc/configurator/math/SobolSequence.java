@@ -0,0 +1,405 @@
+package edacc.configurator.math;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of the Sobol low-discrepancy sequence in d dimensions.<br/>
+ * The points are generated in Gray code order with 32 bits of precision, i.e.
+ * the sequence has 2^32 points. The primitive polynomials and initial
+ * direction numbers are the ones of Joe and Kuo. They are read from their file
+ * new-joe-kuo-6.21201 (21201 dimensions) if it is on the classpath next to this
+ * class; otherwise a built-in table covers 16 dimensions. More than
+ * <code>MAX_DIMENSIONS</code> dimensions are rejected. The sequence can
+ * optionally be scrambled by a random linear matrix scrambling and a digital
+ * shift (Owen/Matousek).
+ */
+public class SobolSequence {
+    private static final int BITS = 32;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final double SCALE = 1.0 / (1L << BITS);
+    private static final long MAX_INDEX = 1L << BITS;
+    
+    /**
+     * Name of the direction number file of Joe and Kuo, which is looked up as
+     * a resource next to this class. The file is in the format of
+     * new-joe-kuo-6.21201, one line "d s a m_1 .. m_s" per dimension after a
+     * header line.
+     */
+    static final String DIRECTION_NUMBERS_RESOURCE = "new-joe-kuo-6.21201";
+    
+    /**
+     * Initial direction numbers m_1 .. m_s of the dimensions 2 through 16
+     * (Joe and Kuo, new-joe-kuo-6.21201), commented with their dimension.
+     * The primitive polynomials are the ones enumerated by
+     * <code>primitivePolynomials()</code>, which is the order of the table.
+     * They are used if the direction number file is not on the classpath.
+     */
+    static final int[][] INITIAL_DIRECTIONS = {
+        { 1 },                                  // 2
+        { 1, 3 },                               // 3
+        { 1, 3, 1 },                            // 4
+        { 1, 1, 1 },                            // 5
+        { 1, 1, 3, 3 },                         // 6
+        { 1, 3, 5, 13 },                        // 7
+        { 1, 1, 5, 5, 17 },                     // 8
+        { 1, 1, 5, 5, 5 },                      // 9
+        { 1, 1, 7, 11, 19 },                    // 10
+        { 1, 1, 5, 1, 1 },                      // 11
+        { 1, 1, 1, 3, 11 },                     // 12
+        { 1, 3, 5, 5, 31 },                     // 13
+        { 1, 3, 3, 9, 7, 49 },                  // 14
+        { 1, 1, 1, 15, 21, 21 },                // 15
+        { 1, 3, 1, 13, 27, 49 }                 // 16
+    };
+    
+    /** primitive polynomials and initial direction numbers of the dimensions 2, 3, ... */
+    private static final DirectionNumbers DIRECTION_NUMBERS = loadDirectionNumbers();
+    
+    /** the number of dimensions covered by the direction numbers */
+    public static final int MAX_DIMENSIONS = DIRECTION_NUMBERS.initial.length + 1;
+    
+    private int dimensions;
+    /** direction numbers by dimension and bit */
+    private long[][] directions;
+    /** digital shift of each dimension */
+    private long[] shift;
+    /** numerators of the point with index <code>index</code> */
+    private long[] x;
+    private long index;
+    
+    /**
+     * Creates an unscrambled Sobol sequence. The first point is the origin.
+     * @param dimensions
+     */
+    public SobolSequence(int dimensions) {
+        this(dimensions, null);
+    }
+    
+    /**
+     * Creates a Sobol sequence that is scrambled by random linear matrix
+     * scrambling and a random digital shift drawn from <code>rng</code>.
+     * @param dimensions
+     * @param rng the random number generator, <code>null</code> for the
+     *        unscrambled sequence
+     */
+    public SobolSequence(int dimensions, Random rng) {
+        if (dimensions < 1) throw new IllegalArgumentException("Invalid number of dimensions: " + dimensions);
+        if (dimensions > MAX_DIMENSIONS) {
+            throw new IllegalArgumentException("No direction numbers for " + dimensions + " dimensions, at most "
+                    + MAX_DIMENSIONS + " are supported.");
+        }
+        this.dimensions = dimensions;
+        directions = new long[dimensions][];
+        directions[0] = new long[BITS];
+        for (int k = 0; k < BITS; k++) {
+            directions[0][k] = 1L << (BITS - 1 - k);
+        }
+        for (int d = 1; d < dimensions; d++) {
+            int polynomial = DIRECTION_NUMBERS.polynomials[d - 1];
+            directions[d] = directionNumbers(polynomial, degree(polynomial), DIRECTION_NUMBERS.initial[d - 1]);
+        }
+        shift = new long[dimensions];
+        if (rng != null) {
+            for (int d = 0; d < dimensions; d++) {
+                scramble(directions[d], rng);
+                shift[d] = rng.nextLong() & MASK;
+            }
+        }
+        x = new long[dimensions];
+        skipTo(0);
+    }
+    
+    /**
+     * Creates a copy of the sequence at the same index. The copy shares the
+     * (scrambled) direction numbers, so it can generate another part of the
+     * same sequence independently, e.g. in another thread.
+     * @param other
+     */
+    public SobolSequence(SobolSequence other) {
+        dimensions = other.dimensions;
+        directions = other.directions;
+        shift = other.shift;
+        x = other.x.clone();
+        index = other.index;
+    }
+    
+    /**
+     * Primitive polynomials (bit i is the coefficient of x^i) and initial
+     * direction numbers of consecutive dimensions, starting with dimension 2.
+     */
+    static class DirectionNumbers {
+        final int[] polynomials;
+        final int[][] initial;
+        
+        DirectionNumbers(int[] polynomials, int[][] initial) {
+            this.polynomials = polynomials;
+            this.initial = initial;
+        }
+    }
+    
+    /**
+     * Reads the direction number file of Joe and Kuo if it is on the
+     * classpath, otherwise uses the built-in table.
+     */
+    private static DirectionNumbers loadDirectionNumbers() {
+        InputStream in = SobolSequence.class.getResourceAsStream(DIRECTION_NUMBERS_RESOURCE);
+        if (in == null) {
+            return new DirectionNumbers(primitivePolynomials(INITIAL_DIRECTIONS.length), INITIAL_DIRECTIONS);
+        }
+        try {
+            try {
+                return readDirectionNumbers(new BufferedReader(new InputStreamReader(in, "US-ASCII")));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + DIRECTION_NUMBERS_RESOURCE + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Reads direction numbers in the format of Joe and Kuo: a header line,
+     * then one line "d s a m_1 .. m_s" per dimension d = 2, 3, ..., where s
+     * is the degree of the primitive polynomial and the bits of a are its
+     * coefficients of x^(s-1) .. x^1.
+     * @param reader
+     * @return
+     * @throws IOException if a line is malformed or the dimensions are not
+     *         consecutive
+     */
+    static DirectionNumbers readDirectionNumbers(BufferedReader reader) throws IOException {
+        List<Integer> polynomials = new ArrayList<Integer>();
+        List<int[]> initial = new ArrayList<int[]>();
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\\s+");
+            try {
+                int d = Integer.parseInt(fields[0]);
+                int s = Integer.parseInt(fields[1]);
+                int a = Integer.parseInt(fields[2]);
+                if (d != polynomials.size() + 2 || s < 1 || s >= BITS || a < 0 || a >= 1 << (s - 1)
+                        || fields.length != 3 + s) {
+                    throw new IOException("Invalid line: " + line);
+                }
+                int[] m = new int[s];
+                for (int k = 0; k < s; k++) {
+                    m[k] = Integer.parseInt(fields[3 + k]);
+                    // m_k has to be odd and less than 2^k
+                    if ((m[k] & 1) == 0 || m[k] >= 1 << (k + 1)) throw new IOException("Invalid line: " + line);
+                }
+                polynomials.add((1 << s) | (a << 1) | 1);
+                initial.add(m);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid line: " + line);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid line: " + line);
+            }
+        }
+        int[] p = new int[polynomials.size()];
+        for (int i = 0; i < p.length; i++) p[i] = polynomials.get(i);
+        return new DirectionNumbers(p, initial.toArray(new int[initial.size()][]));
+    }
+    
+    private static int degree(int polynomial) {
+        return 31 - Integer.numberOfLeadingZeros(polynomial);
+    }
+    
+    /**
+     * Calculates the direction numbers of the dimension with the given
+     * primitive polynomial and the initial direction numbers m.
+     */
+    private static long[] directionNumbers(int polynomial, int s, int[] m) {
+        long[] v = new long[BITS];
+        for (int k = 0; k < s && k < BITS; k++) {
+            v[k] = ((long) m[k]) << (BITS - 1 - k);
+        }
+        for (int k = s; k < BITS; k++) {
+            v[k] = v[k - s] ^ (v[k - s] >> s);
+            for (int i = 1; i < s; i++) {
+                // coefficient of x^(s-i)
+                if (((polynomial >> (s - i)) & 1) != 0) {
+                    v[k] ^= v[k - i];
+                }
+            }
+        }
+        return v;
+    }
+    
+    /**
+     * Multiplies the direction numbers by a random lower triangular bit matrix
+     * with unit diagonal, i.e. each digit is XORed with a random subset of the
+     * more significant digits.
+     */
+    private static void scramble(long[] v, Random rng) {
+        long[] rows = new long[BITS];
+        for (int j = 0; j < BITS; j++) {
+            long digit = 1L << (BITS - 1 - j);
+            long moreSignificant = MASK & ~((digit << 1) - 1);
+            rows[j] = digit | (rng.nextLong() & moreSignificant);
+        }
+        for (int k = 0; k < BITS; k++) {
+            long res = 0;
+            for (int j = 0; j < BITS; j++) {
+                if ((Long.bitCount(rows[j] & v[k]) & 1) != 0) {
+                    res |= 1L << (BITS - 1 - j);
+                }
+            }
+            v[k] = res;
+        }
+    }
+    
+    /**
+     * Returns the first n primitive polynomials over GF(2) in order of their
+     * degree and coefficients. Bit i of a polynomial is the coefficient of x^i.
+     * @param n
+     * @return
+     */
+    static int[] primitivePolynomials(int n) {
+        int[] res = new int[n];
+        int count = 0;
+        for (int s = 1; count < n; s++) {
+            if (s >= BITS) throw new IllegalArgumentException("Too many dimensions: " + n);
+            long order = (1L << s) - 1;
+            List<Long> factors = primeFactors(order);
+            for (int a = 0; a < (1 << (s - 1)) && count < n; a++) {
+                int p = (1 << s) | (a << 1) | 1;
+                if (isPrimitive(p, s, order, factors)) {
+                    res[count++] = p;
+                }
+            }
+        }
+        return res;
+    }
+    
+    private static List<Long> primeFactors(long n) {
+        List<Long> factors = new ArrayList<Long>();
+        for (long q = 2; q * q <= n; q++) {
+            if (n % q == 0) {
+                factors.add(q);
+                while (n % q == 0) n /= q;
+            }
+        }
+        if (n > 1) factors.add(n);
+        return factors;
+    }
+    
+    /**
+     * The polynomial p of degree s is primitive iff x has order 2^s - 1
+     * modulo p.
+     */
+    private static boolean isPrimitive(int p, int s, long order, List<Long> factors) {
+        if (powX(order, p, s) != 1) return false;
+        for (long q : factors) {
+            if (powX(order / q, p, s) == 1) return false;
+        }
+        return true;
+    }
+    
+    /** x^e mod p */
+    private static long powX(long e, int p, int s) {
+        long res = 1;
+        long base = s == 1 ? 1 : 2; // x = 1 mod x + 1
+        while (e > 0) {
+            if ((e & 1) != 0) res = mulMod(res, base, p, s);
+            base = mulMod(base, base, p, s);
+            e >>= 1;
+        }
+        return res;
+    }
+    
+    private static long mulMod(long a, long b, int p, int s) {
+        long res = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) res ^= a;
+            b >>= 1;
+            a <<= 1;
+            if (((a >> s) & 1) != 0) a ^= p;
+        }
+        return res;
+    }
+    
+    public int getDimensions() {
+        return dimensions;
+    }
+    
+    /**
+     * Returns the index of the next point.
+     * @return
+     */
+    public long getIndex() {
+        return index;
+    }
+    
+    /**
+     * Sets the index of the next point. This takes O(d) time, independent of
+     * the distance to the current index.
+     * @param index
+     */
+    public void skipTo(long index) {
+        if (index < 0 || index >= MAX_INDEX) throw new IllegalArgumentException("Invalid index: " + index);
+        long gray = index ^ (index >>> 1);
+        for (int d = 0; d < dimensions; d++) {
+            long v = shift[d];
+            for (int k = 0; gray >>> k != 0; k++) {
+                if (((gray >>> k) & 1) != 0) v ^= directions[d][k];
+            }
+            x[d] = v;
+        }
+        this.index = index;
+    }
+    
+    /**
+     * Writes the next point to <code>buffer</code> starting at
+     * <code>offset</code>.
+     * @param buffer
+     * @param offset
+     */
+    public void nextPoint(double[] buffer, int offset) {
+        if (index >= MAX_INDEX) throw new IllegalStateException("Sobol sequence exhausted.");
+        for (int d = 0; d < dimensions; d++) {
+            buffer[offset + d] = x[d] * SCALE;
+        }
+        // the next point in Gray code order differs in the lowest zero bit of the index
+        int c = Long.numberOfTrailingZeros(~index);
+        if (c < BITS) {
+            for (int d = 0; d < dimensions; d++) {
+                x[d] ^= directions[d][c];
+            }
+        }
+        index++;
+    }
+    
+    /**
+     * Writes the next <code>numPoints</code> points to <code>buffer</code>
+     * starting at <code>offset</code>, one point after another.
+     * @param buffer
+     * @param offset
+     * @param numPoints
+     */
+    public void fill(double[] buffer, int offset, int numPoints) {
+        for (int i = 0; i < numPoints; i++) {
+            nextPoint(buffer, offset + i * dimensions);
+        }
+    }
+    
+    /**
+     * Returns the next <code>numPoints</code> points.
+     * @param numPoints
+     * @return
+     */
+    public double[][] nextPoints(int numPoints) {
+        double[][] res = new double[numPoints][dimensions];
+        for (int i = 0; i < numPoints; i++) {
+            nextPoint(res[i], 0);
+        }
+        return res;
+    }
+}
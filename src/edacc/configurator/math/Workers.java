@@ -0,0 +1,33 @@
+package edacc.configurator.math;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread pool shared by the parallel computations of this package.<br/>
+ * The pool is created on first use, grows with the number of concurrently
+ * submitted blocks and keeps idle threads for a minute, so repeated calls do
+ * not start and stop threads. The threads are daemon threads, the pool is
+ * never shut down.
+ */
+class Workers {
+    private static ExecutorService pool;
+
+    private Workers() {
+    }
+
+    static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "math-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,215 @@
+package edacc.configurator.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edacc.parameterspace.Parameter;
+import edacc.parameterspace.ParameterConfiguration;
+import edacc.parameterspace.domain.CategoricalDomain;
+import edacc.parameterspace.domain.FlagDomain;
+import edacc.parameterspace.domain.IntegerDomain;
+import edacc.parameterspace.domain.OrdinalDomain;
+import edacc.parameterspace.domain.RealDomain;
+import edacc.parameterspace.graph.ParameterGraph;
+
+/**
+ * Maps parameter configurations to the real valued tuples used as model input
+ * and real tuples from [0,1]^n to parameter configurations.<br/>
+ * The domain tables (sorted categories, ordinal values, value to index maps
+ * and bounds) are computed once for the given list of parameters. Encoding
+ * and decoding don't modify the encoder, so an encoder can be used by
+ * several threads at once.
+ */
+public class ParameterConfigurationEncoder implements java.io.Serializable {
+    private static final long serialVersionUID = 4581023651908344112L;
+
+    private static final int REAL = 0;
+    private static final int INTEGER = 1;
+    private static final int CATEGORICAL = 2;
+    private static final int ORDINAL = 3;
+    private static final int FLAG = 4;
+    private static final int UNKNOWN = 5;
+
+    private Parameter[] params;
+    private int[] types;
+    private double[] low, high;
+    /** categorical: sorted categories, ordinal: ordered values */
+    private String[][] domainValues;
+    /** maps the values to 1 through domain size */
+    private List<Map<String, Integer>> valueIndex;
+
+    /**
+     * Creates an encoder for the given parameters. The i-th parameter is
+     * mapped to the i-th component of the tuples.
+     * @param configurableParameters
+     */
+    public ParameterConfigurationEncoder(List<Parameter> configurableParameters) {
+        int n = configurableParameters.size();
+        params = configurableParameters.toArray(new Parameter[n]);
+        types = new int[n];
+        low = new double[n];
+        high = new double[n];
+        domainValues = new String[n][];
+        valueIndex = new ArrayList<Map<String, Integer>>(n);
+        for (int i = 0; i < n; i++) {
+            Parameter p = params[i];
+            Map<String, Integer> index = null;
+            if (p.getDomain() instanceof RealDomain) {
+                types[i] = REAL;
+                low[i] = ((RealDomain) p.getDomain()).getLow();
+                high[i] = ((RealDomain) p.getDomain()).getHigh();
+            } else if (p.getDomain() instanceof IntegerDomain) {
+                types[i] = INTEGER;
+                low[i] = ((IntegerDomain) p.getDomain()).getLow();
+                high[i] = ((IntegerDomain) p.getDomain()).getHigh();
+            } else if (p.getDomain() instanceof CategoricalDomain) {
+                types[i] = CATEGORICAL;
+                List<String> sortedValues = new ArrayList<String>(((CategoricalDomain) p.getDomain()).getCategories());
+                Collections.sort(sortedValues);
+                domainValues[i] = sortedValues.toArray(new String[sortedValues.size()]);
+                index = indexOf(domainValues[i]);
+            } else if (p.getDomain() instanceof OrdinalDomain) {
+                types[i] = ORDINAL;
+                List<String> orderedValues = ((OrdinalDomain) p.getDomain()).getOrdered_list();
+                domainValues[i] = orderedValues.toArray(new String[orderedValues.size()]);
+                index = indexOf(domainValues[i]);
+            } else if (p.getDomain() instanceof FlagDomain) {
+                types[i] = FLAG;
+            } else {
+                types[i] = UNKNOWN;
+            }
+            valueIndex.add(index);
+        }
+    }
+
+    private static Map<String, Integer> indexOf(String[] values) {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < values.length; i++) {
+            index.put(values[i], i + 1);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of parameters, i.e. the length of the tuples.
+     * @return
+     */
+    public int size() {
+        return params.length;
+    }
+
+    /**
+     * Returns the lower bound of the i-th parameter if it is a real or integer
+     * parameter.
+     * @param i
+     * @return
+     */
+    public double getLow(int i) {
+        return low[i];
+    }
+
+    /**
+     * Returns the upper bound of the i-th parameter if it is a real or integer
+     * parameter.
+     * @param i
+     * @return
+     */
+    public double getHigh(int i) {
+        return high[i];
+    }
+
+    /**
+     * Maps a parameter configuration to a real valued tuple.
+     * @see #encode(ParameterConfiguration, double[], int)
+     */
+    public double[] encode(ParameterConfiguration paramConfig) {
+        double[] theta = new double[params.length];
+        encode(paramConfig, theta, 0);
+        return theta;
+    }
+
+    /**
+     * Maps a parameter configuration to a real valued tuple and writes it to
+     * <code>theta</code> starting at <code>offset</code>. Real and integer
+     * parameters are mapped to their values, categorical parameters to 1
+     * through domain size in the order of the sorted categories, ordinal
+     * parameters to 1 through domain size in their order and flags to 1 (off)
+     * or 2 (on). Parameters that are not set are mapped to NaN.
+     * @param paramConfig
+     * @param theta
+     * @param offset
+     */
+    public void encode(ParameterConfiguration paramConfig, double[] theta, int offset) {
+        for (int i = 0; i < params.length; i++) {
+            Parameter p = params[i];
+            Object paramValue = paramConfig.getParameterValue(p);
+            int pIx = offset + i;
+            if (paramValue == null) {
+                theta[pIx] = Double.NaN;
+                continue;
+            }
+            switch (types[i]) {
+            case REAL:
+            case INTEGER:
+                theta[pIx] = paramValue instanceof Number ? ((Number) paramValue).doubleValue() : 0;
+                break;
+            case CATEGORICAL:
+            case ORDINAL:
+                Integer ix = valueIndex.get(i).get(paramValue);
+                if (ix == null) {
+                    throw new RuntimeException("Could not map parameter value " + paramValue + " of parameter " + p.getName());
+                }
+                theta[pIx] = ix;
+                break;
+            case FLAG:
+                theta[pIx] = FlagDomain.FLAGS.ON.equals(paramValue) ? 2 : 1;
+                break;
+            default:
+                throw new RuntimeException("Domain " + p.getDomain().getName() + " not implemented yet.");
+            }
+        }
+    }
+
+    /**
+     * Map a real tuple from [0,1]^n to a parameter configuration. Not the
+     * inverse of encode !!<br/>
+     * Starts from a random configuration of <code>pspace</code> and sets the
+     * parameters which are set in this configuration to the consecutive values
+     * of the tuple, i.e. parameters which are not set don't consume a value.
+     * @param pspace
+     * @param rng
+     * @param values
+     * @return
+     */
+    public ParameterConfiguration decode(ParameterGraph pspace, Random rng, double[] values) {
+        ParameterConfiguration pc = pspace.getRandomConfiguration(rng);
+        int j = 0;
+        for (int i = 0; i < params.length; i++) {
+            Parameter p = params[i];
+            if (pc.getParameterValue(p) == null) continue;
+            double v = values[j++];
+            switch (types[i]) {
+            case REAL:
+                pc.setParameterValue(p, low[i] + v * (high[i] - low[i]));
+                break;
+            case INTEGER:
+                pc.setParameterValue(p, Math.round(low[i] + v * (high[i] - low[i])));
+                break;
+            case CATEGORICAL:
+            case ORDINAL:
+                int ix = (int) (v * domainValues[i].length);
+                if (ix == domainValues[i].length) ix = 0;
+                pc.setParameterValue(p, domainValues[i][ix]);
+                break;
+            case FLAG:
+                pc.setParameterValue(p, v < 0.5 ? FlagDomain.FLAGS.ON : FlagDomain.FLAGS.OFF);
+                break;
+            }
+        }
+        return pc;
+    }
+}
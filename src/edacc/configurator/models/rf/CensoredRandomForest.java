@@ -14,22 +14,27 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /*import ca.ubc.cs.beta.models.fastrf.RandomForest;
 import ca.ubc.cs.beta.models.fastrf.RegtreeBuildParams;
 import ca.ubc.cs.beta.models.fastrf.RegtreeFit;*/
 
+import edacc.configurator.models.rf.fastrf.FlatRegtree;
 import edacc.configurator.models.rf.fastrf.RandomForest;
+import edacc.configurator.models.rf.fastrf.Regtree;
 import edacc.configurator.models.rf.fastrf.RegtreeBuildParams;
 import edacc.configurator.models.rf.fastrf.RegtreeFit;
+import edacc.configurator.models.rf.fastrf.RegtreeFwd;
 import edacc.configurator.models.rf.fastrf.utils.Utils;
 import edacc.configurator.models.rf.fastrf.utils.Gaussian;
 
@@ -55,11 +60,26 @@ public class CensoredRandomForest implements java.io.Serializable {
     //private int[][][] condParentVals = null;
     private int[][] tree_oob_samples;
     
-    public static boolean parallelizeInternally = false;
-    public static int parallelizationProcs = 1;
+    /** fraction of the observations to fit each tree on, 0 for bootstrap samples */
+    private double subsampleFraction = 0;
+    
+    /** compiled trees of the forest, null if the forest changed since compiling */
+    private transient FlatRegtree[] flatTrees;
+    /**
+     * compiled trees of the forest preprocessed for marginal predictions over
+     * all instances, null if the forest changed since preparing
+     */
+    private transient FlatRegtree[] preparedTrees;
     
     final RegtreeBuildParams params = new RegtreeBuildParams();
     
+    // thread pool shared by tree fitting and batched predictions
+    private int numThreads = 1;
+    private transient ExecutorService pool;
+    
+    /** minimum number of rows a prediction task works on */
+    private static final int minPredictionBlockSize = 256;
+    
     /*public CensoredRandomForest(int nTrees, int logModel, double kappaMax, double cutoffPenaltyFactor, int[] catDomainSizes, Random rng) {
         this.rng = rng;
         this.kappaMax = kappaMax;
@@ -105,14 +125,13 @@ public class CensoredRandomForest implements java.io.Serializable {
         for (int i = 0; i < censored.length; i++) if (censored[i]) numCensored++;
         
         // non-censored subset of observations
-        int[][] theta_inst_idxs_noncens = new int[y.length - numCensored][2];
+        int[][] theta_inst_idxs_noncens = new int[y.length - numCensored][];
         double[] y_noncens = new double[y.length - numCensored];
         boolean[] censored_noncens = new boolean[y.length - numCensored];
         int ix = 0;
         for (int i = 0; i < y.length; i++) {
             if (!censored[i]) {
-                theta_inst_idxs_noncens[ix][0] = theta_inst_idxs[i][0];
-                theta_inst_idxs_noncens[ix][1] = theta_inst_idxs[i][1];
+                theta_inst_idxs_noncens[ix] = theta_inst_idxs[i];
                 y_noncens[ix] = y[i];
                 censored_noncens[ix] = false;
                 ix++;
@@ -122,14 +141,13 @@ public class CensoredRandomForest implements java.io.Serializable {
         internalLearnModel(theta, instance_features, nVars, theta_inst_idxs_noncens, y_noncens, censored_noncens, rf.logModel);
         if (numCensored > 0) {
             // censored subset of observations
-            int[][] theta_inst_idxs_cens = new int[numCensored][2];
+            int[][] theta_inst_idxs_cens = new int[numCensored][];
             double[] y_cens = new double[numCensored];
             boolean[] censored_cens = new boolean[numCensored];
             ix = 0;
             for (int i = 0; i < y.length; i++) {
                 if (censored[i]) {
-                    theta_inst_idxs_cens[ix][0] = theta_inst_idxs[i][0];
-                    theta_inst_idxs_cens[ix][1] = theta_inst_idxs[i][1];
+                    theta_inst_idxs_cens[ix] = theta_inst_idxs[i];
                     y_cens[ix] = y[i];
                     censored_cens[ix] = true;
                     ix++;
@@ -161,22 +179,7 @@ public class CensoredRandomForest implements java.io.Serializable {
                 }
                 for (int i = 0; i < numCensored; i++) oldMeanImputed[i] = cens_pred[i][0];
 
-                double[] mu = new double[numCensored];
-                double[] sigma = new double[numCensored];
-                double[] alpha = new double[numCensored];
-                double[] single_y_hal = new double[numCensored];
-                for (int i = 0; i < numCensored; i++) {
-                    mu[i] = cens_pred[i][0];
-                    sigma[i] = Math.sqrt(cens_pred[i][1]);
-                    alpha[i] = (y_cens[i] - mu[i]) / sigma[i];
-                    //System.out.println(y_cens[i] + " " + mu[i] + " " + sigma[i] + " " +  alpha[i] + " " + Gaussian.phi(alpha[i]) + " " + (1-Gaussian.Phi(alpha[i])));
-                    double a = Gaussian.normcdf(alpha[i]);
-                    double b = Gaussian.normcdf((Double.POSITIVE_INFINITY - mu[i]) / sigma[i]);
-                    double sample = mu[i] + sigma[i] * Math.sqrt(2) * (2 * (a + (b - a) * rng.nextDouble() - 1)); 
-                    single_y_hal[i] = Math.max(sample, y_cens[i]);
-                    //System.out.println("Predicted " + mu[i] + " sigma " + sigma[i] + " a " + a + " b " + b + " Imputed " + y_cens[i] + " to " + single_y_hal[i]);
-                    //single_y_hal[i] = Math.max(mu[i] + sigma[i] * Gaussian.phi(alpha[i]) / (1-Gaussian.Phi(alpha[i])), maxValue);
-                }
+                double[] single_y_hal = imputeCensored(cens_pred, y_cens);
                 
                 double[] imp_y = new double[y.length];
                 ix = 0;
@@ -190,6 +193,251 @@ public class CensoredRandomForest implements java.io.Serializable {
         }
     }
     
+    /**
+     * Samples values for censored observations from the predictive
+     * distribution truncated at the censoring threshold.
+     * @param cens_pred the predictions (mean, variance) for the censored observations
+     * @param y_cens the censoring thresholds
+     * @return the imputed values
+     */
+    private double[] imputeCensored(double[][] cens_pred, double[] y_cens) {
+        int numCensored = y_cens.length;
+        double[] mu = new double[numCensored];
+        double[] sigma = new double[numCensored];
+        double[] alpha = new double[numCensored];
+        double[] single_y_hal = new double[numCensored];
+        for (int i = 0; i < numCensored; i++) {
+            mu[i] = cens_pred[i][0];
+            sigma[i] = Math.sqrt(cens_pred[i][1]);
+            alpha[i] = (y_cens[i] - mu[i]) / sigma[i];
+            //System.out.println(y_cens[i] + " " + mu[i] + " " + sigma[i] + " " +  alpha[i] + " " + Gaussian.phi(alpha[i]) + " " + (1-Gaussian.Phi(alpha[i])));
+            double a = Gaussian.normcdf(alpha[i]);
+            double b = Gaussian.normcdf((Double.POSITIVE_INFINITY - mu[i]) / sigma[i]);
+            double sample = mu[i] + sigma[i] * Math.sqrt(2) * (2 * (a + (b - a) * rng.nextDouble() - 1)); 
+            single_y_hal[i] = Math.max(sample, y_cens[i]);
+            //System.out.println("Predicted " + mu[i] + " sigma " + sigma[i] + " a " + a + " b " + b + " Imputed " + y_cens[i] + " to " + single_y_hal[i]);
+            //single_y_hal[i] = Math.max(mu[i] + sigma[i] * Gaussian.phi(alpha[i]) / (1-Gaussian.Phi(alpha[i])), maxValue);
+        }
+        return single_y_hal;
+    }
+    
+    /**
+     * Updates the forest with new observations without changing the tree
+     * structures (online bagging): every tree receives each new observation
+     * Poisson(1) times, the observation is added to the statistics of the
+     * leaf it falls into. Censored observations are imputed from the current
+     * forest. Observations that a tree doesn't receive become out of bag
+     * samples of this tree.<br/>
+     * The tree structures only adapt to the new data with the next call of
+     * <code>learnModel</code>, so a full refit should be done regularly.
+     * 
+     * @param theta all configurations, the configurations of the last
+     *        <code>learnModel</code> call have to keep their indices
+     * @param new_theta_inst_idxs configuration and instance indices of the new observations
+     * @param new_y the new observations
+     * @param new_censored which of the new observations are censored
+     */
+    public void updateModel(double[][] theta, int[][] new_theta_inst_idxs, double[] new_y, boolean[] new_censored) {
+        int N = new_y.length;
+        if (N == 0) return;
+        int nParams = theta[0].length;
+        int nFeatures = instanceFeatures[0].length;
+        double[][] X = new double[N][nParams + nFeatures];
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < nParams; j++) X[i][j] = theta[new_theta_inst_idxs[i][0]][j];
+            for (int j = 0; j < nFeatures; j++) X[i][nParams + j] = instanceFeatures[new_theta_inst_idxs[i][1]][j];
+        }
+        
+        // impute censored observations
+        double[] y = new_y.clone();
+        int numCensored = 0;
+        for (int i = 0; i < N; i++) if (new_censored[i]) numCensored++;
+        if (numCensored > 0) {
+            double[][] X_cens = new double[numCensored][];
+            double[] y_cens = new double[numCensored];
+            int ix = 0;
+            for (int i = 0; i < N; i++) {
+                if (new_censored[i]) {
+                    X_cens[ix] = X[i];
+                    y_cens[ix++] = new_y[i];
+                }
+            }
+            double[] single_y_hal = imputeCensored(predict(X_cens), y_cens);
+            ix = 0;
+            for (int i = 0; i < N; i++) {
+                if (new_censored[i]) y[i] = single_y_hal[ix++];
+            }
+        }
+        
+        int oldN = rf_y.length;
+        for (int t = 0; t < rf.numTrees; t++) {
+            int[] counts = new int[N];
+            int numSamples = 0, numOob = 0;
+            for (int i = 0; i < N; i++) {
+                counts[i] = samplePoisson1();
+                numSamples += counts[i];
+                if (counts[i] == 0) numOob++;
+            }
+            double[][] tree_X = new double[numSamples][];
+            double[] tree_y = new double[numSamples];
+            int[] oob_samples = new int[tree_oob_samples[t].length + numOob];
+            System.arraycopy(tree_oob_samples[t], 0, oob_samples, 0, tree_oob_samples[t].length);
+            int ix = 0, oobIx = tree_oob_samples[t].length;
+            for (int i = 0; i < N; i++) {
+                for (int k = 0; k < counts[i]; k++) {
+                    tree_X[ix] = X[i];
+                    tree_y[ix++] = y[i];
+                }
+                if (counts[i] == 0) oob_samples[oobIx++] = oldN + i;
+            }
+            if (numSamples > 0) {
+                // Regtree.update transforms the responses of log models in place
+                Regtree.update(rf.Trees[t], tree_X, tree_y);
+            }
+            tree_oob_samples[t] = oob_samples;
+        }
+        invalidateTrees();
+        
+        // Remember the data for the out of bag calculations
+        int[][] theta_inst_idxs = new int[oldN + N][];
+        System.arraycopy(rf_theta_inst_idxs, 0, theta_inst_idxs, 0, oldN);
+        System.arraycopy(new_theta_inst_idxs, 0, theta_inst_idxs, oldN, N);
+        double[] all_y = new double[oldN + N];
+        System.arraycopy(rf_y, 0, all_y, 0, oldN);
+        System.arraycopy(y, 0, all_y, oldN, N);
+        rf_theta = theta;
+        rf_theta_inst_idxs = theta_inst_idxs;
+        rf_y = all_y;
+    }
+    
+    private int samplePoisson1() {
+        final double L = Math.exp(-1);
+        int k = 0;
+        double p = rng.nextDouble();
+        while (p > L) {
+            k++;
+            p *= rng.nextDouble();
+        }
+        return k;
+    }
+    
+    /**
+     * Sets the fraction of the observations each tree is fitted on. With the
+     * default value 0 every tree is fitted on a bootstrap sample of all
+     * observations, i.e. as many observations as there are drawn with
+     * replacement. Values in (0, 1] fit every tree on this fraction of the
+     * observations drawn without replacement, which is much cheaper for very
+     * large run histories.
+     * @param subsampleFraction
+     */
+    public void setSubsampleFraction(double subsampleFraction) {
+        if (subsampleFraction < 0 || subsampleFraction > 1) {
+            throw new IllegalArgumentException("The subsample fraction has to be in [0, 1].");
+        }
+        this.subsampleFraction = subsampleFraction;
+    }
+    
+    /**
+     * Training data buffers of a thread, reused for all trees the thread fits.
+     * The rows of <code>idxs</code> reference the rows of the caller's
+     * configuration and instance index array.
+     */
+    private static class TreeSample {
+        int[] counts = new int[0];
+        int[][] idxs = new int[0][];
+        double[] y = new double[0];
+    }
+    
+    private static final ThreadLocal<TreeSample> threadSample = new ThreadLocal<TreeSample>() {
+        @Override
+        protected TreeSample initialValue() {
+            return new TreeSample();
+        }
+    };
+    
+    /**
+     * Draws the training data of a tree and stores its out of bag samples.
+     * The observations are counted in a count array, the sample is laid out in
+     * the order of the observations, so no per-tree copies of the index rows
+     * are made.
+     * @return the buffers of the calling thread holding the sample
+     */
+    private TreeSample drawTreeSample(int tree, int[][] theta_inst_idxs, double[] y, boolean[] censored, int ixFirstUncensored, Random r) {
+        final int N = y.length;
+        final int numSamples = subsampleFraction > 0 ? Math.max(1, (int) Math.round(subsampleFraction * N)) : N;
+        TreeSample s = threadSample.get();
+        if (s.counts.length < N) {
+            s.counts = new int[N];
+        } else {
+            Arrays.fill(s.counts, 0, N, 0);
+        }
+        if (s.idxs.length != numSamples) {
+            // RegtreeFit requires arrays of exactly the sample size
+            s.idxs = new int[numSamples][];
+            s.y = new double[numSamples];
+        }
+        int[] counts = s.counts;
+        if (subsampleFraction > 0) {
+            // Floyd's algorithm: numSamples distinct observations
+            for (int j = N - numSamples; j < N; j++) {
+                int t = r.nextInt(j + 1);
+                if (counts[t] == 0) counts[t] = 1;
+                else counts[j] = 1;
+            }
+        } else {
+            // bootstrap sample N observations with replacement
+            for (int j = 0; j < N; j++) {
+                counts[r.nextInt(N)]++;
+            }
+        }
+        
+        boolean anyUncensored = false;
+        int ixFirstSampled = -1;
+        for (int j = 0; j < N && !anyUncensored; j++) {
+            if (counts[j] > 0) {
+                if (ixFirstSampled == -1) ixFirstSampled = j;
+                anyUncensored = !censored[j];
+            }
+        }
+        if (!anyUncensored) {
+            counts[ixFirstSampled]--;
+            counts[ixFirstUncensored]++;
+        }
+        
+        int numOob = 0;
+        int ix = 0;
+        for (int j = 0; j < N; j++) {
+            int c = counts[j];
+            if (c == 0) {
+                numOob++;
+                continue;
+            }
+            for (int k = 0; k < c; k++) {
+                s.idxs[ix] = theta_inst_idxs[j];
+                s.y[ix++] = y[j];
+            }
+        }
+        int[] oob_samples = new int[numOob];
+        ix = 0;
+        for (int j = 0; j < N; j++) {
+            if (counts[j] == 0) oob_samples[ix++] = j;
+        }
+        tree_oob_samples[tree] = oob_samples;
+        return s;
+    }
+    
+    /**
+     * Draws the training data of a tree and fits it.
+     */
+    private Regtree fitTree(int tree, double[][] theta, double[][] instance_features, int[][] theta_inst_idxs, double[] y,
+            boolean[] censored, int ixFirstUncensored, long sampleSeed, long treeSeed) {
+        TreeSample s = drawTreeSample(tree, theta_inst_idxs, y, censored, ixFirstUncensored, new Random(sampleSeed));
+        Regtree t = RegtreeFit.fit(theta, instance_features, s.idxs, s.y, params, new Random(treeSeed));
+        // don't keep the index rows of the caller reachable
+        Arrays.fill(s.idxs, null);
+        return t;
+    }
+    
     protected void internalLearnModel(final double[][] theta, final double[][] instance_features, final int nVars,
             final int[][] theta_inst_idxs, final double[] y, final boolean[] censored, final int logModel) throws Exception {
 
@@ -199,109 +447,265 @@ public class CensoredRandomForest implements java.io.Serializable {
         rf_y = y;
         rf_nVars = nVars;
         
-        int ixFirstUncensored = 0;
+        int firstUncensored = 0;
         for (int i = 0; i < y.length; i++) {
             if (!censored[i]) {
-                ixFirstUncensored = i;
+                firstUncensored = i;
                 break;
             }
         }
+        final int ixFirstUncensored = firstUncensored;
 
-        for (int tr = 0; tr < rf.numTrees; tr++) {
-            final int i = tr;
+        // every tree gets its own random number generators for drawing its
+        // sample and for fitting, so the trees don't depend on the order in
+        // which they are fitted
+        final long[] sample_seeds = new long[rf.numTrees];
+        final long[] tree_seeds = new long[rf.numTrees];
+        for (int i = 0; i < rf.numTrees; i++) {
+            sample_seeds[i] = rng.nextLong();
+            tree_seeds[i] = rng.nextLong();
+        }
 
-            int[] sample = new int[y.length];
-            Set<Integer> sampleset = new HashSet<Integer>();
-            // bootstrap sample y.length values for each tree with replacement
-            for (int j = 0; j < sample.length; j++) {
-                sample[j] = rng.nextInt(y.length);
-                sampleset.add(sample[j]);
+        if (numThreads <= 1 || rf.numTrees <= 1) {
+            for (int i = 0; i < rf.numTrees; i++) {
+                rf.Trees[i] = fitTree(i, theta, instance_features, theta_inst_idxs, y, censored, ixFirstUncensored, sample_seeds[i], tree_seeds[i]);
             }
-            
-            boolean anyUncensored = false;
-            for (int j = 0; j < sample.length; j++) {
-                anyUncensored |= !censored[sample[j]];
+        } else {
+            List<Future<Regtree>> trees = new ArrayList<Future<Regtree>>(rf.numTrees);
+            for (int tr = 0; tr < rf.numTrees; tr++) {
+                final int i = tr;
+                trees.add(getPool().submit(new Callable<Regtree>() {
+                    @Override
+                    public Regtree call() throws Exception {
+                        return fitTree(i, theta, instance_features, theta_inst_idxs, y, censored, ixFirstUncensored, sample_seeds[i], tree_seeds[i]);
+                    }
+                }));
             }
-            
-            if (!anyUncensored) {
-                sample[0] = ixFirstUncensored;
-                sampleset.add(ixFirstUncensored);
+            for (int i = 0; i < rf.numTrees; i++) {
+                try {
+                    rf.Trees[i] = trees.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
             }
-
-            int[][] tree_theta_inst_idxs = new int[y.length][2];
-            double[] tree_y = new double[y.length];
-            for (int j = 0; j < sample.length; j++) {
-                tree_theta_inst_idxs[j][0] = theta_inst_idxs[sample[j]][0];
-                tree_theta_inst_idxs[j][1] = theta_inst_idxs[sample[j]][1];
-                tree_y[j] = y[sample[j]];
+        }
+        invalidateTrees();
+    }
+    
+    private synchronized void invalidateTrees() {
+        flatTrees = null;
+        preparedTrees = null;
+    }
+    
+    /**
+     * Returns the compiled trees of the forest, compiles them if the forest
+     * changed since the last call.
+     */
+    private synchronized FlatRegtree[] getFlatTrees() {
+        if (flatTrees == null) {
+            flatTrees = RandomForest.compile(rf);
+        }
+        return flatTrees;
+    }
+    
+    /**
+     * Returns the compiled trees of the forest preprocessed for marginal
+     * predictions over all instances, prepares them if the forest changed
+     * since the last call.
+     */
+    private synchronized FlatRegtree[] getPreparedTrees() {
+        if (preparedTrees == null) {
+            preparedTrees = prepareTrees(instanceFeatures);
+        }
+        return preparedTrees;
+    }
+    
+    /**
+     * Preprocesses the trees of the forest for marginal predictions over the
+     * instances <code>X</code> and compiles them. The trees are prepared on
+     * the thread pool unless this is called from a pool thread.
+     * @see RegtreeFwd#preprocess_inst_splits(Regtree, double[][])
+     */
+    private FlatRegtree[] prepareTrees(final double[][] X) {
+        final FlatRegtree[] trees = new FlatRegtree[rf.numTrees];
+        if (numThreads <= 1 || rf.numTrees <= 1 || Thread.currentThread() instanceof PoolThread) {
+            for (int i = 0; i < rf.numTrees; i++) {
+                trees[i] = new FlatRegtree(RegtreeFwd.preprocess_inst_splits(rf.Trees[i], X));
             }
-
-            int[] oob_samples = new int[y.length - sampleset.size()];
-            int ix = 0;
-            for (int j = 0; j < y.length; j++) {
-                if (!sampleset.contains(j)) { // OOB sample
-                    oob_samples[ix++] = j;
+            return trees;
+        }
+        List<Future<?>> tasks = new ArrayList<Future<?>>(rf.numTrees);
+        ExecutorService exec = getPool();
+        for (int tr = 0; tr < rf.numTrees; tr++) {
+            final int i = tr;
+            tasks.add(exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                    trees[i] = new FlatRegtree(RegtreeFwd.preprocess_inst_splits(rf.Trees[i], X));
                 }
+            }));
+        }
+        join(tasks);
+        return trees;
+    }
+    
+    /**
+     * Returns the domain size of each categorical variable, 0 for continuous
+     * variables.
+     * @return
+     */
+    public int[] getCatDomainSizes() {
+        return params.catDomainSizes;
+    }
+    
+    /**
+     * Sets the number of threads used to fit the trees of the forest and to
+     * compute batched predictions.
+     * @param numThreads values <= 1 do all work in the calling thread
+     */
+    public synchronized void setNumThreads(int numThreads) {
+        if (numThreads != this.numThreads && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.numThreads = numThreads;
+    }
+    
+    private synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new PoolThread(r);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+    
+    private static class PoolThread extends Thread {
+        PoolThread(Runnable r) {
+            super(r, "CensoredRandomForest-worker");
+        }
+    }
+    
+    /**
+     * A prediction of a block of rows.
+     */
+    private interface BlockPrediction {
+        double[][] predict(double[][] rows);
+    }
+    
+    /**
+     * Splits <code>rows</code> into blocks, predicts the blocks on the thread
+     * pool and joins the results. Small batches and calls from the pool
+     * threads themselves are predicted in the calling thread.
+     */
+    private double[][] predictBlocks(final double[][] rows, final BlockPrediction prediction) {
+        final int N = rows.length;
+        int numBlocks = Math.min(numThreads, (N + minPredictionBlockSize - 1) / minPredictionBlockSize);
+        if (numBlocks <= 1 || Thread.currentThread() instanceof PoolThread) {
+            return prediction.predict(rows);
+        }
+        final int blockSize = (N + numBlocks - 1) / numBlocks;
+        final double[][] res = new double[N][];
+        List<Future<?>> blocks = new ArrayList<Future<?>>(numBlocks);
+        ExecutorService exec = getPool();
+        for (int b = 0; b < numBlocks; b++) {
+            final int from = b * blockSize;
+            final int to = Math.min(from + blockSize, N);
+            blocks.add(exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                    double[][] block = new double[to - from][];
+                    System.arraycopy(rows, from, block, 0, to - from);
+                    double[][] blockRes = prediction.predict(block);
+                    System.arraycopy(blockRes, 0, res, from, to - from);
+                }
+            }));
+        }
+        join(blocks);
+        return res;
+    }
+    
+    /**
+     * Waits for the tasks, rethrows the exception of a failed task.
+     */
+    private static void join(List<Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
             }
-            
-            rf.Trees[i] = RegtreeFit.fit(theta, instance_features, tree_theta_inst_idxs, tree_y, params);
-            tree_oob_samples[i] = oob_samples;
         }
-
-        System.gc();
     }
     
+    /**
+     * Predicts the marginal performance over all instances of the given
+     * configurations. The trees are preprocessed for the instances once after
+     * every change of the forest, so a prediction only follows the splits on
+     * configuration parameters. Large batches are split into blocks which are
+     * predicted in parallel.
+     * @param theta_inst the configurations
+     * @return for every configuration the predicted mean and variance
+     */
     public double[][] predict(double[][] theta_inst) {
-        int[] tree_used_idxs = new int[rf.numTrees];
-        for (int i = 0; i < rf.numTrees; i++) tree_used_idxs[i] = i;
-        return RandomForest.applyMarginal(this.rf, tree_used_idxs, theta_inst, instanceFeatures);
+        final FlatRegtree[] trees = getPreparedTrees();
+        return predictBlocks(theta_inst, new BlockPrediction() {
+            @Override
+            public double[][] predict(double[][] rows) {
+                return RandomForest.applyMarginal(trees, rf.logModel, rf.numTrees, rows);
+            }
+        });
     }
     
+    /**
+     * Predicts the marginal performance over the given instances of the
+     * given configurations.
+     * @param theta_inst the configurations
+     * @param instance_idxs indices of the instances
+     * @return for every configuration the predicted mean and variance
+     */
     public double[][] predictMarginal(double[][] theta_inst, int[] instance_idxs) {
-        int[] tree_used_idxs = new int[rf.numTrees];
-        for (int i = 0; i < rf.numTrees; i++) tree_used_idxs[i] = i;
-        double[][] instance_features = new double[instance_idxs.length][instanceFeatures[0].length];
+        final double[][] instance_features = new double[instance_idxs.length][instanceFeatures[0].length];
         for (int i = 0; i < instance_idxs.length; i++) {
             for (int j = 0; j < instanceFeatures[0].length; j++) instance_features[i][j] = instanceFeatures[instance_idxs[i]][j];
         }
-        return RandomForest.applyMarginal(this.rf, tree_used_idxs, theta_inst, instance_features);
+        final FlatRegtree[] trees = prepareTrees(instance_features);
+        return predictBlocks(theta_inst, new BlockPrediction() {
+            @Override
+            public double[][] predict(double[][] rows) {
+                return RandomForest.applyMarginal(trees, rf.logModel, rf.numTrees, rows);
+            }
+        });
     }
     
-    public double[][] predictDirect(final double[][] thetaX) {
-        if (parallelizeInternally) {
-            final int N = thetaX.length;
-            final int D = thetaX[0].length;
-            final int C = N / parallelizationProcs;
-            final double[][] res = new double[N][2];
-            ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-            try {
-                for (int j = 0; j < parallelizationProcs; j++) {
-                    final int ix = j * C;
-                    exec.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            System.out.println("Thread " + Thread.currentThread().getId() + " computes " + ix + " to " + Math.min(ix + C, N));
-                            double[][] myThetaX = new double[Math.min(ix + C, N) - ix + 1][];
-                            for (int i = ix; i < Math.min(ix + C, N); i++) {
-                                myThetaX[i - ix] = thetaX[ix];
-                            }
-                            double[][] myRes = RandomForest.apply(rf, myThetaX);
-                            for (int i = ix; i < Math.min(ix + C, N); i++) {
-                                res[i][0] = myRes[i - ix][0];
-                                res[i][0] = myRes[i - ix][1];
-                            }
-                        }
-                    });
-                }
-                exec.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                e.printStackTrace(); // TODO Auto-generated catch block
-            } finally {
-                exec.shutdown();
-            }  
-            return res;
-        }
-        return RandomForest.apply(rf, thetaX);
+    /**
+     * Predicts the performance of the given joint configuration-instance
+     * feature vectors. Large batches are split into blocks which are
+     * predicted in parallel.
+     * @param thetaX the configuration-instance feature vectors
+     * @return for every vector the predicted mean and variance
+     */
+    public double[][] predictDirect(double[][] thetaX) {
+        return predictBlocks(thetaX, new BlockPrediction() {
+            @Override
+            public double[][] predict(double[][] rows) {
+                return RandomForest.apply(getFlatTrees(), rf.logModel, rows);
+            }
+        });
     }
     
     public double[] calculateVI() {
@@ -319,7 +723,7 @@ public class CensoredRandomForest implements java.io.Serializable {
             }
             
             // calculate out of bag error of the tree (residual sum of squares)
-            double[][] oob_pred = RandomForest.apply(rf, X);
+            double[][] oob_pred = RandomForest.apply(getFlatTrees(), rf.logModel, X);
             RSS_t[t] = 0;
             for (int i = 0; i < oob_samples.length; i++) {
                 //System.out.println(oob_y[i] + " " + oob_pred[i][0]);
@@ -340,7 +744,7 @@ public class CensoredRandomForest implements java.io.Serializable {
                     oob_y[i] = rf_y[oob_samples[i]];
                 }
                 
-                double[][] oob_pred_v = RandomForest.apply(rf, perm_X);
+                double[][] oob_pred_v = RandomForest.apply(getFlatTrees(), rf.logModel, perm_X);
                 RSS_v_t[v][t] = 0;
                 for (int i = 0; i < oob_samples.length; i++) {
                     RSS_v_t[v][t] += (oob_y[i] - oob_pred_v[i][0]) * (oob_y[i] - oob_pred_v[i][0]);
@@ -373,7 +777,7 @@ public class CensoredRandomForest implements java.io.Serializable {
             }
             
             // calculate out of bag error of the tree (residual sum of squares)
-            double[][] oob_pred = RandomForest.apply(rf, X);
+            double[][] oob_pred = RandomForest.apply(getFlatTrees(), rf.logModel, X);
             RSS_t[t] = 0;
             for (int i = 0; i < oob_samples.length; i++) {
                 RSS_t[t] += (oob_y[i] - oob_pred[i][0]) * (oob_y[i] - oob_pred[i][0]);
@@ -397,7 +801,7 @@ public class CensoredRandomForest implements java.io.Serializable {
             }
             
             // calculate out of bag error of the tree (residual sum of squares)
-            double[][] oob_pred = RandomForest.apply(rf, X);
+            double[][] oob_pred = RandomForest.apply(getFlatTrees(), rf.logModel, X);
             RSS_t[t] = 0;
             for (int i = 0; i < oob_samples.length; i++) {
                 RSS_t[t] += (oob_y[i] - oob_pred[i][0]) * (oob_y[i] - oob_pred[i][0]);
@@ -26,8 +26,8 @@ import edacc.api.costfunctions.CostFunction;
 import edacc.api.costfunctions.PARX;
 import edacc.configurator.aac.AAC;
 import edacc.configurator.aac.SolverConfiguration;
-import edacc.configurator.aac.util.RInterface;
 import edacc.configurator.math.PCA;
+import edacc.configurator.models.ParameterConfigurationEncoder;
 import edacc.model.Experiment;
 import edacc.model.ExperimentDAO;
 import edacc.model.ExperimentResult;
@@ -52,6 +52,7 @@ public class RandomForest implements java.io.Serializable {
     private double[][] instanceFeatures;
     private Map<Integer, Integer> instanceFeaturesIx = new HashMap<Integer, Integer>();
     private List<String> instanceFeatureNames = new LinkedList<String>();
+    private transient ParameterConfigurationEncoder encoder;
 
     /**
      * Initialize a random forest.
@@ -115,7 +116,7 @@ public class RandomForest implements java.io.Serializable {
         
         // Project instance features into lower dimensional space using PCA
         if (pcaInstanceFeatures) {
-            PCA pca = new PCA(RInterface.getRengine());
+            PCA pca = new PCA();
             instanceFeatures = pca.transform(instanceFeatures.length, instanceFeatureNames.size(), instanceFeatures, 7);
             double[][] pcaFeatures = new double[instanceFeatures.length][Math.min(7, instanceFeatureNames.size())];
             for (int i = 0; i < instanceFeatures.length; i++) {
@@ -309,6 +310,15 @@ public class RandomForest implements java.io.Serializable {
         return rf.predictDirect(thetaX);
     }
     
+    /**
+     * Sets the number of threads used to learn the model and to compute
+     * batched predictions.
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        rf.setNumThreads(numThreads);
+    }
+    
     /**
      * Calculate variable importance measures. The first values correspond
      * to the configurable parameters (getConfigurableParameters) and then PCA-ed
@@ -344,62 +354,20 @@ public class RandomForest implements java.io.Serializable {
     }
     
     
-    public double[] paramConfigToTuple(ParameterConfiguration paramConfig) {
-        double[] theta = new double[configurableParameters.size()];
-        for (Parameter p: configurableParameters) {
-            int pIx = configurableParameters.indexOf(p);
-            Object paramValue = paramConfig.getParameterValue(p);
-            if (paramValue == null) {
-                theta[pIx] = Double.NaN;
-            }
-            else {
-                if (p.getDomain() instanceof RealDomain) {
-                    if (paramValue instanceof Float) {
-                        theta[pIx] = (Float)paramValue;
-                    } else if (paramValue instanceof Double) {
-                        theta[pIx] = (Double)paramValue;
-                    }
-                } else if (p.getDomain() instanceof IntegerDomain) {
-                    if (paramValue instanceof Integer) {
-                        theta[pIx] = (Integer)paramValue;
-                    } else if (paramValue instanceof Long) {
-                        theta[pIx] = (Long)paramValue;
-                    }
-                } else if (p.getDomain() instanceof CategoricalDomain) {
-                    // map categorical parameters to integers 1 through domain.size, 0 = not set
-                    Map<String, Integer> valueMap = new HashMap<String, Integer>();
-                    int intVal = 1;
-                    List<String> sortedValues = new LinkedList<String>(((CategoricalDomain)p.getDomain()).getCategories());
-                    Collections.sort(sortedValues);
-                    for (String val: sortedValues) {
-                        valueMap.put(val, intVal++);
-                    }
-                    
-                    theta[pIx] = valueMap.get((String)paramValue);
-                } else if (p.getDomain() instanceof OrdinalDomain) {
-                    // map ordinal parameters to integers 1 through domain.size, 0 = not set
-                    Map<String, Integer> valueMap = new HashMap<String, Integer>();
-                    int intVal = 1;
-                    for (String val: ((OrdinalDomain)p.getDomain()).getOrdered_list()) {
-                        valueMap.put(val, intVal++);
-                    }
-                    
-                    theta[pIx] = valueMap.get((String)paramValue);
-                } else if (p.getDomain() instanceof FlagDomain) {
-                    // map flag parameters to {0, 1}
-                    if (FlagDomain.FLAGS.ON.equals(paramValue)) theta[pIx] = 2;
-                    else theta[pIx] = 1;
-                } else {
-                    // TODO
-                    theta[pIx] = paramValue.hashCode();
-                    throw new RuntimeException("unknown parameter domain");
-                }
-                if (Double.isNaN(theta[pIx])) throw new RuntimeException("Could not map parameter value " + paramValue + " of parameter " + p.getName());
-            }
-            
+    /**
+     * Returns the encoder which maps parameter configurations to the
+     * configuration part of the model input.
+     * @return
+     */
+    public ParameterConfigurationEncoder getParameterEncoder() {
+        if (encoder == null) {
+            encoder = new ParameterConfigurationEncoder(configurableParameters);
         }
-        
-        return theta;
+        return encoder;
+    }
+    
+    public double[] paramConfigToTuple(ParameterConfiguration paramConfig) {
+        return getParameterEncoder().encode(paramConfig);
     }
 
     public List<String> getInstanceFeatureNames() {
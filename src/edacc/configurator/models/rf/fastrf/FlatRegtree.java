@@ -0,0 +1,189 @@
+package edacc.configurator.models.rf.fastrf;
+
+/**
+ * Compiled inference layout of a regression tree.<br/>
+ * The nodes reachable from the root are stored in depth-first preorder in
+ * contiguous primitive arrays, so the left child of a split node directly
+ * follows it and only the index of the right child is stored. The categorical
+ * splits are packed as bitsets into a single <code>long</code> array. Only
+ * the leaf statistics are kept: the node predictions and variances of the
+ * tree or, if the tree was preprocessed for marginal predictions (see
+ * <code>RegtreeFwd.preprocess_inst_splits</code>), the weighted predictions
+ * and variances.<br/>
+ * A compiled tree doesn't change, changes of the tree it was compiled from
+ * (e.g. <code>Regtree.update</code>) require compiling it again.
+ */
+public class FlatRegtree implements java.io.Serializable {
+    private static final long serialVersionUID = 6802355179913052263L;
+
+    /** number of nodes reachable from the root */
+    public final int numNodes;
+    /** whether the tree was preprocessed for marginal predictions */
+    public final boolean preprocessed;
+
+    /** split variable, same encoding as <code>Regtree.var</code>, 0 for leaves */
+    private final int[] var;
+    /** continuous splits: cut point, categorical splits: offset into catBits */
+    private final double[] cut;
+    /** index of the right child, the left child is the next node */
+    private final int[] right;
+    private final double[] leafpred;
+    private final double[] leafvar;
+    /**
+     * Categorical splits, at every offset: the domain size d, then
+     * ceil(d / 64) words with the bits of the values that go right, then
+     * ceil(d / 64) words with the bits of the values the split is defined for.
+     */
+    private final long[] catBits;
+
+    /**
+     * Compiles <code>tree</code>.
+     * @param tree
+     */
+    public FlatRegtree(Regtree tree) {
+        int n = tree.var.length;
+        // depth-first preorder of the reachable nodes, order[flat] = node
+        int[] order = new int[n];
+        int[] rightFlat = new int[n];
+        // stack of flat indices of split nodes whose right subtree follows
+        int[] stack = new int[n];
+        int numCatWords = 0;
+        int numFlat = 0, top = 0;
+        int node = 0;
+        while (true) {
+            int i = numFlat++;
+            order[i] = node;
+            if (tree.var[node] != 0) {
+                if (tree.var[node] < 0) {
+                    numCatWords += 1 + 2 * numWords(tree.catsplit[(int) tree.cut[node]].length);
+                }
+                stack[top++] = i;
+                node = tree.children[node][0];
+            } else if (top > 0) {
+                int parent = stack[--top];
+                rightFlat[parent] = numFlat;
+                node = tree.children[order[parent]][1];
+            } else {
+                break;
+            }
+        }
+        numNodes = numFlat;
+        preprocessed = tree.preprocessed;
+        var = new int[numNodes];
+        cut = new double[numNodes];
+        right = new int[numNodes];
+        leafpred = new double[numNodes];
+        leafvar = new double[numNodes];
+        catBits = new long[numCatWords];
+        int catOffset = 0;
+        for (int i = 0; i < numNodes; i++) {
+            node = order[i];
+            var[i] = tree.var[node];
+            if (var[i] == 0) {
+                leafpred[i] = preprocessed ? tree.weightedpred[node] : tree.nodepred[node];
+                leafvar[i] = preprocessed ? tree.weightedvar[node] : tree.nodevar[node];
+                continue;
+            }
+            right[i] = rightFlat[i];
+            if (var[i] > 0) {
+                cut[i] = tree.cut[node];
+            } else {
+                int[] split = tree.catsplit[(int) tree.cut[node]];
+                int words = numWords(split.length);
+                cut[i] = catOffset;
+                catBits[catOffset] = split.length;
+                for (int x = 0; x < split.length; x++) {
+                    long mask = 1L << x;
+                    if (split[x] == 1) catBits[catOffset + 1 + (x >>> 6)] |= mask;
+                    if (split[x] == 0 || split[x] == 1) catBits[catOffset + 1 + words + (x >>> 6)] |= mask;
+                }
+                catOffset += 1 + 2 * words;
+            }
+        }
+    }
+
+    private static int numWords(int domainSize) {
+        return (domainSize + 63) >>> 6;
+    }
+
+    private int catChild(int node, double value) {
+        int offset = (int) cut[node];
+        int domainSize = (int) catBits[offset];
+        int x = (int) value - 1;
+        if (x < 0 || x >= domainSize) {
+            throw new RuntimeException("Missing value -- not allowed in this implementation.");
+        }
+        long mask = 1L << x;
+        int word = offset + 1 + (x >>> 6);
+        if ((catBits[word + numWords(domainSize)] & mask) == 0) {
+            throw new RuntimeException("Missing value -- not allowed in this implementation.");
+        }
+        return (catBits[word] & mask) != 0 ? right[node] : node + 1;
+    }
+
+    /**
+     * Propagates the data point <code>x</code> down the tree.
+     * @param x values of all variables
+     * @return the index of the leaf <code>x</code> falls into
+     */
+    public int fwd(double[] x) {
+        int node = 0;
+        int splitvar;
+        while ((splitvar = var[node]) != 0) {
+            if (splitvar > 0) {
+                node = x[splitvar - 1] <= cut[node] ? node + 1 : right[node];
+            } else {
+                node = catChild(node, x[-splitvar - 1]);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the sum of the weighted predictions of all leaves the
+     * configuration <code>theta</code> can fall into, i.e. splits on instance
+     * features pass the configuration down both children. The tree has to be
+     * preprocessed.
+     * @param theta values of the configuration variables
+     * @param queue buffer with at least <code>numNodes</code> elements
+     * @see RegtreeFwd#marginalFwd(Regtree, double[][], double[][])
+     */
+    public double marginalPred(double[] theta, int[] queue) {
+        int thetacols = theta.length;
+        double pred = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int node = queue[head++];
+            int splitvar;
+            while ((splitvar = var[node]) != 0) {
+                int v = (splitvar > 0 ? splitvar : -splitvar);
+                if (v > thetacols) {
+                    // split on an instance feature
+                    queue[tail++] = right[node];
+                    node++;
+                } else if (splitvar > 0) {
+                    node = theta[v - 1] <= cut[node] ? node + 1 : right[node];
+                } else {
+                    node = catChild(node, theta[v - 1]);
+                }
+            }
+            pred += leafpred[node];
+        }
+        return pred;
+    }
+
+    /**
+     * Returns the prediction of the leaf <code>leaf</code>.
+     */
+    public double getLeafPred(int leaf) {
+        return leafpred[leaf];
+    }
+
+    /**
+     * Returns the variance of the leaf <code>leaf</code>.
+     */
+    public double getLeafVar(int leaf) {
+        return leafvar[leaf];
+    }
+}
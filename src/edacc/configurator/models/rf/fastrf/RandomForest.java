@@ -83,24 +83,35 @@ public class RandomForest implements java.io.Serializable {
      * and (i,1) is the variance of that prediction. See Matlab code for how var is calculated.
      */
     public static double[][] apply(RandomForest forest, double[][] X) {
-		double[][] retn = new double[X.length][2]; // mean, var
-        for (int i=0; i < forest.numTrees; i++) {
-            int[] result = RegtreeFwd.fwd(forest.Trees[i], X);
+        return apply(compile(forest), forest.logModel, X);
+    }
+    
+    /**
+     * Gets a prediction for the given instantiations of features from the
+     * compiled trees of a forest. All rows are propagated down a tree before
+     * the next tree, so only one tree at a time has to stay in the cache.
+     * @see #apply(RandomForest, double[][])
+     */
+    public static double[][] apply(FlatRegtree[] trees, int logModel, double[][] X) {
+        int numTrees = trees.length;
+        double[][] retn = new double[X.length][2]; // mean, var
+        for (int i=0; i < numTrees; i++) {
+            FlatRegtree tree = trees[i];
             for (int j=0; j < X.length; j++) {
-				double pred = forest.Trees[i].nodepred[result[j]];
-                if (forest.logModel>0) {
-                    //if (pred <= 0) pred = 1e-15;
+                int leaf = tree.fwd(X[j]);
+                double pred = tree.getLeafPred(leaf);
+                if (logModel>0) {
                     pred = Math.log10(pred);
                 }
                 retn[j][0] += pred;
-                retn[j][1] += forest.Trees[i].nodevar[result[j]]+pred*pred;
+                retn[j][1] += tree.getLeafVar(leaf)+pred*pred;
             }
         }
         for (int i=0; i < X.length; i++) {
-            retn[i][0] /= forest.numTrees;
-            retn[i][1] /= forest.numTrees;
+            retn[i][0] /= numTrees;
+            retn[i][1] /= numTrees;
             retn[i][1] -= retn[i][0]*retn[i][0];
-            retn[i][1] = retn[i][1] * ((forest.numTrees+0.0)/Math.max(1, forest.numTrees-1));
+            retn[i][1] = retn[i][1] * ((numTrees+0.0)/Math.max(1, numTrees-1));
         }
         return retn;
     }
@@ -116,34 +127,75 @@ public class RandomForest implements java.io.Serializable {
      * @see RegtreeFwd.marginalFwd
      */
     public static double[][] applyMarginal(RandomForest forest, int[] tree_idxs_used, double[][] Theta, double[][] X) {
-        int nTheta = Theta.length, nTrees = tree_idxs_used.length;
-		double[][] retn = new double[nTheta][2]; // mean, var
+        if (Theta == null || Theta.length == 0) {
+            throw new RuntimeException("Theta must not be empty");
+        }
+        FlatRegtree[] trees = new FlatRegtree[tree_idxs_used.length];
+        for (int i=0; i < trees.length; i++) {
+            Regtree tree = forest.Trees[tree_idxs_used[i]];
+            if (!tree.preprocessed) {
+                tree = RegtreeFwd.preprocess_inst_splits(tree, X);
+            }
+            trees[i] = new FlatRegtree(tree);
+        }
+        return applyMarginal(trees, forest.logModel, forest.numTrees, Theta);
+    }
+    
+    /**
+     * Gets a prediction for the given configurations from the compiled
+     * preprocessed trees of a forest. All rows are propagated down a tree
+     * before the next tree.
+     * @param numTrees the number of trees of the forest, used for the
+     *        variance correction
+     * @see #applyMarginal(RandomForest, int[], double[][], double[][])
+     */
+    public static double[][] applyMarginal(FlatRegtree[] trees, int logModel, int numTrees, double[][] Theta) {
+        int nTheta = Theta.length, nTrees = trees.length;
+        double[][] retn = new double[nTheta][2]; // mean, var
         
+        int maxNodes = 0;
         for (int i=0; i < nTrees; i++) {
-            Object[] result = RegtreeFwd.marginalFwd(forest.Trees[tree_idxs_used[i]], Theta, X);
-            double[] preds = (double[])result[0];
-            double[] vars = (double[])result[1];
-
+            if (!trees[i].preprocessed) {
+                throw new RuntimeException("Marginal predictions require preprocessed trees.");
+            }
+            maxNodes = Math.max(maxNodes, trees[i].numNodes);
+        }
+        int[] queue = new int[maxNodes];
+        
+        for (int i=0; i < nTrees; i++) {
+            FlatRegtree tree = trees[i];
             for (int j=0; j < nTheta; j++) {
-                double pred = preds[j];
-                if (forest.logModel>0) {
-                    //if (pred <= 0) pred = 1e-15;
+                double pred = tree.marginalPred(Theta[j], queue);
+                if (logModel>0) {
                     pred = Math.log10(pred);
                 }
+                // the marginal variance of a tree is 0
                 retn[j][0] += pred;
-                retn[j][1] += vars[j]+pred*pred;
+                retn[j][1] += pred*pred;
             }
         }
         
         for (int i=0; i < nTheta; i++) {
             retn[i][0] /= nTrees;
             retn[i][1] /= nTrees;
-			retn[i][1] -= retn[i][0]*retn[i][0];
-            retn[i][1] = retn[i][1] * ((forest.numTrees+0.0)/Math.max(1, forest.numTrees-1));
+            retn[i][1] -= retn[i][0]*retn[i][0];
+            retn[i][1] = retn[i][1] * ((numTrees+0.0)/Math.max(1, numTrees-1));
         }
         return retn;
     }
     
+    /**
+     * Compiles the trees of the forest for predictions.
+     * @see FlatRegtree
+     */
+    public static FlatRegtree[] compile(RandomForest forest) {
+        FlatRegtree[] trees = new FlatRegtree[forest.numTrees];
+        for (int i=0; i < forest.numTrees; i++) {
+            trees[i] = new FlatRegtree(forest.Trees[i]);
+        }
+        return trees;
+    }
+    
     /** 
      * Prepares the random forest for marginal predictions.
      * @see RegtreeFwd.preprocess_inst_splits
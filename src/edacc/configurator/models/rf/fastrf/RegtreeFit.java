@@ -3,19 +3,32 @@ package edacc.configurator.models.rf.fastrf;
 import java.util.*;
 import edacc.configurator.models.rf.fastrf.utils.*;
 
+/**
+ * Builds regression trees. The working buffers are kept in the instance, so a
+ * <code>RegtreeFit</code> can build trees concurrently with other instances
+ * and reuses its buffers for the next tree. Instances are not thread-safe,
+ * the static <code>fit</code> methods use one instance per thread.
+ */
 public class RegtreeFit {
     
-    private static Random r;
-    private static long seed;
+    private static final ThreadLocal<RegtreeFit> threadFit = new ThreadLocal<RegtreeFit>() {
+        @Override
+        protected RegtreeFit initialValue() {
+            return new RegtreeFit();
+        }
+    };
+    
+    private Random r;
+    private long seed;
     //*
     private static final int RAND_MAX = Integer.MAX_VALUE - 1;
-    private static int rand() {
+    private int rand() {
         int retn = r.nextInt(Integer.MAX_VALUE);
         return retn;
     }
     /*/
     private static final int RAND_MAX = 2147483646;
-    private static int rand() {
+    private int rand() {
         return (int)(seed = (seed*22695477+1)%(RAND_MAX+1));
     }
     //*/
@@ -45,24 +58,24 @@ public class RegtreeFit {
     }
     
     
-    private static int[][] dataIdxs;
-    private static double[] y;    
+    private int[][] dataIdxs;
+    private double[] y;    
 
-	private static double ybar;
-	private static double[] catmeans;
-	private static int[] catcounts;
-	private static double[] ycum;
-	private static int[] ycountcum;
-	private static int[] uniqueIdxs;
-	private static int[] dataRowsHere;
+	private double ybar;
+	private double[] catmeans;
+	private int[] catcounts;
+	private double[] ycum;
+	private int[] ycountcum;
+	private int[] uniqueIdxs;
+	private int[] dataRowsHere;
         
-	private static int[] sorder;
-	private static int[] maxlocs;
+	private int[] sorder;
+	private int[] maxlocs;
 	
-	private static int numleft;
-	private static int numright;
-	private static int[] leftside;
-	private static int[] rightside;
+	private int numleft;
+	private int numright;
+	private int[] leftside;
+	private int[] rightside;
     
     /**
      * Fits a regression tree.
@@ -72,6 +85,27 @@ public class RegtreeFit {
      * @params params see RegtreeBuildParams
      */
     public static Regtree fit(double[][] allTheta, double[][] allX, int[][] dataIdxs, double[] y, RegtreeBuildParams params) {
+        return threadFit.get().build(allTheta, allX, dataIdxs, y, params, null);
+    }
+    
+    /**
+     * Fits a regression tree using <code>random</code> instead of the random
+     * number generator of <code>params</code>. Trees fitted in parallel with
+     * their own random number generators don't depend on the order in which
+     * they are built.
+     * @see #fit(double[][], double[][], int[][], double[], RegtreeBuildParams)
+     */
+    public static Regtree fit(double[][] allTheta, double[][] allX, int[][] dataIdxs, double[] y, RegtreeBuildParams params, Random random) {
+        return threadFit.get().build(allTheta, allX, dataIdxs, y, params, random);
+    }
+    
+    /**
+     * Fits a regression tree with the buffers of this instance.
+     * @params random the random number generator to use, if null the one of
+     *         <code>params</code> is used
+     * @see #fit(double[][], double[][], int[][], double[], RegtreeBuildParams)
+     */
+    public Regtree build(double[][] allTheta, double[][] allX, int[][] dataIdxs, double[] y, RegtreeBuildParams params, Random random) {
     	boolean printDebug = false;
     	long startTime = new Date().getTime();
     	long currentTime = startTime;
@@ -80,7 +114,7 @@ public class RegtreeFit {
         int N = dataIdxs.length;
         if (y.length != N) throw new RuntimeException("The number of data points and the number of responses must be the same.");
         
-        r = params.random;
+        r = (random != null ? random : params.random);
         if (r == null) {
             r = new Random();
             if (params.seed != -1) {
@@ -156,8 +190,8 @@ public class RegtreeFit {
         dataIdxs = newDataIdxs;
         //=== End: drop rows of allTheta and allX that we don't have data for.
         
-        RegtreeFit.dataIdxs = dataIdxs;
-    	RegtreeFit.y = y;
+        this.dataIdxs = dataIdxs;
+    	this.y = y;
         
         //=== Extract data from the input params.
         int[] catDomainSizes = params.catDomainSizes;
@@ -193,30 +227,30 @@ public class RegtreeFit {
         
         int[] randomPermutation = new int[nvars];
         double[] variableValuesHere = new double[N];
-        dataRowsHere = new int[Math.max(N, maxDomSize)];
-        uniqueIdxs = new int[N];
-        catmeans = new double[maxDomSize];
-        catcounts = new int[maxDomSize];
+        dataRowsHere = ensureCapacity(dataRowsHere, Math.max(N, maxDomSize));
+        uniqueIdxs = ensureCapacity(uniqueIdxs, N);
+        catmeans = ensureCapacity(catmeans, maxDomSize);
+        catcounts = ensureCapacity(catcounts, maxDomSize);
         
         // For categorical splits
         int numBestLeft = 0;
         int numBestRight = 0;
         int[] bestLeft = new int[maxDomSize];
         int[] bestRight = new int[maxDomSize];
-        leftside = new int[maxDomSize];
-        rightside = new int[maxDomSize];     
+        leftside = ensureCapacity(leftside, maxDomSize);
+        rightside = ensureCapacity(rightside, maxDomSize);     
         
-        maxlocs = new int[Math.max(N, maxDomSize)-1];
+        maxlocs = ensureCapacity(maxlocs, Math.max(N, maxDomSize)-1);
         
-        ycum = new double[Math.max(N, maxDomSize)+1];        
-        ycountcum = new int[Math.max(N, maxDomSize)+1];
+        ycum = ensureCapacity(ycum, Math.max(N, maxDomSize)+1);
+        ycountcum = ensureCapacity(ycountcum, Math.max(N, maxDomSize)+1);
                 
         // For passing data to children
         boolean[] yGoesLeft = new boolean[N];
         boolean[] primaryGoesLeft = new boolean[Math.max(numTheta, numX)];
         
         // For sorting
-        sorder = new int[Math.max(N, maxDomSize)];
+        sorder = ensureCapacity(sorder, Math.max(N, maxDomSize));
         
         double ystd = Utils.var(y);
         
@@ -824,28 +858,17 @@ public class RegtreeFit {
         }
         tree.recalculateStats();
         
-        // Free up static fields for GC
-        sorder = null;
-        maxlocs = null;
-        RegtreeFit.dataIdxs = null;
-        RegtreeFit.y = null;
-        
-        catmeans = null;
-        catcounts = null;
-        ycum = null;
-        ycountcum = null;
-        uniqueIdxs = null;
-        dataRowsHere = null;
-        
-        leftside = null;
-        rightside = null;
+        // Release the data, the buffers are reused for the next tree
+        this.dataIdxs = null;
+        this.y = null;
+        r = null;
         
     	if (printDebug)
     		System.out.println("Building the tree took a total of " + (new Date().getTime() - startTime) + " milliseconds.");
         return tree;
     }
     
-    private static int[] prepare_for_cont_critval(int varIdx, int is_X, int numData, int[][] sortedData, double[][] allData, int Nnode, int[] index_into_dataIdxs_here, int[][] ynodeData, double[] variableValuesHere) {
+    private int[] prepare_for_cont_critval(int varIdx, int is_X, int numData, int[][] sortedData, double[][] allData, int Nnode, int[] index_into_dataIdxs_here, int[][] ynodeData, double[] variableValuesHere) {
     	int numUniqData = 0;
         int numUniqValues = 0;
     	if (ynodeData == null) { // do Nnode log Nnode sorting
@@ -885,7 +908,7 @@ public class RegtreeFit {
         return new int[]{numUniqData, numUniqValues};
 	}
 
-	private static double[] critval_cont(int numUniqData, int numUniqValues, int[] uniqueIdxs, int[] index_into_dataIdxs_here, int[][] ynodeData, int[] dataRowsHere, double[] variableValuesHere) {
+	private double[] critval_cont(int numUniqData, int numUniqValues, int[] uniqueIdxs, int[] index_into_dataIdxs_here, int[][] ynodeData, int[] dataRowsHere, double[] variableValuesHere) {
         double critval = INVALID_CRITVAL;
 
         ycum[0] = 0;
@@ -949,7 +972,7 @@ public class RegtreeFit {
         return new double[]{critval, cutval};
 	}
 	
-	private static double critval_cat(int varIdx, int var_is_X, double[][] allData, int Nnode, int[] index_into_dataIdxs_here, int domSize) {
+	private double critval_cat(int varIdx, int var_is_X, double[][] allData, int Nnode, int[] index_into_dataIdxs_here, int domSize) {
 		double critval = INVALID_CRITVAL;
 		
 		// Sort by category means
@@ -1043,6 +1066,14 @@ public class RegtreeFit {
     //======================================================================\\
     //                        BEGIN HELPER FUNCTIONS                        \\
     //======================================================================\\
+    private static int[] ensureCapacity(int[] arr, int len) {
+        return (arr == null || arr.length < len) ? new int[len] : arr;
+    }
+    
+    private static double[] ensureCapacity(double[] arr, int len) {
+        return (arr == null || arr.length < len) ? new double[len] : arr;
+    }
+    
     private static void rankSort(double[] arr, int len, int[] sorder) {
         for (int i=0; i<len; i++) {
             sorder[i] = i;
@@ -1050,7 +1081,7 @@ public class RegtreeFit {
         dp_quick(arr, sorder, 0, len-1);
     }
     
-    private static void shuffle(int[] arr, int n) {
+    private void shuffle(int[] arr, int n) {
         for (int i=0; i < n-1; i++) {
             int j = i + rand() / (RAND_MAX / (n - i) + 1);
             int t = arr[j];
@@ -90,13 +90,15 @@ public class RegtreeFwd {
         double[] result = new double[thetarows];
         double[] vars = new double[thetarows];
         
-        LinkedList<Integer> queue = new LinkedList<Integer>();
+        // every node is queued at most once per configuration
+        int[] queue = new int[numnodes];
         
         for (int i=0; i < thetarows; i++) {
             vars[i] = 0;
-            queue.add(0);
-            while(!queue.isEmpty()) {
-                int thisnode = queue.poll();
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            while(head < tail) {
+                int thisnode = queue[head++];
                 while(true) {
                     int splitvar = tree.var[thisnode];
                     double cutoff = tree.cut[thisnode];
@@ -109,7 +111,7 @@ public class RegtreeFwd {
                         break;
                     } else if (Math.abs(splitvar) > thetacols) {
                         // Splitting on instance - pass this instance down both children
-                        queue.add(right_kid);
+                        queue[tail++] = right_kid;
                         thisnode = left_kid;
                     } else {
                         if (splitvar > 0) { // continuous
@@ -181,12 +183,14 @@ public class RegtreeFwd {
         int numinsts = X.length;       
         int thetacols = tree.npred - X[0].length;
 
-        LinkedList<Integer> queue = new LinkedList<Integer>();
+        // every node is queued at most once per instance
+        int[] queue = new int[numnodes];
 
         for (int i=0; i < numinsts; i++) {
-            queue.add(0);
-            while(!queue.isEmpty()) {
-                int thisnode = queue.poll();
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            while(head < tail) {
+                int thisnode = queue[head++];
                 while(true) {
                     int splitvar = tree.var[thisnode];
                     double cutoff = tree.cut[thisnode];
@@ -199,7 +203,7 @@ public class RegtreeFwd {
                         break;
                     } else if (Math.abs(splitvar) <= thetacols) {
                         // Splitting on Theta - pass this instance down both children
-                        queue.add(right_kid);
+                        queue[tail++] = right_kid;
                         thisnode = left_kid;
                     } else {
                         if (splitvar > 0) { // continuous
@@ -0,0 +1,95 @@
+package edacc.analysis;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edacc.configurator.math.SobolSequence;
+
+public class SobolIndicesTest {
+
+    /**
+     * Ishigami function with a = 7 and b = 0.1 on [-pi, pi]^3, its indices
+     * are known analytically.
+     */
+    @Test
+    public void testIshigami() throws Exception {
+        final double a = 7, b = 0.1;
+        SobolIndices sobol = new SobolIndices(3, 8192, true);
+        sobol.setNumThreads(2);
+        sobol.estimate(new SobolIndices.Function() {
+            @Override
+            public double[] evaluate(double[][] X, int block) {
+                double[] y = new double[X.length];
+                for (int i = 0; i < X.length; i++) {
+                    double x1 = -Math.PI + 2 * Math.PI * X[i][0];
+                    double x2 = -Math.PI + 2 * Math.PI * X[i][1];
+                    double x3 = -Math.PI + 2 * Math.PI * X[i][2];
+                    y[i] = Math.sin(x1) + a * Math.sin(x2) * Math.sin(x2) + b * Math.pow(x3, 4) * Math.sin(x1);
+                }
+                return y;
+            }
+        }, new Random(1));
+
+        double pi4 = Math.pow(Math.PI, 4), pi8 = Math.pow(Math.PI, 8);
+        double v1 = 0.5 * (1 + b * pi4 / 5) * (1 + b * pi4 / 5);
+        double v2 = a * a / 8;
+        double v13 = b * b * pi8 * (1.0 / 18 - 1.0 / 50);
+        double v = v1 + v2 + v13;
+        double[] first = { v1 / v, v2 / v, 0 };
+        double[] total = { (v1 + v13) / v, v2 / v, v13 / v };
+        for (int i = 0; i < 3; i++) {
+            assertEquals(first[i], sobol.getFirstOrder()[i].getValue(), 0.02);
+            assertEquals(total[i], sobol.getTotalOrder()[i].getValue(), 0.02);
+            assertTrue(sobol.getFirstOrder()[i].getLower() <= sobol.getFirstOrder()[i].getUpper());
+        }
+        assertEquals(v13 / v, sobol.getSecondOrder()[0][2].getValue(), 0.03);
+        assertEquals(0, sobol.getSecondOrder()[0][1].getValue(), 0.03);
+        assertEquals(0, sobol.getSecondOrder()[1][2].getValue(), 0.03);
+    }
+
+    /**
+     * More variables than the Sobol sequence supports use the pseudo-random
+     * design. The indices of a linear function are c_i^2 / sum c_j^2 and
+     * first- and total-order indices coincide.
+     */
+    @Test
+    public void testManyVariables() throws Exception {
+        final int d = 60;
+        assertTrue(2 * d > SobolSequence.MAX_DIMENSIONS);
+        final double[] c = new double[d];
+        double sum = 0;
+        for (int i = 0; i < d; i++) {
+            c[i] = i < 3 ? 4 >> i : 0.1;
+            sum += c[i] * c[i];
+        }
+        SobolIndices.Function f = new SobolIndices.Function() {
+            @Override
+            public double[] evaluate(double[][] X, int block) {
+                double[] y = new double[X.length];
+                for (int i = 0; i < X.length; i++) {
+                    for (int j = 0; j < d; j++) y[i] += c[j] * X[i][j];
+                }
+                return y;
+            }
+        };
+        SobolIndices sobol = new SobolIndices(d, 4096, false);
+        sobol.setNumThreads(3);
+        sobol.estimate(f, new Random(2));
+        for (int i = 0; i < d; i++) {
+            assertEquals(c[i] * c[i] / sum, sobol.getFirstOrder()[i].getValue(), 0.05);
+            assertEquals(c[i] * c[i] / sum, sobol.getTotalOrder()[i].getValue(), 0.02);
+        }
+
+        // the blocks do not depend on the number of threads
+        SobolIndices sequential = new SobolIndices(d, 4096, false);
+        sequential.setNumThreads(1);
+        sequential.estimate(f, new Random(2));
+        for (int i = 0; i < d; i++) {
+            assertEquals(sobol.getFirstOrder()[i].getValue(), sequential.getFirstOrder()[i].getValue(), 0.0);
+            assertEquals(sobol.getTotalOrder()[i].getValue(), sequential.getTotalOrder()[i].getValue(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package edacc.analysis;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edacc.analysis.SobolIndices.Estimate;
+import edacc.configurator.models.rf.fastrf.RandomForest;
+import edacc.configurator.models.rf.fastrf.RandomTrees;
+import edacc.configurator.models.rf.fastrf.Regtree;
+import edacc.configurator.models.rf.fastrf.RegtreeFwd;
+
+public class TreeFANOVATest {
+    /** continuous, categorical, continuous, categorical */
+    private static final int[] CAT_DOMAIN_SIZES = new int[] { 0, 3, 0, 2 };
+    private static final double[][] RANGES = new double[][] { { 0, 1 }, null, { -2, 6 }, null };
+    /** cells per continuous variable, the random trees cut at multiples of 1/8 of the range */
+    private static final int CELLS = 8;
+
+    /**
+     * The variance fractions of small random forests agree with the
+     * fractions computed by brute force from the predictions of the trees
+     * on a grid that has a point in every cell of the trees.
+     */
+    @Test
+    public void testAgainstBruteForce() throws Exception {
+        double maxInteraction = 0;
+        for (int trial = 0; trial < 30; trial++) {
+            Random rng = new Random(trial);
+            int logModel = trial % 2;
+            RandomForest forest = randomForest(rng, 1 + rng.nextInt(5), logModel);
+            TreeFANOVA fanova = new TreeFANOVA(forest, CAT_DOMAIN_SIZES, RANGES);
+            fanova.setNumThreads(2);
+            fanova.estimate(true);
+
+            double[][] grid = grid();
+            int d = CAT_DOMAIN_SIZES.length;
+            double[] main = new double[d];
+            double[][] pairwise = new double[d][d];
+            double meanVariance = 0;
+            int used = 0;
+            for (Regtree tree : forest.Trees) {
+                double[] pred = predictions(tree, grid, logModel);
+                double var = variance(pred, grid, new int[0]);
+                meanVariance += var / forest.numTrees;
+                if (var <= 1e-12) continue;
+                used++;
+                for (int i = 0; i < d; i++) main[i] += variance(pred, grid, new int[] { i }) / var;
+                for (int i = 0; i < d; i++) {
+                    for (int j = i + 1; j < d; j++) {
+                        pairwise[i][j] += (variance(pred, grid, new int[] { i, j })
+                                - variance(pred, grid, new int[] { i })
+                                - variance(pred, grid, new int[] { j })) / var;
+                    }
+                }
+            }
+
+            assertEquals(meanVariance, fanova.getMeanVariance(), 1e-9);
+            Estimate[] mainEffects = fanova.getMainEffects();
+            Estimate[][] pairwiseEffects = fanova.getPairwiseEffects();
+            for (int i = 0; i < d; i++) {
+                assertEquals(used == 0 ? 0 : main[i] / used, mainEffects[i].getValue(), 1e-9);
+                for (int j = i + 1; j < d; j++) {
+                    assertEquals(used == 0 ? 0 : pairwise[i][j] / used, pairwiseEffects[i][j].getValue(), 1e-9);
+                    maxInteraction = Math.max(maxInteraction, pairwiseEffects[i][j].getValue());
+                }
+            }
+        }
+        // the forests have interactions, not only main effects
+        assertTrue(maxInteraction > 0.05);
+    }
+
+    /**
+     * A tree that only splits on one variable explains all its variance by
+     * the main effect of that variable.
+     */
+    @Test
+    public void testSingleVariable() throws Exception {
+        Random rng = new Random(1);
+        RandomForest forest = new RandomForest(3, 0);
+        RandomTrees trees = new RandomTrees(rng, new int[] { 0 }, new double[][] { { 0, 1 } });
+        for (int t = 0; t < forest.numTrees; t++) {
+            do {
+                forest.Trees[t] = trees.next(3, 0);
+            } while (forest.Trees[t].numNodes == 1);
+        }
+        TreeFANOVA fanova = new TreeFANOVA(forest, new int[] { 0, 0 }, new double[][] { { 0, 1 }, { 0, 1 } });
+        fanova.estimate(true);
+        if (fanova.getMeanVariance() > 0) {
+            assertEquals(1, fanova.getMainEffects()[0].getValue(), 1e-12);
+        }
+        assertEquals(0, fanova.getMainEffects()[1].getValue(), 0.0);
+        assertEquals(0, fanova.getPairwiseEffects()[0][1].getValue(), 1e-12);
+    }
+
+    private static RandomForest randomForest(Random rng, int numTrees, int logModel) {
+        RandomForest forest = new RandomForest(numTrees, logModel);
+        RandomTrees trees = new RandomTrees(rng, CAT_DOMAIN_SIZES, RANGES);
+        for (int t = 0; t < numTrees; t++) forest.Trees[t] = trees.next(5, logModel);
+        return forest;
+    }
+
+    /** number of grid values of variable i */
+    private static int gridSize(int i) {
+        return CAT_DOMAIN_SIZES[i] > 0 ? CAT_DOMAIN_SIZES[i] : CELLS;
+    }
+
+    /**
+     * All combinations of the categorical values and the midpoints of the
+     * cells of the continuous variables, the first variable varies slowest.
+     */
+    private static double[][] grid() {
+        int d = CAT_DOMAIN_SIZES.length;
+        int size = 1;
+        for (int i = 0; i < d; i++) size *= gridSize(i);
+        double[][] grid = new double[size][d];
+        for (int p = 0; p < size; p++) {
+            int rest = p;
+            for (int i = d - 1; i >= 0; i--) {
+                int k = rest % gridSize(i);
+                rest /= gridSize(i);
+                if (CAT_DOMAIN_SIZES[i] > 0) {
+                    grid[p][i] = k + 1;
+                } else {
+                    grid[p][i] = RANGES[i][0] + (k + 0.5) * (RANGES[i][1] - RANGES[i][0]) / CELLS;
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static double[] predictions(Regtree tree, double[][] grid, int logModel) {
+        int[] leaves = RegtreeFwd.fwd(tree, grid);
+        double[] pred = new double[grid.length];
+        for (int p = 0; p < grid.length; p++) {
+            pred[p] = tree.nodepred[leaves[p]];
+            if (logModel > 0) pred[p] = Math.log10(pred[p]);
+        }
+        return pred;
+    }
+
+    /**
+     * Variance over the grid of the marginal prediction of the given
+     * variables, i.e. of the mean prediction over the other variables. No
+     * variables give the total mean, so the variance of all predictions is
+     * computed instead.
+     */
+    private static double variance(double[] pred, double[][] grid, int[] vars) {
+        double mean = 0;
+        for (double v : pred) mean += v / pred.length;
+        if (vars.length == 0) {
+            double var = 0;
+            for (double v : pred) var += (v - mean) * (v - mean) / pred.length;
+            return var;
+        }
+        // marginal cell of each grid point
+        int numCells = 1;
+        for (int i : vars) numCells *= gridSize(i);
+        double[] sum = new double[numCells];
+        int[] count = new int[numCells];
+        for (int p = 0; p < grid.length; p++) {
+            int cell = 0;
+            for (int i : vars) cell = cell * gridSize(i) + gridIndex(grid[p][i], i);
+            sum[cell] += pred[p];
+            count[cell]++;
+        }
+        double var = 0;
+        for (int c = 0; c < numCells; c++) {
+            double m = sum[c] / count[c];
+            var += (m - mean) * (m - mean) / numCells;
+        }
+        return var;
+    }
+
+    private static int gridIndex(double x, int i) {
+        if (CAT_DOMAIN_SIZES[i] > 0) return (int) x - 1;
+        return (int) Math.floor((x - RANGES[i][0]) / (RANGES[i][1] - RANGES[i][0]) * CELLS);
+    }
+}
@@ -0,0 +1,336 @@
+package edacc.configurator.aac.clustering;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edacc.configurator.aac.InstanceIdSeed;
+import edacc.configurator.math.HierarchicalClustering.Linkage;
+import edacc.util.Pair;
+
+/**
+ * Compares the greedy bottom-up clustering with the previous list based
+ * implementation and with a straightforward greedy clustering that always
+ * merges the two closest clusters, on random points in three dimensions.
+ */
+public class GreedyBottomUpTest {
+    private static final Linkage[] LINKAGES = new Linkage[] { Linkage.SINGLE, Linkage.COMPLETE, Linkage.AVERAGE };
+
+    @Test
+    public void testSameClusteringAsListBasedGreedy() {
+        for (int trial = 0; trial < 40; trial++) {
+            Random rng = new Random(trial);
+            PointResources res = randomPoints(rng, 30 + rng.nextInt(120));
+            List<InstanceIdSeed> instances = res.prepareInstances();
+            Linkage linkage = trial % 2 == 0 ? Linkage.COMPLETE : Linkage.AVERAGE;
+            Set<Cluster> expected = asSet(new ListBasedGreedy(res, linkage).calculateClustering(instances));
+            assertEquals(expected, asSet(greedy(res, linkage).calculateClustering(instances)));
+        }
+    }
+
+    @Test
+    public void testUpdateWithoutChanges() {
+        for (int trial = 0; trial < 12; trial++) {
+            PointResources res = randomPoints(new Random(trial), 100);
+            List<InstanceIdSeed> instances = res.prepareInstances();
+            Algorithm_GreedyBottomUp greedy = greedy(res, LINKAGES[trial % 3]);
+            Set<Cluster> full = asSet(greedy.calculateClustering(instances));
+            assertEquals(full, asSet(greedy.updateClustering(instances, new HashSet<InstanceIdSeed>())));
+            // every instance-seed-pair changed, but not its data
+            assertEquals(full, asSet(greedy.updateClustering(instances, new HashSet<InstanceIdSeed>(instances))));
+        }
+    }
+
+    /**
+     * The linkage between the clusters is taken from the distance matrix,
+     * each distance is calculated once.
+     */
+    @Test
+    public void testDistancesCalculatedOnce() {
+        for (Linkage linkage : LINKAGES) {
+            PointResources res = randomPoints(new Random(3), 80);
+            List<InstanceIdSeed> instances = res.prepareInstances();
+            Algorithm_GreedyBottomUp greedy = greedy(res, linkage);
+            Set<Cluster> full = asSet(greedy.calculateClustering(instances));
+            assertEquals(80 * 79 / 2, res.distanceCalculations);
+            assertEquals(full, asSet(greedy.updateClustering(instances, new HashSet<InstanceIdSeed>())));
+        }
+    }
+
+    @Test
+    public void testUpdateOtherInstances() {
+        PointResources res = randomPoints(new Random(1), 50);
+        List<InstanceIdSeed> instances = res.prepareInstances();
+        Algorithm_GreedyBottomUp greedy = greedy(res, Linkage.COMPLETE);
+        assertNull(greedy.updateClustering(instances, new HashSet<InstanceIdSeed>()));
+        greedy.calculateClustering(instances);
+        assertNull(greedy.updateClustering(instances.subList(1, instances.size()), new HashSet<InstanceIdSeed>()));
+    }
+
+    @Test
+    public void testUpdateMatchesGreedyClustering() {
+        for (int trial = 0; trial < 30; trial++) {
+            Random rng = new Random(trial);
+            int n = 60 + rng.nextInt(60);
+            PointResources res = randomPoints(rng, n);
+            List<InstanceIdSeed> instances = res.prepareInstances();
+            Linkage linkage = LINKAGES[trial % 3];
+            Algorithm_GreedyBottomUp greedy = greedy(res, linkage);
+            Cluster[] clusters = greedy.calculateClustering(instances);
+            // consecutive updates build on the last clustering and its kept linkage
+            for (int update = 0; update < 4; update++) {
+                Set<InstanceIdSeed> changed = new HashSet<InstanceIdSeed>();
+                int numChanged = 1 + rng.nextInt(8);
+                for (int k = 0; k < numChanged; k++) {
+                    InstanceIdSeed idSeed = instances.get(rng.nextInt(n));
+                    changed.add(idSeed);
+                    res.points.put(idSeed, randomPoint(rng));
+                }
+                // the changed instance-seed-pairs are removed from their clusters
+                List<List<InstanceIdSeed>> groups = new ArrayList<List<InstanceIdSeed>>();
+                for (Cluster c : clusters) {
+                    List<InstanceIdSeed> group = new ArrayList<InstanceIdSeed>();
+                    for (InstanceIdSeed idSeed : c.getInstances()) {
+                        if (!changed.contains(idSeed)) group.add(idSeed);
+                    }
+                    if (!group.isEmpty()) groups.add(group);
+                }
+                for (InstanceIdSeed idSeed : changed) {
+                    groups.add(new ArrayList<InstanceIdSeed>(Arrays.asList(idSeed)));
+                }
+                Set<Cluster> expected = closestPairClustering(groups, res, linkage, res.calculateVariance(instances));
+                clusters = greedy.updateClustering(instances, changed);
+                assertEquals(expected, asSet(clusters));
+            }
+        }
+    }
+
+    /**
+     * Merges the two closest groups as long as the merged group's variance is
+     * less than half the variance of all instance-seed-pairs, like the
+     * adaptive variance criterion of Algorithm_GreedyBottomUp.
+     */
+    static Set<Cluster> closestPairClustering(List<List<InstanceIdSeed>> groups, ClusteringResources res,
+            Linkage linkage, double varianceOfAllInstances) {
+        List<List<InstanceIdSeed>> clusters = new ArrayList<List<InstanceIdSeed>>();
+        for (List<InstanceIdSeed> group : groups) clusters.add(new ArrayList<InstanceIdSeed>(group));
+        while (clusters.size() >= 2) {
+            int bestA = -1, bestB = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int a = 0; a < clusters.size(); a++) {
+                for (int b = a + 1; b < clusters.size(); b++) {
+                    double d = linkage(clusters.get(a), clusters.get(b), res, linkage);
+                    if (d < best) {
+                        best = d;
+                        bestA = a;
+                        bestB = b;
+                    }
+                }
+            }
+            List<InstanceIdSeed> merged = new ArrayList<InstanceIdSeed>(clusters.get(bestA));
+            merged.addAll(clusters.get(bestB));
+            if (!(res.calculateVariance(merged) * 2 < varianceOfAllInstances)) break;
+            clusters.set(bestA, merged);
+            clusters.remove(bestB);
+        }
+        Set<Cluster> res2 = new HashSet<Cluster>();
+        for (List<InstanceIdSeed> c : clusters) res2.add(new Cluster(c));
+        return res2;
+    }
+
+    private static double linkage(List<InstanceIdSeed> c1, List<InstanceIdSeed> c2, ClusteringResources res,
+            Linkage linkage) {
+        double min = Double.POSITIVE_INFINITY, max = 0, sum = 0;
+        for (InstanceIdSeed x : c1) {
+            for (InstanceIdSeed y : c2) {
+                double d = res.calculateInstanceDistance(x, y);
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+                sum += d;
+            }
+        }
+        switch (linkage) {
+        case SINGLE:
+            return min;
+        case COMPLETE:
+            return max;
+        default:
+            return sum / c1.size() / c2.size();
+        }
+    }
+
+    /**
+     * The previous implementation of Algorithm_GreedyBottomUp: rescans all
+     * pairs of clusters for the closest one and recalculates the distances of
+     * a merged cluster from its members, with the cluster distances of
+     * Algorithm_CLC and Algorithm_Average.
+     */
+    static class ListBasedGreedy {
+        private final ClusteringResources resources;
+        private final Linkage linkage;
+
+        ListBasedGreedy(ClusteringResources resources, Linkage linkage) {
+            this.resources = resources;
+            this.linkage = linkage;
+        }
+
+        Cluster[] calculateClustering(List<InstanceIdSeed> instances) {
+            double varianceOfAllInstances = resources.calculateVariance(instances);
+            LinkedList<Pair<Cluster, Integer>> clusterList = new LinkedList<Pair<Cluster, Integer>>();
+            int count = 0;
+            for (InstanceIdSeed i : instances) {
+                clusterList.add(new Pair<Cluster, Integer>(new Cluster(i), count));
+                count++;
+            }
+            double[][] distMat = new double[count][count];
+            for (Pair<Cluster, Integer> c1 : clusterList) {
+                for (Pair<Cluster, Integer> c2 : clusterList) {
+                    if (c1.getSecond() >= c2.getSecond()) continue;
+                    set(distMat, c1.getSecond(), c2.getSecond(), clusterDistance(c1.getFirst(), c2.getFirst()));
+                }
+            }
+            while (clusterList.size() >= 2) {
+                Pair<Cluster, Integer> mergeA = null, mergeB = null;
+                double distance = Double.MAX_VALUE;
+                for (Pair<Cluster, Integer> cA : clusterList) {
+                    for (Pair<Cluster, Integer> cB : clusterList) {
+                        if (cA.getSecond() >= cB.getSecond()) continue;
+                        double tmpDist = distMat[cA.getSecond()][cB.getSecond()];
+                        if (tmpDist < distance) {
+                            mergeA = cA;
+                            mergeB = cB;
+                            distance = tmpDist;
+                        }
+                    }
+                }
+                List<InstanceIdSeed> merged = mergeA.getFirst().getInstances();
+                merged.addAll(mergeB.getFirst().getInstances());
+                if (!(resources.calculateVariance(merged) * 2 < varianceOfAllInstances)) break;
+                clusterList.remove(mergeB);
+                mergeA.getFirst().mergeClusters(mergeB.getFirst());
+                for (Pair<Cluster, Integer> cl : clusterList) {
+                    if (cl.getSecond() == mergeA.getSecond()) continue;
+                    set(distMat, mergeA.getSecond(), cl.getSecond(), clusterDistance(mergeA.getFirst(), cl.getFirst()));
+                }
+            }
+            Cluster[] clusters = new Cluster[clusterList.size()];
+            int clusterPos = 0;
+            for (Pair<Cluster, Integer> cl : clusterList) clusters[clusterPos++] = cl.getFirst();
+            return clusters;
+        }
+
+        private double clusterDistance(Cluster c1, Cluster c2) {
+            return linkage(c1.getInstances(), c2.getInstances(), resources, linkage);
+        }
+
+        private static void set(double[][] distMat, int i, int j, double value) {
+            distMat[i][j] = value;
+            distMat[j][i] = value;
+        }
+    }
+
+    static Algorithm_GreedyBottomUp greedy(ClusteringResources res, Linkage linkage) {
+        return new Algorithm_GreedyBottomUp(null, res, null, linkage) {
+            @Override
+            public String getName() {
+                return "GreedyBottomUp";
+            }
+
+            @Override
+            protected void log(String message) {
+            }
+        };
+    }
+
+    static Set<Cluster> asSet(Cluster[] clusters) {
+        return new HashSet<Cluster>(Arrays.asList(clusters));
+    }
+
+    /**
+     * n points in three dimensions around eight centers of different spread.
+     */
+    static PointResources randomPoints(Random rng, int n) {
+        PointResources res = new PointResources();
+        for (int i = 0; i < n; i++) {
+            res.points.put(new InstanceIdSeed(i, rng.nextInt(1000)), randomPoint(rng));
+        }
+        return res;
+    }
+
+    private static double[] randomPoint(Random rng) {
+        int center = rng.nextInt(8);
+        double[] p = new double[3];
+        for (int f = 0; f < p.length; f++) {
+            p[f] = (center >> f & 1) * 4 + rng.nextGaussian() * (0.2 + center * 0.2);
+        }
+        return p;
+    }
+
+    /**
+     * Euclidean distances of points, the variance is the mean squared
+     * distance to the centroid.
+     */
+    static class PointResources extends ClusteringResources {
+        Map<InstanceIdSeed, double[]> points = new HashMap<InstanceIdSeed, double[]>();
+        private List<InstanceIdSeed> instances;
+        int distanceCalculations;
+
+        @Override
+        public boolean recalculateOnNewData() {
+            return false;
+        }
+
+        @Override
+        public List<InstanceIdSeed> prepareInstances() {
+            if (instances == null) instances = new ArrayList<InstanceIdSeed>(points.keySet());
+            return instances;
+        }
+
+        @Override
+        public Cluster[] establishClustering(Cluster[] temporaryClustering) {
+            return temporaryClustering;
+        }
+
+        @Override
+        public double calculateInstanceDistance(InstanceIdSeed i1, InstanceIdSeed i2) {
+            distanceCalculations++;
+            double[] x = points.get(i1), y = points.get(i2);
+            double s = 0;
+            for (int f = 0; f < x.length; f++) s += (x[f] - y[f]) * (x[f] - y[f]);
+            return Math.sqrt(s);
+        }
+
+        @Override
+        public double calculateVariance(List<InstanceIdSeed> instances) {
+            int dims = points.get(instances.get(0)).length;
+            double v = 0;
+            for (int f = 0; f < dims; f++) {
+                double mean = 0;
+                for (InstanceIdSeed i : instances) mean += points.get(i)[f];
+                mean /= instances.size();
+                for (InstanceIdSeed i : instances) v += (points.get(i)[f] - mean) * (points.get(i)[f] - mean);
+            }
+            return v / instances.size();
+        }
+
+        @Override
+        public RefinedData getRefinedData() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return "PointResources";
+        }
+    }
+}
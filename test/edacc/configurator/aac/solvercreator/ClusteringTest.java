@@ -0,0 +1,155 @@
+package edacc.configurator.aac.solvercreator;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks Clustering on small cost matrices whose memberships, distances and
+ * clusters were calculated by hand. With costs t of the s solver
+ * configurations that solved an instance, the membership is
+ * (1.2 max - t) / (1.2 s max - sum), or 1 / s if all costs are equal.
+ */
+public class ClusteringTest {
+    private static final int A = 1, B = 2, C = 3, D = 4, E = 5;
+    private static final int SC1 = 10, SC2 = 20;
+    private static final double INF = Double.POSITIVE_INFINITY;
+    // weighted_alpha is initialized from a float
+    private static final double ALPHA = 1.2f;
+
+    /**
+     * Costs of SC1 and SC2 on A: 1, 3; B: 2, 2.5; C: unsolved, 5;
+     * D: unsolved by both; E: 1, 4.
+     */
+    private static Clustering createClustering() {
+        Clustering c = new Clustering(Arrays.asList(A, B, C, D, E), new HashMap<Integer, float[]>());
+        c.update(SC1, A, 1);
+        c.update(SC2, A, 3);
+        c.update(SC1, B, 2);
+        c.update(SC2, B, 2.5);
+        c.update(SC1, C, INF);
+        c.update(SC2, C, 5);
+        c.update(SC1, D, INF);
+        c.update(SC2, D, INF);
+        c.update(SC1, E, 1);
+        c.update(SC2, E, 4);
+        return c;
+    }
+
+    @Test
+    public void testMemberships() {
+        Clustering c = createClustering();
+        assertEquals((3 * ALPHA - 1) / (6 * ALPHA - 4), c.getMembership(SC1, A), 1e-12);
+        assertEquals((3 * ALPHA - 3) / (6 * ALPHA - 4), c.getMembership(SC2, A), 1e-12);
+        assertEquals((2.5 * ALPHA - 2) / (5 * ALPHA - 4.5), c.getMembership(SC1, B), 1e-12);
+        assertEquals(0, c.getMembership(SC1, C), 0);
+        assertEquals(1, c.getMembership(SC2, C), 0);
+        assertEquals(0, c.getMembership(SC1, D), 0);
+        assertEquals(0, c.getMembership(SC2, D), 0);
+        assertEquals((3 * ALPHA - 1) / (6 * ALPHA - 4), c.getMaximumMembership(A), 1e-12);
+        for (int instance : new int[] { A, B, C, E }) {
+            assertEquals(1, c.getMembership(SC1, instance) + c.getMembership(SC2, instance), 1e-12);
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(D)), c.getNotUsedInstances());
+        double weight = 0;
+        for (int instance : new int[] { A, B, C, D, E }) weight += c.getMembership(SC1, instance);
+        assertEquals(weight, c.getWeight(SC1), 1e-12);
+        // unknown solver configurations and instances
+        assertEquals(0, c.getMembership(30, A), 0);
+        assertEquals(0, c.getMembership(SC1, 99), 0);
+    }
+
+    @Test
+    public void testEqualCosts() {
+        Clustering c = new Clustering(Arrays.asList(A), new HashMap<Integer, float[]>());
+        c.update(SC1, A, 2);
+        c.update(SC2, A, 2);
+        c.update(30, A, INF);
+        assertEquals(0.5, c.getMembership(SC1, A), 0);
+        assertEquals(0.5, c.getMembership(SC2, A), 0);
+        assertEquals(0, c.getMembership(30, A), 0);
+    }
+
+    @Test
+    public void testCosts() {
+        Clustering c = createClustering();
+        assertEquals(2.5, c.getCost(SC2, B), 0);
+        assertEquals(INF, c.getCost(SC1, C), 0);
+        assertEquals(1, c.getMinimumCost(A), 0);
+        assertEquals(5, c.getMinimumCost(C), 0);
+        assertEquals(INF, c.getMinimumCost(D), 0);
+        assertEquals(INF, c.getCost(30, A), 0);
+        // a solver configuration without a cost on an instance
+        c.update(30, A, 0.5);
+        assertTrue(Double.isNaN(c.getCost(30, B)));
+        assertEquals(0.5, c.getMinimumCost(A), 0);
+        assertEquals(Arrays.asList(30), c.getBestSCsOnInstance(A, 1.5f));
+        assertEquals(new HashSet<Integer>(Arrays.asList(SC1, 30)), new HashSet<Integer>(c.getBestSCsOnInstance(A, 2.5f)));
+        // removing moves the last row into the freed one
+        c.remove(SC1);
+        assertFalse(c.contains(SC1));
+        assertEquals(0.5, c.getCost(30, A), 0);
+        assertEquals(5, c.getCost(SC2, C), 0);
+        assertEquals(1, c.getMembership(SC2, E), 0);
+        assertEquals(0.5, c.getMinimumCost(A), 0);
+        assertEquals(2.5, c.getMinimumCost(B), 0);
+    }
+
+    @Test
+    public void testDistance() {
+        Clustering c = createClustering();
+        // SC1 is the best solver configuration of A, B and E
+        assertEquals(0, c.getDistance(A, B), 0);
+        assertEquals(0, c.getDistance(A, E), 0);
+        assertEquals(0, c.getDistance(A, A), 0);
+        // SC1 of A has no membership for C (2), SC2 of C is second for A (1)
+        assertEquals(1.5, c.getDistance(A, C), 0);
+        int[] instances = { A, B, C, D, E };
+        for (int i1 : instances) {
+            for (int i2 : instances) {
+                assertEquals(c.getDistance(i1, i2), c.getDistance(i2, i1), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testBestConfigurationForCluster() {
+        Clustering c = createClustering();
+        assertEquals(SC1, c.getBestConfigurationForCluster(Arrays.asList(A, B, E)));
+        // SC1 did not solve C
+        assertEquals(SC2, c.getBestConfigurationForCluster(Arrays.asList(A, C)));
+        assertEquals(-1, c.getBestConfigurationForCluster(Arrays.asList(D)));
+        assertEquals(4, c.getCost(SC1, Arrays.asList(A, B, E)), 0);
+        assertEquals(INF, c.getCost(SC1, Arrays.asList(A, C)), 0);
+    }
+
+    @Test
+    public void testClusteringHierarchical() {
+        Clustering c = createClustering();
+        for (Clustering.HierarchicalClusterMethod method : new Clustering.HierarchicalClusterMethod[] {
+                Clustering.HierarchicalClusterMethod.SINGLE_LINKAGE, Clustering.HierarchicalClusterMethod.COMPLETE_LINKAGE,
+                Clustering.HierarchicalClusterMethod.AVERAGE_LINKAGE }) {
+            // D is not used by any solver configuration
+            Map<Integer, List<Integer>> clustering = c.getClusteringHierarchical(method, 2);
+            assertEquals(2, clustering.size());
+            assertEquals(new HashSet<Integer>(Arrays.asList(A, B, E)), new HashSet<Integer>(clustering.get(SC1)));
+            assertEquals(Arrays.asList(C), clustering.get(SC2));
+
+            clustering = c.getClusteringHierarchical(method, 1);
+            assertEquals(1, clustering.size());
+            assertEquals(new HashSet<Integer>(Arrays.asList(A, B, C, E)), new HashSet<Integer>(clustering.get(SC2)));
+
+            // clusters with the same best solver configuration are joined
+            clustering = c.getClusteringHierarchical(method, 4);
+            assertEquals(2, clustering.size());
+            assertEquals(3, clustering.get(SC1).size());
+            assertEquals(1, clustering.get(SC2).size());
+        }
+    }
+}
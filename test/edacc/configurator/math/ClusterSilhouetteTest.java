@@ -0,0 +1,81 @@
+package edacc.configurator.math;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ClusterSilhouetteTest {
+    /**
+     * Three pairs of close points: the silhouette is largest for 3 clusters.
+     */
+    @Test
+    public void testThreePairs() throws Exception {
+        double[][] X = new double[][] { { 0 }, { 1 }, { 10 }, { 11 }, { 20 }, { 21 } };
+        ClusterSilhouette cs = new ClusterSilhouette(6, 1, X);
+        assertEquals(3, cs.findNumberOfClusters(10));
+        assertArrayEquals(new int[] { 1, 1, 2, 2, 3, 3 }, cs.clusterData(3));
+        // only k < maxK is considered
+        assertEquals(2, new ClusterSilhouette(6, 1, X).findNumberOfClusters(3));
+    }
+
+    /**
+     * The split-by-split silhouettes choose the same number of clusters as
+     * the silhouettes computed from scratch for every cut of the complete
+     * linkage dendrogram.
+     */
+    @Test
+    public void testAgainstBruteForce() throws Exception {
+        for (int trial = 0; trial < 20; trial++) {
+            Random rng = new Random(trial);
+            int n = 3 + rng.nextInt(60), c = 1 + rng.nextInt(3);
+            double[][] X = new double[n][c];
+            for (int i = 0; i < n; i++) {
+                // a few blobs
+                int blob = rng.nextInt(4);
+                for (int f = 0; f < c; f++) X[i][f] = blob * 3 + rng.nextGaussian();
+            }
+            int maxK = 2 + rng.nextInt(n + 2);
+            double[] dist = HierarchicalClustering.euclideanDistances(X, 1);
+            HierarchicalClustering hc = new HierarchicalClustering(n, dist);
+            double maxSil = 0;
+            int bestK = 2;
+            for (int k = 2; k < maxK && k < n; k++) {
+                double sil = averageSilhouette(n, dist, hc.cutree(k), k);
+                if (sil > maxSil) {
+                    maxSil = sil;
+                    bestK = k;
+                }
+            }
+            ClusterSilhouette cs = new ClusterSilhouette(n, c, X);
+            assertEquals(bestK, cs.findNumberOfClusters(maxK));
+            assertArrayEquals(hc.cutree(bestK), cs.clusterData(bestK));
+        }
+    }
+
+    /**
+     * The average silhouette width as defined by R's <code>silhouette</code>,
+     * singletons have width 0.
+     */
+    private static double averageSilhouette(int n, double[] dist, int[] labels, int k) {
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            double[] sum = new double[k + 1];
+            int[] size = new int[k + 1];
+            for (int j = 0; j < n; j++) {
+                size[labels[j]]++;
+                if (j != i) sum[labels[j]] += dist[HierarchicalClustering.index(n, i, j)];
+            }
+            int own = labels[i];
+            if (size[own] == 1) continue;
+            double a = sum[own] / (size[own] - 1);
+            double b = Double.POSITIVE_INFINITY;
+            for (int l = 1; l <= k; l++) {
+                if (l != own) b = Math.min(b, sum[l] / size[l]);
+            }
+            total += (b - a) / Math.max(a, b);
+        }
+        return total / n;
+    }
+}
@@ -0,0 +1,205 @@
+package edacc.configurator.math;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class HierarchicalClusteringTest {
+    /** the points 0, 1, 3 and 7 on a line */
+    private static final double[][] LINE = new double[][] { { 0 }, { 1 }, { 3 }, { 7 } };
+
+    /**
+     * Merge heights of the points 0, 1, 3, 7 as given by R's
+     * <code>hclust</code> with method single, complete and average; the sum
+     * over sizes linkage halves the distances of single objects.
+     */
+    @Test
+    public void testHeights() throws Exception {
+        double[] dist = HierarchicalClustering.euclideanDistances(LINE, 1);
+        assertArrayEquals(new double[] { 1, 3, 7, 2, 6, 4 }, dist, 0.0);
+        assertArrayEquals(new double[] { 1, 2, 4 }, heights(dist, HierarchicalClustering.Linkage.SINGLE), 1e-12);
+        assertArrayEquals(new double[] { 1, 3, 7 }, heights(dist, HierarchicalClustering.Linkage.COMPLETE), 1e-12);
+        assertArrayEquals(new double[] { 1, 2.5, 17 / 3. }, heights(dist, HierarchicalClustering.Linkage.AVERAGE), 1e-12);
+        assertArrayEquals(new double[] { 0.5, 5 / 3., 17 / 4. }, heights(dist, HierarchicalClustering.Linkage.SUM_OVER_SIZES), 1e-12);
+        // the input is not modified unless overwrite is set
+        assertArrayEquals(new double[] { 1, 3, 7, 2, 6, 4 }, dist, 0.0);
+    }
+
+    /**
+     * The clusters of <code>cutree</code> are numbered in the order of their
+     * first object, as in R.
+     */
+    @Test
+    public void testCutree() throws Exception {
+        HierarchicalClustering hc = new HierarchicalClustering(4, HierarchicalClustering.euclideanDistances(LINE, 1));
+        assertArrayEquals(new int[] { 1, 1, 1, 1 }, hc.cutree(1));
+        assertArrayEquals(new int[] { 1, 1, 1, 2 }, hc.cutree(2));
+        assertArrayEquals(new int[] { 1, 1, 2, 3 }, hc.cutree(3));
+        assertArrayEquals(new int[] { 1, 2, 3, 4 }, hc.cutree(4));
+        // the points 7, 0, 3, 1
+        double[][] shuffled = new double[][] { LINE[3], LINE[0], LINE[2], LINE[1] };
+        hc = new HierarchicalClustering(4, HierarchicalClustering.euclideanDistances(shuffled, 1));
+        assertArrayEquals(new int[] { 1, 2, 2, 2 }, hc.cutree(2));
+        assertArrayEquals(new int[] { 1, 2, 3, 2 }, hc.cutree(3));
+    }
+
+    /**
+     * All linkages give the same clusters and heights as the naive greedy
+     * clustering, which merges the pair of clusters with the smallest
+     * linkage computed from the distances of their objects.
+     */
+    @Test
+    public void testLinkagesAgainstGreedy() throws Exception {
+        for (HierarchicalClustering.Linkage linkage : HierarchicalClustering.Linkage.values()) {
+            for (int trial = 0; trial < 10; trial++) {
+                Random rng = new Random(trial);
+                int n = 2 + rng.nextInt(30);
+                double[] dist = HierarchicalClustering.euclideanDistances(randomPoints(rng, n, 2), 1);
+                HierarchicalClustering hc = new HierarchicalClustering(n, dist, linkage, false);
+                double[] heights = new double[n - 1];
+                for (int k = n - 1; k >= 1; k--) {
+                    assertEquals(greedy(n, dist, k, linkage, heights), partition(hc.cutree(k)));
+                }
+                assertArrayEquals(heights, hc.getHeights(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelDistances() throws Exception {
+        double[][] X = randomPoints(new Random(7), 700, 4);
+        assertArrayEquals(HierarchicalClustering.euclideanDistances(X, 1), HierarchicalClustering.euclideanDistances(X, 4), 0.0);
+    }
+
+
+    /**
+     * The sum over sizes linkage gives the same clusters as the greedy
+     * clustering of the solvercreator, which merges the clusters with the
+     * smallest sum of distances divided by the sum of their sizes.
+     */
+    @Test
+    public void testSumOverSizesLinkage() throws Exception {
+        for (int trial = 0; trial < 20; trial++) {
+            Random rng = new Random(trial);
+            int n = 5 + rng.nextInt(40);
+            double[][] X = randomPoints(rng, n, 3);
+            double[] dist = HierarchicalClustering.euclideanDistances(X, 1);
+            HierarchicalClustering hc = new HierarchicalClustering(n, dist, HierarchicalClustering.Linkage.SUM_OVER_SIZES, false);
+            for (int k = 1; k <= n; k++) {
+                assertEquals(greedySumOverSizes(n, dist, k), partition(hc.cutree(k)));
+            }
+        }
+    }
+
+    private static double[][] randomPoints(Random rng, int n, int dim) {
+        double[][] X = new double[n][dim];
+        for (int i = 0; i < n; i++) {
+            for (int f = 0; f < dim; f++) X[i][f] = rng.nextDouble();
+        }
+        return X;
+    }
+
+    private static Set<Set<Integer>> greedySumOverSizes(int n, double[] dist, int k) {
+        List<List<Integer>> c = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> cluster = new ArrayList<Integer>();
+            cluster.add(i);
+            c.add(cluster);
+        }
+        while (c.size() > k) {
+            int m1 = -1, m2 = -1;
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < c.size(); i++) {
+                for (int j = i + 1; j < c.size(); j++) {
+                    double sum = 0;
+                    for (int a : c.get(i)) {
+                        for (int b : c.get(j)) sum += dist[HierarchicalClustering.index(n, a, b)];
+                    }
+                    double linkage = sum / (c.get(i).size() + c.get(j).size());
+                    if (linkage < best) {
+                        best = linkage;
+                        m1 = i;
+                        m2 = j;
+                    }
+                }
+            }
+            c.get(m1).addAll(c.remove(m2));
+        }
+        Set<Set<Integer>> res = new HashSet<Set<Integer>>();
+        for (List<Integer> cluster : c) res.add(new HashSet<Integer>(cluster));
+        return res;
+    }
+
+    private static double[] heights(double[] dist, HierarchicalClustering.Linkage linkage) {
+        return new HierarchicalClustering(4, dist, linkage, false).getHeights();
+    }
+
+    /**
+     * Greedily merges the n objects into k clusters and stores the height of
+     * the last merge at heights[n - k - 1].
+     */
+    private static Set<Set<Integer>> greedy(int n, double[] dist, int k, HierarchicalClustering.Linkage linkage, double[] heights) {
+        List<List<Integer>> c = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> cluster = new ArrayList<Integer>();
+            cluster.add(i);
+            c.add(cluster);
+        }
+        while (c.size() > k) {
+            int m1 = -1, m2 = -1;
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < c.size(); i++) {
+                for (int j = i + 1; j < c.size(); j++) {
+                    double value = linkage(n, dist, c.get(i), c.get(j), linkage);
+                    if (value < best) {
+                        best = value;
+                        m1 = i;
+                        m2 = j;
+                    }
+                }
+            }
+            heights[n - c.size()] = best;
+            c.get(m1).addAll(c.remove(m2));
+        }
+        Set<Set<Integer>> res = new HashSet<Set<Integer>>();
+        for (List<Integer> cluster : c) res.add(new HashSet<Integer>(cluster));
+        return res;
+    }
+
+    private static double linkage(int n, double[] dist, List<Integer> a, List<Integer> b, HierarchicalClustering.Linkage linkage) {
+        double min = Double.MAX_VALUE, max = 0, sum = 0;
+        for (int i : a) {
+            for (int j : b) {
+                double d = dist[HierarchicalClustering.index(n, i, j)];
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+                sum += d;
+            }
+        }
+        switch (linkage) {
+        case SINGLE:
+            return min;
+        case COMPLETE:
+            return max;
+        case AVERAGE:
+            return sum / (a.size() * b.size());
+        default:
+            return sum / (a.size() + b.size());
+        }
+    }
+
+    private static Set<Set<Integer>> partition(int[] labels) {
+        List<Set<Integer>> clusters = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < labels.length; i++) {
+            while (clusters.size() < labels[i]) clusters.add(new HashSet<Integer>());
+            clusters.get(labels[i] - 1).add(i);
+        }
+        return new HashSet<Set<Integer>>(clusters);
+    }
+}
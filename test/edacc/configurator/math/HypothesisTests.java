@@ -2,7 +2,11 @@ package edacc.configurator.math;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
 import org.junit.Test;
 import org.rosuda.JRI.REXP;
 import org.rosuda.JRI.Rengine;
@@ -28,6 +32,73 @@ public class HypothesisTests {
         assertFalse(ft.isFamilyTestSignificant(ft.familyTestStatistic(), 0.005));
     }
     
+    @Test
+    public void testFriedmanTestIncremental() throws MathException {
+        Random rng = new Random(7);
+        int n = 40, c = 6;
+        double[][] data = randomBlocks(rng, n, c);
+        // adding the blocks one at a time matches the batch test on every prefix
+        FriedmanTest incremental = new FriedmanTest(c);
+        for (int i = 0; i < n; i++) {
+            incremental.addBlock(data[i]);
+            FriedmanTest batch = new FriedmanTest(i + 1, c, Arrays.copyOf(data, i + 1));
+            assertSameFriedmanTest(batch, incremental);
+        }
+    }
+
+    @Test
+    public void testFriedmanTestRemoveTreatment() throws MathException {
+        Random rng = new Random(11);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 10 + rng.nextInt(30), c = 3 + rng.nextInt(6);
+            double[][] data = randomBlocks(rng, n, c);
+            FriedmanTest ft = new FriedmanTest(n, c, data);
+            // remove treatments until two are left, blocks that were only
+            // incomplete because of a removed treatment are ranked again
+            while (ft.getNumTreatments() > 2) {
+                int removed = rng.nextInt(ft.getNumTreatments());
+                ft.removeTreatment(removed);
+                double[][] reduced = new double[n][];
+                for (int i = 0; i < n; i++) {
+                    reduced[i] = new double[data[i].length - 1];
+                    for (int j = 0, h = 0; j < data[i].length; j++) {
+                        if (j != removed) reduced[i][h++] = data[i][j];
+                    }
+                }
+                data = reduced;
+                assertSameFriedmanTest(new FriedmanTest(n, data[0].length, data), ft);
+            }
+        }
+    }
+
+    /**
+     * Returns n blocks of c observations with many ties, about every tenth
+     * observation is missing.
+     */
+    private static double[][] randomBlocks(Random rng, int n, int c) {
+        double[][] data = new double[n][c];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < c; j++) {
+                data[i][j] = rng.nextInt(10) == 0 ? Double.NaN : rng.nextInt(4);
+            }
+        }
+        return data;
+    }
+
+    private static void assertSameFriedmanTest(FriedmanTest expected, FriedmanTest actual) throws MathException {
+        assertEquals(expected.getNumBlocks(), actual.getNumBlocks());
+        assertEquals(expected.getNumTreatments(), actual.getNumTreatments());
+        for (int j = 0; j < expected.getNumTreatments(); j++) {
+            assertEquals(expected.getRankSum(j), actual.getRankSum(j), 1e-9);
+        }
+        double T = expected.familyTestStatistic();
+        assertEquals(T, actual.familyTestStatistic(), 1e-9 * Math.max(1, Math.abs(T)));
+        if (expected.getNumBlocks() > 1 && !Double.isNaN(T)) {
+            double cd = expected.postHocCriticalDifference(T, 0.05);
+            assertEquals(cd, actual.postHocCriticalDifference(actual.familyTestStatistic(), 0.05), 1e-9 * Math.max(1, cd));
+        }
+    }
+
     @Test
     public void testLogrankTest() throws Exception {
         Rengine rengine = new Rengine(new String[] { "--vanilla" }, false, null);;
@@ -48,6 +119,43 @@ public class HypothesisTests {
         rengine.end();
     }
     
+    @Test
+    public void testNativeLogrankTest() throws MathException {
+        // survival's aml data set: survdiff(Surv(time, status) ~ x, data = aml)
+        // gives Chisq = 3.4 on 1 degree of freedom, p = 0.0653
+        double[] maintained = new double[] { 9, 13, 13, 18, 23, 28, 31, 34, 45, 48, 161, Double.NaN };
+        boolean[] maintainedCensored = new boolean[] { false, false, true, false, false, true, false, false, true,
+                false, true, false };
+        double[] nonmaintained = new double[] { 5, 5, 8, 8, 12, 16, 23, 27, 30, 33, 43, 45 };
+        boolean[] nonmaintainedCensored = new boolean[] { false, false, false, false, false, true, false, false,
+                false, false, false, false };
+        LogrankTest lr = new LogrankTest();
+        assertEquals(0.0653, lr.pValue(maintained, nonmaintained, maintainedCensored, nonmaintainedCensored), 5e-5);
+        assertEquals(0.0653, lr.pValue(nonmaintained, maintained, nonmaintainedCensored, maintainedCensored), 5e-5);
+    }
+    
+    @Test
+    public void testNativeSMTestEqualsFriedmanTest() throws MathException {
+        // without missing values and ties Skillings-Mack reduces to Friedman
+        Random rng = new Random(17);
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 3 + rng.nextInt(20), c = 2 + rng.nextInt(6);
+            double[][] data = new double[n][c];
+            Double[][] boxed = new Double[n][c];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < c; j++) {
+                    data[i][j] = rng.nextDouble();
+                    boxed[i][j] = data[i][j];
+                }
+            }
+            double friedman = new FriedmanTest(n, c, data).familyTestStatistic();
+            SMTest sm = new SMTest(n, c, boxed);
+            assertEquals(friedman, sm.statistic(), 1e-9 * Math.max(1, friedman));
+            double p = 1 - new ChiSquaredDistributionImpl(c - 1).cumulativeProbability(friedman);
+            assertEquals(p, sm.pValue(), 1e-9);
+        }
+    }
+    
     @Test
     public void testSMTest() throws Exception {
         // testing ...
@@ -0,0 +1,101 @@
+package edacc.configurator.math;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PCATest {
+    /**
+     * With u = (-1, -1, 1, 1) and v = (-1, 1, -1, 1) the columns u, 5, v and
+     * 2u + 3 standardize to s*u, s*v and s*u with s = sqrt(3) / 2, the
+     * constant column is dropped. The correlation matrix has the eigenvalues
+     * 2, 1 and 0 with the axes (1, 0, 1) / sqrt(2), (0, 1, 0) and
+     * (1, 0, -1) / sqrt(2), so the components are u * sqrt(3/2), v * s and 0.
+     */
+    @Test
+    public void testHandComputed() throws Exception {
+        double[][] data = new double[][] {
+                { -1, 5, -1, 1 },
+                { -1, 5, 1, 1 },
+                { 1, 5, -1, 5 },
+                { 1, 5, 1, 5 },
+                };
+        double s = Math.sqrt(3) / 2, t = Math.sqrt(1.5);
+        double[][] pcs = new PCA().transform(4, 4, data, 2);
+        double[][] expected = new double[][] { { -t, -s }, { -t, s }, { t, -s }, { t, s } };
+        for (int i = 0; i < 4; i++) assertArrayEquals(expected[i], pcs[i], 1e-12);
+
+        // at most as many components as non-constant columns
+        pcs = new PCA().transform(4, 4, data, 10);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(3, pcs[i].length);
+            assertArrayEquals(expected[i], new double[] { pcs[i][0], pcs[i][1] }, 1e-12);
+            assertEquals(0, pcs[i][2], 1e-12);
+        }
+    }
+
+    /**
+     * The components are ordered by decreasing variance, and the signs are
+     * determined by the loadings: negating the data negates the components,
+     * while the sign of a column with a small loading does not matter.
+     */
+    @Test
+    public void testOrderAndSigns() throws Exception {
+        Random rng = new Random(1);
+        int r = 200, c = 5;
+        double[][] data = new double[r][c];
+        double[][] negated = new double[r][c];
+        for (int i = 0; i < r; i++) {
+            double z = rng.nextGaussian();
+            for (int j = 0; j < c; j++) {
+                // the first three columns are strongly correlated
+                data[i][j] = (j < 3 ? 3 * z : 0) + rng.nextGaussian() * (j + 1);
+                negated[i][j] = -data[i][j];
+            }
+        }
+        double[][] pcs = new PCA().transform(r, c, data, c);
+        double[] variance = new double[c];
+        for (int i = 0; i < r; i++) {
+            for (int p = 0; p < c; p++) variance[p] += pcs[i][p] * pcs[i][p] / (r - 1);
+        }
+        for (int p = 1; p < c; p++) assertTrue(variance[p - 1] >= variance[p]);
+        double total = 0;
+        for (int p = 0; p < c; p++) total += variance[p];
+        // the trace of the correlation matrix
+        assertEquals(c, total, 1e-9);
+        // the first component grows with the correlated columns
+        double cov = 0;
+        for (int i = 0; i < r; i++) cov += pcs[i][0] * (data[i][0] + data[i][1] + data[i][2]);
+        assertTrue(cov > 0);
+
+        double[][] negatedPcs = new PCA().transform(r, c, negated, c);
+        for (int i = 0; i < r; i++) {
+            for (int p = 0; p < c; p++) assertEquals(-pcs[i][p], negatedPcs[i][p], 1e-9);
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        Random rng = new Random(2);
+        int r = 5000, c = 6;
+        double[][] data = new double[r][c];
+        for (int i = 0; i < r; i++) {
+            for (int j = 0; j < c; j++) data[i][j] = rng.nextDouble() * (j + 1) + (j > 0 ? data[i][j - 1] : 0);
+        }
+        PCA sequential = new PCA();
+        sequential.setNumThreads(1);
+        PCA parallel = new PCA();
+        parallel.setNumThreads(4);
+        double[][] a = sequential.transform(r, c, data, 3);
+        double[][] b = parallel.transform(r, c, data, 3);
+        for (int i = 0; i < r; i++) assertArrayEquals(a[i], b[i], 1e-9);
+    }
+
+    @Test
+    public void testSingleRow() throws Exception {
+        double[][] data = new double[][] { { 1, 2, 3 } };
+        assertTrue(new PCA().transform(1, 3, data, 2) == data);
+    }
+}
@@ -0,0 +1,261 @@
+package edacc.configurator.math;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.commons.math.stat.ranking.NaNStrategy;
+import org.apache.commons.math.stat.ranking.NaturalRanking;
+import org.apache.commons.math.stat.ranking.TiesStrategy;
+import org.junit.Test;
+
+/**
+ * Compares RankTransformationTest with the previous implementation, which
+ * computed the logrank scores with a triple loop, and with exact rational
+ * scores.
+ */
+public class RankTransformationTests {
+
+    @Test
+    public void testTiedScores() throws Exception {
+        // the censored 0 has score 2/3, the uncensored 3 has score 5/3 - 1
+        double[][] data = new double[][] {
+                { 0, 0, 3, 0 },
+                { 1, 2, 3, 4 },
+                { 0, 0, 3, 0 },
+                };
+        boolean[][] censored = new boolean[][] {
+                { false, true, false, false },
+                { false, false, true, false },
+                { false, true, false, false },
+                };
+        RankTransformationTest rt = new RankTransformationTest(3, 4, data, censored);
+        assertEquals(exactStatistic(3, 4, data, censored), rt.familyTestStatistic(), 1e-12);
+    }
+
+    @Test
+    public void testTied() {
+        assertTrue(RankTransformationTest.tied(2 / 3., 5 / 3. - 1, 4));
+        assertTrue(RankTransformationTest.tied(7 / 6., 13 / 6. - 1, 8));
+        // distinct scores are far apart relative to their magnitude
+        assertFalse(RankTransformationTest.tied(0.5, 0.5 + 1e-12, 4));
+        assertFalse(RankTransformationTest.tied(-0.75, -0.75 + 1e-12, 1000));
+    }
+
+    @Test
+    public void testExactScores() throws Exception {
+        Random rng = new Random(3);
+        for (int trial = 0; trial < 500; trial++) {
+            int n = 2 + rng.nextInt(10), c = 2 + rng.nextInt(7);
+            double[][] data = new double[n][c];
+            boolean[][] censored = new boolean[n][c];
+            randomCourse(rng, data, censored, 4, true);
+            double expected = exactStatistic(n, c, data, censored);
+            double actual = new RankTransformationTest(n, c, data, censored).familyTestStatistic();
+            assertEquals(expected, actual, 1e-12 * Math.max(1, Math.abs(expected)));
+        }
+    }
+
+    @Test
+    public void testEquivalenceWithOldImplementation() throws Exception {
+        Random rng = new Random(5);
+        for (int trial = 0; trial < 2000; trial++) {
+            int n = 2 + rng.nextInt(20), c = 2 + rng.nextInt(20);
+            double[][] data = new double[n][c];
+            boolean[][] censored = new boolean[n][c];
+            randomCourse(rng, data, censored, 1 + rng.nextInt(6), true);
+            double expected = oldStatistic(n, c, data, censored);
+            double actual = new RankTransformationTest(n, c, data, censored).familyTestStatistic();
+            assertEquals(expected, actual, 1e-12 * Math.max(1, Math.abs(expected)));
+        }
+    }
+
+    /**
+     * Fills the course with integer runtimes below <code>maxValue</code>,
+     * which gives many ties for small values, a third of them censored and
+     * optionally some missing values.
+     */
+    private static void randomCourse(Random rng, double[][] data, boolean[][] censored, int maxValue, boolean missing) {
+        for (int j = 0; j < data.length; j++) {
+            for (int i = 0; i < data[j].length; i++) {
+                data[j][i] = missing && rng.nextInt(50) == 0 ? Double.NaN : rng.nextInt(maxValue);
+                censored[j][i] = rng.nextInt(3) == 0;
+            }
+        }
+    }
+
+    /**
+     * The statistic as calculated by the previous implementation: logrank
+     * scores by a triple loop summing the hazard terms in index order. The
+     * old implementation then ranked the scores exactly, which split
+     * mathematically tied scores by rounding noise, so they are ranked with
+     * the tolerance of the new implementation here.
+     */
+    private static double oldStatistic(int n, int c, double[][] data, boolean[][] censored) {
+        // transpose matrices, skipping rows with missing values
+        int numBlocks = 0;
+        boolean[] missingRow = new boolean[n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < c; i++) {
+                if (Double.isNaN(data[j][i])) missingRow[j] = true;
+            }
+            if (!missingRow[j]) numBlocks++;
+        }
+        if (numBlocks == 0) return 0;
+        double[][] tData = new double[c][numBlocks];
+        boolean[][] tCensored = new boolean[c][numBlocks];
+        for (int j = 0, b = 0; j < n; j++) {
+            if (missingRow[j]) continue;
+            for (int i = 0; i < c; i++) {
+                tData[i][b] = data[j][i];
+                tCensored[i][b] = censored[j][i];
+            }
+            b++;
+        }
+
+        NaturalRanking ranking = new NaturalRanking(NaNStrategy.MAXIMAL, TiesStrategy.AVERAGE);
+        double[][] ranks = new double[c][numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            double[] col = new double[c];
+            for (int i = 0; i < c; i++) col[i] = tData[i][b];
+            double[] r = ranking.rank(col);
+            for (int i = 0; i < c; i++) ranks[i][b] = r[i];
+        }
+        double[] scores = new double[c * numBlocks];
+        int ix = 0;
+        for (int i = 0; i < c; i++) {
+            for (int b = 0; b < numBlocks; b++) {
+                double score = 0;
+                for (int a = 0; a < c; a++) {
+                    score += (tData[i][b] >= tData[a][b] ? 1 : 0) * (tCensored[a][b] ? 0 : 1) / (double) (c + 1 - ranks[a][b]);
+                }
+                scores[ix++] = score - (tCensored[i][b] ? 0 : 1);
+            }
+        }
+        return statistic(c, numBlocks, tolerantRanks(scores, c));
+    }
+
+    /**
+     * Ranks the scores of blocks of <code>len</code> values with average
+     * ranks for ties, scores that are <code>tied()</code> with the smallest
+     * score of their group are tied.
+     */
+    private static double[] tolerantRanks(final double[] values, int len) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(values[o1], values[o2]);
+            }
+        });
+        double[] ranks = new double[values.length];
+        for (int p = 0; p < order.length;) {
+            int q = p + 1;
+            while (q < order.length && RankTransformationTest.tied(values[order[p]], values[order[q]], len)) q++;
+            for (int u = p; u < q; u++) ranks[order[u]] = (p + q + 1) / 2.0;
+            p = q;
+        }
+        return ranks;
+    }
+
+    /**
+     * The statistic of the old implementation on the overall ranks of the
+     * scores, which are ordered by configuration, then by block.
+     */
+    private static double statistic(int n, int c, double[] overallRanks) {
+        int N = n * c;
+        double sum1 = 0, sum2 = 0, sum3 = 0;
+        for (int i = 0; i < n; i++) {
+            double innersum = 0;
+            for (int j = 0; j < c; j++) {
+                double r = overallRanks[i * c + j];
+                innersum += r;
+                sum2 += r;
+                sum3 += r * r;
+            }
+            sum1 += innersum * innersum;
+        }
+        double RT = (1.0 / c * sum1 - sum2 * sum2 / N) / (n - 1);
+        RT /= (sum3 - sum2 * sum2 / N) / (N - n - c + 1);
+        return RT;
+    }
+
+    /**
+     * The statistic on exact rational logrank scores.
+     */
+    private static double exactStatistic(int n, int c, double[][] data, boolean[][] censored) {
+        NaturalRanking ranking = new NaturalRanking(NaNStrategy.MAXIMAL, TiesStrategy.AVERAGE);
+        int numBlocks = 0;
+        Fraction[][] scores = new Fraction[n][];
+        for (int j = 0; j < n; j++) {
+            boolean missing = false;
+            for (int i = 0; i < c; i++) missing |= Double.isNaN(data[j][i]);
+            if (missing) continue;
+            numBlocks++;
+            double[] ranks = ranking.rank(data[j]);
+            scores[j] = new Fraction[c];
+            for (int i = 0; i < c; i++) {
+                Fraction score = new Fraction(censored[j][i] ? 0 : -1, 1);
+                for (int a = 0; a < c; a++) {
+                    if (!censored[j][a] && data[j][i] >= data[j][a]) {
+                        // ranks are multiples of 1/2
+                        score = score.add(new Fraction(2, 2 * (c + 1) - (long) (2 * ranks[a])));
+                    }
+                }
+                scores[j][i] = score;
+            }
+        }
+        if (numBlocks == 0) return 0;
+        final Fraction[] all = new Fraction[c * numBlocks];
+        for (int i = 0, ix = 0; i < c; i++) {
+            for (int j = 0; j < n; j++) {
+                if (scores[j] != null) all[ix++] = scores[j][i];
+            }
+        }
+        Integer[] order = new Integer[all.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return all[o1].compareTo(all[o2]);
+            }
+        });
+        double[] ranks = new double[all.length];
+        for (int p = 0; p < order.length;) {
+            int q = p + 1;
+            while (q < order.length && all[order[q]].compareTo(all[order[p]]) == 0) q++;
+            for (int u = p; u < q; u++) ranks[order[u]] = (p + q + 1) / 2.0;
+            p = q;
+        }
+        return statistic(c, numBlocks, ranks);
+    }
+
+    private static final class Fraction implements Comparable<Fraction> {
+        private final BigInteger num, den;
+
+        Fraction(long num, long den) {
+            this(BigInteger.valueOf(num), BigInteger.valueOf(den));
+        }
+
+        Fraction(BigInteger num, BigInteger den) {
+            BigInteger gcd = num.gcd(den);
+            if (gcd.signum() == 0) gcd = BigInteger.ONE;
+            this.num = num.divide(gcd);
+            this.den = den.divide(gcd);
+        }
+
+        Fraction add(Fraction o) {
+            return new Fraction(num.multiply(o.den).add(o.num.multiply(den)), den.multiply(o.den));
+        }
+
+        @Override
+        public int compareTo(Fraction o) {
+            // denominators are positive
+            return num.multiply(o.den).compareTo(o.num.multiply(den));
+        }
+    }
+}
@@ -2,6 +2,14 @@ package edacc.configurator.math;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class SamplingSequenceTest {
@@ -15,4 +23,171 @@ public class SamplingSequenceTest {
             assertFalse(data[i][0] == Double.NaN || data[i][1] == Double.NaN);
         }
     }
+
+    @Test
+    public void testNativeSamplingSequence() throws Exception {
+        SamplingSequence s = new SamplingSequence();
+        double[][] data = s.getSequence(3, 1023);
+        assertTrue(data.length == 1023);
+        // together with the origin, each dimension is stratified into 1024 intervals
+        for (int d = 0; d < 3; d++) {
+            boolean[] seen = new boolean[1024];
+            seen[0] = true;
+            for (int i = 0; i < data.length; i++) {
+                int c = (int) (data[i][d] * 1024);
+                assertFalse(seen[c]);
+                seen[c] = true;
+            }
+        }
+        // skipping ahead yields the same points
+        SobolSequence sobol = new SobolSequence(3);
+        sobol.skipTo(500);
+        double[] p = new double[3];
+        sobol.nextPoint(p, 0);
+        assertArrayEquals(data[499], p, 0.0);
+    }
+
+    @Test
+    public void testSobolSequenceFirstPoints() {
+        // worked out with the recurrence of Bratley and Fox from the initial
+        // direction numbers of the dimensions 2-7 of new-joe-kuo-6.21201; the
+        // first 16 points use all of m_1 .. m_4
+        double[][] expected = new double[][] {
+                { 0, 0, 0, 0, 0, 0, 0 },
+                { 8, 8, 8, 8, 8, 8, 8 },
+                { 12, 4, 4, 4, 12, 12, 4 },
+                { 4, 12, 12, 12, 4, 4, 12 },
+                { 6, 6, 10, 14, 6, 2, 6 },
+                { 14, 14, 2, 6, 14, 10, 14 },
+                { 10, 2, 14, 10, 10, 14, 2 },
+                { 2, 10, 6, 2, 2, 6, 10 },
+                { 3, 5, 15, 7, 9, 5, 7 },
+                { 11, 13, 7, 15, 1, 13, 15 },
+                { 15, 1, 11, 3, 5, 9, 3 },
+                { 7, 9, 3, 11, 13, 1, 11 },
+                { 5, 3, 5, 9, 15, 7, 1 },
+                { 13, 11, 13, 1, 7, 15, 9 },
+                { 9, 7, 1, 13, 3, 11, 5 },
+                { 1, 15, 9, 5, 11, 3, 13 },
+                };
+        SobolSequence sobol = new SobolSequence(7);
+        double[] p = new double[7];
+        for (int i = 0; i < expected.length; i++) {
+            sobol.nextPoint(p, 0);
+            for (int d = 0; d < 7; d++) assertEquals(expected[i][d] / 16, p[d], 0.0);
+        }
+    }
+
+    @Test
+    public void testSobolSequenceAllDimensions() {
+        int d = Math.min(SobolSequence.MAX_DIMENSIONS, 1000);
+        assertStratified(new SobolSequence(d), d, true);
+        assertStratified(new SobolSequence(d, new Random(42)), d, false);
+    }
+
+    @Test
+    public void testScrambledSobolSequenceSkipTo() {
+        int d = SobolSequence.MAX_DIMENSIONS;
+        SobolSequence a = new SobolSequence(d, new Random(1));
+        SobolSequence b = new SobolSequence(d, new Random(1));
+        double[] p = new double[d], q = new double[d];
+        for (int i = 0; i < 300; i++) a.nextPoint(p, 0);
+        b.skipTo(299);
+        b.nextPoint(q, 0);
+        assertArrayEquals(p, q, 0.0);
+    }
+
+    @Test
+    public void testDirectionNumbers() throws Exception {
+        String file = "d       s       a       m_i\n"
+                + "2       1       0       1 \n"
+                + "3       2       1       1 3 \n"
+                + "4       3       1       1 3 1 \n"
+                + "5       3       2       1 1 1 \n"
+                + "6       4       1       1 1 3 3 \n"
+                + "7       4       4       1 3 5 13 \n";
+        SobolSequence.DirectionNumbers numbers = SobolSequence.readDirectionNumbers(new BufferedReader(new StringReader(file)));
+        assertArrayEquals(SobolSequence.primitivePolynomials(6), numbers.polynomials);
+        for (int d = 0; d < 6; d++) assertArrayEquals(SobolSequence.INITIAL_DIRECTIONS[d], numbers.initial[d]);
+        // the file of Joe and Kuo has the built-in table as prefix
+        InputStream in = SobolSequence.class.getResourceAsStream(SobolSequence.DIRECTION_NUMBERS_RESOURCE);
+        if (in != null) {
+            try {
+                numbers = SobolSequence.readDirectionNumbers(new BufferedReader(new InputStreamReader(in, "US-ASCII")));
+            } finally {
+                in.close();
+            }
+            int n = SobolSequence.INITIAL_DIRECTIONS.length;
+            assertArrayEquals(SobolSequence.primitivePolynomials(n), Arrays.copyOf(numbers.polynomials, n));
+            for (int d = 0; d < n; d++) assertArrayEquals(SobolSequence.INITIAL_DIRECTIONS[d], numbers.initial[d]);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidDirectionNumbers() throws Exception {
+        // m_3 has to be odd
+        String file = "d s a m_i\n2 1 0 1\n3 2 1 1 3\n4 3 1 1 3 2\n";
+        SobolSequence.readDirectionNumbers(new BufferedReader(new StringReader(file)));
+    }
+
+    @Test
+    public void testHaltonSequenceFirstPoints() {
+        // nonzero digits a in base b are replaced by b - a
+        double[][] expected = new double[][] {
+                { 0, 0, 0 },
+                { 1 / 2., 2 / 3., 4 / 5. },
+                { 1 / 4., 1 / 3., 3 / 5. },
+                { 3 / 4., 2 / 9., 2 / 5. },
+                { 1 / 8., 8 / 9., 1 / 5. },
+                { 5 / 8., 5 / 9., 4 / 25. },
+                };
+        HaltonSequence halton = new HaltonSequence(3);
+        double[] p = new double[3];
+        for (int i = 0; i < expected.length; i++) {
+            halton.nextPoint(p, 0);
+            assertArrayEquals(expected[i], p, 1e-15);
+        }
+    }
+
+    @Test
+    public void testNativeSamplingSequenceManyDimensions() throws Exception {
+        // beyond the Sobol sequence: the first b points of the dimension with
+        // base b are the multiples of 1 / b
+        int dimensions = SobolSequence.MAX_DIMENSIONS + 10;
+        int[] bases = HaltonSequence.primes(dimensions);
+        double[][] data = new SamplingSequence().getSequence(dimensions, bases[dimensions - 1] - 1);
+        for (int d = 0; d < dimensions; d++) {
+            boolean[] seen = new boolean[bases[d]];
+            seen[0] = true;
+            for (int i = 0; i < bases[d] - 1; i++) {
+                int c = (int) Math.round(data[i][d] * bases[d]);
+                assertEquals(c, data[i][d] * bases[d], 1e-9);
+                assertFalse(seen[c]);
+                seen[c] = true;
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSobolSequenceTooManyDimensions() {
+        new SobolSequence(SobolSequence.MAX_DIMENSIONS + 1);
+    }
+
+    /**
+     * Each dimension of the first 1024 points is stratified into 1024
+     * intervals, which holds for the scrambled sequence as well. The
+     * unscrambled sequence starts at the origin.
+     */
+    private static void assertStratified(SobolSequence sobol, int d, boolean origin) {
+        double[][] data = sobol.nextPoints(1024);
+        for (int j = 0; j < d; j++) {
+            boolean[] seen = new boolean[1024];
+            for (int i = 0; i < data.length; i++) {
+                int c = (int) (data[i][j] * 1024);
+                assertFalse(seen[c]);
+                seen[c] = true;
+            }
+            if (origin) assertTrue(data[0][j] == 0.0);
+        }
+    }
 }
@@ -0,0 +1,205 @@
+package edacc.configurator.models.rf.fastrf;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the compiled trees with the predictions of Regtree and
+ * RegtreeFwd on random and fitted trees with categorical splits.
+ */
+public class FlatRegtreeTest {
+    /** configuration: continuous, categorical, continuous; instance: continuous, categorical */
+    private static final int[] CAT_DOMAIN_SIZES = new int[] { 0, 4, 0, 0, 3 };
+    private static final double[][] RANGES = new double[][] { { 0, 1 }, null, { -5, 5 }, { 0, 100 }, null };
+    private static final int THETA_COLS = 3;
+
+    @Test
+    public void testFwdRandomTrees() {
+        Random rng = new Random(1);
+        RandomTrees trees = new RandomTrees(rng, CAT_DOMAIN_SIZES, RANGES);
+        for (int t = 0; t < 50; t++) {
+            Regtree tree = trees.next(8, 0);
+            assertSameLeaves(tree, new FlatRegtree(tree), randomPoints(rng, 200, CAT_DOMAIN_SIZES.length));
+        }
+    }
+
+    @Test
+    public void testFwdFittedTrees() {
+        for (int logModel = 0; logModel <= 1; logModel++) {
+            Random rng = new Random(2 + logModel);
+            RandomForest forest = fittedForest(rng, logModel);
+            boolean categorical = false;
+            for (Regtree tree : forest.Trees) {
+                for (int n = 0; n < tree.numNodes; n++) categorical |= tree.var[n] < 0;
+            }
+            assertTrue(categorical);
+            double[][] X = randomPoints(rng, 300, CAT_DOMAIN_SIZES.length);
+            for (Regtree tree : forest.Trees) assertSameLeaves(tree, new FlatRegtree(tree), X);
+            assertPredictions(forest, X);
+        }
+    }
+
+    @Test
+    public void testApplyRandomForest() {
+        for (int logModel = 0; logModel <= 1; logModel++) {
+            Random rng = new Random(4 + logModel);
+            RandomForest forest = new RandomForest(10, logModel);
+            RandomTrees trees = new RandomTrees(rng, CAT_DOMAIN_SIZES, RANGES);
+            for (int t = 0; t < forest.numTrees; t++) forest.Trees[t] = trees.next(6, logModel);
+            assertPredictions(forest, randomPoints(rng, 100, CAT_DOMAIN_SIZES.length));
+        }
+    }
+
+    @Test
+    public void testMarginalPred() {
+        for (int logModel = 0; logModel <= 1; logModel++) {
+            Random rng = new Random(6 + logModel);
+            RandomForest forest = new RandomForest(8, logModel);
+            RandomTrees trees = new RandomTrees(rng, CAT_DOMAIN_SIZES, RANGES);
+            for (int t = 0; t < forest.numTrees; t++) {
+                forest.Trees[t] = trees.next(7, logModel);
+            }
+            assertMarginalPredictions(forest, rng);
+            assertMarginalPredictions(fittedForest(rng, logModel), rng);
+        }
+    }
+
+    /**
+     * A point falls into a leaf of the compiled tree with the prediction and
+     * variance of the leaf of the tree, or both reject it.
+     */
+    private static void assertSameLeaves(Regtree tree, FlatRegtree flat, double[][] X) {
+        for (double[] x : X) {
+            int leaf;
+            try {
+                leaf = RegtreeFwd.fwd(tree, new double[][] { x })[0];
+            } catch (RuntimeException e) {
+                try {
+                    flat.fwd(x);
+                    fail("missing value not rejected");
+                } catch (RuntimeException expected) {
+                }
+                continue;
+            }
+            int flatLeaf = flat.fwd(x);
+            assertEquals(tree.nodepred[leaf], flat.getLeafPred(flatLeaf), 0.0);
+            assertEquals(tree.nodevar[leaf], flat.getLeafVar(flatLeaf), 0.0);
+        }
+    }
+
+    /**
+     * RandomForest.apply, which uses the compiled trees, gives the mean and
+     * variance computed from the predictions of Regtree.apply.
+     */
+    private static void assertPredictions(RandomForest forest, double[][] X) {
+        double[][] expected = new double[X.length][2];
+        for (Regtree tree : forest.Trees) {
+            double[][] pred = Regtree.apply(tree, X);
+            for (int i = 0; i < X.length; i++) {
+                double p = forest.logModel > 0 ? Math.log10(pred[i][0]) : pred[i][0];
+                expected[i][0] += p;
+                expected[i][1] += pred[i][1] + p * p;
+            }
+        }
+        int n = forest.numTrees;
+        double[][] actual = RandomForest.apply(forest, X);
+        for (int i = 0; i < X.length; i++) {
+            double mean = expected[i][0] / n;
+            double var = (expected[i][1] / n - mean * mean) * n / Math.max(1, n - 1);
+            assertFalse(Double.isNaN(mean) || Double.isNaN(var));
+            assertEquals(mean, actual[i][0], 1e-12 * Math.max(1, Math.abs(mean)));
+            assertEquals(var, actual[i][1], 1e-9 * Math.max(1, Math.abs(var)));
+        }
+    }
+
+    /**
+     * The marginal predictions of the compiled preprocessed trees equal
+     * those of RegtreeFwd.marginalFwd, for every tree and for the forest.
+     */
+    private static void assertMarginalPredictions(RandomForest forest, Random rng) {
+        double[][] points = randomPoints(rng, 60, CAT_DOMAIN_SIZES.length);
+        double[][] theta = new double[points.length][];
+        double[][] instances = new double[20][];
+        for (int i = 0; i < theta.length; i++) theta[i] = Arrays.copyOf(points[i], THETA_COLS);
+        for (int k = 0; k < instances.length; k++) {
+            instances[k] = Arrays.copyOfRange(points[k], THETA_COLS, CAT_DOMAIN_SIZES.length);
+        }
+        RandomForest prepared = RandomForest.preprocessForest(forest, instances);
+        int[] queue = new int[1];
+        double[][] expected = new double[theta.length][2];
+        for (Regtree tree : prepared.Trees) {
+            FlatRegtree flat = new FlatRegtree(tree);
+            assertTrue(flat.preprocessed);
+            if (queue.length < flat.numNodes) queue = new int[flat.numNodes];
+            double[] pred = (double[]) RegtreeFwd.marginalFwd(tree, theta, null)[0];
+            for (int i = 0; i < theta.length; i++) {
+                double flatPred = flat.marginalPred(theta[i], queue);
+                assertEquals(pred[i], flatPred, 1e-12 * Math.max(1, Math.abs(pred[i])));
+                double p = forest.logModel > 0 ? Math.log10(pred[i]) : pred[i];
+                expected[i][0] += p;
+                expected[i][1] += p * p;
+            }
+        }
+        int n = forest.numTrees;
+        int[] used = new int[n];
+        for (int t = 0; t < n; t++) used[t] = t;
+        double[][] actual = RandomForest.applyMarginal(prepared, used, theta);
+        for (int i = 0; i < theta.length; i++) {
+            double mean = expected[i][0] / n;
+            double var = (expected[i][1] / n - mean * mean) * n / Math.max(1, n - 1);
+            assertFalse(Double.isNaN(mean) || Double.isNaN(var));
+            assertEquals(mean, actual[i][0], 1e-12 * Math.max(1, Math.abs(mean)));
+            assertEquals(var, actual[i][1], 1e-9 * Math.max(1, Math.abs(var)));
+        }
+    }
+
+    /**
+     * A forest fitted to random runs of 30 configurations on 10 instances,
+     * so the trees split on configuration and instance variables.
+     */
+    private static RandomForest fittedForest(Random rng, int logModel) {
+        double[][] allTheta = new double[30][];
+        double[][] allX = new double[10][];
+        double[][] points = randomPoints(rng, allTheta.length, CAT_DOMAIN_SIZES.length);
+        for (int i = 0; i < allTheta.length; i++) allTheta[i] = Arrays.copyOf(points[i], THETA_COLS);
+        for (int k = 0; k < allX.length; k++) {
+            allX[k] = Arrays.copyOfRange(points[k], THETA_COLS, CAT_DOMAIN_SIZES.length);
+        }
+        int numRuns = 200;
+        int[][] theta_inst_idxs = new int[numRuns][];
+        double[] y = new double[numRuns];
+        for (int r = 0; r < numRuns; r++) {
+            int c = rng.nextInt(allTheta.length), k = rng.nextInt(allX.length);
+            theta_inst_idxs[r] = new int[] { c, k };
+            double v = 1 + allTheta[c][0] * 10 + allTheta[c][1] * allX[k][1] + allX[k][0] / 20 + rng.nextDouble();
+            y[r] = logModel > 0 ? Math.log10(v) : v;
+        }
+        RegtreeBuildParams params = new RegtreeBuildParams();
+        params.catDomainSizes = CAT_DOMAIN_SIZES;
+        params.splitMin = 2;
+        params.ratioFeatures = 1;
+        params.logModel = logModel;
+        params.random = rng;
+        return RandomForest.learnModel(10, allTheta, allX, theta_inst_idxs, y, params);
+    }
+
+    private static double[][] randomPoints(Random rng, int n, int d) {
+        double[][] X = new double[n][d];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++) {
+                if (CAT_DOMAIN_SIZES[j] > 0) {
+                    X[i][j] = 1 + rng.nextInt(CAT_DOMAIN_SIZES[j]);
+                } else {
+                    // on a cut point of the random trees in a quarter of the cases
+                    double lo = RANGES[j][0], hi = RANGES[j][1];
+                    X[i][j] = rng.nextInt(4) == 0 ? lo + rng.nextInt(9) * (hi - lo) / 8 : lo + rng.nextDouble() * (hi - lo);
+                }
+            }
+        }
+        return X;
+    }
+}
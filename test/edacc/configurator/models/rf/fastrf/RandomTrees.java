@@ -0,0 +1,103 @@
+package edacc.configurator.models.rf.fastrf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random regression trees for tests. Continuous splits cut at multiples of
+ * 1/8 of the range of the variable, some of them outside of the range;
+ * categorical splits send every value left or right at random. Every leaf
+ * holds 1 to 3 positive responses, so the trees can be used with a
+ * logarithmic model.
+ */
+public class RandomTrees {
+    private final Random rng;
+    private final int[] catDomainSizes;
+    private final double[][] ranges;
+
+    private List<Integer> var = new ArrayList<Integer>();
+    private List<Double> cut = new ArrayList<Double>();
+    private List<int[]> children = new ArrayList<int[]>();
+    private List<Integer> parent = new ArrayList<Integer>();
+    private List<double[]> responses = new ArrayList<double[]>();
+    private List<int[]> catsplits = new ArrayList<int[]>();
+
+    /**
+     * @param rng
+     * @param catDomainSizes domain size of each categorical variable
+     *        (values 1 through size), 0 for continuous variables
+     * @param ranges lower and upper bound of each continuous variable
+     */
+    public RandomTrees(Random rng, int[] catDomainSizes, double[][] ranges) {
+        this.rng = rng;
+        this.catDomainSizes = catDomainSizes;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Returns a random tree of depth at most <code>maxDepth</code>.
+     */
+    public Regtree next(int maxDepth, int logModel) {
+        var.clear();
+        cut.clear();
+        children.clear();
+        parent.clear();
+        responses.clear();
+        catsplits.clear();
+        grow(-1, maxDepth);
+
+        int numNodes = var.size();
+        Regtree tree = new Regtree(numNodes, catsplits.size(), false, logModel);
+        tree.npred = catDomainSizes.length;
+        for (int n = 0; n < numNodes; n++) {
+            tree.node[n] = n;
+            tree.parent[n] = parent.get(n);
+            tree.var[n] = var.get(n);
+            tree.cut[n] = cut.get(n);
+            tree.children[n] = children.get(n);
+            double[] y = responses.get(n);
+            if (y != null) {
+                tree.nodesize[n] = y.length;
+                for (double v : y) {
+                    tree.ysub[n][0] += v;
+                    tree.ysub[n][1] += v * v;
+                }
+            }
+        }
+        for (int c = 0; c < catsplits.size(); c++) tree.catsplit[c] = catsplits.get(c);
+        tree.recalculateStats();
+        return tree;
+    }
+
+    private int grow(int parentNode, int depth) {
+        int n = var.size();
+        var.add(0);
+        cut.add(0.);
+        children.add(new int[2]);
+        parent.add(parentNode);
+        responses.add(null);
+        if (depth == 0 || rng.nextInt(4) == 0) {
+            double[] y = new double[1 + rng.nextInt(3)];
+            for (int k = 0; k < y.length; k++) y[k] = 0.5 + 10 * rng.nextDouble();
+            responses.set(n, y);
+            return n;
+        }
+        int i = rng.nextInt(catDomainSizes.length);
+        if (catDomainSizes[i] > 0) {
+            int[] split = new int[catDomainSizes[i]];
+            for (int x = 0; x < split.length; x++) split[x] = rng.nextInt(2);
+            var.set(n, -(i + 1));
+            cut.set(n, (double) catsplits.size());
+            catsplits.add(split);
+        } else {
+            double lo = ranges[i][0], hi = ranges[i][1];
+            var.set(n, i + 1);
+            cut.set(n, lo + (rng.nextInt(11) - 1) * (hi - lo) / 8);
+        }
+        int left = grow(n, depth - 1);
+        int right = grow(n, depth - 1);
+        children.set(n, new int[] { left, right });
+        return n;
+    }
+}